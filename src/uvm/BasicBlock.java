@@ -1,17 +1,47 @@
 package uvm;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import uvm.ssavalue.Instruction;
 
+/**
+ * A basic block. It contains a list of instructions, the last of which is the
+ * terminator.
+ * <p>
+ * Each block also keeps its control flow edges. The successor list has one
+ * entry for each destination of the instructions in this block, and the
+ * predecessor list has one entry for each such edge into this block, so a
+ * block may appear more than once (e.g. "BRANCH2 %c %a %a"). The edges are
+ * maintained when instructions are added by
+ * {@link #addInstruction(Instruction)}, removed by
+ * {@link #removeInstruction(Instruction)} and when destinations of those
+ * instructions are changed by their setters. The successor list is in the
+ * order of the instructions and of their destinations as reported by
+ * {@link Instruction#getSuccessors()}.
+ * <p>
+ * An instruction belongs to at most one block, which is its parent. A block
+ * may also list instructions owned by another block, e.g. the reduced CFG of
+ * PhiReducer shares non-branching instructions with the original CFG. Those
+ * are added by {@link #addSharedInstruction(Instruction)}, which leaves their
+ * parent alone.
+ */
 public class BasicBlock implements IdentifiedSettable {
     private int id;
     private String name;
 
+    /**
+     * The dense index of this block in its CFG. See {@link CFG#renumber()}.
+     */
+    private int index = -1;
+
     private CFG cfg;
     private List<Instruction> insts = new ArrayList<Instruction>();
 
+    private List<BasicBlock> preds = new ArrayList<BasicBlock>();
+    private List<BasicBlock> succs = new ArrayList<BasicBlock>();
+
     public BasicBlock(CFG cfg) {
         this.cfg = cfg;
     }
@@ -35,17 +65,144 @@ public class BasicBlock implements IdentifiedSettable {
     public void setName(String name) {
         this.name = name;
     }
-    
+
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
     public CFG getCfg() {
         return cfg;
     }
 
+    /**
+     * Append an instruction, set its parent to this block and add the control
+     * flow edges to its destinations.
+     *
+     * @throws IllegalArgumentException
+     *             if the instruction is already in a block.
+     */
     public void addInstruction(Instruction i) {
+        if (i.getParent() != null) {
+            throw new IllegalArgumentException("Instruction "
+                    + IdentifiedHelper.repr(i) + " is already in block "
+                    + IdentifiedHelper.repr(i.getParent()));
+        }
         this.insts.add(i);
+        i.setParent(this);
+        if (cfg != null) {
+            cfg.layoutChanged();
+        }
+        List<BasicBlock> dests = i.getSuccessors();
+        for (BasicBlock succ : dests) {
+            succ.preds.add(this);
+        }
+        if (!dests.isEmpty()) {
+            succs.addAll(dests);
+            edgesChanged();
+        }
+    }
+
+    /**
+     * Append an instruction owned by another block. Its parent is not changed,
+     * so {@link Instruction#getParent()} and {@link Instruction#eraseFromParent()}
+     * still refer to the owner. Only instructions without destinations may be
+     * shared, as their edges belong to the owner.
+     *
+     * @throws IllegalArgumentException
+     *             if the instruction has destinations.
+     */
+    public void addSharedInstruction(Instruction i) {
+        if (!i.getSuccessors().isEmpty()) {
+            throw new IllegalArgumentException("Branching instruction "
+                    + IdentifiedHelper.repr(i) + " cannot be shared");
+        }
+        this.insts.add(i);
+        if (cfg != null) {
+            cfg.layoutChanged();
+        }
+    }
+
+    /**
+     * Remove an instruction, clear its parent and remove the control flow edges
+     * to its destinations.
+     */
+    public void removeInstruction(Instruction i) {
+        if (!this.insts.remove(i)) {
+            throw new IllegalArgumentException("Instruction " + i
+                    + " is not in block " + IdentifiedHelper.repr(this));
+        }
+        if (cfg != null) {
+            cfg.layoutChanged();
+        }
+        List<BasicBlock> dests = i.getSuccessors();
+        for (BasicBlock succ : dests) {
+            succ.preds.remove(this);
+        }
+        if (!dests.isEmpty()) {
+            rebuildSuccessors();
+        }
+        if (i.getParent() == this) {
+            i.setParent(null);
+        }
     }
 
+    /**
+     * Get the instruction list. Instructions added to or removed from this list
+     * directly do not update control flow edges.
+     */
     public List<Instruction> getInsts() {
         return insts;
     }
 
+    /**
+     * @return An unmodifiable view of the predecessors.
+     */
+    public List<BasicBlock> getPredecessors() {
+        return Collections.unmodifiableList(preds);
+    }
+
+    /**
+     * @return An unmodifiable view of the successors.
+     */
+    public List<BasicBlock> getSuccessors() {
+        return Collections.unmodifiableList(succs);
+    }
+
+    /**
+     * Update the edges after a destination of an instruction in this block
+     * changed from oldSucc to newSucc, either of which may be null. Called by
+     * Instruction once the destination field holds newSucc.
+     */
+    public void destinationChanged(BasicBlock oldSucc, BasicBlock newSucc) {
+        if (oldSucc != null) {
+            oldSucc.preds.remove(this);
+        }
+        if (newSucc != null) {
+            newSucc.preds.add(this);
+        }
+        rebuildSuccessors();
+    }
+
+    /**
+     * Collect the successors from the instructions again, so that they follow
+     * the destination fields even when a block appears more than once.
+     */
+    private void rebuildSuccessors() {
+        succs.clear();
+        for (Instruction i : insts) {
+            succs.addAll(i.getSuccessors());
+        }
+        edgesChanged();
+    }
+
+    private void edgesChanged() {
+        if (cfg != null) {
+            cfg.modified();
+        }
+    }
+
 }
@@ -40,6 +40,12 @@ public class Bundle {
      */
     private Namespace<Function> funcNs = new SimpleNamespace<Function>();
 
+    /**
+     * Anonymous int/float/double constants shared by in-line literals. Every
+     * pooled constant is also in globalValueNs and declaredConstNs.
+     */
+    private ConstantPool constantPool = new ConstantPool();
+
     public Namespace<Type> getTypeNs() {
         return typeNs;
     }
@@ -64,6 +70,10 @@ public class Bundle {
         return funcNs;
     }
 
+    public ConstantPool getConstantPool() {
+        return constantPool;
+    }
+
     private <T extends Identified> void simpleMerge(Namespace<T> nsDst,
             Namespace<T> nsSrc) {
         for (int id : nsSrc.getIDSet()) {
@@ -83,7 +93,11 @@ public class Bundle {
             Function oldFunc = nsDst.getByID(id);
             Function newFunc = nsSrc.getByID(id);
             if (oldFunc != null) {
-                oldFunc.setCFG(newFunc.getCFG());
+                CFG cfg = newFunc.getCFG();
+                if (cfg != null) {
+                    cfg.setFunc(oldFunc);
+                }
+                oldFunc.setCFG(cfg);
             } else {
                 String name = newFunc.getName();
                 nsDst.put(id, name, newFunc);
@@ -98,6 +112,7 @@ public class Bundle {
         simpleMerge(declaredConstNs, bundle.declaredConstNs);
         simpleMerge(globalDataNs, bundle.globalDataNs);
         mergeFuncs(funcNs, bundle.funcNs);
+        constantPool.addAll(bundle.constantPool);
     }
 
 }
@@ -1,14 +1,26 @@
 package uvm;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
+import uvm.analysis.DominatorTree;
+import uvm.analysis.LoopNest;
 import uvm.ssavalue.Instruction;
 import uvm.ssavalue.Parameter;
+import uvm.util.IntList;
 
 /**
  * A CFG (Control Flow Graph) is the body of a Function. It has many basic
  * blocks which then contains many instructions.
+ * <p>
+ * The blocks and the local values (parameters and instructions) of a CFG are
+ * numbered densely, so that passes can keep side tables in arrays indexed by
+ * {@link BasicBlock#getIndex()} and {@link Instruction#getValueIndex()}
+ * (which parameters inherit) instead of hash maps. See
+ * {@link #ensureNumbered()}.
  */
 public class CFG {
     /**
@@ -41,6 +53,43 @@ public class CFG {
      */
     private Namespace<Instruction> instNs = new SimpleNamespace<Instruction>();
 
+    /**
+     * Incremented whenever a control flow edge or the entry changes. Cached
+     * analyses record the count they were computed at.
+     */
+    private int modCount = 0;
+
+    /**
+     * Incremented whenever anything changes through BasicBlock, Instruction
+     * and Value methods: edges, the entry, the instruction lists of blocks and
+     * operands. Cached lowerings record the count they were made at.
+     */
+    private int editCount = 0;
+
+    /**
+     * False when blocks or instructions have changed since the last call to
+     * {@link #renumber()}, or when another CFG sharing instructions with this
+     * one has renumbered them.
+     */
+    private boolean numberingValid = false;
+    private int numberedBlocks;
+    private int numberedParams;
+    private int numValueIndices;
+
+    /**
+     * Cached reverse postorder and the modCount it was computed at.
+     */
+    private List<BasicBlock> rpo;
+    private int rpoModCount;
+
+    /**
+     * Cached dominator tree and loop nest, valid while their modCount matches.
+     */
+    private DominatorTree domTree;
+    private int domTreeModCount;
+    private LoopNest loopNest;
+    private int loopNestModCount;
+
     public Function getFunc() {
         return func;
     }
@@ -67,6 +116,7 @@ public class CFG {
 
     public void setEntry(BasicBlock entry) {
         this.entry = entry;
+        modified();
     }
 
     public Namespace<BasicBlock> getBBNs() {
@@ -76,4 +126,265 @@ public class CFG {
     public Namespace<Instruction> getInstNs() {
         return instNs;
     }
+
+    /**
+     * @return A counter which changes whenever the control flow of this CFG
+     *         changes.
+     */
+    public int getModCount() {
+        return modCount;
+    }
+
+    /**
+     * @return A counter which changes whenever the control flow, the
+     *         instructions or their operands change.
+     */
+    public int getEditCount() {
+        return editCount;
+    }
+
+    /**
+     * Record that the control flow changed, invalidating cached analyses.
+     * Called automatically when edges or the entry change. The numbering does
+     * not depend on edges and stays valid.
+     */
+    public void modified() {
+        modCount++;
+        editCount++;
+    }
+
+    /**
+     * Record that instructions were added or removed. Called by BasicBlock.
+     */
+    void layoutChanged() {
+        numberingValid = false;
+        editCount++;
+    }
+
+    /**
+     * Record that the operands of an instruction changed. Called automatically
+     * when a UseBox is retargeted. The control flow, and so the cached
+     * analyses, stay valid.
+     */
+    public void operandsChanged() {
+        editCount++;
+    }
+
+    /**
+     * Number the blocks and local values densely. Blocks are numbered by their
+     * positions in getBBs(). Parameters are numbered 0 to getParams().size()-1
+     * and instructions follow in block order. An instruction object which
+     * appears more than once (as in the output of PhiReducer) gets one index.
+     * <p>
+     * Call this after editing getBBs(), getParams() or the instruction list of
+     * a block directly. Changes made through BasicBlock and Instruction
+     * methods are noticed by {@link #ensureNumbered()}.
+     * <p>
+     * Parameters and instructions shared with another CFG (the output of
+     * PhiReducer shares them with its input) hold the indices from whichever
+     * CFG was numbered last. Renumbering takes them over and invalidates the
+     * numbering of the CFG which numbered them before, so that its next
+     * {@link #ensureNumbered()} renumbers. Indices read from a CFG are
+     * therefore valid until a CFG sharing its values is numbered.
+     * <p>
+     * If any block gets a different index, the cached reverse postorder,
+     * dominator tree and loop nest are dropped, since they are indexed by
+     * block.
+     */
+    public void renumber() {
+        boolean blocksMoved = numberedBlocks != bbs.size();
+        for (int b = 0; b < bbs.size(); b++) {
+            BasicBlock bb = bbs.get(b);
+            if (bb.getIndex() != b) {
+                blocksMoved = true;
+                bb.setIndex(b);
+            }
+            for (Instruction inst : bb.getInsts()) {
+                takeOver(inst);
+                inst.setValueIndex(this, -1);
+            }
+        }
+        int v = 0;
+        for (Parameter param : params) {
+            takeOver(param);
+            param.setValueIndex(this, v++);
+        }
+        for (BasicBlock bb : bbs) {
+            for (Instruction inst : bb.getInsts()) {
+                if (inst.getValueIndex() == -1) {
+                    inst.setValueIndex(this, v++);
+                }
+            }
+        }
+        numValueIndices = v;
+        numberedBlocks = bbs.size();
+        numberedParams = params.size();
+        numberingValid = true;
+        if (blocksMoved) {
+            rpo = null;
+            domTree = null;
+            loopNest = null;
+        }
+    }
+
+    /**
+     * Invalidate the numbering of the CFG which last numbered inst, if it is
+     * not this one.
+     */
+    private void takeOver(Instruction inst) {
+        CFG owner = inst.getValueIndexOwner();
+        if (owner != null && owner != this) {
+            owner.numberingValid = false;
+        }
+    }
+
+    /**
+     * Renumber if blocks or instructions have changed since the last
+     * numbering, or if another CFG has numbered shared instructions since.
+     */
+    public void ensureNumbered() {
+        if (!numberingValid || numberedBlocks != bbs.size()
+                || numberedParams != params.size()) {
+            renumber();
+        }
+    }
+
+    /**
+     * @return The number of block indices, i.e. the size of a side table
+     *         indexed by block.
+     */
+    public int getNumBlockIndices() {
+        ensureNumbered();
+        return numberedBlocks;
+    }
+
+    /**
+     * @return The number of value indices, i.e. the size of a side table
+     *         indexed by parameter or instruction.
+     */
+    public int getNumValueIndices() {
+        ensureNumbered();
+        return numValueIndices;
+    }
+
+    /**
+     * Get the index of a block, checking that it is in this CFG.
+     *
+     * @return The index, or -1 if bb is not in getBBs().
+     */
+    public int indexOf(BasicBlock bb) {
+        ensureNumbered();
+        int i = bb.getIndex();
+        return i >= 0 && i < bbs.size() && bbs.get(i) == bb ? i : -1;
+    }
+
+    /**
+     * Get the blocks reachable from the entry in reverse postorder. The result
+     * is cached until the control flow or the block numbering changes.
+     *
+     * @return An unmodifiable list. Empty if there is no entry.
+     */
+    public List<BasicBlock> getReversePostOrder() {
+        ensureNumbered();
+        if (rpo == null || rpoModCount != modCount) {
+            rpo = Collections.unmodifiableList(computeReversePostOrder());
+            rpoModCount = modCount;
+        }
+        return rpo;
+    }
+
+    /**
+     * Get the dominator tree. The result is cached until the control flow
+     * or the block numbering changes.
+     */
+    public DominatorTree getDominatorTree() {
+        ensureNumbered();
+        if (domTree == null || domTreeModCount != modCount) {
+            domTree = new DominatorTree(this);
+            domTreeModCount = modCount;
+        }
+        return domTree;
+    }
+
+    /**
+     * Get the natural-loop nesting forest. The result is cached until the
+     * control flow or the block numbering changes.
+     */
+    public LoopNest getLoopNest() {
+        ensureNumbered();
+        if (loopNest == null || loopNestModCount != modCount) {
+            loopNest = new LoopNest(this, getDominatorTree());
+            loopNestModCount = modCount;
+        }
+        return loopNest;
+    }
+
+    /**
+     * An iterative depth-first search, so that deep CFGs do not overflow the
+     * Java stack.
+     */
+    private List<BasicBlock> computeReversePostOrder() {
+        List<BasicBlock> postOrder = new ArrayList<BasicBlock>(bbs.size());
+        if (entry == null) {
+            return postOrder;
+        }
+
+        boolean[] visited = new boolean[getNumBlockIndices()];
+        // Blocks reached by edges but missing from getBBs().
+        Set<BasicBlock> strays = new HashSet<BasicBlock>();
+        List<BasicBlock> stack = new ArrayList<BasicBlock>();
+        IntList nextSucc = new IntList();
+
+        markVisited(entry, visited, strays);
+        stack.add(entry);
+        nextSucc.add(0);
+
+        while (!stack.isEmpty()) {
+            int top = stack.size() - 1;
+            BasicBlock bb = stack.get(top);
+            List<BasicBlock> succs = bb.getSuccessors();
+            int i = nextSucc.get(top);
+            if (i < succs.size()) {
+                nextSucc.set(top, i + 1);
+                BasicBlock succ = succs.get(i);
+                if (markVisited(succ, visited, strays)) {
+                    stack.add(succ);
+                    nextSucc.add(0);
+                }
+            } else {
+                stack.remove(top);
+                nextSucc.pop();
+                postOrder.add(bb);
+            }
+        }
+
+        Collections.reverse(postOrder);
+        return postOrder;
+    }
+
+    /**
+     * @return true if bb was not visited before.
+     */
+    private boolean markVisited(BasicBlock bb, boolean[] visited,
+            Set<BasicBlock> strays) {
+        int i = indexOf(bb);
+        if (i < 0) {
+            return strays.add(bb);
+        }
+        if (visited[i]) {
+            return false;
+        }
+        visited[i] = true;
+        return true;
+    }
+
+    /**
+     * Create an immutable compact copy of this CFG for passes that only read
+     * it. Later changes to this CFG are not reflected in the result.
+     *
+     * @return a new FrozenCFG.
+     */
+    public FrozenCFG freeze() {
+        return new FrozenCFG(this);
+    }
 }
@@ -0,0 +1,168 @@
+package uvm;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import uvm.ssavalue.Constant;
+import uvm.ssavalue.DoubleConstant;
+import uvm.ssavalue.FloatConstant;
+import uvm.ssavalue.IntConstant;
+import uvm.type.Int;
+import uvm.type.Type;
+
+/**
+ * A per-bundle pool of anonymous scalar constants (int, float and double).
+ * <p>
+ * In-line literals such as the "1" in "ADD &lt;@i64&gt; %x 1" do not have
+ * names. Two such literals are interchangeable if their types are structurally
+ * equal and they have the same bit pattern, so they can share one Constant
+ * object and one ID.
+ * <p>
+ * Constants are keyed by the canonical form of their type (int&lt;n&gt; by n,
+ * float and double by kind) rather than by the Type object, because the text
+ * form creates a fresh Type object for every in-line type expression. Floating
+ * point values are compared by their raw bits, so NaNs with different payloads
+ * and 0.0/-0.0 remain distinct.
+ * <p>
+ * Named constants (declared by ".const") must never be put into this pool.
+ */
+public class ConstantPool {
+    private static final int KIND_INT = 0;
+    private static final int KIND_FLOAT = 1;
+    private static final int KIND_DOUBLE = 2;
+
+    private Map<Key, Constant> pool = new HashMap<Key, Constant>();
+
+    /**
+     * Look up an int constant.
+     *
+     * @return The pooled constant, or null if no such constant is pooled.
+     */
+    public IntConstant getInt(Int type, long value) {
+        return (IntConstant) pool.get(new Key(KIND_INT, type.getSize(), value));
+    }
+
+    /**
+     * Look up a float constant.
+     *
+     * @return The pooled constant, or null if no such constant is pooled.
+     */
+    public FloatConstant getFloat(float value) {
+        return (FloatConstant) pool.get(new Key(KIND_FLOAT, 0, Float
+                .floatToRawIntBits(value)));
+    }
+
+    /**
+     * Look up a double constant.
+     *
+     * @return The pooled constant, or null if no such constant is pooled.
+     */
+    public DoubleConstant getDouble(double value) {
+        return (DoubleConstant) pool.get(new Key(KIND_DOUBLE, 0, Double
+                .doubleToRawLongBits(value)));
+    }
+
+    /**
+     * Add a constant to this pool unless an equal constant is already pooled.
+     * Constants other than IntConstant, FloatConstant and DoubleConstant, as
+     * well as constants whose types are not resolved yet, are ignored.
+     *
+     * @param constant
+     *            The constant. It must already have an ID.
+     * @return The constant in the pool after adding, which is either the given
+     *         constant or a previously pooled equal constant.
+     */
+    public Constant add(Constant constant) {
+        Key key = keyOf(constant);
+        if (key == null) {
+            return constant;
+        }
+        Constant old = pool.get(key);
+        if (old != null) {
+            return old;
+        }
+        pool.put(key, constant);
+        return constant;
+    }
+
+    /**
+     * Remove a constant from this pool if it is the pooled one.
+     *
+     * @return true if it was removed.
+     */
+    public boolean remove(Constant constant) {
+        Key key = keyOf(constant);
+        if (key == null || pool.get(key) != constant) {
+            return false;
+        }
+        pool.remove(key);
+        return true;
+    }
+
+    /**
+     * Add all constants from another pool. Existing entries take precedence.
+     */
+    public void addAll(ConstantPool other) {
+        for (Map.Entry<Key, Constant> e : other.pool.entrySet()) {
+            if (!pool.containsKey(e.getKey())) {
+                pool.put(e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    /**
+     * @return The number of pooled constants.
+     */
+    public int size() {
+        return pool.size();
+    }
+
+    private static Key keyOf(Constant constant) {
+        Type type = constant.getType();
+        if (type == null) {
+            return null;
+        }
+        if (constant instanceof IntConstant) {
+            IntConstant c = (IntConstant) constant;
+            return new Key(KIND_INT, c.getType().getSize(), c.getValue());
+        } else if (constant instanceof FloatConstant) {
+            FloatConstant c = (FloatConstant) constant;
+            return new Key(KIND_FLOAT, 0, Float.floatToRawIntBits(c
+                    .getValue()));
+        } else if (constant instanceof DoubleConstant) {
+            DoubleConstant c = (DoubleConstant) constant;
+            return new Key(KIND_DOUBLE, 0, Double.doubleToRawLongBits(c
+                    .getValue()));
+        } else {
+            return null;
+        }
+    }
+
+    private static class Key {
+        final int kind;
+        final int size;
+        final long bits;
+
+        Key(int kind, int size, long bits) {
+            this.kind = kind;
+            this.size = size;
+            this.bits = bits;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key that = (Key) o;
+            return kind == that.kind && size == that.size && bits == that.bits;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = kind;
+            result = 31 * result + size;
+            result = 31 * result + (int) (bits ^ (bits >>> 32));
+            return result;
+        }
+    }
+}
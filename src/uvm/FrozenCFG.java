@@ -0,0 +1,755 @@
+package uvm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import uvm.ssavalue.Constant;
+import uvm.ssavalue.DoubleConstant;
+import uvm.ssavalue.FloatConstant;
+import uvm.ssavalue.FunctionConstant;
+import uvm.ssavalue.GlobalDataConstant;
+import uvm.ssavalue.InstAlloca;
+import uvm.ssavalue.InstAllocaHybrid;
+import uvm.ssavalue.InstAtomicRMW;
+import uvm.ssavalue.InstBinOp;
+import uvm.ssavalue.InstBranch;
+import uvm.ssavalue.InstBranch2;
+import uvm.ssavalue.InstCCall;
+import uvm.ssavalue.InstCall;
+import uvm.ssavalue.InstCmp;
+import uvm.ssavalue.InstCmpXchg;
+import uvm.ssavalue.InstConversion;
+import uvm.ssavalue.InstExtractValue;
+import uvm.ssavalue.InstFence;
+import uvm.ssavalue.InstGetElemIRef;
+import uvm.ssavalue.InstGetFieldIRef;
+import uvm.ssavalue.InstGetFixedPartIRef;
+import uvm.ssavalue.InstGetIRef;
+import uvm.ssavalue.InstGetVarPartIRef;
+import uvm.ssavalue.InstICall;
+import uvm.ssavalue.InstIInvoke;
+import uvm.ssavalue.InstInsertValue;
+import uvm.ssavalue.InstInvoke;
+import uvm.ssavalue.InstLandingPad;
+import uvm.ssavalue.InstLoad;
+import uvm.ssavalue.InstNew;
+import uvm.ssavalue.InstNewHybrid;
+import uvm.ssavalue.InstNewStack;
+import uvm.ssavalue.InstPhi;
+import uvm.ssavalue.InstRet;
+import uvm.ssavalue.InstRetVoid;
+import uvm.ssavalue.InstSelect;
+import uvm.ssavalue.InstShiftIRef;
+import uvm.ssavalue.InstStore;
+import uvm.ssavalue.InstSwitch;
+import uvm.ssavalue.InstTailCall;
+import uvm.ssavalue.InstThrow;
+import uvm.ssavalue.InstTrap;
+import uvm.ssavalue.InstWatchPoint;
+import uvm.ssavalue.Instruction;
+import uvm.ssavalue.IntConstant;
+import uvm.ssavalue.NullConstant;
+import uvm.ssavalue.Parameter;
+import uvm.ssavalue.StructConstant;
+import uvm.ssavalue.UseBox;
+import uvm.ssavalue.Value;
+import uvm.ssavalue.ValueVisitor;
+import uvm.type.Type;
+import uvm.util.ErrorUtils;
+import uvm.util.IntList;
+
+/**
+ * An immutable, compact encoding of a {@link CFG} in the struct-of-arrays form.
+ * Created by {@link CFG#freeze()}.
+ * <p>
+ * Instructions are numbered by their positions (0 to getNumInsts()-1) in block
+ * order. Blocks are numbered by their positions in CFG.getBBs(). Local values
+ * are numbered densely: the parameters come first (0 to getNumParams()-1),
+ * followed by each distinct instruction ID in the order it first appears.
+ * Normally every instruction defines its own local, but in the output of
+ * PhiReducer several instructions (possibly the same object in several
+ * blocks) carry the same ID and assign to the same variable, in which case
+ * all those positions define the same local.
+ * <p>
+ * Each instruction has four variable-length fields, each a slice of a flat
+ * array:
+ * <ul>
+ * <li>operands: the SSA Values used. A non-negative operand is a local number.
+ * A negative operand refers to a global value (constant, function or global
+ * data) and is decoded with {@link #getGlobal(int)}.</li>
+ * <li>targets: destination block numbers. For PHI, the incoming block of each
+ * operand. For SWITCH, the default destination followed by the destination of
+ * each case (operand 1 onwards).</li>
+ * <li>type arguments: the types, function signatures or intrinsic functions
+ * written between angle brackets in the text form.</li>
+ * <li>immediates: other integer fields, such as field indices, watch point
+ * IDs, atomic orderings and calling conventions, encoded by their opcodes.</li>
+ * </ul>
+ * The order within each field follows the binary form, i.e.
+ * uvm.ir.binary.output.ValueWriter.
+ * <p>
+ * The frozen form does not refer to any Instruction, Parameter or BasicBlock
+ * objects, so the CFG can be dropped once it is frozen.
+ */
+public class FrozenCFG {
+    private final Function func;
+
+    private final int numParams;
+    private final int entry;
+
+    // Per block
+
+    private final int[] blockStart;
+    private final int[] blockIDs;
+    private final String[] blockNames;
+
+    // Per local value
+
+    private final Type[] localTypes;
+    private final int[] localIDs;
+    private final String[] localNames;
+
+    // Per instruction
+
+    private final byte[] opcodes;
+    private final int[] defs;
+
+    private final int[] operandStart;
+    private final int[] operands;
+    private final int[] targetStart;
+    private final int[] targets;
+    private final int[] typeArgStart;
+    private final Identified[] typeArgs;
+    private final int[] immStart;
+    private final int[] imms;
+
+    /**
+     * Global values referred to by operands.
+     */
+    private final Value[] globals;
+
+    FrozenCFG(CFG cfg) {
+        func = cfg.getFunc();
+
+        Encoder enc = new Encoder();
+
+        List<Parameter> params = cfg.getParams();
+        numParams = params.size();
+        for (Parameter param : params) {
+            enc.newLocal(param);
+        }
+
+        List<BasicBlock> bbs = cfg.getBBs();
+        int nBlocks = bbs.size();
+        blockIDs = new int[nBlocks];
+        blockNames = new String[nBlocks];
+        for (int b = 0; b < nBlocks; b++) {
+            BasicBlock bb = bbs.get(b);
+            blockIDs[b] = bb.getID();
+            blockNames[b] = bb.getName();
+        }
+        enc.cfg = cfg;
+        entry = cfg.getEntry() == null ? -1 : cfg.indexOf(cfg.getEntry());
+
+        // Number all locals before encoding any operand, because operands may
+        // refer to instructions in later blocks.
+        int nInsts = 0;
+        for (BasicBlock bb : bbs) {
+            for (Instruction inst : bb.getInsts()) {
+                if (!enc.localNums.containsKey(inst.getID())) {
+                    enc.newLocal(inst);
+                }
+                nInsts++;
+            }
+        }
+
+        blockStart = new int[nBlocks + 1];
+        opcodes = new byte[nInsts];
+        defs = new int[nInsts];
+        operandStart = new int[nInsts + 1];
+        targetStart = new int[nInsts + 1];
+        typeArgStart = new int[nInsts + 1];
+        immStart = new int[nInsts + 1];
+
+        int i = 0;
+        for (int b = 0; b < nBlocks; b++) {
+            blockStart[b] = i;
+            for (Instruction inst : bbs.get(b).getInsts()) {
+                opcodes[i] = (byte) inst.opcode();
+                defs[i] = enc.localNums.get(inst.getID());
+                operandStart[i] = enc.operands.size();
+                targetStart[i] = enc.targets.size();
+                typeArgStart[i] = enc.typeArgs.size();
+                immStart[i] = enc.imms.size();
+                inst.accept(enc);
+                i++;
+            }
+        }
+        blockStart[nBlocks] = i;
+        operandStart[i] = enc.operands.size();
+        targetStart[i] = enc.targets.size();
+        typeArgStart[i] = enc.typeArgs.size();
+        immStart[i] = enc.imms.size();
+
+        operands = enc.operands.toArray();
+        targets = enc.targets.toArray();
+        typeArgs = enc.typeArgs.toArray(new Identified[enc.typeArgs.size()]);
+        imms = enc.imms.toArray();
+        globals = enc.globals.toArray(new Value[enc.globals.size()]);
+
+        int nLocals = enc.locals.size();
+        localTypes = new Type[nLocals];
+        localIDs = new int[nLocals];
+        localNames = new String[nLocals];
+        for (int l = 0; l < nLocals; l++) {
+            Value v = enc.locals.get(l);
+            localTypes[l] = v.getType();
+            localIDs[l] = v.getID();
+            localNames[l] = v.getName();
+        }
+    }
+
+    public Function getFunc() {
+        return func;
+    }
+
+    // Blocks
+
+    public int getNumBlocks() {
+        return blockIDs.length;
+    }
+
+    /**
+     * @return The block number of the entry block, or -1 if there is none.
+     */
+    public int getEntry() {
+        return entry;
+    }
+
+    /**
+     * @return The number of the first instruction in block b.
+     */
+    public int getBlockStart(int b) {
+        return blockStart[b];
+    }
+
+    /**
+     * @return One past the number of the last instruction in block b.
+     */
+    public int getBlockEnd(int b) {
+        return blockStart[b + 1];
+    }
+
+    public int getBlockID(int b) {
+        return blockIDs[b];
+    }
+
+    public String getBlockName(int b) {
+        return blockNames[b];
+    }
+
+    // Locals
+
+    public int getNumParams() {
+        return numParams;
+    }
+
+    public int getNumLocals() {
+        return localIDs.length;
+    }
+
+    public Type getLocalType(int local) {
+        return localTypes[local];
+    }
+
+    public int getLocalID(int local) {
+        return localIDs[local];
+    }
+
+    public String getLocalName(int local) {
+        return localNames[local];
+    }
+
+    // Instructions
+
+    public int getNumInsts() {
+        return opcodes.length;
+    }
+
+    /**
+     * @return The opcode as defined in {@link OpCode}.
+     */
+    public int getOpcode(int inst) {
+        return opcodes[inst] & 0xff;
+    }
+
+    /**
+     * @return The local defined by an instruction.
+     */
+    public int getDef(int inst) {
+        return defs[inst];
+    }
+
+    public int getNumOperands(int inst) {
+        return operandStart[inst + 1] - operandStart[inst];
+    }
+
+    public int getOperand(int inst, int n) {
+        return operands[operandStart[inst] + n];
+    }
+
+    /**
+     * @return true if an operand refers to a local, false if it refers to a
+     *         global value.
+     */
+    public static boolean isLocal(int operand) {
+        return operand >= 0;
+    }
+
+    /**
+     * @return The global value referred to by a (negative) operand.
+     */
+    public Value getGlobal(int operand) {
+        return globals[~operand];
+    }
+
+    public int getNumTargets(int inst) {
+        return targetStart[inst + 1] - targetStart[inst];
+    }
+
+    /**
+     * @return A block number, or -1 if the target was not set when frozen.
+     */
+    public int getTarget(int inst, int n) {
+        return targets[targetStart[inst] + n];
+    }
+
+    public int getNumTypeArgs(int inst) {
+        return typeArgStart[inst + 1] - typeArgStart[inst];
+    }
+
+    /**
+     * @return A Type, a FunctionSignature or an IFunc.
+     */
+    public Identified getTypeArg(int inst, int n) {
+        return typeArgs[typeArgStart[inst] + n];
+    }
+
+    public int getNumImms(int inst) {
+        return immStart[inst + 1] - immStart[inst];
+    }
+
+    public int getImm(int inst, int n) {
+        return imms[immStart[inst] + n];
+    }
+
+    /**
+     * Encodes the fields of each instruction. Field orders follow the binary
+     * ValueWriter.
+     */
+    private static class Encoder implements ValueVisitor<Void> {
+        Map<Integer, Integer> localNums = new HashMap<Integer, Integer>();
+        List<Value> locals = new ArrayList<Value>();
+        Map<Value, Integer> globalNums = new IdentityHashMap<Value, Integer>();
+        List<Value> globals = new ArrayList<Value>();
+        CFG cfg;
+
+        IntList operands = new IntList();
+        IntList targets = new IntList();
+        List<Identified> typeArgs = new ArrayList<Identified>();
+        IntList imms = new IntList();
+
+        void newLocal(Value v) {
+            localNums.put(v.getID(), locals.size());
+            locals.add(v);
+        }
+
+        void opnd(Value v) {
+            if (v instanceof Constant) {
+                Integer g = globalNums.get(v);
+                if (g == null) {
+                    g = globals.size();
+                    globalNums.put(v, g);
+                    globals.add(v);
+                }
+                operands.add(~g);
+            } else {
+                Integer l = localNums.get(v.getID());
+                if (l == null) {
+                    ErrorUtils.uvmError("Value " + IdentifiedHelper.repr(v)
+                            + " is not defined in this CFG.");
+                }
+                operands.add(l);
+            }
+        }
+
+        void opnds(List<UseBox> boxes) {
+            for (UseBox ub : boxes) {
+                opnd(ub.getDst());
+            }
+        }
+
+        void target(BasicBlock bb) {
+            targets.add(bb == null ? -1 : cfg.indexOf(bb));
+        }
+
+        void typeArg(Identified t) {
+            typeArgs.add(t);
+        }
+
+        void imm(int v) {
+            imms.add(v);
+        }
+
+        @Override
+        public Void visitIntConstant(IntConstant constant) {
+            return null;
+        }
+
+        @Override
+        public Void visitFloatConstant(FloatConstant constant) {
+            return null;
+        }
+
+        @Override
+        public Void visitDoubleConstant(DoubleConstant constant) {
+            return null;
+        }
+
+        @Override
+        public Void visitStructConstant(StructConstant constant) {
+            return null;
+        }
+
+        @Override
+        public Void visitNullConstant(NullConstant constant) {
+            return null;
+        }
+
+        @Override
+        public Void visitGlobalDataConstant(GlobalDataConstant constant) {
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionConstant(FunctionConstant constant) {
+            return null;
+        }
+
+        @Override
+        public Void visitParameter(Parameter parameter) {
+            return null;
+        }
+
+        @Override
+        public Void visitBinOp(InstBinOp inst) {
+            typeArg(inst.getType());
+            opnd(inst.getOp1());
+            opnd(inst.getOp2());
+            return null;
+        }
+
+        @Override
+        public Void visitCmp(InstCmp inst) {
+            typeArg(inst.getOpndType());
+            opnd(inst.getOp1());
+            opnd(inst.getOp2());
+            return null;
+        }
+
+        @Override
+        public Void visitConversion(InstConversion inst) {
+            typeArg(inst.getFromType());
+            typeArg(inst.getToType());
+            opnd(inst.getOpnd());
+            return null;
+        }
+
+        @Override
+        public Void visitSelect(InstSelect inst) {
+            typeArg(inst.getType());
+            opnd(inst.getCond());
+            opnd(inst.getIfTrue());
+            opnd(inst.getIfFalse());
+            return null;
+        }
+
+        @Override
+        public Void visitBranch(InstBranch inst) {
+            target(inst.getDest());
+            return null;
+        }
+
+        @Override
+        public Void visitBranch2(InstBranch2 inst) {
+            opnd(inst.getCond());
+            target(inst.getIfTrue());
+            target(inst.getIfFalse());
+            return null;
+        }
+
+        @Override
+        public Void visitSwitch(InstSwitch inst) {
+            typeArg(inst.getOpndType());
+            opnd(inst.getOpnd());
+            target(inst.getDefaultDest());
+            for (Map.Entry<UseBox, BasicBlock> e : inst.getCases().entrySet()) {
+                opnd(e.getKey().getDst());
+                target(e.getValue());
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitPhi(InstPhi inst) {
+            typeArg(inst.getType());
+            for (Map.Entry<BasicBlock, UseBox> e : inst.getValueMap()
+                    .entrySet()) {
+                target(e.getKey());
+                opnd(e.getValue().getDst());
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitCall(InstCall inst) {
+            typeArg(inst.getSig());
+            opnd(inst.getFunc());
+            opnds(inst.getArgs());
+            opnds(inst.getKeepAlives());
+            return null;
+        }
+
+        @Override
+        public Void visitInvoke(InstInvoke inst) {
+            typeArg(inst.getSig());
+            opnd(inst.getFunc());
+            target(inst.getNor());
+            target(inst.getExc());
+            opnds(inst.getArgs());
+            opnds(inst.getKeepAlives());
+            return null;
+        }
+
+        @Override
+        public Void visitTailCall(InstTailCall inst) {
+            typeArg(inst.getSig());
+            opnd(inst.getFunc());
+            opnds(inst.getArgs());
+            return null;
+        }
+
+        @Override
+        public Void visitRet(InstRet inst) {
+            typeArg(inst.getRetType());
+            opnd(inst.getRetVal());
+            return null;
+        }
+
+        @Override
+        public Void visitRetVoid(InstRetVoid inst) {
+            return null;
+        }
+
+        @Override
+        public Void visitThrow(InstThrow inst) {
+            opnd(inst.getException());
+            return null;
+        }
+
+        @Override
+        public Void visitLandingPad(InstLandingPad inst) {
+            return null;
+        }
+
+        @Override
+        public Void visitExtractValue(InstExtractValue inst) {
+            typeArg(inst.getStructType());
+            imm(inst.getIndex());
+            opnd(inst.getOpnd());
+            return null;
+        }
+
+        @Override
+        public Void visitInsertValue(InstInsertValue inst) {
+            typeArg(inst.getStructType());
+            imm(inst.getIndex());
+            opnd(inst.getOpnd());
+            opnd(inst.getNewVal());
+            return null;
+        }
+
+        @Override
+        public Void visitNew(InstNew inst) {
+            typeArg(inst.getAllocType());
+            return null;
+        }
+
+        @Override
+        public Void visitNewHybrid(InstNewHybrid inst) {
+            typeArg(inst.getAllocType());
+            opnd(inst.getLength());
+            return null;
+        }
+
+        @Override
+        public Void visitAlloca(InstAlloca inst) {
+            typeArg(inst.getAllocType());
+            return null;
+        }
+
+        @Override
+        public Void visitAllocaHybrid(InstAllocaHybrid inst) {
+            typeArg(inst.getAllocType());
+            opnd(inst.getLength());
+            return null;
+        }
+
+        @Override
+        public Void visitGetIRef(InstGetIRef inst) {
+            typeArg(inst.getReferentType());
+            opnd(inst.getOpnd());
+            return null;
+        }
+
+        @Override
+        public Void visitGetFieldIRef(InstGetFieldIRef inst) {
+            typeArg(inst.getReferentType());
+            imm(inst.getIndex());
+            opnd(inst.getOpnd());
+            return null;
+        }
+
+        @Override
+        public Void visitGetElemIRef(InstGetElemIRef inst) {
+            typeArg(inst.getReferentType());
+            opnd(inst.getOpnd());
+            opnd(inst.getIndex());
+            return null;
+        }
+
+        @Override
+        public Void visitShiftIRef(InstShiftIRef inst) {
+            typeArg(inst.getReferentType());
+            opnd(inst.getOpnd());
+            opnd(inst.getOffset());
+            return null;
+        }
+
+        @Override
+        public Void visitGetFixedPartIRef(InstGetFixedPartIRef inst) {
+            typeArg(inst.getReferentType());
+            opnd(inst.getOpnd());
+            return null;
+        }
+
+        @Override
+        public Void visitGetVarPartIRef(InstGetVarPartIRef inst) {
+            typeArg(inst.getReferentType());
+            opnd(inst.getOpnd());
+            return null;
+        }
+
+        @Override
+        public Void visitLoad(InstLoad inst) {
+            imm(inst.getOrdering().getOpCode());
+            typeArg(inst.getReferentType());
+            opnd(inst.getLocation());
+            return null;
+        }
+
+        @Override
+        public Void visitStore(InstStore inst) {
+            imm(inst.getOrdering().getOpCode());
+            typeArg(inst.getReferentType());
+            opnd(inst.getLocation());
+            opnd(inst.getNewVal());
+            return null;
+        }
+
+        @Override
+        public Void visitCmpXchg(InstCmpXchg inst) {
+            imm(inst.getOrderingSucc().getOpCode());
+            imm(inst.getOrderingFail().getOpCode());
+            typeArg(inst.getReferentType());
+            opnd(inst.getLocation());
+            opnd(inst.getExpected());
+            opnd(inst.getDesired());
+            return null;
+        }
+
+        @Override
+        public Void visitAtomicRMW(InstAtomicRMW inst) {
+            imm(inst.getOrdering().getOpCode());
+            imm(inst.getOptr().getOpCode());
+            typeArg(inst.getReferentType());
+            opnd(inst.getLocation());
+            opnd(inst.getOpnd());
+            return null;
+        }
+
+        @Override
+        public Void visitFence(InstFence inst) {
+            imm(inst.getOrdering().getOpCode());
+            return null;
+        }
+
+        @Override
+        public Void visitTrap(InstTrap inst) {
+            typeArg(inst.getType());
+            target(inst.getNor());
+            target(inst.getExc());
+            opnds(inst.getKeepAlives());
+            return null;
+        }
+
+        @Override
+        public Void visitWatchPoint(InstWatchPoint inst) {
+            imm(inst.getWatchPointId());
+            typeArg(inst.getType());
+            target(inst.getDisabled());
+            target(inst.getNor());
+            target(inst.getExc());
+            opnds(inst.getKeepAlives());
+            return null;
+        }
+
+        @Override
+        public Void visitCCall(InstCCall inst) {
+            imm(inst.getCallConv().getOpCode());
+            typeArg(inst.getSig());
+            opnd(inst.getFunc());
+            opnds(inst.getArgs());
+            return null;
+        }
+
+        @Override
+        public Void visitNewStack(InstNewStack inst) {
+            typeArg(inst.getSig());
+            opnd(inst.getFunc());
+            opnds(inst.getArgs());
+            return null;
+        }
+
+        @Override
+        public Void visitICall(InstICall inst) {
+            typeArg(inst.getIFunc());
+            opnds(inst.getArgs());
+            opnds(inst.getKeepAlives());
+            return null;
+        }
+
+        @Override
+        public Void visitIInvoke(InstIInvoke inst) {
+            typeArg(inst.getIFunc());
+            target(inst.getNor());
+            target(inst.getExc());
+            opnds(inst.getArgs());
+            opnds(inst.getKeepAlives());
+            return null;
+        }
+    }
+}
@@ -31,6 +31,13 @@ public class Function implements IdentifiedSettable {
      */
     private CFG cfg;
 
+    /**
+     * A lowering of cfg for execution, e.g. uvm.interp.Bytecode. Owned by
+     * whoever lowered it, and dropped whenever cfg is replaced. Whoever
+     * lowered it also checks {@link CFG#getEditCount()} before reusing it.
+     */
+    private Object compiledCode;
+
     public Function() {
     }
 
@@ -78,8 +85,30 @@ public class Function implements IdentifiedSettable {
         return cfg;
     }
 
+    /**
+     * Set the body. Analyses cached on the new CFG are dropped, since it may
+     * have been edited through its raw block and instruction lists before
+     * being installed, and so is the compiled code of the old one. Call this
+     * again after editing the raw lists of the current CFG. Other in-place
+     * edits are noticed through {@link CFG#getEditCount()}.
+     */
     public void setCFG(CFG cfg) {
         this.cfg = cfg;
+        this.compiledCode = null;
+        if (cfg != null) {
+            cfg.modified();
+        }
+    }
+
+    /**
+     * @return The cached lowering of the current CFG, or null.
+     */
+    public Object getCompiledCode() {
+        return compiledCode;
+    }
+
+    public void setCompiledCode(Object compiledCode) {
+        this.compiledCode = compiledCode;
     }
 
     public boolean isDefined() {
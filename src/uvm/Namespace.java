@@ -33,6 +33,13 @@ public interface Namespace<T extends Identified> {
      */
     public void put(int id, String name, T object);
 
+    /**
+     * Remove the object with a given ID and its name.
+     * @param id The ID.
+     * @return The removed object, or null if no such object.
+     */
+    public T remove(int id);
+
     /**
      * Associate a name with an ID. 
      * @param id The ID.
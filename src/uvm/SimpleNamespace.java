@@ -33,6 +33,18 @@ public class SimpleNamespace<T extends Identified> implements Namespace<T> {
         }
     }
 
+    @Override
+    public T remove(int id) {
+        T object = fromID.remove(id);
+        if (object != null && object.getName() != null) {
+            Integer boundID = nameToID.get(object.getName());
+            if (boundID != null && boundID == id) {
+                nameToID.remove(object.getName());
+            }
+        }
+        return object;
+    }
+
     @Override
     public void bind(int id, String name) {
         nameToID.put(name, id);
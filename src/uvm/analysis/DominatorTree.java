@@ -0,0 +1,286 @@
+package uvm.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import uvm.BasicBlock;
+import uvm.CFG;
+
+/**
+ * The dominator tree of a CFG, computed by the algorithm of Cooper, Harvey and
+ * Kennedy ("A Simple, Fast Dominance Algorithm") over the reverse postorder.
+ * Dominance frontiers are computed on demand.
+ * <p>
+ * Only blocks reachable from the entry are in the tree. Obtain instances by
+ * {@link CFG#getDominatorTree()}, which caches the result until the control
+ * flow changes.
+ */
+public class DominatorTree {
+    private final CFG cfg;
+
+    /**
+     * Reachable blocks in reverse postorder. Blocks are referred to by their
+     * indices in this array.
+     */
+    private final BasicBlock[] blocks;
+
+    /**
+     * The RPO index of each block, indexed by {@link BasicBlock#getIndex()}.
+     * -1 if unreachable.
+     */
+    private final int[] rpoIndex;
+
+    /**
+     * The immediate dominator of each block. idom[0] == 0 for the entry.
+     */
+    private final int[] idom;
+
+    /**
+     * Pre- and post-order numbers in the dominator tree, for O(1) dominance
+     * queries.
+     */
+    private final int[] pre;
+    private final int[] post;
+
+    private final List<List<BasicBlock>> children;
+
+    private List<List<BasicBlock>> frontiers;
+
+    public DominatorTree(CFG cfg) {
+        this.cfg = cfg;
+
+        // Blocks reached by edges but missing from getBBs() are left out.
+        List<BasicBlock> rpo = new ArrayList<BasicBlock>(
+                cfg.getReversePostOrder());
+        rpoIndex = new int[cfg.getNumBlockIndices()];
+        Arrays.fill(rpoIndex, -1);
+        int n = 0;
+        for (BasicBlock bb : rpo) {
+            int bi = cfg.indexOf(bb);
+            if (bi >= 0) {
+                rpoIndex[bi] = n;
+                rpo.set(n++, bb);
+            }
+        }
+        blocks = rpo.subList(0, n).toArray(new BasicBlock[n]);
+
+        // Predecessors as RPO indices. Unreachable predecessors are dropped.
+        int[][] preds = new int[n][];
+        for (int i = 0; i < n; i++) {
+            List<BasicBlock> ps = blocks[i].getPredecessors();
+            int[] p = new int[ps.size()];
+            int k = 0;
+            for (BasicBlock pb : ps) {
+                int pi = rpoIndexOf(pb);
+                if (pi >= 0) {
+                    p[k++] = pi;
+                }
+            }
+            preds[i] = k == p.length ? p : Arrays.copyOf(p, k);
+        }
+
+        idom = new int[n];
+        Arrays.fill(idom, -1);
+        if (n > 0) {
+            idom[0] = 0;
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int b = 1; b < n; b++) {
+                int newIdom = -1;
+                for (int p : preds[b]) {
+                    if (idom[p] == -1) {
+                        continue;
+                    }
+                    newIdom = newIdom == -1 ? p : intersect(p, newIdom);
+                }
+                if (idom[b] != newIdom) {
+                    idom[b] = newIdom;
+                    changed = true;
+                }
+            }
+        }
+
+        children = new ArrayList<List<BasicBlock>>(n);
+        for (int i = 0; i < n; i++) {
+            children.add(new ArrayList<BasicBlock>(2));
+        }
+        for (int b = 1; b < n; b++) {
+            children.get(idom[b]).add(blocks[b]);
+        }
+
+        pre = new int[n];
+        post = new int[n];
+        numberTree();
+    }
+
+    /**
+     * Walk up from two blocks until they meet. RPO indices of dominators are
+     * always smaller.
+     */
+    private int intersect(int b1, int b2) {
+        while (b1 != b2) {
+            while (b1 > b2) {
+                b1 = idom[b1];
+            }
+            while (b2 > b1) {
+                b2 = idom[b2];
+            }
+        }
+        return b1;
+    }
+
+    /**
+     * Iteratively number the dominator tree in pre- and post-order.
+     */
+    private void numberTree() {
+        int n = blocks.length;
+        if (n == 0) {
+            return;
+        }
+        int[] stack = new int[n];
+        int[] nextChild = new int[n];
+        int sp = 0;
+        int preNum = 0;
+        int postNum = 0;
+        stack[sp++] = 0;
+        pre[0] = preNum++;
+        while (sp > 0) {
+            int b = stack[sp - 1];
+            List<BasicBlock> cs = children.get(b);
+            if (nextChild[b] < cs.size()) {
+                int c = rpoIndexOf(cs.get(nextChild[b]++));
+                pre[c] = preNum++;
+                stack[sp++] = c;
+            } else {
+                post[b] = postNum++;
+                sp--;
+            }
+        }
+    }
+
+    public CFG getCFG() {
+        return cfg;
+    }
+
+    /**
+     * @return true if bb is reachable from the entry.
+     */
+    public boolean isReachable(BasicBlock bb) {
+        return rpoIndexOf(bb) >= 0;
+    }
+
+    /**
+     * @return The RPO index of bb, or -1 if bb is unreachable.
+     */
+    private int rpoIndexOf(BasicBlock bb) {
+        int bi = bb.getIndex();
+        if (bi < 0 || bi >= rpoIndex.length) {
+            return -1;
+        }
+        int i = rpoIndex[bi];
+        return i >= 0 && blocks[i] == bb ? i : -1;
+    }
+
+    private int index(BasicBlock bb) {
+        int i = rpoIndexOf(bb);
+        if (i < 0) {
+            throw new IllegalArgumentException("Block " + bb.getName()
+                    + " is not reachable from the entry.");
+        }
+        return i;
+    }
+
+    /**
+     * @return The immediate dominator of bb, or null if bb is the entry.
+     */
+    public BasicBlock getIDom(BasicBlock bb) {
+        int i = index(bb);
+        return i == 0 ? null : blocks[idom[i]];
+    }
+
+    /**
+     * @return The blocks immediately dominated by bb.
+     */
+    public List<BasicBlock> getChildren(BasicBlock bb) {
+        return Collections.unmodifiableList(children.get(index(bb)));
+    }
+
+    /**
+     * @return true if a dominates b. Every block dominates itself.
+     */
+    public boolean dominates(BasicBlock a, BasicBlock b) {
+        int ia = index(a);
+        int ib = index(b);
+        return pre[ia] <= pre[ib] && post[ib] <= post[ia];
+    }
+
+    /**
+     * @return true if a dominates b and a != b.
+     */
+    public boolean strictlyDominates(BasicBlock a, BasicBlock b) {
+        return a != b && dominates(a, b);
+    }
+
+    /**
+     * @return The reachable blocks in reverse postorder.
+     */
+    public List<BasicBlock> getBlocks() {
+        return Collections.unmodifiableList(Arrays.asList(blocks));
+    }
+
+    /**
+     * Get the dominance frontier of a block, i.e. the blocks where the
+     * dominance of bb ends.
+     */
+    public List<BasicBlock> getDominanceFrontier(BasicBlock bb) {
+        if (frontiers == null) {
+            computeFrontiers();
+        }
+        return Collections.unmodifiableList(frontiers.get(index(bb)));
+    }
+
+    /**
+     * For each join point b, walk up from each predecessor to idom(b). Each
+     * block visited on the way has b in its frontier.
+     */
+    private void computeFrontiers() {
+        int n = blocks.length;
+        List<List<BasicBlock>> dfs = new ArrayList<List<BasicBlock>>(n);
+        // The last block added to each frontier, to avoid duplicates.
+        int[] lastAdded = new int[n];
+        Arrays.fill(lastAdded, -1);
+        for (int i = 0; i < n; i++) {
+            dfs.add(new ArrayList<BasicBlock>(1));
+        }
+        for (int b = 0; b < n; b++) {
+            List<BasicBlock> ps = blocks[b].getPredecessors();
+            if (ps.size() < 2) {
+                continue;
+            }
+            for (BasicBlock pb : ps) {
+                int p = rpoIndexOf(pb);
+                if (p < 0) {
+                    continue;
+                }
+                int runner = p;
+                while (runner != idom[b]) {
+                    if (lastAdded[runner] == b) {
+                        break;
+                    }
+                    dfs.get(runner).add(blocks[b]);
+                    lastAdded[runner] = b;
+                    if (runner == 0) {
+                        break;
+                    }
+                    runner = idom[runner];
+                }
+            }
+        }
+        frontiers = dfs;
+    }
+}
@@ -0,0 +1,645 @@
+package uvm.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import uvm.BasicBlock;
+import uvm.CFG;
+import uvm.FrozenCFG;
+import uvm.OpCode;
+import uvm.ssavalue.Instruction;
+import uvm.ssavalue.Value;
+import uvm.util.IntList;
+import uvm.util.LongIntMap;
+
+/**
+ * Live variable analysis of a CFG.
+ * <p>
+ * Values are numbered densely as the locals of {@link FrozenCFG}, i.e. by ID,
+ * so the analysis works both on SSA CFGs and on the output of
+ * {@link uvm.reducer.PhiReducer}, where several instructions assign to the
+ * same variable.
+ * <p>
+ * Only "global" values, i.e. those used in some block before (or without)
+ * being defined there, can be live across a block boundary. They get a second
+ * dense numbering, and the live-in set of each block is a bitset of global
+ * values stored as a row of longs. The data-flow equations are iterated over
+ * the blocks in postorder until nothing changes. Live-out sets are computed
+ * from the live-in sets of the successors when asked for.
+ * <p>
+ * PHI nodes are handled in two ways:
+ * <ul>
+ * <li>If the incoming block of a PHI operand is in this CFG (the SSA form),
+ * the operand is used at the end of that block, not in the block of the
+ * PHI.</li>
+ * <li>Otherwise (the single-case PHI nodes left by PhiReducer) the PHI nodes
+ * at the beginning of a block are a parallel copy: all their operands are
+ * used before any of them is defined.</li>
+ * </ul>
+ * In both cases the PHI nodes at the beginning of a block are defined
+ * simultaneously.
+ * <p>
+ * The analysis is a snapshot. It is not updated when the CFG changes.
+ */
+public class Liveness {
+    private final CFG cfg;
+    private final FrozenCFG f;
+
+    /**
+     * The local of each value index of the CFG.
+     */
+    private final int[] localOfIndex;
+
+    /**
+     * The local of each ID, for values which share the ID of a local but were
+     * not numbered by the CFG, such as the values of the original CFG copied
+     * by PhiReducer.
+     */
+    private final LongIntMap localOfID;
+
+    private final int nBlocks;
+    private final int nLocals;
+
+    /**
+     * The global number of each local, or -1, and the local of each global.
+     */
+    private final int[] globalOf;
+    private final int[] globals;
+
+    /**
+     * The number of longs per set.
+     */
+    private final int words;
+
+    /**
+     * Successor block numbers of each block.
+     */
+    private final int[][] succs;
+
+    /**
+     * Globals used by PHI nodes of successors on the edge from each block.
+     */
+    private final int[][] phiUses;
+
+    private final long[] liveIn;
+
+    /**
+     * Sorted neighbours of each local in the interference graph. Computed on
+     * the first interference query.
+     */
+    private int[][] neighbors;
+
+    public Liveness(CFG cfg) {
+        this.cfg = cfg;
+        this.f = cfg.freeze();
+
+        nBlocks = f.getNumBlocks();
+        nLocals = f.getNumLocals();
+
+        localOfID = new LongIntMap(nLocals);
+        for (int l = 0; l < nLocals; l++) {
+            localOfID.put(f.getLocalID(l), l);
+        }
+        // Freezing numbered the CFG.
+        localOfIndex = new int[cfg.getNumValueIndices()];
+        for (int p = 0; p < f.getNumParams(); p++) {
+            localOfIndex[cfg.getParams().get(p).getValueIndex()] = p;
+        }
+        int pos = 0;
+        for (BasicBlock bb : cfg.getBBs()) {
+            for (Instruction inst : bb.getInsts()) {
+                localOfIndex[inst.getValueIndex()] = f.getDef(pos++);
+            }
+        }
+
+        // Upward-exposed uses and definitions of each block, as locals.
+        int[][] uses = new int[nBlocks][];
+        int[][] defs = new int[nBlocks][];
+        IntList[] phiUseLists = new IntList[nBlocks];
+        succs = new int[nBlocks][];
+
+        int[] defMark = new int[nLocals];
+        int[] useMark = new int[nLocals];
+        Arrays.fill(defMark, -1);
+        Arrays.fill(useMark, -1);
+        IntList use = new IntList();
+        IntList def = new IntList();
+        IntList succ = new IntList();
+
+        for (int b = 0; b < nBlocks; b++) {
+            use.clear();
+            def.clear();
+            succ.clear();
+            int start = f.getBlockStart(b);
+            int end = f.getBlockEnd(b);
+
+            // The PHI nodes at the beginning read before any of them writes.
+            int i = start;
+            while (i < end && f.getOpcode(i) == OpCode.PHI) {
+                for (int n = 0; n < f.getNumOperands(i); n++) {
+                    int opnd = f.getOperand(i, n);
+                    if (!FrozenCFG.isLocal(opnd)) {
+                        continue;
+                    }
+                    int from = f.getTarget(i, n);
+                    if (from >= 0) {
+                        if (phiUseLists[from] == null) {
+                            phiUseLists[from] = new IntList(4);
+                        }
+                        phiUseLists[from].add(opnd);
+                    } else if (useMark[opnd] != b) {
+                        useMark[opnd] = b;
+                        use.add(opnd);
+                    }
+                }
+                i++;
+            }
+            for (int p = start; p < i; p++) {
+                markDef(f.getDef(p), b, defMark, def);
+            }
+
+            for (; i < end; i++) {
+                for (int n = 0; n < f.getNumOperands(i); n++) {
+                    int opnd = f.getOperand(i, n);
+                    if (FrozenCFG.isLocal(opnd) && defMark[opnd] != b
+                            && useMark[opnd] != b) {
+                        useMark[opnd] = b;
+                        use.add(opnd);
+                    }
+                }
+                markDef(f.getDef(i), b, defMark, def);
+                if (f.getOpcode(i) != OpCode.PHI) {
+                    for (int n = 0; n < f.getNumTargets(i); n++) {
+                        int t = f.getTarget(i, n);
+                        if (t >= 0) {
+                            succ.add(t);
+                        }
+                    }
+                }
+            }
+            uses[b] = use.toArray();
+            defs[b] = def.toArray();
+            succs[b] = succ.toArray();
+        }
+
+        // Number the globals.
+        globalOf = new int[nLocals];
+        Arrays.fill(globalOf, -1);
+        IntList globalList = new IntList();
+        for (int b = 0; b < nBlocks; b++) {
+            for (int l : uses[b]) {
+                makeGlobal(l, globalList);
+            }
+            if (phiUseLists[b] != null) {
+                for (int n = 0; n < phiUseLists[b].size(); n++) {
+                    makeGlobal(phiUseLists[b].get(n), globalList);
+                }
+            }
+        }
+        globals = globalList.toArray();
+        words = (globals.length + 63) >>> 6;
+
+        phiUses = new int[nBlocks][];
+        for (int b = 0; b < nBlocks; b++) {
+            uses[b] = toGlobals(uses[b]);
+            defs[b] = toGlobals(defs[b]);
+            phiUses[b] = phiUseLists[b] == null ? new int[0]
+                    : toGlobals(phiUseLists[b].toArray());
+        }
+
+        liveIn = new long[nBlocks * words];
+        long[] out = new long[words];
+
+        int[] order = postOrder();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int b : order) {
+                computeLiveOut(b, out);
+                for (int g : defs[b]) {
+                    out[g >>> 6] &= ~(1L << g);
+                }
+                for (int g : uses[b]) {
+                    out[g >>> 6] |= 1L << g;
+                }
+                int row = b * words;
+                for (int w = 0; w < words; w++) {
+                    if (out[w] != liveIn[row + w]) {
+                        liveIn[row + w] = out[w];
+                        changed = true;
+                    }
+                }
+            }
+        }
+    }
+
+    private static void markDef(int local, int b, int[] defMark, IntList def) {
+        if (defMark[local] != b) {
+            defMark[local] = b;
+            def.add(local);
+        }
+    }
+
+    private void makeGlobal(int local, IntList globalList) {
+        if (globalOf[local] < 0) {
+            globalOf[local] = globalList.size();
+            globalList.add(local);
+        }
+    }
+
+    /**
+     * Translate locals to globals, dropping those which are not global.
+     */
+    private int[] toGlobals(int[] locals) {
+        int k = 0;
+        for (int l : locals) {
+            int g = globalOf[l];
+            if (g >= 0) {
+                locals[k++] = g;
+            }
+        }
+        return k == locals.length ? locals : Arrays.copyOf(locals, k);
+    }
+
+    /**
+     * Blocks reachable from the entry in postorder, followed by the
+     * unreachable blocks.
+     */
+    private int[] postOrder() {
+        IntList order = new IntList(nBlocks);
+        boolean[] visited = new boolean[nBlocks];
+        int[] stack = new int[nBlocks];
+        int[] nextSucc = new int[nBlocks];
+        int entry = f.getEntry();
+        if (entry >= 0) {
+            int sp = 0;
+            stack[sp++] = entry;
+            visited[entry] = true;
+            while (sp > 0) {
+                int b = stack[sp - 1];
+                if (nextSucc[b] < succs[b].length) {
+                    int s = succs[b][nextSucc[b]++];
+                    if (!visited[s]) {
+                        visited[s] = true;
+                        stack[sp++] = s;
+                    }
+                } else {
+                    order.add(b);
+                    sp--;
+                }
+            }
+        }
+        for (int b = 0; b < nBlocks; b++) {
+            if (!visited[b]) {
+                order.add(b);
+            }
+        }
+        return order.toArray();
+    }
+
+    /**
+     * Compute the live-out set of block b, as globals, into out.
+     */
+    private void computeLiveOut(int b, long[] out) {
+        Arrays.fill(out, 0);
+        for (int s : succs[b]) {
+            int row = s * words;
+            for (int w = 0; w < words; w++) {
+                out[w] |= liveIn[row + w];
+            }
+        }
+        for (int g : phiUses[b]) {
+            out[g >>> 6] |= 1L << g;
+        }
+    }
+
+    public CFG getCFG() {
+        return cfg;
+    }
+
+    /**
+     * @return The frozen CFG whose local and block numbers this analysis uses.
+     */
+    public FrozenCFG getFrozenCFG() {
+        return f;
+    }
+
+    public int getNumValues() {
+        return nLocals;
+    }
+
+    /**
+     * @return The number of values live across some block boundary.
+     */
+    public int getNumGlobalValues() {
+        return globals.length;
+    }
+
+    /**
+     * @return The block number of bb in {@link #getFrozenCFG()}, which is
+     *         its index in the CFG.
+     */
+    public int getBlockNumber(BasicBlock bb) {
+        int b = cfg.indexOf(bb);
+        if (b < 0) {
+            throw new IllegalArgumentException("Block " + bb.getName()
+                    + " is not in this CFG.");
+        }
+        return b;
+    }
+
+    /**
+     * @return The local number of v, or -1 if v is not a parameter or an
+     *         instruction of this CFG.
+     */
+    public int getValueNumber(Value v) {
+        if (!(v instanceof Instruction)) {
+            return -1;
+        }
+        Instruction inst = (Instruction) v;
+        int i = inst.getValueIndex();
+        if (inst.getValueIndexOwner() == cfg && i >= 0
+                && i < localOfIndex.length) {
+            // The index is stale if inst was removed since.
+            int l = localOfIndex[i];
+            if (f.getLocalID(l) == v.getID()) {
+                return l;
+            }
+        }
+        return localOfID.get(v.getID(), -1);
+    }
+
+    public boolean isLiveIn(int block, int local) {
+        int g = globalOf[local];
+        return g >= 0
+                && (liveIn[block * words + (g >>> 6)] & (1L << g)) != 0;
+    }
+
+    public boolean isLiveOut(int block, int local) {
+        int g = globalOf[local];
+        if (g < 0) {
+            return false;
+        }
+        for (int s : succs[block]) {
+            if ((liveIn[s * words + (g >>> 6)] & (1L << g)) != 0) {
+                return true;
+            }
+        }
+        for (int pg : phiUses[block]) {
+            if (pg == g) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isLiveIn(BasicBlock bb, Value v) {
+        int l = getValueNumber(v);
+        return l >= 0 && isLiveIn(getBlockNumber(bb), l);
+    }
+
+    public boolean isLiveOut(BasicBlock bb, Value v) {
+        int l = getValueNumber(v);
+        return l >= 0 && isLiveOut(getBlockNumber(bb), l);
+    }
+
+    /**
+     * @return The local numbers live at the beginning of a block, ascending.
+     */
+    public int[] getLiveIn(int block) {
+        return members(liveIn, block * words);
+    }
+
+    /**
+     * @return The local numbers live at the end of a block, ascending.
+     */
+    public int[] getLiveOut(int block) {
+        long[] out = new long[words];
+        computeLiveOut(block, out);
+        return members(out, 0);
+    }
+
+    private int[] members(long[] sets, int row) {
+        IntList result = new IntList();
+        for (int w = 0; w < words; w++) {
+            long bits = sets[row + w];
+            while (bits != 0) {
+                int g = (w << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                result.add(globals[g]);
+            }
+        }
+        int[] locals = result.toArray();
+        Arrays.sort(locals);
+        return locals;
+    }
+
+    /**
+     * @return The IDs of the values live at the beginning of bb.
+     */
+    public List<Integer> getLiveInIDs(BasicBlock bb) {
+        return ids(getLiveIn(getBlockNumber(bb)));
+    }
+
+    /**
+     * @return The IDs of the values live at the end of bb.
+     */
+    public List<Integer> getLiveOutIDs(BasicBlock bb) {
+        return ids(getLiveOut(getBlockNumber(bb)));
+    }
+
+    private List<Integer> ids(int[] locals) {
+        List<Integer> result = new ArrayList<Integer>(locals.length);
+        for (int l : locals) {
+            result.add(f.getLocalID(l));
+        }
+        return result;
+    }
+
+    // Interference
+
+    /**
+     * @return true if two locals are live at the same time at a point where
+     *         one of them is defined. A local never interferes with itself.
+     */
+    public boolean interferes(int a, int b) {
+        return Arrays.binarySearch(getNeighbors(a), b) >= 0;
+    }
+
+    public boolean interferes(Value a, Value b) {
+        int la = getValueNumber(a);
+        int lb = getValueNumber(b);
+        return la >= 0 && lb >= 0 && interferes(la, lb);
+    }
+
+    /**
+     * @return The locals interfering with a local, ascending.
+     */
+    public int[] getNeighbors(int local) {
+        if (neighbors == null) {
+            buildInterference();
+        }
+        return neighbors[local];
+    }
+
+    /**
+     * Walk each block backwards from its live-out set. A definition interferes
+     * with everything live after it. The parameters, and the PHI nodes at the
+     * beginning of a block, are each defined together as a group.
+     */
+    private void buildInterference() {
+        IntList[] adj = new IntList[nLocals];
+        SparseSet live = new SparseSet(nLocals);
+        long[] out = new long[words];
+        IntList group = new IntList();
+
+        for (int b = 0; b < nBlocks; b++) {
+            live.clear();
+            computeLiveOut(b, out);
+            for (int w = 0; w < words; w++) {
+                long bits = out[w];
+                while (bits != 0) {
+                    live.add(globals[(w << 6)
+                            + Long.numberOfTrailingZeros(bits)]);
+                    bits &= bits - 1;
+                }
+            }
+
+            int start = f.getBlockStart(b);
+            int end = f.getBlockEnd(b);
+            int firstNonPhi = start;
+            while (firstNonPhi < end
+                    && f.getOpcode(firstNonPhi) == OpCode.PHI) {
+                firstNonPhi++;
+            }
+
+            for (int i = end - 1; i >= firstNonPhi; i--) {
+                int d = f.getDef(i);
+                if (f.getLocalType(d) != null) {
+                    live.remove(d);
+                    addEdges(adj, d, live);
+                }
+                for (int n = 0; n < f.getNumOperands(i); n++) {
+                    int opnd = f.getOperand(i, n);
+                    if (FrozenCFG.isLocal(opnd)) {
+                        live.add(opnd);
+                    }
+                }
+            }
+
+            group.clear();
+            for (int i = start; i < firstNonPhi; i++) {
+                group.add(f.getDef(i));
+            }
+            defineGroup(adj, group, live);
+            for (int i = start; i < firstNonPhi; i++) {
+                for (int n = 0; n < f.getNumOperands(i); n++) {
+                    int opnd = f.getOperand(i, n);
+                    if (FrozenCFG.isLocal(opnd) && f.getTarget(i, n) < 0) {
+                        live.add(opnd);
+                    }
+                }
+            }
+
+            if (b == f.getEntry()) {
+                group.clear();
+                for (int p = 0; p < f.getNumParams(); p++) {
+                    group.add(p);
+                }
+                defineGroup(adj, group, live);
+            }
+        }
+
+        neighbors = new int[nLocals][];
+        for (int l = 0; l < nLocals; l++) {
+            if (adj[l] == null) {
+                neighbors[l] = new int[0];
+                continue;
+            }
+            int[] ns = adj[l].toArray();
+            Arrays.sort(ns);
+            int k = 0;
+            for (int n = 0; n < ns.length; n++) {
+                if (k == 0 || ns[k - 1] != ns[n]) {
+                    ns[k++] = ns[n];
+                }
+            }
+            neighbors[l] = Arrays.copyOf(ns, k);
+        }
+    }
+
+    /**
+     * Define a group of locals simultaneously just before the point where the
+     * locals in live are live.
+     */
+    private void defineGroup(IntList[] adj, IntList group, SparseSet live) {
+        for (int i = 0; i < group.size(); i++) {
+            live.remove(group.get(i));
+        }
+        for (int i = 0; i < group.size(); i++) {
+            int d = group.get(i);
+            addEdges(adj, d, live);
+            for (int j = 0; j < group.size(); j++) {
+                int o = group.get(j);
+                if (o != d) {
+                    edge(adj, d, o);
+                }
+            }
+        }
+    }
+
+    private static void addEdges(IntList[] adj, int d, SparseSet live) {
+        for (int k = 0; k < live.size; k++) {
+            int l = live.dense[k];
+            edge(adj, d, l);
+            edge(adj, l, d);
+        }
+    }
+
+    private static void edge(IntList[] adj, int from, int to) {
+        if (adj[from] == null) {
+            adj[from] = new IntList(4);
+        }
+        adj[from].add(to);
+    }
+
+    /**
+     * A set of small ints with O(1) add, remove and clear, and iteration in
+     * O(size) (Briggs and Torczon).
+     */
+    private static class SparseSet {
+        final int[] dense;
+        final int[] sparse;
+        int size;
+
+        SparseSet(int capacity) {
+            dense = new int[capacity];
+            sparse = new int[capacity];
+        }
+
+        boolean contains(int v) {
+            int k = sparse[v];
+            return k < size && dense[k] == v;
+        }
+
+        void add(int v) {
+            if (!contains(v)) {
+                sparse[v] = size;
+                dense[size++] = v;
+            }
+        }
+
+        void remove(int v) {
+            if (contains(v)) {
+                int last = dense[--size];
+                dense[sparse[v]] = last;
+                sparse[last] = sparse[v];
+            }
+        }
+
+        void clear() {
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package uvm.analysis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import uvm.BasicBlock;
+
+/**
+ * A natural loop. It is identified by its header, which dominates every block
+ * in the loop. All back edges to the same header form one loop.
+ */
+public class Loop {
+    private final BasicBlock header;
+    private Loop parent;
+    private int depth;
+
+    /**
+     * Blocks whose innermost loop is this loop, including the header.
+     */
+    private final List<BasicBlock> ownBlocks = new ArrayList<BasicBlock>();
+    private final List<Loop> subLoops = new ArrayList<Loop>();
+
+    Loop(BasicBlock header) {
+        this.header = header;
+    }
+
+    public BasicBlock getHeader() {
+        return header;
+    }
+
+    /**
+     * @return The immediately enclosing loop, or null if this loop is
+     *         outermost.
+     */
+    public Loop getParent() {
+        return parent;
+    }
+
+    void setParent(Loop parent) {
+        this.parent = parent;
+    }
+
+    /**
+     * @return 1 for outermost loops, 2 for loops directly nested in them, and
+     *         so on.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    void setDepth(int depth) {
+        this.depth = depth;
+    }
+
+    /**
+     * @return The loops directly nested in this loop.
+     */
+    public List<Loop> getSubLoops() {
+        return Collections.unmodifiableList(subLoops);
+    }
+
+    List<Loop> subLoops() {
+        return subLoops;
+    }
+
+    /**
+     * @return The blocks whose innermost loop is this loop.
+     */
+    public List<BasicBlock> getOwnBlocks() {
+        return Collections.unmodifiableList(ownBlocks);
+    }
+
+    List<BasicBlock> ownBlocks() {
+        return ownBlocks;
+    }
+
+    /**
+     * @return All blocks in this loop, including those of nested loops. A new
+     *         list.
+     */
+    public List<BasicBlock> getBlocks() {
+        List<BasicBlock> result = new ArrayList<BasicBlock>();
+        List<Loop> work = new ArrayList<Loop>();
+        work.add(this);
+        while (!work.isEmpty()) {
+            Loop l = work.remove(work.size() - 1);
+            result.addAll(l.ownBlocks);
+            work.addAll(l.subLoops);
+        }
+        return result;
+    }
+
+    /**
+     * @return true if other is this loop or nested in it.
+     */
+    public boolean contains(Loop other) {
+        for (Loop l = other; l != null; l = l.parent) {
+            if (l == this) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "Loop(" + header.getName() + ", depth " + depth + ")";
+    }
+}
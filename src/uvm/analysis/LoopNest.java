@@ -0,0 +1,152 @@
+package uvm.analysis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import uvm.BasicBlock;
+import uvm.CFG;
+
+/**
+ * The natural-loop nesting forest of a CFG.
+ * <p>
+ * An edge t -&gt; h is a back edge if h dominates t. Headers are visited from
+ * the last to the first in reverse postorder, so inner loops are discovered
+ * before the loops that enclose them. The body of a loop is found by walking
+ * backwards from its back edges; when the walk reaches a block already in an
+ * inner loop, it continues from the header of the outermost such loop, which
+ * then becomes a child of the current loop. Each block is thus assigned once.
+ * <p>
+ * Retreating edges whose target does not dominate the source (irreducible
+ * control flow) do not form natural loops and are ignored.
+ * <p>
+ * Obtain instances by {@link CFG#getLoopNest()}.
+ */
+public class LoopNest {
+    private final CFG cfg;
+
+    /**
+     * The innermost loop of each block, indexed by
+     * {@link BasicBlock#getIndex()}. null if the block is in no loop.
+     */
+    private final Loop[] loopOf;
+
+    private final List<Loop> topLevelLoops = new ArrayList<Loop>();
+
+    /**
+     * All loops, outer loops before inner loops.
+     */
+    private final List<Loop> loops = new ArrayList<Loop>();
+
+    public LoopNest(CFG cfg, DominatorTree domTree) {
+        this.cfg = cfg;
+        loopOf = new Loop[cfg.getNumBlockIndices()];
+
+        List<BasicBlock> rpo = domTree.getBlocks();
+        List<BasicBlock> work = new ArrayList<BasicBlock>();
+
+        for (int hi = rpo.size() - 1; hi >= 0; hi--) {
+            BasicBlock header = rpo.get(hi);
+            Loop loop = null;
+            for (BasicBlock pred : header.getPredecessors()) {
+                if (domTree.isReachable(pred)
+                        && domTree.dominates(header, pred)) {
+                    if (loop == null) {
+                        loop = new Loop(header);
+                        loopOf[header.getIndex()] = loop;
+                        loop.ownBlocks().add(header);
+                    }
+                    work.add(pred);
+                }
+            }
+            if (loop == null) {
+                continue;
+            }
+
+            while (!work.isEmpty()) {
+                BasicBlock bb = work.remove(work.size() - 1);
+                Loop inner = loopOf[bb.getIndex()];
+                if (inner == null) {
+                    loopOf[bb.getIndex()] = loop;
+                    loop.ownBlocks().add(bb);
+                    addReachablePreds(domTree, bb, work);
+                } else {
+                    while (inner.getParent() != null) {
+                        inner = inner.getParent();
+                    }
+                    if (inner == loop) {
+                        continue;
+                    }
+                    inner.setParent(loop);
+                    loop.subLoops().add(inner);
+                    addReachablePreds(domTree, inner.getHeader(), work);
+                }
+            }
+
+            loops.add(loop);
+        }
+
+        Collections.reverse(loops);
+        for (Loop loop : loops) {
+            Loop parent = loop.getParent();
+            if (parent == null) {
+                loop.setDepth(1);
+                topLevelLoops.add(loop);
+            } else {
+                loop.setDepth(parent.getDepth() + 1);
+            }
+        }
+    }
+
+    private static void addReachablePreds(DominatorTree domTree,
+            BasicBlock bb, List<BasicBlock> work) {
+        for (BasicBlock pred : bb.getPredecessors()) {
+            if (domTree.isReachable(pred)) {
+                work.add(pred);
+            }
+        }
+    }
+
+    public CFG getCFG() {
+        return cfg;
+    }
+
+    /**
+     * @return The outermost loops, in reverse postorder of their headers.
+     */
+    public List<Loop> getTopLevelLoops() {
+        return Collections.unmodifiableList(topLevelLoops);
+    }
+
+    /**
+     * @return All loops. Enclosing loops come before the loops they contain.
+     */
+    public List<Loop> getLoops() {
+        return Collections.unmodifiableList(loops);
+    }
+
+    /**
+     * @return The innermost loop containing bb, or null if bb is not in any
+     *         loop.
+     */
+    public Loop getLoopFor(BasicBlock bb) {
+        int i = cfg.indexOf(bb);
+        return i < 0 ? null : loopOf[i];
+    }
+
+    /**
+     * @return The number of loops containing bb. 0 if bb is not in any loop.
+     */
+    public int getLoopDepth(BasicBlock bb) {
+        Loop loop = getLoopFor(bb);
+        return loop == null ? 0 : loop.getDepth();
+    }
+
+    /**
+     * @return true if bb is the header of a loop.
+     */
+    public boolean isLoopHeader(BasicBlock bb) {
+        Loop loop = getLoopFor(bb);
+        return loop != null && loop.getHeader() == bb;
+    }
+}
@@ -0,0 +1,846 @@
+package uvm.interp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import uvm.BasicBlock;
+import uvm.CFG;
+import uvm.Function;
+import uvm.IdentifiedHelper;
+import uvm.OpCode;
+import uvm.ssavalue.AbstractCall;
+import uvm.ssavalue.DoubleConstant;
+import uvm.ssavalue.FloatConstant;
+import uvm.ssavalue.FunctionConstant;
+import uvm.ssavalue.InstBinOp;
+import uvm.ssavalue.InstBranch;
+import uvm.ssavalue.InstBranch2;
+import uvm.ssavalue.InstCmp;
+import uvm.ssavalue.InstConversion;
+import uvm.ssavalue.InstPhi;
+import uvm.ssavalue.InstRet;
+import uvm.ssavalue.InstSelect;
+import uvm.ssavalue.InstSwitch;
+import uvm.ssavalue.Instruction;
+import uvm.ssavalue.IntConstant;
+import uvm.ssavalue.UseBox;
+import uvm.ssavalue.Value;
+import uvm.type.FPType;
+import uvm.type.Int;
+import uvm.type.Type;
+import uvm.util.IntList;
+
+/**
+ * A CFG lowered to register code for {@link BytecodeInterpreter}.
+ * <p>
+ * A frame is a long[] of slots. Slot i holds the value with value index i
+ * (see {@link CFG#getNumValueIndices()}), so the parameters come first. They
+ * are followed by one slot per distinct constant operand, preset in
+ * {@link #newFrame()}, and one scratch slot for breaking cycles of PHI moves.
+ * An int&lt;n&gt; is held zero-extended, as in {@link Interpreter}, and a float
+ * or double as the raw bits of a double.
+ * <p>
+ * The code is a sequence of instructions, each an opcode followed by its
+ * operands. Frame operands are slot numbers and branch targets are offsets
+ * into the code. The opcodes of OpCode are reused where the operation is the
+ * same, with these operands:
+ *
+ * <pre>
+ * int binary op       op dst a b shift    (shift = 64 - bits)
+ * int comparison      op dst a b shift
+ * FP binary op        op dst a b isFloat
+ * FP comparison       op dst a b
+ * TRUNC, ZEXT         op dst x 0 toShift
+ * SEXT                op dst x fromShift toShift
+ * FPTRUNC, FPEXT      op dst x 0 toIsFloat
+ * FPTOSI, FPTOUI      op dst x 0 toShift
+ * SITOFP              op dst x fromShift toIsFloat
+ * UITOFP              op dst x 0 toIsFloat
+ * BITCAST             op dst x 0 kind     (one of the BITCAST_ kinds)
+ * SELECT              op dst cond ifTrue ifFalse
+ * MOVE                op dst src
+ * BRANCH              op target
+ * BRANCH2             op cond ifTrue ifFalse
+ * BRANCH_CMP + cmp    op a b shift ifTrue ifFalse
+ * SWITCH              op x default n (value target)*n
+ * CALL                op dst callee n arg*n
+ * TAILCALL            op callee n arg*n
+ * RET                 op src
+ * RETVOID             op
+ * TRAP                op message
+ * </pre>
+ *
+ * Callees and messages are indices into {@link #getCallees()} and
+ * {@link #getMessages()}. A BRANCH2 on an int comparison in its block is
+ * fused with it, and the comparison is not emitted on its own if the branch
+ * is its only user. The PHIs of a block become MOVEs on each edge into
+ * it, ordered so that they take effect together: inline before a BRANCH, or
+ * in a stub after a BRANCH2 or SWITCH. Instructions which cannot be lowered
+ * become a TRAP, so they fail when reached, as they do in Interpreter.
+ * <p>
+ * The lowering of a function is cached on it by {@link #of(Function)} and
+ * dropped by {@link Function#setCFG(CFG)}.
+ */
+public class Bytecode {
+    public static final int MOVE = 0x100;
+    public static final int TRAP = 0x101;
+    /**
+     * Added to the opcode of an int comparison, for a BRANCH2 on it.
+     */
+    public static final int BRANCH_CMP = 0x200;
+
+    public static final int BITCAST_COPY = 0;
+    public static final int BITCAST_INT_TO_FLOAT = 1;
+    public static final int BITCAST_FLOAT_TO_INT = 2;
+
+    private final Function func;
+    /**
+     * The CFG this was lowered from and its edit count at that time.
+     */
+    private final CFG cfg;
+    private final int editCount;
+    private final int[] code;
+    private final long[] frameTemplate;
+    private final Function[] callees;
+    private final String[] messages;
+    private final int[] paramShifts;
+    private final boolean[] paramIsFP;
+    private final boolean returnsFP;
+
+    private Bytecode(Function func, CFG cfg, int[] code,
+            long[] frameTemplate, Function[] callees, String[] messages,
+            int[] paramShifts, boolean[] paramIsFP, boolean returnsFP) {
+        this.func = func;
+        this.cfg = cfg;
+        this.editCount = cfg.getEditCount();
+        this.code = code;
+        this.frameTemplate = frameTemplate;
+        this.callees = callees;
+        this.messages = messages;
+        this.paramShifts = paramShifts;
+        this.paramIsFP = paramIsFP;
+        this.returnsFP = returnsFP;
+    }
+
+    /**
+     * Get the lowering of the current CFG of a function, lowering it on first
+     * use and again after the CFG is edited in place. Not thread safe.
+     *
+     * @throws InterpreterException
+     *             if the function is not defined.
+     */
+    public static Bytecode of(Function fn) {
+        Object compiled = fn.getCompiledCode();
+        if (compiled instanceof Bytecode) {
+            Bytecode bc = (Bytecode) compiled;
+            if (bc.cfg == fn.getCFG()
+                    && bc.editCount == bc.cfg.getEditCount()) {
+                return bc;
+            }
+        }
+        if (fn.getCFG() == null) {
+            throw new InterpreterException("Function "
+                    + IdentifiedHelper.repr(fn) + " is not defined.");
+        }
+        Bytecode bc = new Lowering(fn).lower();
+        fn.setCompiledCode(bc);
+        return bc;
+    }
+
+    public Function getFunction() {
+        return func;
+    }
+
+    public int[] getCode() {
+        return code;
+    }
+
+    public Function[] getCallees() {
+        return callees;
+    }
+
+    public String[] getMessages() {
+        return messages;
+    }
+
+    public int getFrameSize() {
+        return frameTemplate.length;
+    }
+
+    public int getNumParams() {
+        return paramIsFP.length;
+    }
+
+    /**
+     * @return 64 minus the size of an int parameter, or 0 for a float or
+     *         double one.
+     */
+    public int getParamShift(int param) {
+        return paramShifts[param];
+    }
+
+    public boolean isParamFP(int param) {
+        return paramIsFP[param];
+    }
+
+    public boolean returnsFP() {
+        return returnsFP;
+    }
+
+    /**
+     * @return A fresh frame, with the constants in place.
+     */
+    public long[] newFrame() {
+        return frameTemplate.clone();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(IdentifiedHelper.repr(func)).append(": ")
+                .append(frameTemplate.length).append(" slots\n");
+        int pc = 0;
+        while (pc < code.length) {
+            int len = length(code, pc);
+            sb.append(String.format("%5d  %-8s", pc, opName(code[pc])));
+            for (int i = 1; i < len; i++) {
+                sb.append(' ').append(code[pc + i]);
+            }
+            sb.append('\n');
+            pc += len;
+        }
+        return sb.toString();
+    }
+
+    private static String opName(int op) {
+        switch (op) {
+        case MOVE:
+            return "MOVE";
+        case TRAP:
+            return "TRAP";
+        default:
+            if (op > BRANCH_CMP) {
+                return "BRANCH2_" + OpCode.getOpName(op - BRANCH_CMP);
+            }
+            return OpCode.getOpName(op);
+        }
+    }
+
+    /**
+     * @return The number of ints taken by the instruction at pc.
+     */
+    static int length(int[] code, int pc) {
+        switch (code[pc]) {
+        case OpCode.RETVOID:
+            return 1;
+        case OpCode.BRANCH:
+        case OpCode.RET:
+        case TRAP:
+            return 2;
+        case MOVE:
+            return 3;
+        case OpCode.BRANCH2:
+            return 4;
+        case BRANCH_CMP + OpCode.EQ:
+        case BRANCH_CMP + OpCode.NE:
+        case BRANCH_CMP + OpCode.SGE:
+        case BRANCH_CMP + OpCode.SGT:
+        case BRANCH_CMP + OpCode.SLE:
+        case BRANCH_CMP + OpCode.SLT:
+        case BRANCH_CMP + OpCode.UGE:
+        case BRANCH_CMP + OpCode.UGT:
+        case BRANCH_CMP + OpCode.ULE:
+        case BRANCH_CMP + OpCode.ULT:
+            return 6;
+        case OpCode.SWITCH:
+            return 4 + 2 * code[pc + 3];
+        case OpCode.CALL:
+            return 4 + code[pc + 3];
+        case OpCode.TAILCALL:
+            return 3 + code[pc + 2];
+        default:
+            if (code[pc] >= OpCode.FFALSE && code[pc] <= OpCode.FOLE) {
+                return 4;
+            }
+            return 5;
+        }
+    }
+
+    static boolean isFP(Type type) {
+        return type instanceof FPType;
+    }
+
+    static boolean isFloat(Type type) {
+        return type instanceof uvm.type.Float;
+    }
+
+    static int shift(Type type) {
+        if (!(type instanceof Int)) {
+            throw new InterpreterException("Type " + type
+                    + " is not supported.");
+        }
+        return 64 - ((Int) type).getSize();
+    }
+
+    /**
+     * The state of lowering one CFG.
+     */
+    private static class Lowering {
+        private final Function func;
+        private final CFG cfg;
+        private final IntList code = new IntList(64);
+
+        private final Map<Value, Integer> constSlots =
+                new IdentityHashMap<Value, Integer>();
+        private final List<Long> constValues = new ArrayList<Long>();
+        private final int numValues;
+        private final int scratch;
+
+        private final List<Function> callees = new ArrayList<Function>();
+        private final List<String> messages = new ArrayList<String>();
+
+        private final int[] blockOffsets;
+        /**
+         * Pairs of a code position and the index of the block whose offset
+         * goes there.
+         */
+        private final IntList blockRefs = new IntList();
+
+        Lowering(Function func) {
+            this.func = func;
+            this.cfg = func.getCFG();
+            this.numValues = cfg.getNumValueIndices();
+            this.scratch = numValues;
+            this.blockOffsets = new int[cfg.getNumBlockIndices()];
+        }
+
+        Bytecode lower() {
+            List<BasicBlock> order = new ArrayList<BasicBlock>();
+            order.add(cfg.getEntry());
+            for (BasicBlock bb : cfg.getBBs()) {
+                if (bb != cfg.getEntry()) {
+                    order.add(bb);
+                }
+            }
+            if (countPhis(cfg.getEntry()) > 0) {
+                trap("PHI "
+                        + IdentifiedHelper.repr(cfg.getEntry().getInsts()
+                                .get(0)) + " has no value from the entry.");
+            }
+            for (int b = 0; b < order.size(); b++) {
+                BasicBlock bb = order.get(b);
+                BasicBlock next = b + 1 < order.size() ? order.get(b + 1)
+                        : null;
+                blockOffsets[bb.getIndex()] = code.size();
+                lowerBlock(bb, next);
+            }
+
+            int[] result = code.toArray();
+            for (int i = 0; i < blockRefs.size(); i += 2) {
+                result[blockRefs.get(i)] = blockOffsets[blockRefs.get(i + 1)];
+            }
+
+            long[] frameTemplate = new long[numValues + 1
+                    + constValues.size()];
+            for (int c = 0; c < constValues.size(); c++) {
+                frameTemplate[numValues + 1 + c] = constValues.get(c);
+            }
+
+            List<Type> paramTypes = func.getSig().getParamTypes();
+            int[] paramShifts = new int[paramTypes.size()];
+            boolean[] paramIsFP = new boolean[paramTypes.size()];
+            for (int p = 0; p < paramTypes.size(); p++) {
+                paramIsFP[p] = isFP(paramTypes.get(p));
+                paramShifts[p] = paramIsFP[p] ? 0 : shift(paramTypes.get(p));
+            }
+
+            return new Bytecode(func, cfg, result, frameTemplate,
+                    callees.toArray(new Function[callees.size()]),
+                    messages.toArray(new String[messages.size()]),
+                    paramShifts, paramIsFP, isFP(func.getSig()
+                            .getReturnType()));
+        }
+
+        private void lowerBlock(BasicBlock bb, BasicBlock next) {
+            List<Instruction> insts = bb.getInsts();
+            Instruction sunk = null;
+            if (!insts.isEmpty()) {
+                InstCmp cmp = fusedCmp(bb, insts.get(insts.size() - 1));
+                if (cmp != null && cmp.getUsedBy().size() == 1) {
+                    sunk = cmp;
+                }
+            }
+            for (int i = countPhis(bb); i < insts.size(); i++) {
+                Instruction inst = insts.get(i);
+                if (inst == sunk) {
+                    continue;
+                }
+                try {
+                    if (lowerInst(bb, inst, next)) {
+                        return;
+                    }
+                } catch (InterpreterException e) {
+                    trap(e.getMessage());
+                    return;
+                }
+            }
+            trap("Block " + IdentifiedHelper.repr(bb) + " has no terminator.");
+        }
+
+        /**
+         * @return true if inst ends the block.
+         */
+        private boolean lowerInst(BasicBlock bb, Instruction inst,
+                BasicBlock next) {
+            int op = inst.opcode();
+            switch (op) {
+            case OpCode.ADD:
+            case OpCode.SUB:
+            case OpCode.MUL:
+            case OpCode.SDIV:
+            case OpCode.SREM:
+            case OpCode.UDIV:
+            case OpCode.UREM:
+            case OpCode.SHL:
+            case OpCode.LSHR:
+            case OpCode.ASHR:
+            case OpCode.AND:
+            case OpCode.OR:
+            case OpCode.XOR: {
+                InstBinOp bin = (InstBinOp) inst;
+                int shift = shift(bin.getType());
+                emit(op, slot(inst), intSlot(bin.getOp1()),
+                        intSlot(bin.getOp2()), shift);
+                return false;
+            }
+            case OpCode.FADD:
+            case OpCode.FSUB:
+            case OpCode.FMUL:
+            case OpCode.FDIV:
+            case OpCode.FREM: {
+                InstBinOp bin = (InstBinOp) inst;
+                emit(op, slot(inst), fpSlot(bin.getOp1()),
+                        fpSlot(bin.getOp2()), isFloat(bin.getType()) ? 1 : 0);
+                return false;
+            }
+            case OpCode.EQ:
+            case OpCode.NE:
+            case OpCode.SGE:
+            case OpCode.SGT:
+            case OpCode.SLE:
+            case OpCode.SLT:
+            case OpCode.UGE:
+            case OpCode.UGT:
+            case OpCode.ULE:
+            case OpCode.ULT: {
+                InstCmp cmp = (InstCmp) inst;
+                int shift = shift(cmp.getOpndType());
+                emit(op, slot(inst), intSlot(cmp.getOp1()),
+                        intSlot(cmp.getOp2()), shift);
+                return false;
+            }
+            case OpCode.FFALSE:
+            case OpCode.FTRUE:
+            case OpCode.FUNO:
+            case OpCode.FUEQ:
+            case OpCode.FUNE:
+            case OpCode.FUGT:
+            case OpCode.FUGE:
+            case OpCode.FULT:
+            case OpCode.FULE:
+            case OpCode.FORD:
+            case OpCode.FOEQ:
+            case OpCode.FONE:
+            case OpCode.FOGT:
+            case OpCode.FOGE:
+            case OpCode.FOLT:
+            case OpCode.FOLE: {
+                InstCmp cmp = (InstCmp) inst;
+                int a = fpSlot(cmp.getOp1());
+                int b = fpSlot(cmp.getOp2());
+                code.add(op);
+                code.add(slot(inst));
+                code.add(a);
+                code.add(b);
+                return false;
+            }
+            case OpCode.TRUNC:
+            case OpCode.ZEXT:
+            case OpCode.SEXT:
+            case OpCode.FPTRUNC:
+            case OpCode.FPEXT:
+            case OpCode.FPTOUI:
+            case OpCode.FPTOSI:
+            case OpCode.UITOFP:
+            case OpCode.SITOFP:
+            case OpCode.BITCAST:
+                lowerConversion((InstConversion) inst);
+                return false;
+            case OpCode.SELECT: {
+                InstSelect sel = (InstSelect) inst;
+                boolean fp = isFP(sel.getType());
+                int cond = intSlot(sel.getCond());
+                int t = fp ? fpSlot(sel.getIfTrue()) : intSlot(sel
+                        .getIfTrue());
+                int f = fp ? fpSlot(sel.getIfFalse()) : intSlot(sel
+                        .getIfFalse());
+                emit(op, slot(inst), cond, t, f);
+                return false;
+            }
+            case OpCode.BRANCH: {
+                BasicBlock dest = ((InstBranch) inst).getDest();
+                emitMoves(bb, dest);
+                if (dest != next) {
+                    code.add(OpCode.BRANCH);
+                    blockRef(dest);
+                }
+                return true;
+            }
+            case OpCode.BRANCH2: {
+                InstBranch2 br = (InstBranch2) inst;
+                InstCmp cmp = fusedCmp(bb, br);
+                if (cmp != null) {
+                    int a = intSlot(cmp.getOp1());
+                    int b = intSlot(cmp.getOp2());
+                    int shift = shift(cmp.getOpndType());
+                    code.add(BRANCH_CMP + cmp.opcode());
+                    code.add(a);
+                    code.add(b);
+                    code.add(shift);
+                } else {
+                    int cond = intSlot(br.getCond());
+                    code.add(OpCode.BRANCH2);
+                    code.add(cond);
+                }
+                List<BasicBlock> dests = new ArrayList<BasicBlock>();
+                IntList positions = new IntList();
+                edgeRef(bb, br.getIfTrue(), dests, positions);
+                edgeRef(bb, br.getIfFalse(), dests, positions);
+                emitStubs(bb, dests, positions, next);
+                return true;
+            }
+            case OpCode.SWITCH: {
+                InstSwitch sw = (InstSwitch) inst;
+                int x = intSlot(sw.getOpnd());
+                int[] values = new int[sw.getCases().size()];
+                int c = 0;
+                for (UseBox value : sw.getCases().keySet()) {
+                    values[c++] = intSlot(value.getDst());
+                }
+                List<BasicBlock> dests = new ArrayList<BasicBlock>();
+                IntList positions = new IntList();
+                code.add(OpCode.SWITCH);
+                code.add(x);
+                edgeRef(bb, sw.getDefaultDest(), dests, positions);
+                code.add(values.length);
+                c = 0;
+                for (BasicBlock dest : sw.getCases().values()) {
+                    code.add(values[c++]);
+                    edgeRef(bb, dest, dests, positions);
+                }
+                emitStubs(bb, dests, positions, next);
+                return true;
+            }
+            case OpCode.CALL:
+            case OpCode.TAILCALL: {
+                AbstractCall call = (AbstractCall) inst;
+                int callee = callee(call);
+                List<UseBox> args = call.getArgs();
+                List<Type> types = call.getSig().getParamTypes();
+                int[] argSlots = new int[args.size()];
+                for (int a = 0; a < args.size(); a++) {
+                    Value v = args.get(a).getDst();
+                    argSlots[a] = isFP(types.get(a)) ? fpSlot(v) : intSlot(v);
+                }
+                code.add(op);
+                if (op == OpCode.CALL) {
+                    code.add(slot(inst));
+                }
+                code.add(callee);
+                code.add(argSlots.length);
+                for (int s : argSlots) {
+                    code.add(s);
+                }
+                return op == OpCode.TAILCALL;
+            }
+            case OpCode.RET: {
+                InstRet ret = (InstRet) inst;
+                Value v = ret.getRetVal();
+                int src = isFP(ret.getRetType()) ? fpSlot(v) : intSlot(v);
+                code.add(OpCode.RET);
+                code.add(src);
+                return true;
+            }
+            case OpCode.RETVOID:
+                code.add(OpCode.RETVOID);
+                return true;
+            default:
+                throw new InterpreterException("Instruction "
+                        + IdentifiedHelper.repr(inst) + " ("
+                        + OpCode.getOpName(op) + ") is not supported.");
+            }
+        }
+
+        private void lowerConversion(InstConversion inst) {
+            Type from = inst.getFromType();
+            Type to = inst.getToType();
+            Value v = inst.getOpnd();
+            int op = inst.opcode();
+            switch (op) {
+            case OpCode.TRUNC:
+            case OpCode.ZEXT:
+                emit(op, slot(inst), intSlot(v), 0, shift(to));
+                break;
+            case OpCode.SEXT:
+                emit(op, slot(inst), intSlot(v), shift(from), shift(to));
+                break;
+            case OpCode.FPTRUNC:
+            case OpCode.FPEXT:
+                emit(op, slot(inst), fpSlot(v), 0, isFloat(to) ? 1 : 0);
+                break;
+            case OpCode.FPTOSI:
+            case OpCode.FPTOUI:
+                emit(op, slot(inst), fpSlot(v), 0, shift(to));
+                break;
+            case OpCode.SITOFP:
+                emit(op, slot(inst), intSlot(v), shift(from), isFloat(to) ? 1
+                        : 0);
+                break;
+            case OpCode.UITOFP:
+                emit(op, slot(inst), intSlot(v), 0, isFloat(to) ? 1 : 0);
+                break;
+            default: {
+                // BITCAST. A double and an int<64> have the same bits.
+                int kind = BITCAST_COPY;
+                if (isFloat(to) && !isFP(from)) {
+                    kind = BITCAST_INT_TO_FLOAT;
+                } else if (isFloat(from) && !isFP(to)) {
+                    kind = BITCAST_FLOAT_TO_INT;
+                }
+                int src = isFP(from) ? fpSlot(v) : intSlot(v);
+                emit(op, slot(inst), src, 0, kind);
+            }
+            }
+        }
+
+        private void emit(int op, int dst, int a, int b, int c) {
+            code.add(op);
+            code.add(dst);
+            code.add(a);
+            code.add(b);
+            code.add(c);
+        }
+
+        private void trap(String message) {
+            code.add(TRAP);
+            code.add(messages.size());
+            messages.add(message);
+        }
+
+        private void blockRef(BasicBlock bb) {
+            blockRefs.add(code.size());
+            blockRefs.add(bb.getIndex());
+            code.add(-1);
+        }
+
+        /**
+         * Add a branch target for the edge from bb to dest. If the edge has
+         * moves, the target is a stub emitted by emitStubs, so note its
+         * position.
+         */
+        private void edgeRef(BasicBlock bb, BasicBlock dest,
+                List<BasicBlock> dests, IntList positions) {
+            if (countPhis(dest) == 0) {
+                blockRef(dest);
+                return;
+            }
+            dests.add(dest);
+            positions.add(code.size());
+            code.add(-1);
+        }
+
+        /**
+         * Emit one stub per distinct destination noted by edgeRef, and point
+         * the branch targets at them. A stub into the next block goes last
+         * and falls through into it.
+         */
+        private void emitStubs(BasicBlock bb, List<BasicBlock> dests,
+                IntList positions, BasicBlock next) {
+            int[] stubs = new int[dests.size()];
+            Arrays.fill(stubs, -1);
+            int last = dests.indexOf(next);
+            for (int i = 0; i < dests.size(); i++) {
+                int first = dests.indexOf(dests.get(i));
+                if (first < i) {
+                    stubs[i] = stubs[first];
+                } else if (i != last) {
+                    stubs[i] = code.size();
+                    emitMoves(bb, dests.get(i));
+                    code.add(OpCode.BRANCH);
+                    blockRef(dests.get(i));
+                }
+            }
+            if (last >= 0) {
+                int stub = code.size();
+                emitMoves(bb, next);
+                for (int i = last; i < dests.size(); i++) {
+                    if (dests.get(i) == next) {
+                        stubs[i] = stub;
+                    }
+                }
+            }
+            for (int i = 0; i < dests.size(); i++) {
+                code.set(positions.get(i), stubs[i]);
+            }
+        }
+
+        /**
+         * Emit the MOVEs for the PHIs of dest on the edge from bb. They are
+         * ordered so that no PHI is written before every PHI reading its old
+         * value has been, saving a value in the scratch slot where they form
+         * a cycle.
+         */
+        private void emitMoves(BasicBlock bb, BasicBlock dest) {
+            List<Instruction> insts = dest.getInsts();
+            int n = countPhis(dest);
+            int[] dsts = new int[n];
+            int[] srcs = new int[n];
+            int pending = 0;
+            for (int i = 0; i < n; i++) {
+                InstPhi phi = (InstPhi) insts.get(i);
+                Value v = phi.getValueFrom(bb);
+                if (v == null) {
+                    trap("PHI " + IdentifiedHelper.repr(phi)
+                            + " has no value from " + IdentifiedHelper.repr(bb)
+                            + ".");
+                    return;
+                }
+                int src = isFP(phi.getType()) ? fpSlot(v) : intSlot(v);
+                if (src != slot(phi)) {
+                    dsts[pending] = slot(phi);
+                    srcs[pending] = src;
+                    pending++;
+                }
+            }
+            while (pending > 0) {
+                int ready = -1;
+                for (int i = 0; i < pending && ready < 0; i++) {
+                    ready = i;
+                    for (int j = 0; j < pending; j++) {
+                        if (srcs[j] == dsts[i]) {
+                            ready = -1;
+                            break;
+                        }
+                    }
+                }
+                if (ready < 0) {
+                    // Every destination is still to be read: a cycle.
+                    int saved = dsts[0];
+                    code.add(MOVE);
+                    code.add(scratch);
+                    code.add(saved);
+                    for (int j = 0; j < pending; j++) {
+                        if (srcs[j] == saved) {
+                            srcs[j] = scratch;
+                        }
+                    }
+                    continue;
+                }
+                code.add(MOVE);
+                code.add(dsts[ready]);
+                code.add(srcs[ready]);
+                pending--;
+                dsts[ready] = dsts[pending];
+                srcs[ready] = srcs[pending];
+            }
+        }
+
+        /**
+         * @return The int comparison in bb which is the condition of br, if
+         *         br is a BRANCH2. It is fused into the branch.
+         */
+        private static InstCmp fusedCmp(BasicBlock bb, Instruction br) {
+            if (br.opcode() != OpCode.BRANCH2) {
+                return null;
+            }
+            Value cond = ((InstBranch2) br).getCond();
+            if (!(cond instanceof InstCmp)
+                    || ((InstCmp) cond).getParent() != bb) {
+                return null;
+            }
+            int op = cond.opcode();
+            return op >= OpCode.EQ && op <= OpCode.ULT ? (InstCmp) cond
+                    : null;
+        }
+
+        private int callee(AbstractCall call) {
+            Value f = call.getFunc();
+            if (!(f instanceof FunctionConstant)) {
+                throw new InterpreterException("Indirect call "
+                        + IdentifiedHelper.repr(call) + " is not supported.");
+            }
+            Function fn = ((FunctionConstant) f).getFunction();
+            int i = callees.indexOf(fn);
+            if (i < 0) {
+                i = callees.size();
+                callees.add(fn);
+            }
+            return i;
+        }
+
+        private int slot(Instruction inst) {
+            return inst.getValueIndex();
+        }
+
+        private int intSlot(Value v) {
+            if (v instanceof Instruction) {
+                return slot((Instruction) v);
+            }
+            if (v instanceof IntConstant) {
+                IntConstant c = (IntConstant) v;
+                int shift = shift(c.getType());
+                return constSlot(v, c.getValue() << shift >>> shift);
+            }
+            throw new InterpreterException("Operand "
+                    + IdentifiedHelper.repr(v) + " is not an int.");
+        }
+
+        private int fpSlot(Value v) {
+            if (v instanceof Instruction) {
+                return slot((Instruction) v);
+            }
+            if (v instanceof DoubleConstant) {
+                return constSlot(v, Double
+                        .doubleToRawLongBits(((DoubleConstant) v).getValue()));
+            }
+            if (v instanceof FloatConstant) {
+                double d = ((FloatConstant) v).getValue();
+                return constSlot(v, Double.doubleToRawLongBits(d));
+            }
+            throw new InterpreterException("Operand "
+                    + IdentifiedHelper.repr(v) + " is not a float or double.");
+        }
+
+        private int constSlot(Value v, long value) {
+            Integer slot = constSlots.get(v);
+            if (slot == null) {
+                slot = numValues + 1 + constValues.size();
+                constSlots.put(v, slot);
+                constValues.add(value);
+            }
+            return slot;
+        }
+
+        private static int countPhis(BasicBlock bb) {
+            List<Instruction> insts = bb.getInsts();
+            int k = 0;
+            while (k < insts.size() && insts.get(k).opcode() == OpCode.PHI) {
+                k++;
+            }
+            return k;
+        }
+    }
+}
@@ -0,0 +1,548 @@
+package uvm.interp;
+
+import uvm.Function;
+import uvm.IdentifiedHelper;
+import uvm.OpCode;
+
+/**
+ * Executes functions from their {@link Bytecode}, which is lowered on first
+ * call and cached on the function. Supports the same instructions as
+ * {@link Interpreter} and gives the same results, but the loop only reads
+ * ints from the code array and longs from the frame: nothing is allocated
+ * or looked up per instruction. Each call allocates one frame.
+ * <p>
+ * A double is kept in the frame as its raw bits. CALL recurses in Java, and
+ * TAILCALL replaces the current frame.
+ * <p>
+ * Not thread safe. Use one instance per thread.
+ */
+public class BytecodeInterpreter {
+    private long longResult;
+    private double doubleResult;
+
+    /**
+     * Call a function whose parameters are all ints.
+     *
+     * @return The result, zero-extended if it is an int, or 0.
+     */
+    public long runLong(Function fn, long... args) {
+        run(fn, args, new double[args.length]);
+        return longResult;
+    }
+
+    /**
+     * Call a function whose parameters are all float or double.
+     *
+     * @return The result if it is a float or double, or 0.
+     */
+    public double runDouble(Function fn, double... args) {
+        run(fn, new long[args.length], args);
+        return doubleResult;
+    }
+
+    /**
+     * Call a function. Get the result with {@link #getLongResult()} or
+     * {@link #getDoubleResult()}.
+     *
+     * @see Interpreter#run(Function, long[], double[])
+     */
+    public void run(Function fn, long[] longArgs, double[] doubleArgs) {
+        Bytecode bc = Bytecode.of(fn);
+        int params = bc.getNumParams();
+        if (longArgs.length < params || doubleArgs.length < params) {
+            throw new IllegalArgumentException("Function "
+                    + IdentifiedHelper.repr(fn) + " takes " + params
+                    + " arguments.");
+        }
+        long[] frame = bc.newFrame();
+        for (int p = 0; p < params; p++) {
+            if (bc.isParamFP(p)) {
+                frame[p] = Double.doubleToRawLongBits(doubleArgs[p]);
+            } else {
+                int sh = bc.getParamShift(p);
+                frame[p] = longArgs[p] << sh >>> sh;
+            }
+        }
+        long r = execute(bc, frame);
+        longResult = 0;
+        doubleResult = 0;
+        if (bc.returnsFP()) {
+            doubleResult = Double.longBitsToDouble(r);
+        } else {
+            longResult = r;
+        }
+    }
+
+    public long getLongResult() {
+        return longResult;
+    }
+
+    public double getDoubleResult() {
+        return doubleResult;
+    }
+
+    private static double d(long bits) {
+        return Double.longBitsToDouble(bits);
+    }
+
+    private static long bits(double d) {
+        return Double.doubleToRawLongBits(d);
+    }
+
+    private static long bits(double d, int isFloat) {
+        return Double.doubleToRawLongBits(isFloat != 0 ? (float) d : d);
+    }
+
+    private static long bool(boolean b) {
+        return b ? 1 : 0;
+    }
+
+    /**
+     * @return The result of the function, as stored in a frame slot.
+     */
+    private static long execute(Bytecode bc, long[] f) {
+        int[] code = bc.getCode();
+        int pc = 0;
+        while (true) {
+            int sh;
+            switch (code[pc]) {
+            case OpCode.ADD:
+                sh = code[pc + 4];
+                f[code[pc + 1]] = (f[code[pc + 2]] + f[code[pc + 3]]) << sh
+                        >>> sh;
+                pc += 5;
+                break;
+            case OpCode.SUB:
+                sh = code[pc + 4];
+                f[code[pc + 1]] = (f[code[pc + 2]] - f[code[pc + 3]]) << sh
+                        >>> sh;
+                pc += 5;
+                break;
+            case OpCode.MUL:
+                sh = code[pc + 4];
+                f[code[pc + 1]] = (f[code[pc + 2]] * f[code[pc + 3]]) << sh
+                        >>> sh;
+                pc += 5;
+                break;
+            case OpCode.SDIV:
+                sh = code[pc + 4];
+                f[code[pc + 1]] = (f[code[pc + 2]] << sh >> sh)
+                        / (f[code[pc + 3]] << sh >> sh) << sh >>> sh;
+                pc += 5;
+                break;
+            case OpCode.SREM:
+                sh = code[pc + 4];
+                f[code[pc + 1]] = (f[code[pc + 2]] << sh >> sh)
+                        % (f[code[pc + 3]] << sh >> sh) << sh >>> sh;
+                pc += 5;
+                break;
+            case OpCode.UDIV:
+                f[code[pc + 1]] = Long.divideUnsigned(f[code[pc + 2]],
+                        f[code[pc + 3]]);
+                pc += 5;
+                break;
+            case OpCode.UREM:
+                f[code[pc + 1]] = Long.remainderUnsigned(f[code[pc + 2]],
+                        f[code[pc + 3]]);
+                pc += 5;
+                break;
+            case OpCode.SHL:
+                sh = code[pc + 4];
+                f[code[pc + 1]] = (f[code[pc + 2]] << f[code[pc + 3]]) << sh
+                        >>> sh;
+                pc += 5;
+                break;
+            case OpCode.LSHR:
+                f[code[pc + 1]] = f[code[pc + 2]] >>> f[code[pc + 3]];
+                pc += 5;
+                break;
+            case OpCode.ASHR:
+                sh = code[pc + 4];
+                f[code[pc + 1]] = (f[code[pc + 2]] << sh >> sh)
+                        >> f[code[pc + 3]] << sh >>> sh;
+                pc += 5;
+                break;
+            case OpCode.AND:
+                f[code[pc + 1]] = f[code[pc + 2]] & f[code[pc + 3]];
+                pc += 5;
+                break;
+            case OpCode.OR:
+                f[code[pc + 1]] = f[code[pc + 2]] | f[code[pc + 3]];
+                pc += 5;
+                break;
+            case OpCode.XOR:
+                f[code[pc + 1]] = f[code[pc + 2]] ^ f[code[pc + 3]];
+                pc += 5;
+                break;
+
+            case OpCode.FADD:
+                f[code[pc + 1]] = bits(d(f[code[pc + 2]]) + d(f[code[pc + 3]]),
+                        code[pc + 4]);
+                pc += 5;
+                break;
+            case OpCode.FSUB:
+                f[code[pc + 1]] = bits(d(f[code[pc + 2]]) - d(f[code[pc + 3]]),
+                        code[pc + 4]);
+                pc += 5;
+                break;
+            case OpCode.FMUL:
+                f[code[pc + 1]] = bits(d(f[code[pc + 2]]) * d(f[code[pc + 3]]),
+                        code[pc + 4]);
+                pc += 5;
+                break;
+            case OpCode.FDIV:
+                f[code[pc + 1]] = bits(d(f[code[pc + 2]]) / d(f[code[pc + 3]]),
+                        code[pc + 4]);
+                pc += 5;
+                break;
+            case OpCode.FREM:
+                f[code[pc + 1]] = bits(d(f[code[pc + 2]]) % d(f[code[pc + 3]]),
+                        code[pc + 4]);
+                pc += 5;
+                break;
+
+            case OpCode.EQ:
+                f[code[pc + 1]] = bool(f[code[pc + 2]] == f[code[pc + 3]]);
+                pc += 5;
+                break;
+            case OpCode.NE:
+                f[code[pc + 1]] = bool(f[code[pc + 2]] != f[code[pc + 3]]);
+                pc += 5;
+                break;
+            // Shifting left keeps the signed order of int<n> values.
+            case OpCode.SGE:
+                sh = code[pc + 4];
+                f[code[pc + 1]] = bool(f[code[pc + 2]] << sh >= f[code[pc + 3]]
+                        << sh);
+                pc += 5;
+                break;
+            case OpCode.SGT:
+                sh = code[pc + 4];
+                f[code[pc + 1]] = bool(f[code[pc + 2]] << sh > f[code[pc + 3]]
+                        << sh);
+                pc += 5;
+                break;
+            case OpCode.SLE:
+                sh = code[pc + 4];
+                f[code[pc + 1]] = bool(f[code[pc + 2]] << sh <= f[code[pc + 3]]
+                        << sh);
+                pc += 5;
+                break;
+            case OpCode.SLT:
+                sh = code[pc + 4];
+                f[code[pc + 1]] = bool(f[code[pc + 2]] << sh < f[code[pc + 3]]
+                        << sh);
+                pc += 5;
+                break;
+            case OpCode.UGE:
+                f[code[pc + 1]] = bool(Long.compareUnsigned(f[code[pc + 2]],
+                        f[code[pc + 3]]) >= 0);
+                pc += 5;
+                break;
+            case OpCode.UGT:
+                f[code[pc + 1]] = bool(Long.compareUnsigned(f[code[pc + 2]],
+                        f[code[pc + 3]]) > 0);
+                pc += 5;
+                break;
+            case OpCode.ULE:
+                f[code[pc + 1]] = bool(Long.compareUnsigned(f[code[pc + 2]],
+                        f[code[pc + 3]]) <= 0);
+                pc += 5;
+                break;
+            case OpCode.ULT:
+                f[code[pc + 1]] = bool(Long.compareUnsigned(f[code[pc + 2]],
+                        f[code[pc + 3]]) < 0);
+                pc += 5;
+                break;
+
+            case OpCode.FFALSE:
+                f[code[pc + 1]] = 0;
+                pc += 4;
+                break;
+            case OpCode.FTRUE:
+                f[code[pc + 1]] = 1;
+                pc += 4;
+                break;
+            case OpCode.FUNO: {
+                double a = d(f[code[pc + 2]]);
+                double b = d(f[code[pc + 3]]);
+                f[code[pc + 1]] = bool(a != a || b != b);
+                pc += 4;
+                break;
+            }
+            case OpCode.FUEQ: {
+                double a = d(f[code[pc + 2]]);
+                double b = d(f[code[pc + 3]]);
+                f[code[pc + 1]] = bool(a == b || a != a || b != b);
+                pc += 4;
+                break;
+            }
+            case OpCode.FUNE: {
+                double a = d(f[code[pc + 2]]);
+                double b = d(f[code[pc + 3]]);
+                f[code[pc + 1]] = bool(a != b);
+                pc += 4;
+                break;
+            }
+            case OpCode.FUGT: {
+                double a = d(f[code[pc + 2]]);
+                double b = d(f[code[pc + 3]]);
+                f[code[pc + 1]] = bool(!(a <= b));
+                pc += 4;
+                break;
+            }
+            case OpCode.FUGE: {
+                double a = d(f[code[pc + 2]]);
+                double b = d(f[code[pc + 3]]);
+                f[code[pc + 1]] = bool(!(a < b));
+                pc += 4;
+                break;
+            }
+            case OpCode.FULT: {
+                double a = d(f[code[pc + 2]]);
+                double b = d(f[code[pc + 3]]);
+                f[code[pc + 1]] = bool(!(a >= b));
+                pc += 4;
+                break;
+            }
+            case OpCode.FULE: {
+                double a = d(f[code[pc + 2]]);
+                double b = d(f[code[pc + 3]]);
+                f[code[pc + 1]] = bool(!(a > b));
+                pc += 4;
+                break;
+            }
+            case OpCode.FORD: {
+                double a = d(f[code[pc + 2]]);
+                double b = d(f[code[pc + 3]]);
+                f[code[pc + 1]] = bool(a == a && b == b);
+                pc += 4;
+                break;
+            }
+            case OpCode.FOEQ: {
+                double a = d(f[code[pc + 2]]);
+                double b = d(f[code[pc + 3]]);
+                f[code[pc + 1]] = bool(a == b);
+                pc += 4;
+                break;
+            }
+            case OpCode.FONE: {
+                double a = d(f[code[pc + 2]]);
+                double b = d(f[code[pc + 3]]);
+                f[code[pc + 1]] = bool(a < b || a > b);
+                pc += 4;
+                break;
+            }
+            case OpCode.FOGT: {
+                double a = d(f[code[pc + 2]]);
+                double b = d(f[code[pc + 3]]);
+                f[code[pc + 1]] = bool(a > b);
+                pc += 4;
+                break;
+            }
+            case OpCode.FOGE: {
+                double a = d(f[code[pc + 2]]);
+                double b = d(f[code[pc + 3]]);
+                f[code[pc + 1]] = bool(a >= b);
+                pc += 4;
+                break;
+            }
+            case OpCode.FOLT: {
+                double a = d(f[code[pc + 2]]);
+                double b = d(f[code[pc + 3]]);
+                f[code[pc + 1]] = bool(a < b);
+                pc += 4;
+                break;
+            }
+            case OpCode.FOLE: {
+                double a = d(f[code[pc + 2]]);
+                double b = d(f[code[pc + 3]]);
+                f[code[pc + 1]] = bool(a <= b);
+                pc += 4;
+                break;
+            }
+
+            case OpCode.TRUNC:
+            case OpCode.ZEXT:
+                sh = code[pc + 4];
+                f[code[pc + 1]] = f[code[pc + 2]] << sh >>> sh;
+                pc += 5;
+                break;
+            case OpCode.SEXT: {
+                int from = code[pc + 3];
+                sh = code[pc + 4];
+                f[code[pc + 1]] = (f[code[pc + 2]] << from >> from) << sh
+                        >>> sh;
+                pc += 5;
+                break;
+            }
+            case OpCode.FPTRUNC:
+            case OpCode.FPEXT:
+                f[code[pc + 1]] = bits(d(f[code[pc + 2]]), code[pc + 4]);
+                pc += 5;
+                break;
+            case OpCode.FPTOSI:
+                sh = code[pc + 4];
+                f[code[pc + 1]] = (long) d(f[code[pc + 2]]) << sh >>> sh;
+                pc += 5;
+                break;
+            case OpCode.FPTOUI: {
+                double x = d(f[code[pc + 2]]);
+                long u = x >= 0x1p63 ? (long) (x - 0x1p63) ^ Long.MIN_VALUE
+                        : (long) x;
+                sh = code[pc + 4];
+                f[code[pc + 1]] = u << sh >>> sh;
+                pc += 5;
+                break;
+            }
+            case OpCode.SITOFP: {
+                int from = code[pc + 3];
+                long s = f[code[pc + 2]] << from >> from;
+                f[code[pc + 1]] = code[pc + 4] != 0 ? bits((float) s)
+                        : bits((double) s);
+                pc += 5;
+                break;
+            }
+            case OpCode.UITOFP: {
+                long u = f[code[pc + 2]];
+                boolean toFloat = code[pc + 4] != 0;
+                double r;
+                if (u >= 0) {
+                    r = toFloat ? (float) u : (double) u;
+                } else {
+                    // Halve, keeping the lowest bit for rounding, and double
+                    // again.
+                    long half = (u >>> 1) | (u & 1);
+                    r = toFloat ? (float) half * 2.0f : (double) half * 2.0;
+                }
+                f[code[pc + 1]] = bits(r);
+                pc += 5;
+                break;
+            }
+            case OpCode.BITCAST: {
+                long x = f[code[pc + 2]];
+                switch (code[pc + 4]) {
+                case Bytecode.BITCAST_INT_TO_FLOAT:
+                    x = bits(Float.intBitsToFloat((int) x));
+                    break;
+                case Bytecode.BITCAST_FLOAT_TO_INT:
+                    x = Float.floatToRawIntBits((float) d(x)) & 0xffffffffL;
+                    break;
+                default:
+                }
+                f[code[pc + 1]] = x;
+                pc += 5;
+                break;
+            }
+
+            case OpCode.SELECT:
+                f[code[pc + 1]] = f[code[pc + 2]] != 0 ? f[code[pc + 3]]
+                        : f[code[pc + 4]];
+                pc += 5;
+                break;
+            case Bytecode.MOVE:
+                f[code[pc + 1]] = f[code[pc + 2]];
+                pc += 3;
+                break;
+            case OpCode.BRANCH:
+                pc = code[pc + 1];
+                break;
+            case OpCode.BRANCH2:
+                pc = f[code[pc + 1]] != 0 ? code[pc + 2] : code[pc + 3];
+                break;
+            case Bytecode.BRANCH_CMP + OpCode.EQ:
+                pc = f[code[pc + 1]] == f[code[pc + 2]]
+                        ? code[pc + 4] : code[pc + 5];
+                break;
+            case Bytecode.BRANCH_CMP + OpCode.NE:
+                pc = f[code[pc + 1]] != f[code[pc + 2]]
+                        ? code[pc + 4] : code[pc + 5];
+                break;
+            case Bytecode.BRANCH_CMP + OpCode.SGE:
+                sh = code[pc + 3];
+                pc = f[code[pc + 1]] << sh >= f[code[pc + 2]] << sh
+                        ? code[pc + 4] : code[pc + 5];
+                break;
+            case Bytecode.BRANCH_CMP + OpCode.SGT:
+                sh = code[pc + 3];
+                pc = f[code[pc + 1]] << sh > f[code[pc + 2]] << sh
+                        ? code[pc + 4] : code[pc + 5];
+                break;
+            case Bytecode.BRANCH_CMP + OpCode.SLE:
+                sh = code[pc + 3];
+                pc = f[code[pc + 1]] << sh <= f[code[pc + 2]] << sh
+                        ? code[pc + 4] : code[pc + 5];
+                break;
+            case Bytecode.BRANCH_CMP + OpCode.SLT:
+                sh = code[pc + 3];
+                pc = f[code[pc + 1]] << sh < f[code[pc + 2]] << sh
+                        ? code[pc + 4] : code[pc + 5];
+                break;
+            case Bytecode.BRANCH_CMP + OpCode.UGE:
+                pc = Long.compareUnsigned(f[code[pc + 1]], f[code[pc + 2]]) >= 0
+                        ? code[pc + 4] : code[pc + 5];
+                break;
+            case Bytecode.BRANCH_CMP + OpCode.UGT:
+                pc = Long.compareUnsigned(f[code[pc + 1]], f[code[pc + 2]]) > 0
+                        ? code[pc + 4] : code[pc + 5];
+                break;
+            case Bytecode.BRANCH_CMP + OpCode.ULE:
+                pc = Long.compareUnsigned(f[code[pc + 1]], f[code[pc + 2]]) <= 0
+                        ? code[pc + 4] : code[pc + 5];
+                break;
+            case Bytecode.BRANCH_CMP + OpCode.ULT:
+                pc = Long.compareUnsigned(f[code[pc + 1]], f[code[pc + 2]]) < 0
+                        ? code[pc + 4] : code[pc + 5];
+                break;
+            case OpCode.SWITCH: {
+                long x = f[code[pc + 1]];
+                int target = code[pc + 2];
+                int end = pc + 4 + 2 * code[pc + 3];
+                for (int c = pc + 4; c < end; c += 2) {
+                    if (f[code[c]] == x) {
+                        target = code[c + 1];
+                        break;
+                    }
+                }
+                pc = target;
+                break;
+            }
+            case OpCode.CALL: {
+                Bytecode callee = Bytecode.of(bc.getCallees()[code[pc + 2]]);
+                long[] cf = callee.newFrame();
+                int n = code[pc + 3];
+                for (int a = 0; a < n; a++) {
+                    cf[a] = f[code[pc + 4 + a]];
+                }
+                f[code[pc + 1]] = execute(callee, cf);
+                pc += 4 + n;
+                break;
+            }
+            case OpCode.TAILCALL: {
+                Bytecode callee = Bytecode.of(bc.getCallees()[code[pc + 1]]);
+                long[] cf = callee.newFrame();
+                int n = code[pc + 2];
+                for (int a = 0; a < n; a++) {
+                    cf[a] = f[code[pc + 3 + a]];
+                }
+                bc = callee;
+                code = callee.getCode();
+                f = cf;
+                pc = 0;
+                break;
+            }
+            case OpCode.RET:
+                return f[code[pc + 1]];
+            case OpCode.RETVOID:
+                return 0;
+            case Bytecode.TRAP:
+                throw new InterpreterException(
+                        bc.getMessages()[code[pc + 1]]);
+            default:
+                throw new InterpreterException("Bad opcode " + code[pc]
+                        + " at " + pc + " in "
+                        + IdentifiedHelper.repr(bc.getFunction()) + ".");
+            }
+        }
+    }
+}
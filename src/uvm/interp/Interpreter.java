@@ -0,0 +1,671 @@
+package uvm.interp;
+
+import java.util.List;
+import java.util.Map;
+
+import uvm.BasicBlock;
+import uvm.CFG;
+import uvm.Function;
+import uvm.IdentifiedHelper;
+import uvm.OpCode;
+import uvm.ssavalue.AbstractCall;
+import uvm.ssavalue.DoubleConstant;
+import uvm.ssavalue.FloatConstant;
+import uvm.ssavalue.FunctionConstant;
+import uvm.ssavalue.InstBinOp;
+import uvm.ssavalue.InstBranch;
+import uvm.ssavalue.InstBranch2;
+import uvm.ssavalue.InstCmp;
+import uvm.ssavalue.InstConversion;
+import uvm.ssavalue.InstPhi;
+import uvm.ssavalue.InstRet;
+import uvm.ssavalue.InstSelect;
+import uvm.ssavalue.InstSwitch;
+import uvm.ssavalue.Instruction;
+import uvm.ssavalue.IntConstant;
+import uvm.ssavalue.Parameter;
+import uvm.ssavalue.UseBox;
+import uvm.ssavalue.Value;
+import uvm.type.FPType;
+import uvm.type.Int;
+import uvm.type.Type;
+
+/**
+ * Executes functions by walking their CFGs, dispatching on the opcode of
+ * each Instruction object.
+ * <p>
+ * Supported are the integer and floating point binary operations and
+ * comparisons, the conversions between them (TRUNC, ZEXT, SEXT, FPTRUNC,
+ * FPEXT, FPTOUI, FPTOSI, UITOFP, SITOFP and BITCAST), SELECT, BRANCH,
+ * BRANCH2, SWITCH, PHI, CALL, TAILCALL, RET and RETVOID. Calls must be to
+ * function constants. Anything else throws {@link InterpreterException}, and
+ * division by zero throws ArithmeticException.
+ * <p>
+ * Each call has a frame of two arrays of primitive slots, indexed by
+ * {@link Instruction#getValueIndex()}: longs for int values and doubles for
+ * float and double values. An int&lt;n&gt; is held zero-extended in the low n
+ * bits of a long, and a float as the double of the same value. Nothing is
+ * boxed.
+ * <p>
+ * The PHI nodes at the beginning of a block are evaluated together when the
+ * block is entered, for the block which was left. Values are told apart by
+ * object, so this runs SSA CFGs as defined by the text or binary form, not
+ * the output of {@link uvm.reducer.PhiReducer}. A CFG sharing instructions
+ * with another is renumbered by {@link CFG#getNumValueIndices()} at each call
+ * if the other one was numbered in between.
+ * <p>
+ * CALL recurses in Java, and TAILCALL replaces the current frame.
+ * <p>
+ * Not thread safe. Use one instance per thread.
+ */
+public class Interpreter {
+    private long longResult;
+    private double doubleResult;
+
+    private long instructionCount;
+
+    /**
+     * The values of the PHI nodes of a block, read before any is written.
+     */
+    private long[] phiLongs = new long[8];
+    private double[] phiDoubles = new double[8];
+
+    /**
+     * Call a function whose parameters are all ints.
+     *
+     * @return The result, zero-extended if it is an int, or 0.
+     */
+    public long runLong(Function fn, long... args) {
+        run(fn, args, new double[args.length]);
+        return longResult;
+    }
+
+    /**
+     * Call a function whose parameters are all float or double.
+     *
+     * @return The result if it is a float or double, or 0.
+     */
+    public double runDouble(Function fn, double... args) {
+        run(fn, new long[args.length], args);
+        return doubleResult;
+    }
+
+    /**
+     * Call a function. Get the result with {@link #getLongResult()} or
+     * {@link #getDoubleResult()}.
+     *
+     * @param longArgs
+     *            The value of each int parameter, at its position. Only the
+     *            low n bits of an int&lt;n&gt; are used.
+     * @param doubleArgs
+     *            The value of each float or double parameter, at its
+     *            position.
+     */
+    public void run(Function fn, long[] longArgs, double[] doubleArgs) {
+        int params = fn.getSig().getParamTypes().size();
+        if (longArgs.length < params || doubleArgs.length < params) {
+            throw new IllegalArgumentException("Function "
+                    + IdentifiedHelper.repr(fn) + " takes " + params
+                    + " arguments.");
+        }
+        longResult = 0;
+        doubleResult = 0;
+        execute(fn, longArgs, doubleArgs);
+    }
+
+    public long getLongResult() {
+        return longResult;
+    }
+
+    public double getDoubleResult() {
+        return doubleResult;
+    }
+
+    /**
+     * @return The number of instructions executed since this interpreter was
+     *         created or the count was reset, including PHI nodes.
+     */
+    public long getInstructionCount() {
+        return instructionCount;
+    }
+
+    public void resetInstructionCount() {
+        instructionCount = 0;
+    }
+
+    private void execute(Function fn, long[] longArgs, double[] doubleArgs) {
+        frames: while (true) {
+            CFG cfg = fn.getCFG();
+            if (cfg == null) {
+                throw new InterpreterException("Function "
+                        + IdentifiedHelper.repr(fn) + " is not defined.");
+            }
+            int n = cfg.getNumValueIndices();
+            long[] ls = new long[n];
+            double[] ds = new double[n];
+            List<Parameter> params = cfg.getParams();
+            for (int p = 0; p < params.size(); p++) {
+                Parameter param = params.get(p);
+                if (isFP(param.getType())) {
+                    ds[param.getValueIndex()] = doubleArgs[p];
+                } else {
+                    ls[param.getValueIndex()] = longArgs[p]
+                            & mask(intSize(param.getType()));
+                }
+            }
+
+            BasicBlock prev = null;
+            BasicBlock bb = cfg.getEntry();
+            while (true) {
+                List<Instruction> insts = bb.getInsts();
+                int size = insts.size();
+                BasicBlock next = null;
+                for (int i = enterBlock(insts, prev, ls, ds); i < size
+                        && next == null; i++) {
+                    Instruction inst = insts.get(i);
+                    instructionCount++;
+                    switch (inst.opcode()) {
+                    case OpCode.ADD:
+                    case OpCode.SUB:
+                    case OpCode.MUL:
+                    case OpCode.SDIV:
+                    case OpCode.SREM:
+                    case OpCode.UDIV:
+                    case OpCode.UREM:
+                    case OpCode.SHL:
+                    case OpCode.LSHR:
+                    case OpCode.ASHR:
+                    case OpCode.AND:
+                    case OpCode.OR:
+                    case OpCode.XOR:
+                        binOp((InstBinOp) inst, ls);
+                        break;
+                    case OpCode.FADD:
+                    case OpCode.FSUB:
+                    case OpCode.FMUL:
+                    case OpCode.FDIV:
+                    case OpCode.FREM:
+                        fpBinOp((InstBinOp) inst, ds);
+                        break;
+                    case OpCode.EQ:
+                    case OpCode.NE:
+                    case OpCode.SGE:
+                    case OpCode.SGT:
+                    case OpCode.SLE:
+                    case OpCode.SLT:
+                    case OpCode.UGE:
+                    case OpCode.UGT:
+                    case OpCode.ULE:
+                    case OpCode.ULT:
+                        cmp((InstCmp) inst, ls);
+                        break;
+                    case OpCode.FFALSE:
+                    case OpCode.FTRUE:
+                    case OpCode.FUNO:
+                    case OpCode.FUEQ:
+                    case OpCode.FUNE:
+                    case OpCode.FUGT:
+                    case OpCode.FUGE:
+                    case OpCode.FULT:
+                    case OpCode.FULE:
+                    case OpCode.FORD:
+                    case OpCode.FOEQ:
+                    case OpCode.FONE:
+                    case OpCode.FOGT:
+                    case OpCode.FOGE:
+                    case OpCode.FOLT:
+                    case OpCode.FOLE:
+                        fpCmp((InstCmp) inst, ls, ds);
+                        break;
+                    case OpCode.TRUNC:
+                    case OpCode.ZEXT:
+                    case OpCode.SEXT:
+                    case OpCode.FPTRUNC:
+                    case OpCode.FPEXT:
+                    case OpCode.FPTOUI:
+                    case OpCode.FPTOSI:
+                    case OpCode.UITOFP:
+                    case OpCode.SITOFP:
+                    case OpCode.BITCAST:
+                        convert((InstConversion) inst, ls, ds);
+                        break;
+                    case OpCode.SELECT: {
+                        InstSelect sel = (InstSelect) inst;
+                        Value v = intValue(sel.getCond(), ls) != 0 ? sel
+                                .getIfTrue() : sel.getIfFalse();
+                        if (isFP(sel.getType())) {
+                            ds[sel.getValueIndex()] = fpValue(v, ds);
+                        } else {
+                            ls[sel.getValueIndex()] = intValue(v, ls);
+                        }
+                        break;
+                    }
+                    case OpCode.BRANCH:
+                        next = ((InstBranch) inst).getDest();
+                        break;
+                    case OpCode.BRANCH2: {
+                        InstBranch2 br = (InstBranch2) inst;
+                        next = intValue(br.getCond(), ls) != 0 ? br
+                                .getIfTrue() : br.getIfFalse();
+                        break;
+                    }
+                    case OpCode.SWITCH:
+                        next = switchDest((InstSwitch) inst, ls);
+                        break;
+                    case OpCode.CALL:
+                        call((AbstractCall) inst, ls, ds);
+                        break;
+                    case OpCode.TAILCALL: {
+                        AbstractCall call = (AbstractCall) inst;
+                        fn = callee(call);
+                        longArgs = new long[call.getArgs().size()];
+                        doubleArgs = new double[call.getArgs().size()];
+                        readArgs(call, ls, ds, longArgs, doubleArgs);
+                        continue frames;
+                    }
+                    case OpCode.RET: {
+                        InstRet ret = (InstRet) inst;
+                        if (isFP(ret.getRetType())) {
+                            doubleResult = fpValue(ret.getRetVal(), ds);
+                        } else {
+                            longResult = intValue(ret.getRetVal(), ls);
+                        }
+                        return;
+                    }
+                    case OpCode.RETVOID:
+                        return;
+                    default:
+                        throw unsupported(inst);
+                    }
+                }
+                if (next == null) {
+                    throw new InterpreterException("Block "
+                            + IdentifiedHelper.repr(bb) + " has no terminator.");
+                }
+                prev = bb;
+                bb = next;
+            }
+        }
+    }
+
+    /**
+     * Assign the PHI nodes at the beginning of a block, entered from prev.
+     *
+     * @return The position of the first other instruction.
+     */
+    private int enterBlock(List<Instruction> insts, BasicBlock prev,
+            long[] ls, double[] ds) {
+        int k = 0;
+        while (k < insts.size() && insts.get(k).opcode() == OpCode.PHI) {
+            k++;
+        }
+        if (k == 0) {
+            return 0;
+        }
+        if (phiLongs.length < k) {
+            phiLongs = new long[k * 2];
+            phiDoubles = new double[k * 2];
+        }
+        for (int i = 0; i < k; i++) {
+            InstPhi phi = (InstPhi) insts.get(i);
+            Value v = prev == null ? null : phi.getValueFrom(prev);
+            if (v == null) {
+                throw new InterpreterException("PHI "
+                        + IdentifiedHelper.repr(phi) + " has no value from "
+                        + (prev == null ? "the entry" : IdentifiedHelper
+                                .repr(prev)) + ".");
+            }
+            if (isFP(phi.getType())) {
+                phiDoubles[i] = fpValue(v, ds);
+            } else {
+                phiLongs[i] = intValue(v, ls);
+            }
+        }
+        for (int i = 0; i < k; i++) {
+            Instruction phi = insts.get(i);
+            if (isFP(phi.getType())) {
+                ds[phi.getValueIndex()] = phiDoubles[i];
+            } else {
+                ls[phi.getValueIndex()] = phiLongs[i];
+            }
+        }
+        instructionCount += k;
+        return k;
+    }
+
+    private static void binOp(InstBinOp inst, long[] ls) {
+        int bits = intSize(inst.getType());
+        long a = intValue(inst.getOp1(), ls);
+        long b = intValue(inst.getOp2(), ls);
+        long r;
+        switch (inst.opcode()) {
+        case OpCode.ADD:
+            r = a + b;
+            break;
+        case OpCode.SUB:
+            r = a - b;
+            break;
+        case OpCode.MUL:
+            r = a * b;
+            break;
+        case OpCode.SDIV:
+            r = sext(a, bits) / sext(b, bits);
+            break;
+        case OpCode.SREM:
+            r = sext(a, bits) % sext(b, bits);
+            break;
+        case OpCode.UDIV:
+            r = Long.divideUnsigned(a, b);
+            break;
+        case OpCode.UREM:
+            r = Long.remainderUnsigned(a, b);
+            break;
+        case OpCode.SHL:
+            r = a << b;
+            break;
+        case OpCode.LSHR:
+            r = a >>> b;
+            break;
+        case OpCode.ASHR:
+            r = sext(a, bits) >> b;
+            break;
+        case OpCode.AND:
+            r = a & b;
+            break;
+        case OpCode.OR:
+            r = a | b;
+            break;
+        default:
+            r = a ^ b;
+        }
+        ls[inst.getValueIndex()] = r & mask(bits);
+    }
+
+    private static void fpBinOp(InstBinOp inst, double[] ds) {
+        double a = fpValue(inst.getOp1(), ds);
+        double b = fpValue(inst.getOp2(), ds);
+        double r;
+        switch (inst.opcode()) {
+        case OpCode.FADD:
+            r = a + b;
+            break;
+        case OpCode.FSUB:
+            r = a - b;
+            break;
+        case OpCode.FMUL:
+            r = a * b;
+            break;
+        case OpCode.FDIV:
+            r = a / b;
+            break;
+        default:
+            r = a % b;
+        }
+        ds[inst.getValueIndex()] = isFloat(inst.getType()) ? (float) r : r;
+    }
+
+    private static void cmp(InstCmp inst, long[] ls) {
+        int bits = intSize(inst.getOpndType());
+        long a = intValue(inst.getOp1(), ls);
+        long b = intValue(inst.getOp2(), ls);
+        boolean r;
+        switch (inst.opcode()) {
+        case OpCode.EQ:
+            r = a == b;
+            break;
+        case OpCode.NE:
+            r = a != b;
+            break;
+        case OpCode.SGE:
+            r = sext(a, bits) >= sext(b, bits);
+            break;
+        case OpCode.SGT:
+            r = sext(a, bits) > sext(b, bits);
+            break;
+        case OpCode.SLE:
+            r = sext(a, bits) <= sext(b, bits);
+            break;
+        case OpCode.SLT:
+            r = sext(a, bits) < sext(b, bits);
+            break;
+        case OpCode.UGE:
+            r = Long.compareUnsigned(a, b) >= 0;
+            break;
+        case OpCode.UGT:
+            r = Long.compareUnsigned(a, b) > 0;
+            break;
+        case OpCode.ULE:
+            r = Long.compareUnsigned(a, b) <= 0;
+            break;
+        default:
+            r = Long.compareUnsigned(a, b) < 0;
+        }
+        ls[inst.getValueIndex()] = r ? 1 : 0;
+    }
+
+    private static void fpCmp(InstCmp inst, long[] ls, double[] ds) {
+        double a = fpValue(inst.getOp1(), ds);
+        double b = fpValue(inst.getOp2(), ds);
+        boolean unordered = a != a || b != b;
+        boolean r;
+        switch (inst.opcode()) {
+        case OpCode.FFALSE:
+            r = false;
+            break;
+        case OpCode.FTRUE:
+            r = true;
+            break;
+        case OpCode.FUNO:
+            r = unordered;
+            break;
+        case OpCode.FUEQ:
+            r = unordered || a == b;
+            break;
+        case OpCode.FUNE:
+            r = a != b;
+            break;
+        case OpCode.FUGT:
+            r = !(a <= b);
+            break;
+        case OpCode.FUGE:
+            r = !(a < b);
+            break;
+        case OpCode.FULT:
+            r = !(a >= b);
+            break;
+        case OpCode.FULE:
+            r = !(a > b);
+            break;
+        case OpCode.FORD:
+            r = !unordered;
+            break;
+        case OpCode.FOEQ:
+            r = a == b;
+            break;
+        case OpCode.FONE:
+            r = a < b || a > b;
+            break;
+        case OpCode.FOGT:
+            r = a > b;
+            break;
+        case OpCode.FOGE:
+            r = a >= b;
+            break;
+        case OpCode.FOLT:
+            r = a < b;
+            break;
+        default:
+            r = a <= b;
+        }
+        ls[inst.getValueIndex()] = r ? 1 : 0;
+    }
+
+    private static void convert(InstConversion inst, long[] ls, double[] ds) {
+        Type from = inst.getFromType();
+        Type to = inst.getToType();
+        Value v = inst.getOpnd();
+        int i = inst.getValueIndex();
+        switch (inst.opcode()) {
+        case OpCode.TRUNC:
+        case OpCode.ZEXT:
+            ls[i] = intValue(v, ls) & mask(intSize(to));
+            break;
+        case OpCode.SEXT:
+            ls[i] = sext(intValue(v, ls), intSize(from)) & mask(intSize(to));
+            break;
+        case OpCode.FPTRUNC:
+        case OpCode.FPEXT:
+            double d = fpValue(v, ds);
+            ds[i] = isFloat(to) ? (float) d : d;
+            break;
+        case OpCode.FPTOSI:
+            ls[i] = (long) fpValue(v, ds) & mask(intSize(to));
+            break;
+        case OpCode.FPTOUI:
+            ls[i] = fpToUnsigned(fpValue(v, ds)) & mask(intSize(to));
+            break;
+        case OpCode.SITOFP: {
+            long s = sext(intValue(v, ls), intSize(from));
+            ds[i] = isFloat(to) ? (float) s : (double) s;
+            break;
+        }
+        case OpCode.UITOFP:
+            ds[i] = unsignedToFP(intValue(v, ls), isFloat(to));
+            break;
+        default:
+            // BITCAST
+            if (isFP(from) && isFP(to)) {
+                ds[i] = fpValue(v, ds);
+            } else if (isFP(to)) {
+                long bits = intValue(v, ls);
+                ds[i] = isFloat(to) ? Float.intBitsToFloat((int) bits)
+                        : Double.longBitsToDouble(bits);
+            } else if (isFP(from)) {
+                double x = fpValue(v, ds);
+                ls[i] = isFloat(from) ? Float.floatToRawIntBits((float) x)
+                        & 0xffffffffL : Double.doubleToRawLongBits(x);
+            } else {
+                ls[i] = intValue(v, ls);
+            }
+        }
+    }
+
+    private static long fpToUnsigned(double d) {
+        if (d >= 0x1p63) {
+            return (long) (d - 0x1p63) ^ Long.MIN_VALUE;
+        }
+        return (long) d;
+    }
+
+    private static double unsignedToFP(long u, boolean toFloat) {
+        if (u >= 0) {
+            return toFloat ? (float) u : (double) u;
+        }
+        // Halve, keeping the lowest bit for rounding, and double again.
+        long half = (u >>> 1) | (u & 1);
+        return toFloat ? (float) half * 2.0f : (double) half * 2.0;
+    }
+
+    private static BasicBlock switchDest(InstSwitch inst, long[] ls) {
+        long x = intValue(inst.getOpnd(), ls);
+        for (Map.Entry<UseBox, BasicBlock> e : inst.getCases().entrySet()) {
+            if (intValue(e.getKey().getDst(), ls) == x) {
+                return e.getValue();
+            }
+        }
+        return inst.getDefaultDest();
+    }
+
+    private void call(AbstractCall inst, long[] ls, double[] ds) {
+        Function fn = callee(inst);
+        int n = inst.getArgs().size();
+        long[] longArgs = new long[n];
+        double[] doubleArgs = new double[n];
+        readArgs(inst, ls, ds, longArgs, doubleArgs);
+        execute(fn, longArgs, doubleArgs);
+        Type type = inst.getSig().getReturnType();
+        if (isFP(type)) {
+            ds[inst.getValueIndex()] = doubleResult;
+        } else if (type instanceof Int) {
+            ls[inst.getValueIndex()] = longResult;
+        }
+    }
+
+    private static Function callee(AbstractCall inst) {
+        Value f = inst.getFunc();
+        if (!(f instanceof FunctionConstant)) {
+            throw new InterpreterException("Indirect call "
+                    + IdentifiedHelper.repr(inst) + " is not supported.");
+        }
+        return ((FunctionConstant) f).getFunction();
+    }
+
+    private static void readArgs(AbstractCall inst, long[] ls, double[] ds,
+            long[] longArgs, double[] doubleArgs) {
+        List<UseBox> args = inst.getArgs();
+        List<Type> types = inst.getSig().getParamTypes();
+        for (int a = 0; a < args.size(); a++) {
+            if (isFP(types.get(a))) {
+                doubleArgs[a] = fpValue(args.get(a).getDst(), ds);
+            } else {
+                longArgs[a] = intValue(args.get(a).getDst(), ls);
+            }
+        }
+    }
+
+    private static long intValue(Value v, long[] ls) {
+        if (v instanceof Instruction) {
+            return ls[((Instruction) v).getValueIndex()];
+        }
+        if (v instanceof IntConstant) {
+            IntConstant c = (IntConstant) v;
+            return c.getValue() & mask(c.getType().getSize());
+        }
+        throw new InterpreterException("Operand "
+                + IdentifiedHelper.repr(v) + " is not an int.");
+    }
+
+    private static double fpValue(Value v, double[] ds) {
+        if (v instanceof Instruction) {
+            return ds[((Instruction) v).getValueIndex()];
+        }
+        if (v instanceof DoubleConstant) {
+            return ((DoubleConstant) v).getValue();
+        }
+        if (v instanceof FloatConstant) {
+            return ((FloatConstant) v).getValue();
+        }
+        throw new InterpreterException("Operand "
+                + IdentifiedHelper.repr(v) + " is not a float or double.");
+    }
+
+    private static boolean isFP(Type type) {
+        return type instanceof FPType;
+    }
+
+    private static boolean isFloat(Type type) {
+        return type instanceof uvm.type.Float;
+    }
+
+    private static int intSize(Type type) {
+        if (!(type instanceof Int)) {
+            throw new InterpreterException("Type " + type
+                    + " is not supported.");
+        }
+        return ((Int) type).getSize();
+    }
+
+    static long mask(int bits) {
+        return bits >= 64 ? -1L : (1L << bits) - 1;
+    }
+
+    static long sext(long v, int bits) {
+        return bits >= 64 ? v : v << (64 - bits) >> (64 - bits);
+    }
+
+    private static InterpreterException unsupported(Instruction inst) {
+        return new InterpreterException("Instruction "
+                + IdentifiedHelper.repr(inst) + " ("
+                + OpCode.getOpName(inst.opcode()) + ") is not supported.");
+    }
+}
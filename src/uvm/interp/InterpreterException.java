@@ -0,0 +1,14 @@
+package uvm.interp;
+
+/**
+ * Thrown when a function cannot be interpreted, e.g. because it uses an
+ * unsupported instruction or calls an undefined function.
+ */
+public class InterpreterException extends RuntimeException {
+
+    public InterpreterException(String message) {
+        super(message);
+    }
+
+    private static final long serialVersionUID = -1819391953082801385L;
+}
@@ -138,6 +138,8 @@ public class IRBinaryReader implements Closeable {
         resolveIDs();
 
         bindNames();
+
+        poolAnonymousConstants();
     }
 
     // Resolve later
@@ -412,7 +414,11 @@ public class IRBinaryReader implements Closeable {
 
             BasicBlock bb = new BasicBlock(cfg);
             bb.setID(bbID);
+            cfg.getBBs().add(bb);
             cfg.getBBNs().put(bbID, null, bb);
+            if (i == 0) {
+                cfg.setEntry(bb);
+            }
 
             int nInsts = bis.readInt();
             for (int j = 0; j < nInsts; j++) {
@@ -933,6 +939,19 @@ public class IRBinaryReader implements Closeable {
         }
     }
 
+    /**
+     * Register anonymous scalar constants into the bundle's constant pool so
+     * that later transformations re-use them instead of making new ones. This
+     * can only be done after types are resolved and names are bound.
+     */
+    private void poolAnonymousConstants() {
+        for (Constant constant : bundle.getDeclaredConstNs().getObjects()) {
+            if (constant.getName() == null) {
+                bundle.getConstantPool().add(constant);
+            }
+        }
+    }
+
     // The Closeable interface
 
     private void bindAll(Namespace<? extends IdentifiedSettable> ns) {
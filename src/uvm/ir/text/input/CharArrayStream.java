@@ -0,0 +1,32 @@
+package uvm.ir.text.input;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+
+/**
+ * An ANTLRInputStream which lets the builder see its characters, so that
+ * literals are decoded in place from the ranges of their tokens. See
+ * {@link LiteralDecoder}.
+ */
+class CharArrayStream extends ANTLRInputStream {
+    CharArrayStream(String input) {
+        super(input);
+    }
+
+    /**
+     * Use the first length characters of data, without copying them.
+     */
+    CharArrayStream(char[] data, int length) {
+        super(data, length);
+    }
+
+    CharArrayStream(Reader reader) throws IOException {
+        super(reader);
+    }
+
+    char[] getData() {
+        return data;
+    }
+}
@@ -12,24 +12,24 @@ import uvm.type.Type;
  * <p>
  * Like ShallowConstMaker, but also recursively construct nested (but not
  * recursive) Constant objects.
+ * <p>
+ * Constants made by this class are always anonymous (in-line operands or
+ * fields of struct constants), so scalar constants are pooled.
  */
 public class DeepConstMaker extends ShallowConstMaker {
 
     public DeepConstMaker(RecursiveBundleBuilder recursiveBundleBuilder,
             Type expectedType) {
-        super(recursiveBundleBuilder, expectedType);
+        super(recursiveBundleBuilder, expectedType, true);
     }
 
     @Override
     public Constant visitReferencedConst(ReferencedConstContext ctx) {
         String name = ctx.GLOBAL_ID().getText();
-        Constant constant = rbb.bundle.getGlobalValueNs().getByName(name);
-        
+        Constant constant = rbb.lookupGlobalValue(name);
+
         if (constant == null) {
-            constant = rbb.globalBundle.getGlobalValueNs().getByName(name);
-            if (constant == null) {
-                ParserHelper.parseError(ctx, "Undefined constant " + name);
-            }
+            ParserHelper.parseError(ctx, "Undefined constant " + name);
         }
         
         return constant;
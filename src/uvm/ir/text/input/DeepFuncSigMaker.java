@@ -18,13 +18,10 @@ class DeepFuncSigMaker extends ShallowFuncSigMaker {
     @Override
     public FunctionSignature visitReferencedFuncSig(ReferencedFuncSigContext ctx) {
         String name = ctx.GLOBAL_ID().getText();
-        FunctionSignature sig = rbb.bundle.getFuncSigNs().getByName(name);
+        FunctionSignature sig = rbb.lookupFuncSig(name);
 
         if (sig == null) {
-            sig = rbb.globalBundle.getFuncSigNs().getByName(name);
-            if (sig == null) {
-                ParserHelper.parseError(ctx, "Undefined sig " + name);
-            }
+            ParserHelper.parseError(ctx, "Undefined sig " + name);
         }
 
         return sig;
@@ -33,13 +33,10 @@ class DeepTypeMaker extends ShallowTypeMaker {
     @Override
     public Type visitReferencedType(ReferencedTypeContext ctx) {
         String name = ctx.GLOBAL_ID().getText();
-        Type type = this.rbb.bundle.getTypeNs().getByName(name);
+        Type type = this.rbb.lookupType(name);
 
         if (type == null) {
-            type = this.rbb.globalBundle.getTypeNs().getByName(name);
-            if (type == null) {
-                ParserHelper.parseError(ctx, "Undefined type " + name);
-            }
+            ParserHelper.parseError(ctx, "Undefined type " + name);
         }
 
         return type;
@@ -0,0 +1,137 @@
+package uvm.ir.text.input;
+
+/**
+ * Some helper functions for FP parsing.
+ */
+public class FPParsingUtils {
+
+    /**
+     * The powers of ten which are exact doubles.
+     */
+    private static final double[] POW10 = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5,
+            1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17,
+            1e18, 1e19, 1e20, 1e21, 1e22 };
+
+    /**
+     * The powers of ten which are exact floats.
+     */
+    private static final float[] POW10F = { 1e0f, 1e1f, 1e2f, 1e3f, 1e4f,
+            1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f };
+
+    /**
+     * More digits may overflow the mantissa.
+     */
+    private static final int MAX_DIGITS = 18;
+
+    /**
+     * Parse the characters buf[start..end) as a double, like
+     * Double.parseDouble, but without creating a String.
+     * <p>
+     * Numbers with up to 15 significant digits and a decimal exponent within
+     * 22 (i.e. most numbers written by people and by compilers) are converted
+     * with one exact multiplication or division, which is correctly rounded.
+     * Only other numbers are given to Double.parseDouble.
+     *
+     * @throws NumberFormatException
+     *             if the characters are not a number.
+     */
+    public static double parseDouble(char[] buf, int start, int end) {
+        return parse(buf, start, end, false);
+    }
+
+    /**
+     * Like {@link #parseDouble}, but for floats. The fast path takes up to 7
+     * significant digits and a decimal exponent within 10.
+     */
+    public static float parseFloat(char[] buf, int start, int end) {
+        return (float) parse(buf, start, end, true);
+    }
+
+    /**
+     * @return The number, as a double. If single is true, it is a float
+     *         widened to double.
+     */
+    private static double parse(char[] buf, int start, int end, boolean single) {
+        int p = start;
+        boolean negative = false;
+        if (p < end && (buf[p] == '-' || buf[p] == '+')) {
+            negative = buf[p] == '-';
+            p++;
+        }
+
+        // The value is mantissa * 10^exp.
+        long mantissa = 0;
+        int digits = 0;
+        int exp = 0;
+        boolean point = false;
+        for (; p < end; p++) {
+            char c = buf[p];
+            if (c == '.' && !point) {
+                point = true;
+                continue;
+            }
+            if (c < '0' || c > '9') {
+                break;
+            }
+            if (point) {
+                exp--;
+            }
+            if (mantissa == 0 && c == '0') {
+                continue;
+            }
+            if (digits == MAX_DIGITS) {
+                return slowParse(buf, start, end, single);
+            }
+            mantissa = mantissa * 10 + (c - '0');
+            digits++;
+        }
+
+        if (p < end && (buf[p] == 'e' || buf[p] == 'E')) {
+            p++;
+            boolean negativeExp = false;
+            if (p < end && (buf[p] == '-' || buf[p] == '+')) {
+                negativeExp = buf[p] == '-';
+                p++;
+            }
+            int e = 0;
+            int expStart = p;
+            for (; p < end && buf[p] >= '0' && buf[p] <= '9'; p++) {
+                if (e > 100000) {
+                    return slowParse(buf, start, end, single);
+                }
+                e = e * 10 + (buf[p] - '0');
+            }
+            if (p == expStart) {
+                return slowParse(buf, start, end, single);
+            }
+            exp += negativeExp ? -e : e;
+        }
+        if (p != end) {
+            return slowParse(buf, start, end, single);
+        }
+
+        double value;
+        if (mantissa == 0) {
+            value = 0.0;
+        } else if (single) {
+            if (mantissa >= 1L << 24 || exp < -10 || exp > 10) {
+                return slowParse(buf, start, end, single);
+            }
+            value = exp < 0 ? (float) mantissa / POW10F[-exp]
+                    : (float) mantissa * POW10F[exp];
+        } else {
+            if (mantissa >= 1L << 53 || exp < -22 || exp > 22) {
+                return slowParse(buf, start, end, single);
+            }
+            value = exp < 0 ? (double) mantissa / POW10[-exp]
+                    : (double) mantissa * POW10[exp];
+        }
+        return negative ? -value : value;
+    }
+
+    private static double slowParse(char[] buf, int start, int end,
+            boolean single) {
+        String text = new String(buf, start, end - start);
+        return single ? Float.parseFloat(text) : Double.parseDouble(text);
+    }
+}
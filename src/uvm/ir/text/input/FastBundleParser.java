@@ -0,0 +1,941 @@
+package uvm.ir.text.input;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import uvm.BasicBlock;
+import uvm.Bundle;
+import uvm.CFG;
+import uvm.Function;
+import uvm.FunctionSignature;
+import uvm.GlobalData;
+import uvm.ssavalue.Constant;
+import uvm.ssavalue.Instruction;
+import uvm.ssavalue.StructConstant;
+import uvm.ssavalue.Value;
+import uvm.ssavalue.ValueVisitor;
+import uvm.type.Array;
+import uvm.type.Func;
+import uvm.type.Hybrid;
+import uvm.type.IRef;
+import uvm.type.Int;
+import uvm.type.Ref;
+import uvm.type.Struct;
+import uvm.type.TagRef64;
+import uvm.type.Type;
+import uvm.type.WeakRef;
+import uvm.util.IntList;
+
+/**
+ * FastBundleParser builds a uvm Bundle from the text form directly, without
+ * ANTLR and without a parse tree. It is a hand-written recursive-descent
+ * parser for the grammar in uIR.g4 over a {@link TextScanner}.
+ * <p>
+ * The result is the same as that of {@link RecursiveBundleBuilder} on the
+ * ANTLR parse tree, with the same names, the same order in every namespace
+ * and the same IDs for top-level entities. Only the IDs of the anonymous
+ * constants in function bodies are allocated in a different order, because
+ * each instruction is built in one go here. See {@link FastFuncParser}.
+ * <p>
+ * The ANTLR parser remains the reference. This parser rejects some inputs
+ * which the ANTLR builder would accept in a dubious way, such as a label
+ * defined twice in a function. A local name defined twice is accepted, and
+ * refers to its last definition as it does there. {@link IRTextReader} falls
+ * back to the ANTLR parser whenever this parser throws an ASTParsingException,
+ * so that errors are reported the usual way.
+ * <p>
+ * Not thread safe. Don't use from multiple threads. It can, however, scan and
+ * build on a fork-join pool itself. See {@link #setParallel}.
+ * <p>
+ * One time use only. Please create a new instance for each bundle.
+ */
+public class FastBundleParser {
+    /**
+     * The smallest number of characters worth scanning as a separate chunk.
+     */
+    private static final int MIN_CHUNK = 1 << 16;
+
+    /**
+     * The builder whose bundle, namespace lookups and declaration helpers are
+     * used. Its parse-tree visitors are not.
+     */
+    final RecursiveBundleBuilder rbb;
+
+    /**
+     * The result bundle.
+     */
+    final Bundle bundle;
+
+    TextScanner in;
+
+    /**
+     * Makers for constants declared by ".const", which are never pooled, and
+     * for anonymous constants, which are.
+     */
+    private final ShallowConstMaker declaredConstMaker;
+    final ShallowConstMaker inlineConstMaker;
+
+    /**
+     * The CFGs built so far. If building fails, they are unlinked from the
+     * values they use, which may belong to the global bundle.
+     */
+    private final List<CFG> cfgs = new ArrayList<CFG>();
+
+    /**
+     * The pool to scan and build on, or null to do everything in the current
+     * thread.
+     */
+    private ForkJoinPool pool;
+
+    /**
+     * The name of the type, signature or constant whose lookup failed, if
+     * building failed that way. Such a name may still be defined later in a
+     * stream. See {@link StreamingBundleParser}.
+     */
+    String undefinedName;
+
+    /**
+     * If not null, a global value used in a function body but not defined yet
+     * gets a placeholder from this map instead of being an error. The map may
+     * be shared by several parsers. See {@link StreamingBundleParser}.
+     */
+    Map<String, ForwardGlobal> forwardGlobals;
+
+    public FastBundleParser() {
+        this(new RecursiveBundleBuilder());
+    }
+
+    public FastBundleParser(Bundle globalBundle) {
+        this(new RecursiveBundleBuilder(globalBundle));
+    }
+
+    FastBundleParser(RecursiveBundleBuilder rbb) {
+        this.rbb = rbb;
+        this.bundle = rbb.getBundle();
+        declaredConstMaker = new ShallowConstMaker(rbb, null, false);
+        inlineConstMaker = new ShallowConstMaker(rbb, null, true);
+    }
+
+    /**
+     * Scan the text and build function bodies in parallel on the common
+     * fork-join pool, or in the current thread (the default).
+     * <p>
+     * The text is cut into chunks at top-level directives, whose tokens are
+     * scanned concurrently. The top-level definitions are then built in order
+     * as usual, and the function bodies in parallel. The result is the same
+     * except for the IDs of local values and of the anonymous entities in
+     * function bodies, as with {@link RecursiveBundleBuilder#setParallel}.
+     */
+    public void setParallel(boolean parallel) {
+        setPool(parallel ? ForkJoinPool.commonPool() : null);
+    }
+
+    /**
+     * Scan and build on the given pool, or in the current thread if it is
+     * null.
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * @return The result bundle. Should only be called after building.
+     */
+    public Bundle getBundle() {
+        return bundle;
+    }
+
+    /**
+     * Build the bundle from the first length characters of buf. The array is
+     * not modified.
+     *
+     * @throws ASTParsingException
+     *             on the first syntax or semantic error.
+     */
+    public void build(char[] buf, int length) {
+        build(new TextScanner(buf, length));
+    }
+
+    /**
+     * Build the bundle from the text of a scanner which has not moved yet.
+     */
+    void build(TextScanner in) {
+        this.in = in;
+        try {
+            buildTopLevels();
+        } catch (ASTParsingException e) {
+            for (CFG cfg : cfgs) {
+                for (BasicBlock bb : cfg.getBBs()) {
+                    for (Instruction inst : bb.getInsts()) {
+                        inst.dropAllUses();
+                    }
+                }
+            }
+            throw e;
+        }
+    }
+
+    public void build(CharSequence text) {
+        char[] buf = text.toString().toCharArray();
+        build(buf, buf.length);
+    }
+
+    public void build(Reader reader) throws IOException {
+        char[] buf = readFully(reader);
+        build(buf, buf.length);
+    }
+
+    /**
+     * Read everything from a reader.
+     *
+     * @return A new array with exactly the characters read.
+     */
+    static char[] readFully(Reader reader) throws IOException {
+        char[] buf = new char[8192];
+        int length = 0;
+        int n;
+        while ((n = reader.read(buf, length, buf.length - length)) != -1) {
+            length += n;
+            if (length == buf.length) {
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            }
+        }
+        return Arrays.copyOf(buf, length);
+    }
+
+    /**
+     * Build all top-level definitions in the same phases as
+     * {@link RecursiveBundleBuilder#build}. Instead of visiting a parse tree
+     * several times, the scanner goes back to the marked position of each
+     * definition when it is its turn.
+     */
+    private void buildTopLevels() {
+        List<Object> typeFixups = new ArrayList<Object>();
+        IntList typeFixupMarks = new IntList();
+        IntList otherDefs = new IntList();
+
+        IntList defs = findDefinitions();
+        for (int d = 0; d < defs.size(); d++) {
+            in.reset(defs.get(d));
+            String directive = in.text();
+            if (directive.equals(".typedef")) {
+                in.next();
+                String name = in.expectGlobalID();
+                in.expect('=');
+                Type type = makeType();
+                type.setName(name);
+                bundle.getTypeNs().bind(type.getID(), name);
+                typeFixups.add(type);
+                typeFixupMarks.add(in.mark());
+            } else if (directive.equals(".funcsig")) {
+                in.next();
+                String name = in.expectGlobalID();
+                in.expect('=');
+                FunctionSignature sig = makeFuncSig();
+                sig.setName(name);
+                bundle.getFuncSigNs().bind(sig.getID(), name);
+                typeFixups.add(sig);
+                typeFixupMarks.add(in.mark());
+            } else if (directive.equals(".const")
+                    || directive.equals(".global")
+                    || directive.equals(".funcdecl")
+                    || directive.equals(".funcdef")) {
+                otherDefs.add(in.mark());
+                in.next();
+            } else {
+                throw in.error("Unknown top-level definition " + directive);
+            }
+        }
+
+        for (int i = 0; i < typeFixups.size(); i++) {
+            in.reset(typeFixupMarks.get(i));
+            Object obj = typeFixups.get(i);
+            if (obj instanceof Type) {
+                populateType((Type) obj);
+            } else {
+                populateFuncSig((FunctionSignature) obj);
+            }
+            in.expectEndOfDef();
+        }
+
+        List<StructConstant> constFixups = new ArrayList<StructConstant>();
+        IntList constFixupMarks = new IntList();
+        List<Function> funcDefs = new ArrayList<Function>();
+        IntList funcDefMarks = new IntList();
+
+        for (int i = 0; i < otherDefs.size(); i++) {
+            in.reset(otherDefs.get(i));
+            String directive = in.text();
+            in.next();
+            if (directive.equals(".const")) {
+                StructConstant fixup = handleConstDef();
+                if (fixup != null) {
+                    constFixups.add(fixup);
+                    constFixupMarks.add(in.mark());
+                }
+            } else if (directive.equals(".global")) {
+                handleGlobalDef();
+            } else if (directive.equals(".funcdecl")) {
+                handleFuncDecl();
+            } else {
+                funcDefs.add(handleFuncDefShallow());
+                funcDefMarks.add(in.mark());
+            }
+        }
+
+        for (int i = 0; i < constFixups.size(); i++) {
+            in.reset(constFixupMarks.get(i));
+            populateStructConstant(constFixups.get(i));
+            in.expectEndOfDef();
+        }
+
+        buildFuncBodies(funcDefs, funcDefMarks);
+    }
+
+    /**
+     * Find the start of every top-level definition by scanning all tokens.
+     * With a pool, the text is cut into chunks at directives, which are
+     * scanned in parallel.
+     *
+     * @return The positions of the directives in source order.
+     */
+    private IntList findDefinitions() {
+        in.next();
+        if (in.kind != TextScanner.DIRECTIVE && in.kind != TextScanner.EOF) {
+            throw in.error("Expect a top-level definition, found "
+                    + in.describe());
+        }
+        int begin = in.mark();
+        int end = in.end();
+
+        int chunks = !isParallel() ? 1 : Math.min(
+                pool.getParallelism() * 4, (end - begin) / MIN_CHUNK);
+        if (chunks < 2) {
+            return findDefinitions(begin, end);
+        }
+
+        // Cut at the first directive after each line start near an even
+        // split. Each chunk then starts with a directive.
+        final IntList cuts = new IntList();
+        cuts.add(begin);
+        for (int i = 1; i < chunks; i++) {
+            int p = Math.max(begin + (int) ((long) (end - begin) * i / chunks),
+                    cuts.get(cuts.size() - 1) + 1);
+            while (p < end && in.charAt(p - 1) != '\n') {
+                p++;
+            }
+            int cut = in.findDirective(p);
+            if (cut == -1) {
+                break;
+            }
+            if (cut > cuts.get(cuts.size() - 1)) {
+                cuts.add(cut);
+            }
+        }
+        cuts.add(end);
+
+        List<Callable<IntList>> tasks = new ArrayList<Callable<IntList>>();
+        for (int i = 0; i + 1 < cuts.size(); i++) {
+            final int from = cuts.get(i);
+            final int to = cuts.get(i + 1);
+            tasks.add(new Callable<IntList>() {
+                @Override
+                public IntList call() {
+                    return findDefinitions(from, to);
+                }
+            });
+        }
+
+        IntList defs = new IntList();
+        for (IntList part : invokeAll(tasks)) {
+            for (int i = 0; i < part.size(); i++) {
+                defs.add(part.get(i));
+            }
+        }
+        return defs;
+    }
+
+    /**
+     * Scan the tokens in [from, to), which must start at a directive or at
+     * the end, with a scanner of its own.
+     */
+    private IntList findDefinitions(int from, int to) {
+        TextScanner chunk = in.slice(from, to);
+        IntList defs = new IntList();
+        for (chunk.next(); chunk.kind != TextScanner.EOF; chunk.next()) {
+            if (chunk.kind == TextScanner.DIRECTIVE) {
+                defs.add(chunk.mark());
+            }
+        }
+        return defs;
+    }
+
+    /**
+     * Build the bodies of all function definitions. With a pool, the bodies
+     * are cut into batches of consecutive functions of about the same text
+     * size. Each batch is built by its own parser and builder, whose
+     * anonymous entities are merged in source order afterwards, as in
+     * {@link RecursiveBundleBuilder}.
+     */
+    private void buildFuncBodies(List<Function> funcDefs, IntList marks) {
+        if (!isParallel() || funcDefs.size() < 2) {
+            for (int i = 0; i < funcDefs.size(); i++) {
+                in.reset(marks.get(i));
+                FastFuncParser funcParser = new FastFuncParser(this,
+                        funcDefs.get(i));
+                cfgs.add(funcParser.cfg);
+                funcParser.parseFuncDef();
+            }
+            return;
+        }
+
+        int batches = Math.min(funcDefs.size(), pool.getParallelism() * 4);
+        long span = in.end() - marks.get(0);
+        List<RecursiveBundleBuilder> children = new ArrayList<RecursiveBundleBuilder>();
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        int first = 0;
+        while (first < funcDefs.size()) {
+            int last = first + 1;
+            long limit = marks.get(0) + span * (tasks.size() + 1) / batches;
+            while (last < funcDefs.size() && marks.get(last) < limit) {
+                last++;
+            }
+
+            RecursiveBundleBuilder childBuilder = new RecursiveBundleBuilder(
+                    rbb);
+            final FastBundleParser child = new FastBundleParser(childBuilder);
+            child.in = in.slice(0, in.end());
+            final List<FastFuncParser> funcParsers = new ArrayList<FastFuncParser>();
+            final IntList batchMarks = new IntList();
+            for (int i = first; i < last; i++) {
+                FastFuncParser funcParser = new FastFuncParser(child,
+                        funcDefs.get(i));
+                cfgs.add(funcParser.cfg);
+                funcParsers.add(funcParser);
+                batchMarks.add(marks.get(i));
+            }
+            children.add(childBuilder);
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (int i = 0; i < funcParsers.size(); i++) {
+                        child.in.reset(batchMarks.get(i));
+                        funcParsers.get(i).parseFuncDef();
+                    }
+                    return null;
+                }
+            });
+            first = last;
+        }
+
+        invokeAll(tasks);
+        for (RecursiveBundleBuilder child : children) {
+            rbb.absorb(child.getBundle());
+        }
+    }
+
+    private boolean isParallel() {
+        return pool != null && pool.getParallelism() > 1;
+    }
+
+    /**
+     * Run tasks on the pool and wait for all of them.
+     *
+     * @return Their results in order.
+     * @throws ASTParsingException
+     *             the error of the first failed task in order.
+     */
+    private <T> List<T> invokeAll(List<Callable<T>> tasks) {
+        List<T> results = new ArrayList<T>();
+        for (Future<T> future : pool.invokeAll(tasks)) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(
+                        "Interrupted while parsing in parallel.", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IllegalStateException(cause);
+            }
+        }
+        return results;
+    }
+
+    // Types and function signatures
+
+    /**
+     * Parse a "type": either a reference to a named type or an in-line type
+     * constructor.
+     */
+    Type parseType() {
+        if (in.kind == TextScanner.GLOBAL_ID) {
+            String name = in.text();
+            Type type = rbb.lookupType(name);
+            if (type == null) {
+                undefinedName = name;
+                throw in.error("Undefined type " + name);
+            }
+            in.next();
+            return type;
+        }
+        Type type = makeType();
+        populateType(type);
+        return type;
+    }
+
+    /**
+     * Make a type from the beginning of a type constructor, like
+     * ShallowTypeMaker. Only the keyword (and the size of int) is consumed.
+     */
+    private Type makeType() {
+        int at = in.mark();
+        String word = in.kind == TextScanner.WORD ? in.text() : "";
+        in.next();
+        Type type;
+        switch (word) {
+        case "int": {
+            in.expect('<');
+            int bitSize = (int) parseIntLiteral();
+            in.expect('>');
+            type = new Int(bitSize);
+            break;
+        }
+        case "float":
+            type = new uvm.type.Float();
+            break;
+        case "double":
+            type = new uvm.type.Double();
+            break;
+        case "ref":
+            type = new Ref();
+            break;
+        case "iref":
+            type = new IRef();
+            break;
+        case "weakref":
+            type = new WeakRef();
+            break;
+        case "struct":
+            type = new Struct();
+            break;
+        case "array":
+            type = new Array();
+            break;
+        case "hybrid":
+            type = new Hybrid();
+            break;
+        case "void":
+            type = new uvm.type.Void();
+            break;
+        case "func":
+            type = new Func();
+            break;
+        case "thread":
+            type = new uvm.type.Thread();
+            break;
+        case "stack":
+            type = new uvm.type.Stack();
+            break;
+        case "tagref64":
+            type = new TagRef64();
+            break;
+        default:
+            throw in.errorAt(at, "Expect a type");
+        }
+        int id = rbb.makeID();
+        type.setID(id);
+        bundle.getTypeNs().put(id, null, type);
+        return type;
+    }
+
+    /**
+     * Parse the rest of a type constructor after its keyword and fill in the
+     * type, like TypeAndSigPopulator.
+     */
+    private void populateType(Type type) {
+        if (type instanceof Ref) {
+            in.expect('<');
+            ((Ref) type).setReferenced(parseType());
+            in.expect('>');
+        } else if (type instanceof IRef) {
+            in.expect('<');
+            ((IRef) type).setReferenced(parseType());
+            in.expect('>');
+        } else if (type instanceof WeakRef) {
+            in.expect('<');
+            ((WeakRef) type).setReferenced(parseType());
+            in.expect('>');
+        } else if (type instanceof Struct) {
+            in.expect('<');
+            List<Type> fieldTypes = ((Struct) type).getFieldTypes();
+            while (in.kind != '>') {
+                fieldTypes.add(parseType());
+            }
+            in.next();
+        } else if (type instanceof Array) {
+            Array array = (Array) type;
+            in.expect('<');
+            array.setElemType(parseType());
+            array.setLength((int) parseIntLiteral());
+            in.expect('>');
+        } else if (type instanceof Hybrid) {
+            Hybrid hybrid = (Hybrid) type;
+            in.expect('<');
+            hybrid.setFixedPart(parseType());
+            hybrid.setVarPart(parseType());
+            in.expect('>');
+        } else if (type instanceof Func) {
+            in.expect('<');
+            ((Func) type).setSig(parseFuncSig());
+            in.expect('>');
+        }
+    }
+
+    /**
+     * Parse a "funcSig": either a reference to a named signature or an in-line
+     * signature constructor.
+     */
+    FunctionSignature parseFuncSig() {
+        // A constructor may also start with a global ID: its return type.
+        if (in.kind == TextScanner.GLOBAL_ID && in.peekChar() != '(') {
+            String name = in.text();
+            FunctionSignature sig = rbb.lookupFuncSig(name);
+            if (sig == null) {
+                undefinedName = name;
+                throw in.error("Undefined sig " + name);
+            }
+            in.next();
+            return sig;
+        }
+        FunctionSignature sig = makeFuncSig();
+        populateFuncSig(sig);
+        return sig;
+    }
+
+    private FunctionSignature makeFuncSig() {
+        FunctionSignature sig = new FunctionSignature();
+        int id = rbb.makeID();
+        sig.setID(id);
+        bundle.getFuncSigNs().put(id, null, sig);
+        return sig;
+    }
+
+    private void populateFuncSig(FunctionSignature sig) {
+        sig.setReturnType(parseType());
+        in.expect('(');
+        while (in.kind != ')') {
+            sig.getParamTypes().add(parseType());
+        }
+        in.next();
+    }
+
+    // Literals and constants
+
+    /**
+     * Parse an "intLiteral".
+     */
+    long parseIntLiteral() {
+        long value = in.intValue();
+        in.next();
+        return value;
+    }
+
+    /**
+     * Parse a "constant" (a field of a struct constant): either a reference to
+     * a named constant or an in-line constant, which is pooled.
+     */
+    private Constant parseConstant(Type type) {
+        if (in.kind == TextScanner.GLOBAL_ID) {
+            String name = in.text();
+            Constant constant = rbb.lookupGlobalValue(name);
+            if (constant == null) {
+                undefinedName = name;
+                throw in.error("Undefined constant " + name);
+            }
+            in.next();
+            return constant;
+        }
+        return parseConstExpr(type, inlineConstMaker);
+    }
+
+    /**
+     * Parse a "constExpr" of the given type. Struct constants are populated
+     * immediately.
+     *
+     * @param maker
+     *            Decides whether the constant is pooled.
+     */
+    Constant parseConstExpr(Type type, ShallowConstMaker maker) {
+        switch (in.kind) {
+        case TextScanner.INT_DEC:
+        case TextScanner.INT_OCT:
+        case TextScanner.INT_HEX: {
+            if (!(type instanceof Int)) {
+                throw in.error("Int literal " + in.rawText() + " found. Expect"
+                        + type);
+            }
+            long value = parseIntLiteral();
+            return maker.makeIntConstant((Int) type, value);
+        }
+        case '{': {
+            if (!(type instanceof Struct)) {
+                throw in.error("Struct literal found. Expect" + type);
+            }
+            StructConstant constant = maker.makeStructConstant((Struct) type);
+            populateStructConstant(constant);
+            return constant;
+        }
+        case TextScanner.WORD:
+            if (in.isWord("NULL")) {
+                if (!ShallowConstMaker.acceptsNull(type)) {
+                    throw in.error("NULL literal found. Expect" + type);
+                }
+                in.next();
+                return maker.makeNullConstant(type);
+            }
+            return parseFPConstExpr(type, maker);
+        case TextScanner.FP_NUM:
+        case TextScanner.INF:
+            return parseFPConstExpr(type, maker);
+        default:
+            throw in.error("Expect a constant, found " + in.describe());
+        }
+    }
+
+    /**
+     * Parse a "floatLiteral" or a "doubleLiteral", which is only known by its
+     * suffix or by its "bitsf"/"bitsd" keyword.
+     */
+    private Constant parseFPConstExpr(Type type, ShallowConstMaker maker) {
+        int at = in.mark();
+        double number = 0.0; // a float if the suffix is 'f'
+        long bits = 0;
+        boolean isBits = false;
+        char suffix;
+
+        if (in.kind == TextScanner.FP_NUM) {
+            // Decode it as what the suffix says. A wrong suffix is reported
+            // below.
+            number = in.peekChar() == 'f' ? in.floatValue() : in.doubleValue();
+            in.next();
+            suffix = parseFPSuffix();
+        } else if (in.kind == TextScanner.INF) {
+            number = in.isNegative() ? Double.NEGATIVE_INFINITY
+                    : Double.POSITIVE_INFINITY;
+            in.next();
+            suffix = parseFPSuffix();
+        } else if (in.isWord("nan")) {
+            number = Double.NaN;
+            in.next();
+            suffix = parseFPSuffix();
+        } else if (in.isWord("nanf") || in.isWord("nand")) {
+            number = Double.NaN;
+            suffix = in.isWord("nanf") ? 'f' : 'd';
+            in.next();
+        } else if (in.isWord("bitsf") || in.isWord("bitsd")) {
+            suffix = in.isWord("bitsf") ? 'f' : 'd';
+            in.next();
+            in.expect('(');
+            bits = parseIntLiteral();
+            in.expect(')');
+            isBits = true;
+        } else {
+            throw in.error("Expect a constant, found " + in.describe());
+        }
+
+        if (suffix == 'f') {
+            if (!(type instanceof uvm.type.Float)) {
+                throw in.errorAt(at, "Float literal found. Expect" + type);
+            }
+            float value = isBits ? Float.intBitsToFloat((int) bits)
+                    : (float) number;
+            return maker.makeFloatConstant(type, value);
+        } else {
+            if (!(type instanceof uvm.type.Double)) {
+                throw in.errorAt(at, "Double literal found. Expect" + type);
+            }
+            double value = isBits ? Double.longBitsToDouble(bits) : number;
+            return maker.makeDoubleConstant(type, value);
+        }
+    }
+
+    private char parseFPSuffix() {
+        char suffix;
+        if (in.isWord("f")) {
+            suffix = 'f';
+        } else if (in.isWord("d")) {
+            suffix = 'd';
+        } else {
+            throw in.error("Expect 'f' or 'd', found " + in.describe());
+        }
+        in.next();
+        return suffix;
+    }
+
+    /**
+     * Parse the fields of a struct constant, in braces.
+     */
+    private void populateStructConstant(StructConstant constant) {
+        List<Type> fieldTypes = constant.getType().getFieldTypes();
+        in.expect('{');
+        int fields = 0;
+        while (in.kind != '}') {
+            if (fields == fieldTypes.size()) {
+                throw in.error("Too many fields. Expect "
+                        + fieldTypes.size() + " fields.");
+            }
+            constant.getValues().add(parseConstant(fieldTypes.get(fields)));
+            fields++;
+        }
+        if (fields != fieldTypes.size()) {
+            throw in.error("Found " + fields + " fields. Expect "
+                    + fieldTypes.size() + " fields.");
+        }
+        in.next();
+    }
+
+    // Other top-level definitions
+
+    /**
+     * Handle a ".const" after the directive.
+     *
+     * @return The struct constant to populate later, whose fields may refer to
+     *         constants defined after it, or null if the constant is complete.
+     *         The scanner is left at its opening brace.
+     */
+    private StructConstant handleConstDef() {
+        String name = in.expectGlobalID();
+        in.expect('<');
+        Type type = parseType();
+        in.expect('>');
+        in.expect('=');
+
+        Constant constant;
+        StructConstant fixup = null;
+        if (in.kind == '{') {
+            if (!(type instanceof Struct)) {
+                throw in.error("Struct literal found. Expect" + type);
+            }
+            fixup = declaredConstMaker.makeStructConstant((Struct) type);
+            constant = fixup;
+        } else {
+            constant = parseConstExpr(type, declaredConstMaker);
+            in.expectEndOfDef();
+        }
+
+        constant.setName(name);
+        bundle.getGlobalValueNs().bind(constant.getID(), name);
+        bundle.getDeclaredConstNs().bind(constant.getID(), name);
+        return fixup;
+    }
+
+    private void handleGlobalDef() {
+        GlobalData globalData = new GlobalData();
+        int id = rbb.makeID();
+        globalData.setID(id);
+        String name = in.expectGlobalID();
+        globalData.setName(name);
+
+        in.expect('<');
+        globalData.setType(parseType());
+        in.expect('>');
+        in.expectEndOfDef();
+
+        bundle.getGlobalDataNs().put(id, name, globalData);
+        rbb.makeGlobalDataConstant(globalData);
+    }
+
+    private void handleFuncDecl() {
+        int at = in.mark();
+        String name = in.expectGlobalID();
+        if (rbb.lookupFunction(name) != null) {
+            throw in.errorAt(at, "Function " + name
+                    + " declared multiple times.");
+        }
+        in.expect('<');
+        FunctionSignature sig = parseFuncSig();
+        in.expect('>');
+        in.expectEndOfDef();
+
+        rbb.declareFunction(name, sig);
+    }
+
+    /**
+     * Declare the function of a ".funcdef" unless already declared.
+     *
+     * @return The function. The scanner is left at its parameter list.
+     */
+    private Function handleFuncDefShallow() {
+        String name = in.expectGlobalID();
+        Function func = bundle.getFuncNs().getByName(name);
+        if (func != null) {
+            // Like RecursiveBundleBuilder, do not even look at the signature.
+            in.skipAngles();
+            return func;
+        }
+        in.expect('<');
+        FunctionSignature sig = parseFuncSig();
+        in.expect('>');
+        return rbb.declareFunction(name, sig);
+    }
+
+    /**
+     * @return The placeholder for a global value which is not defined yet.
+     *         Only used when {@link #forwardGlobals} is set.
+     */
+    Value forwardGlobal(String name) {
+        ForwardGlobal ref = forwardGlobals.get(name);
+        if (ref == null) {
+            ref = new ForwardGlobal(in.error("Undefined global value " + name));
+            forwardGlobals.put(name, ref);
+        }
+        return ref;
+    }
+
+    /**
+     * A placeholder for a global value used before its definition.
+     */
+    static final class ForwardGlobal extends Value {
+        /**
+         * The error to report if the value is never defined. It points at the
+         * first use.
+         */
+        final ASTParsingException undefined;
+
+        ForwardGlobal(ASTParsingException undefined) {
+            this.undefined = undefined;
+        }
+
+        @Override
+        public Type getType() {
+            return null;
+        }
+
+        @Override
+        public int opcode() {
+            throw new UnsupportedOperationException(
+                    "A forward reference has no opcode.");
+        }
+
+        @Override
+        public <T> T accept(ValueVisitor<T> visitor) {
+            throw new UnsupportedOperationException(
+                    "A forward reference cannot be visited.");
+        }
+    }
+}
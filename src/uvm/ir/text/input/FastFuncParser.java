@@ -0,0 +1,862 @@
+package uvm.ir.text.input;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import uvm.BasicBlock;
+import uvm.CFG;
+import uvm.Function;
+import uvm.FunctionSignature;
+import uvm.ifunc.IFunc;
+import uvm.ifunc.IFuncFactory;
+import uvm.ssavalue.AtomicOrdering;
+import uvm.ssavalue.AtomicRMWOp;
+import uvm.ssavalue.BinOptr;
+import uvm.ssavalue.CallConv;
+import uvm.ssavalue.CallLike;
+import uvm.ssavalue.CmpOptr;
+import uvm.ssavalue.ConvOptr;
+import uvm.ssavalue.HandlesException;
+import uvm.ssavalue.HasArgs;
+import uvm.ssavalue.HasKeepAlives;
+import uvm.ssavalue.InstAlloca;
+import uvm.ssavalue.InstAllocaHybrid;
+import uvm.ssavalue.InstAtomicRMW;
+import uvm.ssavalue.InstBinOp;
+import uvm.ssavalue.InstBranch;
+import uvm.ssavalue.InstBranch2;
+import uvm.ssavalue.InstCCall;
+import uvm.ssavalue.InstCall;
+import uvm.ssavalue.InstCmp;
+import uvm.ssavalue.InstCmpXchg;
+import uvm.ssavalue.InstConversion;
+import uvm.ssavalue.InstExtractValue;
+import uvm.ssavalue.InstFence;
+import uvm.ssavalue.InstGetElemIRef;
+import uvm.ssavalue.InstGetFieldIRef;
+import uvm.ssavalue.InstGetFixedPartIRef;
+import uvm.ssavalue.InstGetIRef;
+import uvm.ssavalue.InstGetVarPartIRef;
+import uvm.ssavalue.InstICall;
+import uvm.ssavalue.InstIInvoke;
+import uvm.ssavalue.InstInsertValue;
+import uvm.ssavalue.InstInvoke;
+import uvm.ssavalue.InstLandingPad;
+import uvm.ssavalue.InstLoad;
+import uvm.ssavalue.InstNew;
+import uvm.ssavalue.InstNewHybrid;
+import uvm.ssavalue.InstNewStack;
+import uvm.ssavalue.InstPhi;
+import uvm.ssavalue.InstRet;
+import uvm.ssavalue.InstRetVoid;
+import uvm.ssavalue.InstSelect;
+import uvm.ssavalue.InstShiftIRef;
+import uvm.ssavalue.InstStore;
+import uvm.ssavalue.InstSwitch;
+import uvm.ssavalue.InstTailCall;
+import uvm.ssavalue.InstThrow;
+import uvm.ssavalue.InstTrap;
+import uvm.ssavalue.InstWatchPoint;
+import uvm.ssavalue.Instruction;
+import uvm.ssavalue.Parameter;
+import uvm.ssavalue.Value;
+import uvm.ssavalue.ValueVisitor;
+import uvm.type.Array;
+import uvm.type.Hybrid;
+import uvm.type.Int;
+import uvm.type.Struct;
+import uvm.type.Type;
+
+/**
+ * Private for FastBundleParser use.
+ * <p>
+ * Parse and build one function body. Unlike FuncBuilder, which makes all
+ * instructions before populating any, each instruction is built completely
+ * as soon as it is parsed:
+ * <ul>
+ * <li>A label used before its block is defined gets a BasicBlock right away.
+ * The block gets its ID and its place in the CFG when it is defined.</li>
+ * <li>A local value used before it is defined is represented by a
+ * placeholder, which is replaced by the real value with
+ * {@link Value#replaceAllUsesWith} at the end of the function.</li>
+ * </ul>
+ * So the IDs of in-line constants come between those of the instructions,
+ * rather than after all of them.
+ */
+class FastFuncParser {
+    private static final Int WORD_TYPE = new Int(64);
+    private static final Int INT1 = new Int(1);
+
+    private static final Map<String, BinOptr> BIN_OPTRS = new HashMap<String, BinOptr>();
+    private static final Map<String, CmpOptr> CMP_OPTRS = new HashMap<String, CmpOptr>();
+    private static final Map<String, ConvOptr> CONV_OPTRS = new HashMap<String, ConvOptr>();
+    private static final Map<String, AtomicOrdering> ORDERINGS = new HashMap<String, AtomicOrdering>();
+    private static final Map<String, AtomicRMWOp> RMW_OPS = new HashMap<String, AtomicRMWOp>();
+
+    static {
+        for (BinOptr optr : BinOptr.values()) {
+            BIN_OPTRS.put(optr.name(), optr);
+        }
+        for (CmpOptr optr : CmpOptr.values()) {
+            CMP_OPTRS.put(optr.name(), optr);
+        }
+        for (ConvOptr optr : ConvOptr.values()) {
+            CONV_OPTRS.put(optr.name(), optr);
+        }
+        for (AtomicOrdering ord : AtomicOrdering.values()) {
+            ORDERINGS.put(ord.name(), ord);
+        }
+        for (AtomicRMWOp op : AtomicRMWOp.values()) {
+            RMW_OPS.put(op.name(), op);
+        }
+    }
+
+    private final FastBundleParser fbp;
+    private final RecursiveBundleBuilder rbb;
+    private final TextScanner in;
+
+    private final Function func;
+
+    /**
+     * The CFG.
+     */
+    final CFG cfg;
+
+    /**
+     * Blocks used but not defined yet, and where each was first used.
+     */
+    private final Map<String, BasicBlock> pendingBlocks = new LinkedHashMap<String, BasicBlock>();
+    private final Map<String, Integer> pendingBlockUses = new HashMap<String, Integer>();
+
+    /**
+     * Placeholders for local values used but not defined yet.
+     */
+    private final Map<String, ForwardRef> forwardRefs = new LinkedHashMap<String, ForwardRef>();
+
+    FastFuncParser(FastBundleParser fbp, Function func) {
+        this.fbp = fbp;
+        this.rbb = fbp.rbb;
+        this.in = fbp.in;
+        this.func = func;
+
+        cfg = new CFG();
+
+        cfg.setFunc(func);
+        func.setCFG(cfg);
+    }
+
+    /**
+     * Parse the parameter list and the body. The scanner must be at the
+     * parameter list.
+     */
+    void parseFuncDef() {
+        in.expect('(');
+        int index = 0;
+        while (in.kind == TextScanner.LOCAL_ID) {
+            String name = in.text();
+            Parameter param = new Parameter(func.getSig(), index++);
+            int id = rbb.makeID();
+            param.setID(id);
+            param.setName(name);
+            cfg.getParams().add(param);
+            defineLocal(id, name, param);
+            in.next();
+        }
+        in.expect(')');
+
+        in.expect('{');
+        String entryName = "%__entry__";
+        if (isLabel()) {
+            entryName = in.text();
+            in.next();
+            in.next();
+        }
+        BasicBlock entry = defineBlock(entryName);
+        cfg.setEntry(entry);
+        parseInsts(entry);
+
+        while (in.kind != '}') {
+            String name = in.expectLocalID();
+            in.expect(':');
+            parseInsts(defineBlock(name));
+        }
+        in.next();
+        in.expectEndOfDef();
+
+        resolve();
+    }
+
+    private boolean isLabel() {
+        return in.kind == TextScanner.LOCAL_ID && in.peekChar() == ':';
+    }
+
+    /**
+     * Parse "inst+" up to the next label or the end of the body.
+     */
+    private void parseInsts(BasicBlock bb) {
+        do {
+            parseInst(bb);
+        } while (in.kind != '}' && !isLabel());
+    }
+
+    // Blocks and local values
+
+    private BasicBlock defineBlock(String name) {
+        if (cfg.getBBNs().getByName(name) != null) {
+            throw in.error("Label " + name + " defined multiple times.");
+        }
+        BasicBlock bb = pendingBlocks.remove(name);
+        if (bb == null) {
+            bb = new BasicBlock(cfg);
+        }
+        int id = rbb.makeID();
+        bb.setID(id);
+        bb.setName(name);
+
+        cfg.getBBs().add(bb);
+        cfg.getBBNs().put(id, name, bb);
+        return bb;
+    }
+
+    /**
+     * Parse a label operand.
+     */
+    private BasicBlock parseLabel() {
+        if (in.kind != TextScanner.LOCAL_ID) {
+            throw in.error("Expect a label, found " + in.describe());
+        }
+        String name = in.text();
+        BasicBlock bb = cfg.getBBNs().getByName(name);
+        if (bb == null) {
+            bb = pendingBlocks.get(name);
+            if (bb == null) {
+                bb = new BasicBlock(cfg);
+                pendingBlocks.put(name, bb);
+                pendingBlockUses.put(name, in.mark());
+            }
+        }
+        in.next();
+        return bb;
+    }
+
+    /**
+     * Define a local value. As in FuncBuilder, which resolves names only after
+     * making all instructions, a name defined more than once refers to its
+     * last definition everywhere, so the uses of an earlier one move over.
+     */
+    private void defineLocal(int id, String name, Instruction inst) {
+        if (name != null) {
+            Value earlier = cfg.getInstNs().getByName(name);
+            if (earlier != null) {
+                earlier.replaceAllUsesWith(inst);
+            }
+        }
+        cfg.getInstNs().put(id, name, inst);
+    }
+
+    private Value getLocalVal(String name) {
+        Value value = cfg.getInstNs().getByName(name);
+        if (value == null) {
+            ForwardRef ref = forwardRefs.get(name);
+            if (ref == null) {
+                ref = new ForwardRef(in.mark());
+                forwardRefs.put(name, ref);
+            }
+            value = ref;
+        }
+        return value;
+    }
+
+    /**
+     * Check that every used label is defined, and replace the placeholders.
+     */
+    private void resolve() {
+        if (!pendingBlocks.isEmpty()) {
+            String name = pendingBlocks.keySet().iterator().next();
+            throw in.errorAt(pendingBlockUses.get(name), "Undefined label "
+                    + name);
+        }
+        for (Map.Entry<String, ForwardRef> e : forwardRefs.entrySet()) {
+            Value value = cfg.getInstNs().getByName(e.getKey());
+            if (value == null) {
+                throw in.errorAt(e.getValue().firstUse,
+                        "Undefined local value " + e.getKey());
+            }
+            e.getValue().replaceAllUsesWith(value);
+        }
+    }
+
+    // Operands
+
+    /**
+     * Parse a "value" operand.
+     *
+     * @param hint
+     *            the expected type as a hint for in-line constants.
+     */
+    private Value parseValue(Type hint) {
+        if (in.kind == TextScanner.GLOBAL_ID) {
+            String name = in.text();
+            Value value = rbb.lookupGlobalValue(name);
+            if (value == null) {
+                if (fbp.forwardGlobals == null) {
+                    throw in.error("Undefined global value " + name);
+                }
+                value = fbp.forwardGlobal(name);
+            }
+            in.next();
+            return value;
+        }
+        if (in.kind == TextScanner.LOCAL_ID) {
+            Value value = getLocalVal(in.text());
+            in.next();
+            return value;
+        }
+        if (hint == null) {
+            throw in.error("Cannot build constant without a type hint");
+        }
+        if (hint.getID() == 0) {
+            throw in.error("Text parser cannot infer literal constant type "
+                    + "when the type is not declared by the client.");
+        }
+        return fbp.parseConstExpr(hint, fbp.inlineConstMaker);
+    }
+
+    private Value parseValue() {
+        return parseValue(null);
+    }
+
+    /**
+     * Parse a "value" operand which must refer to a local value.
+     */
+    private Value parseLocalVal() {
+        if (in.kind != TextScanner.LOCAL_ID) {
+            throw in.error("Found " + in.describe() + " Expect local value.");
+        }
+        Value value = getLocalVal(in.text());
+        in.next();
+        return value;
+    }
+
+    /**
+     * Parse "'&lt;' type '&gt;'".
+     */
+    private Type parseTypeArg() {
+        in.expect('<');
+        Type type = fbp.parseType();
+        in.expect('>');
+        return type;
+    }
+
+    private Struct parseStructType() {
+        int at = in.mark();
+        Type type = fbp.parseType();
+        if (!(type instanceof Struct)) {
+            throw in.errorAt(at, "Expect a struct type.");
+        }
+        return (Struct) type;
+    }
+
+    private Hybrid parseHybridTypeArg() {
+        in.expect('<');
+        int at = in.mark();
+        Type type = fbp.parseType();
+        if (!(type instanceof Hybrid)) {
+            throw in.errorAt(at, "Expect a hybrid type.");
+        }
+        in.expect('>');
+        return (Hybrid) type;
+    }
+
+    private <T> T parseWord(Map<String, T> words, String what) {
+        T result = in.kind == TextScanner.WORD ? words.get(in.text()) : null;
+        if (result == null) {
+            throw in.error("Expect " + what + ", found " + in.describe());
+        }
+        in.next();
+        return result;
+    }
+
+    private AtomicOrdering parseOrdering() {
+        return parseWord(ORDERINGS, "an atomic ordering");
+    }
+
+    /**
+     * Parse the "'&lt;' funcSig '&gt;'" of a "funcCallBody".
+     */
+    private FunctionSignature parseCallSig() {
+        in.expect('<');
+        FunctionSignature sig = fbp.parseFuncSig();
+        in.expect('>');
+        return sig;
+    }
+
+    /**
+     * Parse the "value args" of a "funcCallBody".
+     */
+    private void parseCallee(CallLike inst) {
+        inst.setFunc(parseValue());
+        List<Type> hints = inst.getSig().getParamTypes();
+        in.expect('(');
+        for (int i = 0; in.kind != ')'; i++) {
+            if (i == hints.size()) {
+                throw in.error("Too many arguments. Expect " + hints.size()
+                        + ".");
+            }
+            inst.addArg(parseValue(hints.get(i)));
+        }
+        in.next();
+    }
+
+    private void parseArgs(HasArgs inst) {
+        in.expect('(');
+        while (in.kind != ')') {
+            inst.addArg(parseValue());
+        }
+        in.next();
+    }
+
+    private void parseNorExc(HandlesException inst) {
+        inst.setNor(parseLabel());
+        inst.setExc(parseLabel());
+    }
+
+    private void parseKeepAlives(HasKeepAlives inst) {
+        if (!in.isWord("KEEPALIVE")) {
+            throw in.error("Expect KEEPALIVE, found " + in.describe());
+        }
+        in.next();
+        in.expect('(');
+        while (in.kind != ')') {
+            inst.addKeepAlive(parseLocalVal());
+        }
+        in.next();
+    }
+
+    private void parseMaybeKeepAlives(HasKeepAlives inst) {
+        if (in.isWord("KEEPALIVE")) {
+            parseKeepAlives(inst);
+        }
+    }
+
+    private IFunc parseIFunc() {
+        if (in.kind != TextScanner.GLOBAL_ID) {
+            throw in.error("Expect an intrinsic function, found "
+                    + in.describe());
+        }
+        IFunc iFunc = IFuncFactory.getIFuncByName(in.text());
+        if (iFunc == null) {
+            throw in.error("Unknown intrinsic function: " + in.rawText());
+        }
+        in.next();
+        return iFunc;
+    }
+
+    // Instructions
+
+    /**
+     * Give an instruction its ID and name and append it to the block. Called
+     * after the parts before the operands are parsed, so that in-line types
+     * get their IDs before the instruction, as in FuncBuilder.
+     */
+    private void add(BasicBlock bb, Instruction inst, String name) {
+        int id = rbb.makeID();
+        inst.setID(id);
+        inst.setName(name);
+        bb.addInstruction(inst);
+        defineLocal(id, name, inst);
+    }
+
+    /**
+     * Parse an "inst" and append it to the block.
+     */
+    private void parseInst(BasicBlock bb) {
+        String name = null;
+        if (in.kind == TextScanner.LOCAL_ID) {
+            name = in.text();
+            in.next();
+            in.expect('=');
+        }
+        if (in.kind != TextScanner.WORD) {
+            throw in.error("Expect an instruction, found " + in.describe());
+        }
+        int at = in.mark();
+        String opcode = in.text();
+        in.next();
+
+        switch (opcode) {
+        case "SELECT": {
+            InstSelect inst = new InstSelect();
+            inst.setType(parseTypeArg());
+            add(bb, inst, name);
+            inst.setCond(parseValue(INT1));
+            inst.setIfTrue(parseValue(inst.getType()));
+            inst.setIfFalse(parseValue(inst.getType()));
+            return;
+        }
+        case "BRANCH": {
+            InstBranch inst = new InstBranch();
+            add(bb, inst, name);
+            inst.setDest(parseLabel());
+            return;
+        }
+        case "BRANCH2": {
+            InstBranch2 inst = new InstBranch2();
+            add(bb, inst, name);
+            inst.setCond(parseValue(INT1));
+            inst.setIfTrue(parseLabel());
+            inst.setIfFalse(parseLabel());
+            return;
+        }
+        case "SWITCH": {
+            InstSwitch inst = new InstSwitch();
+            inst.setOpndType(parseTypeArg());
+            add(bb, inst, name);
+            inst.setOpnd(parseValue(inst.getOpndType()));
+            inst.setDefaultDest(parseLabel());
+            in.expect('{');
+            while (in.kind != '}') {
+                Value cas = parseValue(inst.getOpndType());
+                in.expect(':');
+                BasicBlock dst = parseLabel();
+                in.expect(';');
+                inst.setDestFor(cas, dst);
+            }
+            in.next();
+            return;
+        }
+        case "PHI": {
+            InstPhi inst = new InstPhi();
+            inst.setType(parseTypeArg());
+            add(bb, inst, name);
+            in.expect('{');
+            while (in.kind != '}') {
+                BasicBlock src = parseLabel();
+                in.expect(':');
+                Value val = parseValue(inst.getType());
+                in.expect(';');
+                inst.setValueFrom(src, val);
+            }
+            in.next();
+            return;
+        }
+        case "CALL": {
+            InstCall inst = new InstCall();
+            inst.setSig(parseCallSig());
+            add(bb, inst, name);
+            parseCallee(inst);
+            parseMaybeKeepAlives(inst);
+            return;
+        }
+        case "INVOKE": {
+            InstInvoke inst = new InstInvoke();
+            inst.setSig(parseCallSig());
+            add(bb, inst, name);
+            parseCallee(inst);
+            parseNorExc(inst);
+            parseMaybeKeepAlives(inst);
+            return;
+        }
+        case "TAILCALL": {
+            InstTailCall inst = new InstTailCall();
+            inst.setSig(parseCallSig());
+            add(bb, inst, name);
+            parseCallee(inst);
+            return;
+        }
+        case "RET": {
+            InstRet inst = new InstRet();
+            inst.setRetType(parseTypeArg());
+            add(bb, inst, name);
+            inst.setRetVal(parseValue(inst.getRetType()));
+            return;
+        }
+        case "RETVOID":
+            add(bb, new InstRetVoid(), name);
+            return;
+        case "THROW": {
+            InstThrow inst = new InstThrow();
+            add(bb, inst, name);
+            inst.setException(parseValue());
+            return;
+        }
+        case "LANDINGPAD":
+            add(bb, new InstLandingPad(), name);
+            return;
+        case "EXTRACTVALUE": {
+            InstExtractValue inst = new InstExtractValue();
+            in.expect('<');
+            inst.setStructType(parseStructType());
+            inst.setIndex((int) fbp.parseIntLiteral());
+            in.expect('>');
+            add(bb, inst, name);
+            inst.setOpnd(parseValue(inst.getStructType()));
+            return;
+        }
+        case "INSERTVALUE": {
+            InstInsertValue inst = new InstInsertValue();
+            in.expect('<');
+            inst.setStructType(parseStructType());
+            inst.setIndex((int) fbp.parseIntLiteral());
+            in.expect('>');
+            add(bb, inst, name);
+            inst.setOpnd(parseValue(inst.getStructType()));
+            inst.setNewVal(parseValue(inst.getFieldType()));
+            return;
+        }
+        case "NEW": {
+            InstNew inst = new InstNew();
+            inst.setAllocType(parseTypeArg());
+            add(bb, inst, name);
+            return;
+        }
+        case "NEWHYBRID": {
+            InstNewHybrid inst = new InstNewHybrid();
+            inst.setAllocType(parseHybridTypeArg());
+            add(bb, inst, name);
+            inst.setLength(parseValue(WORD_TYPE));
+            return;
+        }
+        case "ALLOCA": {
+            InstAlloca inst = new InstAlloca();
+            inst.setAllocType(parseTypeArg());
+            add(bb, inst, name);
+            return;
+        }
+        case "ALLOCAHYBRID": {
+            InstAllocaHybrid inst = new InstAllocaHybrid();
+            inst.setAllocType(parseHybridTypeArg());
+            add(bb, inst, name);
+            inst.setLength(parseValue(WORD_TYPE));
+            return;
+        }
+        case "GETIREF": {
+            InstGetIRef inst = new InstGetIRef();
+            inst.setReferentType(parseTypeArg());
+            add(bb, inst, name);
+            inst.setOpnd(parseValue());
+            return;
+        }
+        case "GETFIELDIREF": {
+            InstGetFieldIRef inst = new InstGetFieldIRef();
+            in.expect('<');
+            inst.setReferentType(parseStructType());
+            inst.setIndex((int) fbp.parseIntLiteral());
+            in.expect('>');
+            add(bb, inst, name);
+            inst.setOpnd(parseValue());
+            return;
+        }
+        case "GETELEMIREF": {
+            InstGetElemIRef inst = new InstGetElemIRef();
+            in.expect('<');
+            int typeAt = in.mark();
+            Type type = fbp.parseType();
+            if (!(type instanceof Array)) {
+                throw in.errorAt(typeAt, "Expect an array type.");
+            }
+            in.expect('>');
+            inst.setReferentType((Array) type);
+            add(bb, inst, name);
+            inst.setOpnd(parseValue());
+            inst.setIndex(parseValue(WORD_TYPE));
+            return;
+        }
+        case "SHIFTIREF": {
+            InstShiftIRef inst = new InstShiftIRef();
+            inst.setReferentType(parseTypeArg());
+            add(bb, inst, name);
+            inst.setOpnd(parseValue());
+            inst.setOffset(parseValue(WORD_TYPE));
+            return;
+        }
+        case "GETFIXEDPARTIREF": {
+            InstGetFixedPartIRef inst = new InstGetFixedPartIRef();
+            inst.setReferentType(parseHybridTypeArg());
+            add(bb, inst, name);
+            inst.setOpnd(parseValue());
+            return;
+        }
+        case "GETVARPARTIREF": {
+            InstGetVarPartIRef inst = new InstGetVarPartIRef();
+            inst.setReferentType(parseHybridTypeArg());
+            add(bb, inst, name);
+            inst.setOpnd(parseValue());
+            return;
+        }
+        case "LOAD": {
+            InstLoad inst = new InstLoad();
+            inst.setOrdering(in.kind == TextScanner.WORD ? parseOrdering()
+                    : AtomicOrdering.NOT_ATOMIC);
+            inst.setReferentType(parseTypeArg());
+            add(bb, inst, name);
+            inst.setLocation(parseValue());
+            return;
+        }
+        case "STORE": {
+            InstStore inst = new InstStore();
+            inst.setOrdering(in.kind == TextScanner.WORD ? parseOrdering()
+                    : AtomicOrdering.NOT_ATOMIC);
+            inst.setReferentType(parseTypeArg());
+            add(bb, inst, name);
+            inst.setLocation(parseValue());
+            inst.setNewVal(parseValue(inst.getReferentType()));
+            return;
+        }
+        case "CMPXCHG": {
+            InstCmpXchg inst = new InstCmpXchg();
+            inst.setOrderingSucc(parseOrdering());
+            inst.setOrderingFail(parseOrdering());
+            inst.setReferentType(parseTypeArg());
+            add(bb, inst, name);
+            inst.setLocation(parseValue());
+            inst.setExpected(parseValue(inst.getReferentType()));
+            inst.setDesired(parseValue(inst.getReferentType()));
+            return;
+        }
+        case "ATOMICRMW": {
+            InstAtomicRMW inst = new InstAtomicRMW();
+            inst.setOrdering(parseOrdering());
+            inst.setOptr(parseWord(RMW_OPS, "an atomic RMW operator"));
+            inst.setReferentType(parseTypeArg());
+            add(bb, inst, name);
+            inst.setLocation(parseValue());
+            inst.setOpnd(parseValue(inst.getReferentType()));
+            return;
+        }
+        case "FENCE": {
+            InstFence inst = new InstFence();
+            inst.setOrdering(parseOrdering());
+            add(bb, inst, name);
+            return;
+        }
+        case "TRAP": {
+            InstTrap inst = new InstTrap();
+            inst.setType(parseTypeArg());
+            add(bb, inst, name);
+            parseNorExc(inst);
+            parseKeepAlives(inst);
+            return;
+        }
+        case "WATCHPOINT": {
+            InstWatchPoint inst = new InstWatchPoint();
+            inst.setWatchPointId((int) fbp.parseIntLiteral());
+            inst.setType(parseTypeArg());
+            add(bb, inst, name);
+            inst.setDisabled(parseLabel());
+            parseNorExc(inst);
+            parseKeepAlives(inst);
+            return;
+        }
+        case "CCALL": {
+            InstCCall inst = new InstCCall();
+            if (!in.isWord("DEFAULT")) {
+                throw in.error("Expect a calling convention, found "
+                        + in.describe());
+            }
+            in.next();
+            inst.setCallConv(CallConv.DEFAULT);
+            inst.setSig(parseCallSig());
+            add(bb, inst, name);
+            parseCallee(inst);
+            return;
+        }
+        case "NEWSTACK": {
+            InstNewStack inst = new InstNewStack();
+            inst.setSig(parseCallSig());
+            add(bb, inst, name);
+            parseCallee(inst);
+            return;
+        }
+        case "ICALL": {
+            InstICall inst = new InstICall();
+            inst.setIFunc(parseIFunc());
+            add(bb, inst, name);
+            parseArgs(inst);
+            parseMaybeKeepAlives(inst);
+            return;
+        }
+        case "IINVOKE": {
+            InstIInvoke inst = new InstIInvoke();
+            inst.setIFunc(parseIFunc());
+            add(bb, inst, name);
+            parseArgs(inst);
+            parseNorExc(inst);
+            parseMaybeKeepAlives(inst);
+            return;
+        }
+        default:
+            break;
+        }
+
+        BinOptr binOptr = BIN_OPTRS.get(opcode);
+        if (binOptr != null) {
+            InstBinOp inst = new InstBinOp();
+            inst.setOptr(binOptr);
+            inst.setType(parseTypeArg());
+            add(bb, inst, name);
+            inst.setOp1(parseValue(inst.getType()));
+            inst.setOp2(parseValue(inst.getType()));
+            return;
+        }
+
+        CmpOptr cmpOptr = CMP_OPTRS.get(opcode);
+        if (cmpOptr != null) {
+            InstCmp inst = new InstCmp();
+            inst.setOptr(cmpOptr);
+            inst.setOpndType(parseTypeArg());
+            add(bb, inst, name);
+            inst.setOp1(parseValue(inst.getOpndType()));
+            inst.setOp2(parseValue(inst.getOpndType()));
+            return;
+        }
+
+        ConvOptr convOptr = CONV_OPTRS.get(opcode);
+        if (convOptr != null) {
+            InstConversion inst = new InstConversion();
+            inst.setOptr(convOptr);
+            in.expect('<');
+            inst.setFromType(fbp.parseType());
+            inst.setToType(fbp.parseType());
+            in.expect('>');
+            add(bb, inst, name);
+            inst.setOpnd(parseValue(inst.getFromType()));
+            return;
+        }
+
+        throw in.errorAt(at, "Unknown instruction " + opcode);
+    }
+
+    /**
+     * A placeholder for a local value used before its definition.
+     */
+    private static final class ForwardRef extends Value {
+        /**
+         * The position of the first use, for error messages.
+         */
+        final int firstUse;
+
+        ForwardRef(int firstUse) {
+            this.firstUse = firstUse;
+        }
+
+        @Override
+        public Type getType() {
+            return null;
+        }
+
+        @Override
+        public int opcode() {
+            throw new UnsupportedOperationException(
+                    "A forward reference has no opcode.");
+        }
+
+        @Override
+        public <T> T accept(ValueVisitor<T> visitor) {
+            throw new UnsupportedOperationException(
+                    "A forward reference cannot be visited.");
+        }
+    }
+}
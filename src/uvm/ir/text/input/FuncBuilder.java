@@ -2,7 +2,7 @@ package uvm.ir.text.input;
 
 import static uvm.ir.text.input.ParserHelper.*;
 
-import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -44,7 +44,11 @@ class FuncBuilder {
      */
     CFG cfg;
 
-    Map<RuleContext, Instruction> ctxToInst = new HashMap<RuleContext, Instruction>();
+    /**
+     * The instruction made for each instruction body, between the two passes.
+     * Released after the second pass.
+     */
+    Map<RuleContext, Instruction> ctxToInst = new IdentityHashMap<RuleContext, Instruction>();
 
     FuncBuilder(RecursiveBundleBuilder rbb, Function func) {
         this.rbb = rbb;
@@ -79,6 +83,7 @@ class FuncBuilder {
         // The second pass populate all instructions.
 
         populateInstruction.visit(ctx.funcBody());
+        ctxToInst = null;
     }
 
     private void handleEntryBlock(EntryBlockContext entryBlock) {
@@ -179,12 +184,9 @@ class FuncBuilder {
     }
 
     private Value getGlobalVal(String name) {
-        Value rv = rbb.bundle.getGlobalValueNs().getByName(name);
+        Value rv = rbb.lookupGlobalValue(name);
         if (rv == null) {
-            rv = rbb.globalBundle.getGlobalValueNs().getByName(name);
-            if (rv == null) {
-                parseError("Undefined global value " + name);
-            }
+            parseError("Undefined global value " + name);
         }
         return rv;
     }
@@ -1,10 +1,16 @@
 package uvm.ir.text.input;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Allocates IDs for entities created from the text form. Thread safe, so that
+ * function bodies can be built in parallel.
+ */
 public class IDMakerForText {
 
     // ID facilities
 
-    private int nextId = 65536;
+    private final AtomicInteger nextId = new AtomicInteger(65536);
 
     /**
      * Create a new globally unique ID.
@@ -13,8 +19,7 @@ public class IDMakerForText {
      *         instructions, ...
      */
     public int makeID() {
-        int thisId = nextId++;
-        return thisId;
+        return nextId.getAndIncrement();
     }
 
     public static IDMakerForText INSTANCE = new IDMakerForText();
@@ -0,0 +1,244 @@
+package uvm.ir.text.input;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+import org.antlr.v4.runtime.BailErrorStrategy;
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.DefaultErrorStrategy;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+
+import parser.uIRLexer;
+import parser.uIRParser;
+import parser.uIRParser.IrContext;
+import uvm.Bundle;
+import uvm.util.HeapWatermark;
+
+/**
+ * Read bundles in the text form. This is the reusable front end of
+ * {@link RecursiveBundleBuilder}.
+ * <p>
+ * Each input is first parsed in the SLL prediction mode with a
+ * {@link BailErrorStrategy}, which is fast and almost always succeeds on
+ * valid input. Only if that fails is it parsed again in the full LL mode with
+ * the default error strategy, which gives the usual error messages.
+ * <p>
+ * Bundles are read by the hand-written {@link FastBundleParser} first. The
+ * ANTLR parser is the reference: if the fast parser rejects an input, it is
+ * read again with ANTLR, which either builds it or reports the error in the
+ * usual way. See {@link #setFastPath(boolean)}.
+ * <p>
+ * The lexer and the parser are created once and reused for every input. The
+ * DFA and the prediction context cache are static in the generated parser, so
+ * they are shared by all instances and stay warm across inputs.
+ * <p>
+ * Not thread safe. Use one instance per thread.
+ */
+public class IRTextReader {
+    private static final String UTF8 = "UTF-8";
+
+    private final uIRLexer lexer = new uIRLexer(null);
+    private final uIRParser parser = new uIRParser(null);
+
+    private final BailErrorStrategy bailStrategy = new BailErrorStrategy();
+    private final DefaultErrorStrategy defaultStrategy = new DefaultErrorStrategy();
+    private final ErrorCollector errors = new ErrorCollector();
+
+    private boolean fastPath = true;
+
+    private HeapWatermark watermark;
+
+    private int fastParses = 0;
+    private int sllParses = 0;
+    private int llParses = 0;
+
+    public IRTextReader() {
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(errors);
+        parser.removeErrorListeners();
+        parser.addErrorListener(errors);
+    }
+
+    /**
+     * Parse a whole input.
+     * 
+     * @return The parse tree.
+     * @throws ASTParsingException
+     *             on the first syntax error.
+     */
+    public IrContext parse(CharStream input) {
+        errors.reset();
+        lexer.setInputStream(input);
+        CommonTokenStream tokens = new CommonTokenStream(lexer);
+        parser.setTokenStream(tokens);
+
+        parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+        parser.setErrorHandler(bailStrategy);
+        IrContext ir = null;
+        try {
+            ir = parser.ir();
+            sllParses++;
+        } catch (ParseCancellationException e) {
+            // Either a syntax error or a construct SLL cannot decide. Retry
+            // from the beginning with full LL. The tokens already read are
+            // kept, and so are the lexer errors, since the parser does not
+            // report errors while bailing out.
+            parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+            parser.setErrorHandler(defaultStrategy);
+            tokens.seek(0);
+            parser.reset();
+            ir = parser.ir();
+            llParses++;
+        }
+
+        if (errors.firstError != null) {
+            throw new ASTParsingException(errors.firstError);
+        }
+        return ir;
+    }
+
+    public IrContext parse(String text) {
+        return parse(new CharArrayStream(text));
+    }
+
+    public IrContext parse(Reader reader) throws IOException {
+        return parse(new CharArrayStream(reader));
+    }
+
+    public IrContext parse(InputStream is) throws IOException {
+        return parse(new InputStreamReader(is, UTF8));
+    }
+
+    /**
+     * Read bundles with the hand-written parser first (the default), or only
+     * with ANTLR.
+     */
+    public void setFastPath(boolean fastPath) {
+        this.fastPath = fastPath;
+    }
+
+    /**
+     * Parse an input with ANTLR and build a bundle.
+     * 
+     * @param globalBundle
+     *            The bundle to resolve names not defined in the input, or
+     *            null.
+     */
+    public Bundle read(CharStream input, Bundle globalBundle) {
+        IrContext ir = parse(input);
+        // The tree holds the tokens it needs. Let go of the token stream,
+        // which holds every token including the hidden ones.
+        release();
+        sample();
+
+        RecursiveBundleBuilder rbb = globalBundle == null ? new RecursiveBundleBuilder()
+                : new RecursiveBundleBuilder(globalBundle);
+        rbb.setReleaseParseTree(true);
+        rbb.setHeapWatermark(watermark);
+        rbb.build(ir);
+        return rbb.getBundle();
+    }
+
+    /**
+     * Drop the references of the lexer and the parser to the last input.
+     */
+    private void release() {
+        parser.setTokenStream(null);
+        lexer.setInputStream(null);
+    }
+
+    /**
+     * Sample the retained heap while reading with ANTLR, or not if null. The
+     * parse tree of each function is released once its body is built, so the
+     * peak is usually right after parsing.
+     */
+    public void setHeapWatermark(HeapWatermark watermark) {
+        this.watermark = watermark;
+    }
+
+    private void sample() {
+        if (watermark != null) {
+            watermark.sample();
+        }
+    }
+
+    /**
+     * Parse an input and build a bundle.
+     * 
+     * @param globalBundle
+     *            The bundle to resolve names not defined in the input, or
+     *            null.
+     */
+    public Bundle read(String text, Bundle globalBundle) {
+        return read(text.toCharArray(), globalBundle);
+    }
+
+    public Bundle read(InputStream is, Bundle globalBundle) throws IOException {
+        return read(FastBundleParser.readFully(new InputStreamReader(is, UTF8)),
+                globalBundle);
+    }
+
+    Bundle read(char[] buf, Bundle globalBundle) {
+        if (fastPath) {
+            FastBundleParser fbp = globalBundle == null ? new FastBundleParser()
+                    : new FastBundleParser(globalBundle);
+            try {
+                fbp.build(buf, buf.length);
+                fastParses++;
+                return fbp.getBundle();
+            } catch (ASTParsingException e) {
+                // Let the reference parser build it or report the error.
+            }
+        }
+        return read(new CharArrayStream(buf, buf.length), globalBundle);
+    }
+
+    /**
+     * @return The number of inputs read by the hand-written parser.
+     */
+    public int getFastParses() {
+        return fastParses;
+    }
+
+    /**
+     * @return The number of inputs parsed by SLL alone.
+     */
+    public int getSLLParses() {
+        return sllParses;
+    }
+
+    /**
+     * @return The number of inputs that needed the LL fallback.
+     */
+    public int getLLParses() {
+        return llParses;
+    }
+
+    /**
+     * Remembers the first syntax error reported by the lexer or the parser.
+     */
+    private static class ErrorCollector extends BaseErrorListener {
+        String firstError;
+
+        void reset() {
+            firstError = null;
+        }
+
+        @Override
+        public void syntaxError(Recognizer<?, ?> recognizer,
+                Object offendingSymbol, int line, int charPositionInLine,
+                String msg, RecognitionException e) {
+            if (firstError == null) {
+                firstError = String.format("line %d col %d: %s", line,
+                        charPositionInLine, msg);
+            }
+        }
+    }
+}
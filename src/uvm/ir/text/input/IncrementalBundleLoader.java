@@ -0,0 +1,449 @@
+package uvm.ir.text.input;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import uvm.BasicBlock;
+import uvm.Bundle;
+import uvm.CFG;
+import uvm.Function;
+import uvm.Namespace;
+import uvm.ssavalue.Constant;
+import uvm.ssavalue.Instruction;
+import uvm.ssavalue.StructConstant;
+import uvm.ssavalue.UseBox;
+import uvm.ssavalue.Value;
+import uvm.util.IntList;
+
+/**
+ * IncrementalBundleLoader loads a text bundle and reloads it after edits,
+ * rebuilding only the definitions whose text changed.
+ * <p>
+ * The text of each top-level definition is fingerprinted, ignoring comments
+ * and the amount of white space. On {@link #reload}, the definitions are
+ * compared with the last loaded ones by directive and name. Definitions with
+ * the same fingerprint are compared character by character in the same way,
+ * so that a collision cannot hide an edit:
+ * <ul>
+ * <li>If only ".funcdef" bodies changed and definitions were added, those
+ * definitions alone are built into a redefinition bundle, in which changed
+ * functions keep their IDs. It is applied to the loaded bundle with
+ * {@link Bundle#mergeFrom}, as in the redefinition of functions across
+ * bundles. The Function objects stay the same and get new CFGs.
+ * <li>If any other definition changed or was removed, everything is built
+ * again, since other entities may depend on it.
+ * </ul>
+ * So after fingerprinting, which is a quick pass over the characters, the
+ * time to reload is proportional to the edited definitions.
+ * <p>
+ * The instructions of replaced CFGs are unlinked from the values they use.
+ * Anonymous constants which they alone used are removed from the bundle, so
+ * the namespaces do not grow as a function is edited again and again.
+ * <p>
+ * Not thread safe.
+ */
+public class IncrementalBundleLoader {
+    private final Bundle globalBundle;
+
+    /**
+     * The builder of the loaded bundle. Redefinitions are built by its
+     * children, so that they see the loaded entities.
+     */
+    private RecursiveBundleBuilder root;
+
+    /**
+     * Every loaded definition, by directive and name, or null if the loaded
+     * text defines a name twice.
+     */
+    private Map<String, Definition> loaded = new HashMap<String, Definition>();
+
+    private boolean lastIncremental = false;
+    private int lastRebuilt = 0;
+
+    public IncrementalBundleLoader() {
+        this(new Bundle());
+    }
+
+    public IncrementalBundleLoader(Bundle globalBundle) {
+        this.globalBundle = globalBundle;
+    }
+
+    /**
+     * @return The loaded bundle, or null if nothing is loaded. A full reload
+     *         replaces it with a new bundle.
+     */
+    public Bundle getBundle() {
+        return root == null ? null : root.getBundle();
+    }
+
+    /**
+     * @return true if the last reload only built changed definitions.
+     */
+    public boolean wasIncremental() {
+        return lastIncremental;
+    }
+
+    /**
+     * @return The number of definitions built by the last load or reload.
+     */
+    public int getRebuiltDefinitions() {
+        return lastRebuilt;
+    }
+
+    /**
+     * Load a bundle from scratch.
+     *
+     * @return The loaded bundle.
+     * @throws ASTParsingException
+     *             on errors. The previously loaded bundle is kept.
+     */
+    public Bundle load(CharSequence text) {
+        char[] buf = text.toString().toCharArray();
+        List<Definition> defs = split(buf);
+
+        RecursiveBundleBuilder rbb = new RecursiveBundleBuilder(globalBundle);
+        new FastBundleParser(rbb).build(buf, buf.length);
+
+        root = rbb;
+        loaded = byKey(defs);
+        lastIncremental = false;
+        lastRebuilt = defs.size();
+        return rbb.getBundle();
+    }
+
+    /**
+     * Load the edited text of the loaded bundle.
+     *
+     * @return The redefinition bundle which has been applied to the loaded
+     *         bundle, or the new bundle after a full reload.
+     * @throws ASTParsingException
+     *             on errors. The previously loaded bundle is kept as is.
+     */
+    public Bundle reload(CharSequence text) {
+        if (root == null || loaded == null) {
+            return load(text);
+        }
+
+        char[] buf = text.toString().toCharArray();
+        List<Definition> defs = split(buf);
+        Map<String, Definition> newLoaded = byKey(defs);
+        if (newLoaded == null
+                || !newLoaded.keySet().containsAll(loaded.keySet())) {
+            return load(text);
+        }
+
+        List<Definition> changed = new ArrayList<Definition>();
+        for (Definition def : defs) {
+            Definition old = loaded.get(def.key);
+            if (old == null) {
+                changed.add(def);
+            } else if (!def.hasSameText(old)) {
+                // The signature of a function cannot be redefined.
+                if (!def.key.startsWith(".funcdef ")
+                        || !def.hasSameSignature(old)) {
+                    return load(text);
+                }
+                changed.add(def);
+            }
+        }
+
+        Bundle redef = buildRedefinition(buf, changed);
+
+        Bundle bundle = root.getBundle();
+        List<Constant> unlinked = new ArrayList<Constant>();
+        for (Function func : redef.getFuncNs().getObjects()) {
+            Function old = bundle.getFuncNs().getByID(func.getID());
+            if (old != null && old.getCFG() != null) {
+                unlink(old.getCFG(), unlinked);
+            }
+        }
+        bundle.mergeFrom(redef);
+        removeUnused(bundle, unlinked);
+
+        loaded = newLoaded;
+        lastIncremental = true;
+        lastRebuilt = changed.size();
+        return redef;
+    }
+
+    /**
+     * Build some definitions of buf on top of the loaded bundle.
+     */
+    private Bundle buildRedefinition(char[] buf, List<Definition> defs) {
+        // Copy the definitions one after another, each from the start of its
+        // first line, and map them back to their lines for error messages.
+        int chars = 0;
+        for (Definition def : defs) {
+            chars += def.end - def.lineStart + 1;
+        }
+        char[] text = new char[chars];
+        int[] starts = new int[defs.size()];
+        int[] lines = new int[defs.size()];
+        int pos = 0;
+        for (int i = 0; i < defs.size(); i++) {
+            Definition def = defs.get(i);
+            starts[i] = pos;
+            lines[i] = def.line;
+            int prefix = def.start - def.lineStart;
+            for (int j = 0; j < prefix; j++) {
+                text[pos++] = ' ';
+            }
+            System.arraycopy(buf, def.start, text, pos, def.end - def.start);
+            pos += def.end - def.start;
+            text[pos++] = '\n';
+        }
+
+        TextScanner in = new TextScanner(text, text.length);
+        in.setLineMap(starts, lines);
+        FastBundleParser fbp = new FastBundleParser(new RecursiveBundleBuilder(
+                root));
+        fbp.build(in);
+        return fbp.getBundle();
+    }
+
+    /**
+     * Unlink the instructions of a CFG from the values they use.
+     *
+     * @param unlinked
+     *            Receives the anonymous constants they used.
+     */
+    private static void unlink(CFG cfg, List<Constant> unlinked) {
+        for (BasicBlock bb : cfg.getBBs()) {
+            for (Instruction inst : bb.getInsts()) {
+                for (UseBox ub : inst.getUses()) {
+                    Value v = ub.getDst();
+                    if (v instanceof Constant && v.getName() == null) {
+                        unlinked.add((Constant) v);
+                    }
+                }
+                inst.dropAllUses();
+            }
+        }
+    }
+
+    /**
+     * Remove the anonymous constants of a bundle which are no longer used by
+     * any instruction or struct constant, starting from some candidates.
+     * Removing a struct constant makes its fields candidates too.
+     */
+    private static void removeUnused(Bundle bundle, List<Constant> candidates) {
+        if (candidates.isEmpty()) {
+            return;
+        }
+
+        // Struct fields are not UseBoxes, so count them separately.
+        Namespace<Constant> constNs = bundle.getDeclaredConstNs();
+        Map<Constant, Integer> fieldUses =
+                new IdentityHashMap<Constant, Integer>();
+        for (Constant constant : constNs.getObjects()) {
+            if (constant instanceof StructConstant) {
+                for (Constant field : ((StructConstant) constant).getValues()) {
+                    Integer n = fieldUses.get(field);
+                    fieldUses.put(field, n == null ? 1 : n + 1);
+                }
+            }
+        }
+
+        List<Constant> work = new ArrayList<Constant>(candidates);
+        while (!work.isEmpty()) {
+            Constant constant = work.remove(work.size() - 1);
+            if (!constant.getUsedBy().isEmpty()
+                    || fieldUses.containsKey(constant)
+                    || constNs.getByID(constant.getID()) != constant) {
+                continue;
+            }
+            bundle.getGlobalValueNs().remove(constant.getID());
+            constNs.remove(constant.getID());
+            bundle.getConstantPool().remove(constant);
+            if (constant instanceof StructConstant) {
+                for (Constant field : ((StructConstant) constant).getValues()) {
+                    int n = fieldUses.get(field) - 1;
+                    if (n == 0) {
+                        fieldUses.remove(field);
+                        if (field.getName() == null) {
+                            work.add(field);
+                        }
+                    } else {
+                        fieldUses.put(field, n);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * One top-level definition in a text.
+     */
+    private static class Definition {
+        /**
+         * The directive and the name, e.g. ".funcdef @main".
+         */
+        String key;
+        long fingerprint;
+
+        /**
+         * For ".funcdef", the range and the fingerprint of the signature
+         * alone.
+         */
+        int sigStart;
+        int sigEnd;
+        long sigFingerprint;
+
+        /**
+         * The text, the range in it, the start of its first line and the line
+         * number.
+         */
+        char[] buf;
+        int start;
+        int end;
+        int lineStart;
+        int line;
+
+        boolean hasSameText(Definition other) {
+            return fingerprint == other.fingerprint
+                    && sameText(buf, start, end, other.buf, other.start,
+                            other.end);
+        }
+
+        boolean hasSameSignature(Definition other) {
+            return sigFingerprint == other.sigFingerprint
+                    && sameText(buf, sigStart, sigEnd, other.buf,
+                            other.sigStart, other.sigEnd);
+        }
+    }
+
+    /**
+     * Cut a text into definitions at the directives.
+     */
+    private static List<Definition> split(char[] buf) {
+        IntList starts = new IntList();
+        for (int p = TextScanner.findDirective(buf, 0, buf.length); p != -1; p = TextScanner
+                .findDirective(buf, p + 1, buf.length)) {
+            starts.add(p);
+        }
+
+        List<Definition> defs = new ArrayList<Definition>();
+        int line = 1;
+        int lineStart = 0;
+        int scanned = 0;
+        for (int i = 0; i < starts.size(); i++) {
+            Definition def = new Definition();
+            def.buf = buf;
+            def.start = starts.get(i);
+            def.end = i + 1 < starts.size() ? starts.get(i + 1) : buf.length;
+            for (; scanned < def.start; scanned++) {
+                if (buf[scanned] == '\n') {
+                    line++;
+                    lineStart = scanned + 1;
+                }
+            }
+            def.line = line;
+            def.lineStart = lineStart;
+
+            TextScanner in = new TextScanner(buf, def.start, def.end);
+            String directive = in.next() == TextScanner.DIRECTIVE ? in.text()
+                    : "";
+            String name = in.next() == TextScanner.GLOBAL_ID ? in.text() : "";
+            def.key = directive + " " + name;
+            def.fingerprint = fingerprint(buf, def.start, def.end);
+            if (directive.equals(".funcdef")) {
+                in.next();
+                def.sigStart = in.mark();
+                in.skipAngles();
+                def.sigEnd = in.mark();
+                def.sigFingerprint = fingerprint(buf, def.sigStart, def.sigEnd);
+            }
+            defs.add(def);
+        }
+        return defs;
+    }
+
+    /**
+     * @return The definitions by key, or null if a key appears twice.
+     */
+    private static Map<String, Definition> byKey(List<Definition> defs) {
+        Map<String, Definition> result = new HashMap<String, Definition>();
+        for (Definition def : defs) {
+            if (result.put(def.key, def) != null) {
+                return null;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * A 64-bit FNV-1a hash of the normalized text of buf[from..to). See
+     * {@link NormalizedText}.
+     */
+    static long fingerprint(char[] buf, int from, int to) {
+        long hash = 0xcbf29ce484222325L;
+        NormalizedText text = new NormalizedText(buf, from, to);
+        for (int c = text.read(); c != -1; c = text.read()) {
+            hash = (hash ^ c) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * @return true if a[aFrom..aTo) and b[bFrom..bTo) have the same normalized
+     *         text.
+     */
+    static boolean sameText(char[] a, int aFrom, int aTo, char[] b,
+            int bFrom, int bTo) {
+        NormalizedText x = new NormalizedText(a, aFrom, aTo);
+        NormalizedText y = new NormalizedText(b, bFrom, bTo);
+        int c;
+        do {
+            c = x.read();
+            if (c != y.read()) {
+                return false;
+            }
+        } while (c != -1);
+        return true;
+    }
+
+    /**
+     * Reads a range of a text with comments dropped and each run of white
+     * space and comments read as one space, except at the end.
+     */
+    private static class NormalizedText {
+        private final char[] buf;
+        private final int to;
+        private int p;
+        private boolean space = false;
+
+        NormalizedText(char[] buf, int from, int to) {
+            this.buf = buf;
+            this.p = from;
+            this.to = to;
+        }
+
+        /**
+         * @return The next character, or -1 at the end.
+         */
+        int read() {
+            while (p < to) {
+                char c = buf[p];
+                if (c == ' ' || c == '\t' || c == '\r' || c == '\n') {
+                    space = true;
+                    p++;
+                } else if (c == '/' && p + 1 < to && buf[p + 1] == '/') {
+                    space = true;
+                    while (p < to && buf[p] != '\n' && buf[p] != '\r') {
+                        p++;
+                    }
+                } else if (space) {
+                    space = false;
+                    return ' ';
+                } else {
+                    p++;
+                    return c;
+                }
+            }
+            return -1;
+        }
+    }
+}
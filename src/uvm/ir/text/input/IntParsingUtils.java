@@ -26,4 +26,20 @@ public class IntParsingUtils {
         }
         return res;
     }
+
+    /**
+     * Like {@link #manualParse(String, long)}, but parse the characters
+     * buf[start..end) in place, without creating a String.
+     */
+    public static long manualParse(char[] buf, int start, int end, long base) {
+        long res = 0;
+        for (int i = start; i < end; i++) {
+            int ch = buf[i];
+            long digit = ch <= '9' ? (long) (ch - '0')
+                    : ch <= 'F' ? (long) (ch - 'A' + 10)
+                            : (long) (ch - 'a' + 10);
+            res = res * base + digit;
+        }
+        return res;
+    }
 }
@@ -0,0 +1,118 @@
+package uvm.ir.text.input;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.Token;
+
+import parser.uIRParser;
+import parser.uIRParser.DoubleBitsContext;
+import parser.uIRParser.DoubleLiteralContext;
+import parser.uIRParser.FloatBitsContext;
+import parser.uIRParser.FloatLiteralContext;
+import parser.uIRParser.IntLiteralContext;
+
+/**
+ * Private for RecursiveBundleBuilder use.
+ * <p>
+ * Decode int, float and double literals from the characters of their tokens
+ * into primitives. If the input is a {@link CharArrayStream}, the characters
+ * are read in place. Otherwise the text of the token is fetched.
+ */
+class LiteralDecoder {
+
+    static long intValue(IntLiteralContext ctx) {
+        Token token = ctx.getStart();
+        CharStream input = token.getInputStream();
+        if (input instanceof CharArrayStream) {
+            return intValue(((CharArrayStream) input).getData(),
+                    token.getStartIndex(), token.getStopIndex() + 1,
+                    token.getType());
+        }
+        char[] text = token.getText().toCharArray();
+        return intValue(text, 0, text.length, token.getType());
+    }
+
+    /**
+     * Like IntParsingUtils.manualParse, values above the range of long wrap
+     * around.
+     */
+    private static long intValue(char[] buf, int start, int end, int type) {
+        int p = start;
+        boolean negative = false;
+        if (buf[p] == '-' || buf[p] == '+') {
+            negative = buf[p] == '-';
+            p++;
+        }
+        long num;
+        switch (type) {
+        case uIRParser.INT_DEC:
+            num = IntParsingUtils.manualParse(buf, p, end, 10L);
+            break;
+        case uIRParser.INT_OCT:
+            num = IntParsingUtils.manualParse(buf, p, end, 8L);
+            break;
+        default: // INT_HEX
+            num = IntParsingUtils.manualParse(buf, p + 2, end, 16L);
+            break;
+        }
+        return negative ? -num : num;
+    }
+
+    static float floatValue(FloatLiteralContext ctx) {
+        Token token = ctx.getStart();
+        switch (token.getType()) {
+        case uIRParser.FP_NUM: {
+            CharStream input = token.getInputStream();
+            if (input instanceof CharArrayStream) {
+                return FPParsingUtils.parseFloat(
+                        ((CharArrayStream) input).getData(),
+                        token.getStartIndex(), token.getStopIndex() + 1);
+            }
+            char[] text = token.getText().toCharArray();
+            return FPParsingUtils.parseFloat(text, 0, text.length);
+        }
+        case uIRParser.INF:
+            return isNegative(token) ? Float.NEGATIVE_INFINITY
+                    : Float.POSITIVE_INFINITY;
+        case uIRParser.NAN:
+            return Float.NaN;
+        default:
+            return Float.intBitsToFloat((int) intValue(((FloatBitsContext) ctx)
+                    .intLiteral()));
+        }
+    }
+
+    static double doubleValue(DoubleLiteralContext ctx) {
+        Token token = ctx.getStart();
+        switch (token.getType()) {
+        case uIRParser.FP_NUM: {
+            CharStream input = token.getInputStream();
+            if (input instanceof CharArrayStream) {
+                return FPParsingUtils.parseDouble(
+                        ((CharArrayStream) input).getData(),
+                        token.getStartIndex(), token.getStopIndex() + 1);
+            }
+            char[] text = token.getText().toCharArray();
+            return FPParsingUtils.parseDouble(text, 0, text.length);
+        }
+        case uIRParser.INF:
+            return isNegative(token) ? Double.NEGATIVE_INFINITY
+                    : Double.POSITIVE_INFINITY;
+        case uIRParser.NAN:
+            return Double.NaN;
+        default:
+            return Double.longBitsToDouble(intValue(((DoubleBitsContext) ctx)
+                    .intLiteral()));
+        }
+    }
+
+    /**
+     * @return true if an INF token has a '-' sign.
+     */
+    private static boolean isNegative(Token token) {
+        CharStream input = token.getInputStream();
+        if (input instanceof CharArrayStream) {
+            return ((CharArrayStream) input).getData()[token.getStartIndex()] == '-';
+        }
+        return token.getText().charAt(0) == '-';
+    }
+}
@@ -0,0 +1,501 @@
+package uvm.ir.text.input;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import uvm.Bundle;
+import uvm.Identified;
+import uvm.Namespace;
+import uvm.ir.binary.input.IRBinaryReader;
+import uvm.util.IntList;
+
+/**
+ * MultiBundleLoader loads many bundle files into one global bundle, reading
+ * independent files in parallel.
+ * <p>
+ * Files ending with ".uir" are in the text form. Other files are in the
+ * binary form, which only refers to its own entities.
+ * <p>
+ * Each text file is first scanned for the names it defines (the names after
+ * the directives) and the global names it uses. A file depends on the first
+ * file, in the given order, which defines a name it uses. A file defining a
+ * name which an earlier file also defines (e.g. redefining a function)
+ * depends on that earlier file, so redefinitions are applied in the given
+ * order. Names defined by no file are looked up in the global bundle.
+ * <p>
+ * Files are then built in rounds. In each round, every file whose
+ * dependencies have been merged is built against the global bundle, which is
+ * only read meanwhile, and the results are merged into the global bundle one
+ * after another in the given order. Files which depend on each other (e.g.
+ * functions calling each other across files) are built together as if they
+ * were one text.
+ * <p>
+ * Not thread safe. One time use only.
+ */
+public class MultiBundleLoader {
+    private static final String UTF8 = "UTF-8";
+
+    private final Bundle globalBundle;
+
+    /**
+     * The pool to scan and build on, or null to do everything in the current
+     * thread.
+     */
+    private ForkJoinPool pool;
+
+    private final List<File> mergeOrder = new ArrayList<File>();
+    private int rounds = 0;
+
+    public MultiBundleLoader() {
+        this(new Bundle());
+    }
+
+    /**
+     * @param globalBundle
+     *            The bundle to load the files into.
+     */
+    public MultiBundleLoader(Bundle globalBundle) {
+        this.globalBundle = globalBundle;
+    }
+
+    /**
+     * Scan and build independent files in parallel on the common fork-join
+     * pool, or in the current thread (the default).
+     */
+    public void setParallel(boolean parallel) {
+        setPool(parallel ? ForkJoinPool.commonPool() : null);
+    }
+
+    /**
+     * Scan and build on the given pool, or in the current thread if it is
+     * null.
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * @return The global bundle.
+     */
+    public Bundle getBundle() {
+        return globalBundle;
+    }
+
+    /**
+     * @return The files in the order they were merged. Files built together
+     *         appear in the given order.
+     */
+    public List<File> getMergeOrder() {
+        return mergeOrder;
+    }
+
+    /**
+     * @return The number of rounds of building in the last load.
+     */
+    public int getRounds() {
+        return rounds;
+    }
+
+    /**
+     * Load files into the global bundle.
+     *
+     * @param files
+     *            The files. Redefinitions are applied in this order.
+     * @return The global bundle.
+     * @throws ASTParsingException
+     *             on the first error in the first failed round, with the
+     *             name of the file. The files merged by earlier rounds stay
+     *             in the global bundle.
+     */
+    public Bundle load(List<File> files) throws IOException {
+        List<Callable<Source>> scans = new ArrayList<Callable<Source>>();
+        for (int i = 0; i < files.size(); i++) {
+            final File file = files.get(i);
+            final int index = i;
+            scans.add(new Callable<Source>() {
+                @Override
+                public Source call() throws IOException {
+                    return scan(index, file);
+                }
+            });
+        }
+        List<Source> sources = invokeAll(scans);
+
+        List<Group> groups = makeGroups(sources, findDependencies(sources));
+
+        rounds = 0;
+        List<Group> ready = new ArrayList<Group>();
+        for (Group group : groups) {
+            if (group.waitingFor == 0) {
+                ready.add(group);
+            }
+        }
+        while (!ready.isEmpty()) {
+            rounds++;
+            List<Callable<Bundle>> builds = new ArrayList<Callable<Bundle>>();
+            for (final Group group : ready) {
+                builds.add(new Callable<Bundle>() {
+                    @Override
+                    public Bundle call() {
+                        return build(group);
+                    }
+                });
+            }
+            List<Bundle> bundles = invokeAll(builds);
+
+            List<Group> next = new ArrayList<Group>();
+            for (int i = 0; i < ready.size(); i++) {
+                globalBundle.mergeFrom(bundles.get(i));
+                for (Source source : ready.get(i).sources) {
+                    mergeOrder.add(source.file);
+                    source.text = null;
+                    source.binary = null;
+                }
+                for (Group dependent : ready.get(i).dependents) {
+                    if (--dependent.waitingFor == 0) {
+                        next.add(dependent);
+                    }
+                }
+            }
+            sortByFirstSource(next);
+            ready = next;
+        }
+        return globalBundle;
+    }
+
+    /**
+     * A file and the names it defines and uses.
+     */
+    private static class Source {
+        final int index;
+        final File file;
+
+        /**
+         * The text, or null for a binary file.
+         */
+        char[] text;
+
+        /**
+         * The bundle read from a binary file, or null for a text file.
+         */
+        Bundle binary;
+
+        final Set<String> defined = new HashSet<String>();
+        final Set<String> used = new HashSet<String>();
+
+        Source(int index, File file) {
+            this.index = index;
+            this.file = file;
+        }
+    }
+
+    private static Source scan(int index, File file) throws IOException {
+        Source source = new Source(index, file);
+        InputStream is = new BufferedInputStream(new FileInputStream(file));
+        try {
+            if (file.getName().endsWith(".uir")) {
+                source.text = FastBundleParser.readFully(new InputStreamReader(
+                        is, UTF8));
+            } else {
+                IRBinaryReader reader = new IRBinaryReader(is);
+                reader.readBundle();
+                source.binary = reader.getBundle();
+            }
+        } finally {
+            is.close();
+        }
+
+        if (source.binary != null) {
+            Bundle bundle = source.binary;
+            addNames(source.defined, bundle.getTypeNs());
+            addNames(source.defined, bundle.getFuncSigNs());
+            addNames(source.defined, bundle.getGlobalValueNs());
+            addNames(source.defined, bundle.getFuncNs());
+            return source;
+        }
+
+        TextScanner in = new TextScanner(source.text, source.text.length);
+        in.setLineMap(new int[] { 0 }, new int[] { 1 },
+                new String[] { file.getPath() });
+        int last = TextScanner.EOF;
+        for (int kind = in.next(); kind != TextScanner.EOF; kind = in.next()) {
+            if (kind == TextScanner.GLOBAL_ID) {
+                (last == TextScanner.DIRECTIVE ? source.defined : source.used)
+                        .add(in.text());
+            }
+            last = kind;
+        }
+        source.used.removeAll(source.defined);
+        return source;
+    }
+
+    private static <T extends Identified> void addNames(Set<String> names,
+            Namespace<T> ns) {
+        for (T obj : ns.getObjects()) {
+            if (obj.getName() != null) {
+                names.add(obj.getName());
+            }
+        }
+    }
+
+    /**
+     * @return The indices of the sources each source depends on.
+     */
+    private static List<IntList> findDependencies(List<Source> sources) {
+        Map<String, IntList> definers = new HashMap<String, IntList>();
+        for (Source source : sources) {
+            for (String name : source.defined) {
+                IntList list = definers.get(name);
+                if (list == null) {
+                    list = new IntList();
+                    definers.put(name, list);
+                }
+                list.add(source.index);
+            }
+        }
+
+        List<IntList> deps = new ArrayList<IntList>();
+        for (Source source : sources) {
+            IntList list = new IntList();
+            for (String name : source.used) {
+                IntList list2 = definers.get(name);
+                if (list2 != null) {
+                    list.add(list2.get(0));
+                }
+            }
+            for (String name : source.defined) {
+                IntList list2 = definers.get(name);
+                for (int i = 1; i < list2.size(); i++) {
+                    if (list2.get(i) == source.index) {
+                        list.add(list2.get(i - 1));
+                    }
+                }
+            }
+            deps.add(list);
+        }
+        return deps;
+    }
+
+    /**
+     * Files built and merged together: one file, or files which depend on
+     * each other.
+     */
+    private static class Group {
+        final List<Source> sources = new ArrayList<Source>();
+        final List<Group> dependents = new ArrayList<Group>();
+        int waitingFor = 0;
+    }
+
+    /**
+     * Find the strongly connected components of the dependency graph with
+     * Tarjan's algorithm, and link them.
+     *
+     * @return The groups, each with its sources in the given order.
+     */
+    private static List<Group> makeGroups(List<Source> sources,
+            List<IntList> deps) {
+        int n = sources.size();
+        int[] order = new int[n]; // the visiting order plus one, 0 if unseen
+        int[] low = new int[n];
+        boolean[] onStack = new boolean[n];
+        IntList stack = new IntList();
+        Group[] groupOf = new Group[n];
+        List<Group> groups = new ArrayList<Group>();
+        int visited = 0;
+
+        // An explicit stack of (node, next edge), since the graph may be a
+        // long chain of redefinitions.
+        int[] callNode = new int[n];
+        int[] callEdge = new int[n];
+        for (int root = 0; root < n; root++) {
+            if (order[root] != 0) {
+                continue;
+            }
+            int depth = 0;
+            callNode[0] = root;
+            callEdge[0] = 0;
+            order[root] = low[root] = ++visited;
+            stack.add(root);
+            onStack[root] = true;
+            while (depth >= 0) {
+                int v = callNode[depth];
+                IntList edges = deps.get(v);
+                if (callEdge[depth] < edges.size()) {
+                    int w = edges.get(callEdge[depth]++);
+                    if (order[w] == 0) {
+                        order[w] = low[w] = ++visited;
+                        stack.add(w);
+                        onStack[w] = true;
+                        depth++;
+                        callNode[depth] = w;
+                        callEdge[depth] = 0;
+                    } else if (onStack[w]) {
+                        low[v] = Math.min(low[v], order[w]);
+                    }
+                    continue;
+                }
+
+                if (low[v] == order[v]) {
+                    Group group = new Group();
+                    int w;
+                    do {
+                        w = stack.pop();
+                        onStack[w] = false;
+                        group.sources.add(sources.get(w));
+                        groupOf[w] = group;
+                    } while (w != v);
+                    sortByIndex(group.sources);
+                    groups.add(group);
+                }
+                depth--;
+                if (depth >= 0) {
+                    int u = callNode[depth];
+                    low[u] = Math.min(low[u], low[v]);
+                }
+            }
+        }
+
+        for (int v = 0; v < n; v++) {
+            Set<Group> seen = new HashSet<Group>();
+            IntList edges = deps.get(v);
+            for (int i = 0; i < edges.size(); i++) {
+                Group dependency = groupOf[edges.get(i)];
+                if (dependency != groupOf[v] && seen.add(dependency)) {
+                    dependency.dependents.add(groupOf[v]);
+                    groupOf[v].waitingFor++;
+                }
+            }
+        }
+        sortByFirstSource(groups);
+        return groups;
+    }
+
+    private static void sortByIndex(List<Source> sources) {
+        Collections.sort(sources, new Comparator<Source>() {
+            @Override
+            public int compare(Source a, Source b) {
+                return Integer.compare(a.index, b.index);
+            }
+        });
+    }
+
+    private static void sortByFirstSource(List<Group> groups) {
+        Collections.sort(groups, new Comparator<Group>() {
+            @Override
+            public int compare(Group a, Group b) {
+                return Integer.compare(a.sources.get(0).index,
+                        b.sources.get(0).index);
+            }
+        });
+    }
+
+    /**
+     * Build a group against the global bundle, which is only read.
+     */
+    private Bundle build(Group group) {
+        if (group.sources.size() == 1) {
+            Source source = group.sources.get(0);
+            if (source.binary != null) {
+                return source.binary;
+            }
+            try {
+                return new IRTextReader().read(source.text, globalBundle);
+            } catch (ASTParsingException e) {
+                throw new ASTParsingException(source.file.getPath() + ": "
+                        + e.getMessage());
+            }
+        }
+
+        // Text files which depend on each other, one after another. Binary
+        // files use no names, so they are never in such a group.
+        int chars = 0;
+        for (Source source : group.sources) {
+            chars += source.text.length + 1;
+        }
+        char[] text = new char[chars];
+        int n = group.sources.size();
+        int[] starts = new int[n];
+        int[] lines = new int[n];
+        String[] names = new String[n];
+        int pos = 0;
+        for (int i = 0; i < n; i++) {
+            Source source = group.sources.get(i);
+            starts[i] = pos;
+            lines[i] = 1;
+            names[i] = source.file.getPath();
+            System.arraycopy(source.text, 0, text, pos, source.text.length);
+            pos += source.text.length;
+            text[pos++] = '\n';
+        }
+        TextScanner in = new TextScanner(text, text.length);
+        in.setLineMap(starts, lines, names);
+        FastBundleParser fbp = new FastBundleParser(globalBundle);
+        fbp.build(in);
+        return fbp.getBundle();
+    }
+
+    /**
+     * Run tasks on the pool and wait for all of them, or run them in the
+     * current thread if there is no pool.
+     *
+     * @return Their results in order.
+     * @throws ASTParsingException
+     *             the error of the first failed task in order.
+     */
+    private <T> List<T> invokeAll(List<Callable<T>> tasks) throws IOException {
+        List<T> results = new ArrayList<T>();
+        if (pool == null || tasks.size() < 2) {
+            for (Callable<T> task : tasks) {
+                try {
+                    results.add(task.call());
+                } catch (IOException e) {
+                    throw e;
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            return results;
+        }
+
+        for (Future<T> future : pool.invokeAll(tasks)) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(
+                        "Interrupted while loading bundles.", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IllegalStateException(cause);
+            }
+        }
+        return results;
+    }
+}
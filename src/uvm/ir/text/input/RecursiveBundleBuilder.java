@@ -1,6 +1,16 @@
 package uvm.ir.text.input;
 
-import parser.uIRBaseVisitor;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+
 import parser.uIRParser.ConstDefContext;
 import parser.uIRParser.FuncDeclContext;
 import parser.uIRParser.FuncDefContext;
@@ -8,8 +18,10 @@ import parser.uIRParser.FuncSigDefContext;
 import parser.uIRParser.GlobalDefContext;
 import parser.uIRParser.IntLiteralContext;
 import parser.uIRParser.IrContext;
+import parser.uIRParser.MetaDataContext;
 import parser.uIRParser.TypeDefContext;
 import uvm.Bundle;
+import uvm.ConstantPool;
 import uvm.Function;
 import uvm.FunctionSignature;
 import uvm.GlobalData;
@@ -17,18 +29,23 @@ import uvm.IdentifiedHelper;
 import uvm.ssavalue.Constant;
 import uvm.ssavalue.FunctionConstant;
 import uvm.ssavalue.GlobalDataConstant;
+import uvm.ssavalue.StructConstant;
 import uvm.type.Type;
+import uvm.util.HeapWatermark;
 
 /**
  * RecursiveUIRBuilder builds a uvm Bundle from a uir parse tree.
  * <p>
- * Not thread safe. Don't use from multiple threads.
+ * Not thread safe. Don't use from multiple threads. It can, however, build
+ * function bodies on a fork-join pool itself. See {@link #setParallel}.
  * <p>
  * One time use only. Please create a new instance for each bundle.
  */
 public class RecursiveBundleBuilder {
     private static final Bundle EMPTY_BUNDLE = new Bundle();
 
+    private static final int WATERMARK_INTERVAL = 64;
+
     // Interface for the user.
 
     /**
@@ -42,6 +59,34 @@ public class RecursiveBundleBuilder {
      */
     Bundle bundle;
 
+    /**
+     * When building one function body in parallel with others, the builder
+     * of the whole bundle, whose bundle is read but never written. Anonymous
+     * types, signatures and constants made in the body go to this builder's
+     * own bundle, which is merged into the parent's afterwards. Also used by
+     * {@link StreamingBundleParser} to build one definition at a time on top
+     * of the definitions before it. null otherwise.
+     */
+    private final RecursiveBundleBuilder parent;
+
+    /**
+     * The pool to build function bodies on, or null to build them in the
+     * current thread.
+     */
+    private ForkJoinPool pool;
+
+    /**
+     * If true, the subtree of each function definition is cut off the parse
+     * tree once its body is built, so that it can be collected.
+     */
+    private boolean releaseParseTree = false;
+
+    /**
+     * If not null, sampled after each phase and after every
+     * WATERMARK_INTERVAL function bodies.
+     */
+    private HeapWatermark watermark;
+
     public RecursiveBundleBuilder() {
         this(EMPTY_BUNDLE);
     }
@@ -49,6 +94,53 @@ public class RecursiveBundleBuilder {
     public RecursiveBundleBuilder(Bundle globalBundle) {
         bundle = new Bundle();
         this.globalBundle = globalBundle;
+        this.parent = null;
+    }
+
+    /**
+     * Create a builder for a part of the parent's bundle.
+     */
+    RecursiveBundleBuilder(RecursiveBundleBuilder parent) {
+        bundle = new Bundle();
+        this.globalBundle = parent.globalBundle;
+        this.parent = parent;
+    }
+
+    /**
+     * Build function bodies in parallel on the common fork-join pool, or in
+     * the current thread (the default).
+     * <p>
+     * The result is the same except for the IDs of local values and of
+     * anonymous types, signatures and constants in function bodies, which are
+     * allocated in a nondeterministic order.
+     */
+    public void setParallel(boolean parallel) {
+        setPool(parallel ? ForkJoinPool.commonPool() : null);
+    }
+
+    /**
+     * Build function bodies on the given pool, or in the current thread if it
+     * is null.
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Cut the subtree of each function definition off the parse tree once its
+     * body is built (default: false). Use this when the parse tree is not
+     * needed afterwards, so that peak memory does not include the parse trees
+     * of all functions at once.
+     */
+    public void setReleaseParseTree(boolean releaseParseTree) {
+        this.releaseParseTree = releaseParseTree;
+    }
+
+    /**
+     * Sample the retained heap during building, or not if null.
+     */
+    public void setHeapWatermark(HeapWatermark watermark) {
+        this.watermark = watermark;
     }
 
     /**
@@ -60,108 +152,283 @@ public class RecursiveBundleBuilder {
 
     /**
      * Build the bundle.
+     * <p>
+     * Only the top-level definitions are visited, in two passes. Function
+     * bodies are not descended into until the last phase.
+     * <ol>
+     * <li>The first pass creates a stub for every .typedef and .funcsig, and
+     * sorts the other definitions into lists.</li>
+     * <li>The stubs are populated from the fixup list, now that every named
+     * type and signature exists. Each stub is populated from its own
+     * definition, even if a later definition took over its name.</li>
+     * <li>The second pass handles .const, .global, .funcdecl and .funcdef (as
+     * a declaration) in source order. They all depend on types.</li>
+     * <li>The declared constants are populated from the fixup list, since
+     * struct constants may refer to constants defined after them.</li>
+     * <li>The function bodies are built.</li>
+     * </ol>
      * 
      * @param ir
      *            The IrContext object representing the "ir" non-terminal.
      */
     public void build(IrContext ir) {
-        // Build types in two passes.
-
-        // The first pass, create a stub for all .typedef and .funcsig.
-        uIRBaseVisitor<Void> makeDeclaredTypes = new uIRBaseVisitor<Void>() {
-            @Override
-            public Void visitTypeDef(TypeDefContext ctx) {
-                handleTypeDef(ctx);
-                return null;
+        List<MetaDataContext> topLevels = ir.metaData();
+
+        List<ParserRuleContext> typeFixups = new ArrayList<ParserRuleContext>();
+        List<Object> typeStubs = new ArrayList<Object>();
+        List<MetaDataContext> otherDefs = new ArrayList<MetaDataContext>();
+
+        for (MetaDataContext md : topLevels) {
+            TypeDefContext typeDef = md.typeDef();
+            if (typeDef != null) {
+                typeStubs.add(handleTypeDef(typeDef));
+                typeFixups.add(typeDef);
+                continue;
+            }
+            FuncSigDefContext funcSigDef = md.funcSigDef();
+            if (funcSigDef != null) {
+                typeStubs.add(handleFuncSigDef(funcSigDef));
+                typeFixups.add(funcSigDef);
+                continue;
             }
+            otherDefs.add(md);
+        }
 
-            @Override
-            public Void visitFuncSigDef(FuncSigDefContext ctx) {
-                handleFuncSigDef(ctx);
-                return null;
+        for (int i = 0; i < typeFixups.size(); i++) {
+            ParserRuleContext ctx = typeFixups.get(i);
+            if (ctx instanceof TypeDefContext) {
+                populateTypeDef((TypeDefContext) ctx, (Type) typeStubs.get(i));
+            } else {
+                populateFuncSigDef((FuncSigDefContext) ctx,
+                        (FunctionSignature) typeStubs.get(i));
             }
-        };
-        makeDeclaredTypes.visit(ir);
-
-        // The second pass, populate its dependencies.
-        uIRBaseVisitor<Void> populateDeclaredTypes = new uIRBaseVisitor<Void>() {
-            @Override
-            public Void visitTypeDef(TypeDefContext ctx) {
-                populateTypeDef(ctx);
-                return null;
+        }
+        sample();
+
+        List<ConstDefContext> constFixups = new ArrayList<ConstDefContext>();
+        List<FuncDefContext> funcDefs = new ArrayList<FuncDefContext>();
+
+        for (MetaDataContext md : otherDefs) {
+            if (md.constDef() != null) {
+                handleConstDefShallow(md.constDef());
+                constFixups.add(md.constDef());
+            } else if (md.globalDef() != null) {
+                handleGlobalData(md.globalDef());
+            } else if (md.funcDef() != null) {
+                handleFuncDefShallow(md.funcDef());
+                funcDefs.add(md.funcDef());
+            } else if (md.funcDecl() != null) {
+                handleFuncDecl(md.funcDecl());
             }
+        }
 
-            @Override
-            public Void visitFuncSigDef(FuncSigDefContext ctx) {
-                populateFuncSigDef(ctx);
-                return null;
-            }
+        for (ConstDefContext ctx : constFixups) {
+            populateConstDef(ctx);
+        }
+        sample();
 
-        };
-        populateDeclaredTypes.visit(ir);
-
-        // Visit all global constant definitions, global data definitions,
-        // function definitions and function declarations. They all depend on
-        // types.
-        uIRBaseVisitor<Void> otherDefHandler = new uIRBaseVisitor<Void>() {
-            @Override
-            public Void visitConstDef(ConstDefContext ctx) {
-                handleConstDefShallow(ctx);
-                return null;
-            }
+        buildFuncBodies(funcDefs);
+        sample();
+    }
 
-            @Override
-            public Void visitGlobalDef(GlobalDefContext ctx) {
-                handleGlobalData(ctx);
-                return null;
+    private void sample() {
+        if (watermark != null) {
+            watermark.sample();
+        }
+    }
+
+    /**
+     * Called when a function body is built.
+     */
+    private void bodyBuilt(FuncDefContext ctx, int index) {
+        if (releaseParseTree) {
+            ctx.children = null;
+        }
+        if (watermark != null && index % WATERMARK_INTERVAL == 0) {
+            watermark.sample();
+        }
+    }
+
+    /**
+     * Build the bodies of all function definitions. All functions must have
+     * been declared.
+     */
+    private void buildFuncBodies(List<FuncDefContext> funcDefs) {
+        if (pool == null || funcDefs.size() < 2) {
+            for (int i = 0; i < funcDefs.size(); i++) {
+                FuncDefContext ctx = funcDefs.get(i);
+                String name = ctx.GLOBAL_ID().getText();
+                Function func = bundle.getFuncNs().getByName(name);
+                FuncBuilder funcBuilder = new FuncBuilder(this, func);
+                funcBuilder.handleFuncDef(ctx);
+                bodyBuilt(ctx, i);
             }
+            return;
+        }
+
+        // Each body only reads the namespaces of this bundle, and writes the
+        // bundle of its own child builder.
+        List<RecursiveBundleBuilder> children = new ArrayList<RecursiveBundleBuilder>();
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (final FuncDefContext ctx : funcDefs) {
+            String name = ctx.GLOBAL_ID().getText();
+            Function func = bundle.getFuncNs().getByName(name);
+            RecursiveBundleBuilder child = new RecursiveBundleBuilder(this);
+            final FuncBuilder funcBuilder = new FuncBuilder(child, func);
+            children.add(child);
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    funcBuilder.handleFuncDef(ctx);
+                    if (releaseParseTree) {
+                        ctx.children = null;
+                    }
+                    return null;
+                }
+            });
+        }
 
-            @Override
-            public Void visitFuncDef(FuncDefContext ctx) {
-                handleFuncDefShallow(ctx);
-                return null;
+        for (Future<Void> future : pool.invokeAll(tasks)) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(
+                        "Interrupted while building function bodies.", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IllegalStateException(cause);
             }
+        }
+
+        // Merge in source order, so that the namespaces are ordered as if
+        // built sequentially.
+        for (RecursiveBundleBuilder child : children) {
+            absorb(child.bundle);
+        }
+    }
 
-            @Override
-            public Void visitFuncDecl(FuncDeclContext ctx) {
-                handleFuncDecl(ctx);
-                return null;
+    /**
+     * Add the anonymous entities made by a child builder to this bundle.
+     */
+    void absorb(Bundle scratch) {
+        for (Type type : scratch.getTypeNs().getObjects()) {
+            bundle.getTypeNs().put(type.getID(), null, type);
+        }
+        for (FunctionSignature sig : scratch.getFuncSigNs().getObjects()) {
+            bundle.getFuncSigNs().put(sig.getID(), null, sig);
+        }
+        Map<Constant, Constant> replaced =
+                new IdentityHashMap<Constant, Constant>();
+        List<StructConstant> structs = new ArrayList<StructConstant>();
+        for (Constant constant : scratch.getDeclaredConstNs().getObjects()) {
+            if (scratch.getConstantPool().add(constant) == constant) {
+                // A pooled constant. An earlier function may have made an
+                // equal one, which the sequential build would have reused.
+                Constant pooled = bundle.getConstantPool().add(constant);
+                if (pooled != constant) {
+                    constant.replaceAllUsesWith(pooled);
+                    replaced.put(constant, pooled);
+                    continue;
+                }
             }
-        };
-        otherDefHandler.visit(ir);
-
-        // Re-visit all global constant definitions to populate nested
-        // constants. In this case they are all Struct constants.
-        uIRBaseVisitor<Void> populateConstDef = new uIRBaseVisitor<Void>() {
-            @Override
-            public Void visitConstDef(ConstDefContext ctx) {
-                populateConstDef(ctx);
-                return null;
+            if (constant instanceof StructConstant) {
+                structs.add((StructConstant) constant);
             }
-        };
-        populateConstDef.visit(ir);
-
-        // Re-visit all function definitions (.funcdef) to make the function
-        // bodys.
-        uIRBaseVisitor<Void> buildFuncBody = new uIRBaseVisitor<Void>() {
-            @Override
-            public Void visitFuncDef(FuncDefContext ctx) {
-                String name = ctx.GLOBAL_ID().getText();
-                Function func = bundle.getFuncNs().getByName(name);
-                FuncBuilder funcBuilder = new FuncBuilder(
-                        RecursiveBundleBuilder.this, func);
-                funcBuilder.handleFuncDef(ctx);
-                return null;
-            };
-        };
-        buildFuncBody.visit(ir);
+            bundle.getGlobalValueNs().put(constant.getID(), null, constant);
+            bundle.getDeclaredConstNs().put(constant.getID(), null, constant);
+        }
+
+        // Struct fields are not UseBoxes, so replaceAllUsesWith does not
+        // reach them.
+        if (!replaced.isEmpty()) {
+            for (StructConstant struct : structs) {
+                List<Constant> values = struct.getValues();
+                for (int i = 0; i < values.size(); i++) {
+                    Constant pooled = replaced.get(values.get(i));
+                    if (pooled != null) {
+                        values.set(i, pooled);
+                    }
+                }
+            }
+        }
+    }
+
+    // Looking up named entities. When building a function body in parallel,
+    // the parent's bundle is searched as well.
+
+    Type lookupType(String name) {
+        Type type = bundle.getTypeNs().getByName(name);
+        if (type == null && parent != null) {
+            type = parent.bundle.getTypeNs().getByName(name);
+        }
+        if (type == null) {
+            type = globalBundle.getTypeNs().getByName(name);
+        }
+        return type;
+    }
+
+    FunctionSignature lookupFuncSig(String name) {
+        FunctionSignature sig = bundle.getFuncSigNs().getByName(name);
+        if (sig == null && parent != null) {
+            sig = parent.bundle.getFuncSigNs().getByName(name);
+        }
+        if (sig == null) {
+            sig = globalBundle.getFuncSigNs().getByName(name);
+        }
+        return sig;
+    }
+
+    Constant lookupGlobalValue(String name) {
+        Constant value = bundle.getGlobalValueNs().getByName(name);
+        if (value == null && parent != null) {
+            value = parent.bundle.getGlobalValueNs().getByName(name);
+        }
+        if (value == null) {
+            value = globalBundle.getGlobalValueNs().getByName(name);
+        }
+        return value;
+    }
+
+    /**
+     * @return The constant pool of the parent's bundle, which must only be
+     *         read, or null if this builder has no parent.
+     */
+    ConstantPool parentConstantPool() {
+        return parent == null ? null : parent.bundle.getConstantPool();
     }
 
     int makeID() {
         return IDMakerForText.INSTANCE.makeID();
     }
 
+    /**
+     * @return The function of the given name in the bundle being built
+     *         (including the parent's), or null. Functions of the global
+     *         bundle are not included.
+     */
+    Function lookupFunction(String name) {
+        Function func = bundle.getFuncNs().getByName(name);
+        if (func == null && parent != null) {
+            func = parent.bundle.getFuncNs().getByName(name);
+        }
+        return func;
+    }
+
     int getOldFuncID(String name) {
+        if (parent != null) {
+            Function func = parent.bundle.getFuncNs().getByName(name);
+            if (func != null) {
+                return func.getID();
+            }
+            return parent.getOldFuncID(name);
+        }
         Function func = globalBundle.getFuncNs().getByName(name);
         if (func != null) {
             return func.getID();
@@ -172,33 +439,36 @@ public class RecursiveBundleBuilder {
 
     // Types and function signatures
 
-    private void handleTypeDef(TypeDefContext ctx) {
+    /**
+     * @return The stub of the type.
+     */
+    private Type handleTypeDef(TypeDefContext ctx) {
         Type type = shallowTypeMaker.visit(ctx.typeConstructor());
         String name = ctx.GLOBAL_ID().getText();
         type.setName(name);
         bundle.getTypeNs().bind(type.getID(), name);
+        return type;
     }
 
-    private void handleFuncSigDef(FuncSigDefContext ctx) {
+    /**
+     * @return The stub of the signature.
+     */
+    private FunctionSignature handleFuncSigDef(FuncSigDefContext ctx) {
         FunctionSignature sig = shallowFuncSigMaker.visit(ctx
                 .funcSigConstructor());
         String name = ctx.GLOBAL_ID().getText();
         sig.setName(name);
         bundle.getFuncSigNs().bind(sig.getID(), name);
+        return sig;
     }
 
-    private void populateTypeDef(TypeDefContext ctx) {
-        String name = ctx.GLOBAL_ID().getText();
-        final Type oldType = bundle.getTypeNs().getByName(name);
-
-        new PopulateDeclaredTypeAndSig(RecursiveBundleBuilder.this, oldType)
+    private void populateTypeDef(TypeDefContext ctx, Type type) {
+        new PopulateDeclaredTypeAndSig(RecursiveBundleBuilder.this, type)
                 .visit(ctx.typeConstructor());
     }
 
-    private void populateFuncSigDef(FuncSigDefContext ctx) {
-        String name = ctx.GLOBAL_ID().getText();
-        FunctionSignature sig = bundle.getFuncSigNs().getByName(name);
-
+    private void populateFuncSigDef(FuncSigDefContext ctx,
+            FunctionSignature sig) {
         typeAndSigPopulator.visitFuncSigConstructor(sig,
                 ctx.funcSigConstructor());
     }
@@ -214,26 +484,20 @@ public class RecursiveBundleBuilder {
     DeepTypeMaker deepTypeMaker = new DeepTypeMaker(this);
     DeepFuncSigMaker deepFuncSigMaker = new DeepFuncSigMaker(this);
 
-    // Literal parsers.
+    // Literals.
     // Literals may and may not be Constants.
     // The int type also takes a literal as a parameter.
+    // They are decoded by LiteralDecoder.
 
-    IntLiteralParser intLiteralParser = new IntLiteralParser();
-    FloatLiteralParser floatLiteralParser = new FloatLiteralParser();
-    DoubleLiteralParser doubleLiteralParser = new DoubleLiteralParser();
-
-    /**
-     * A convenient method that handles the cast.
-     */
     long intLitToLong(IntLiteralContext ctx) {
-        return (long) intLiteralParser.visit(ctx);
+        return LiteralDecoder.intValue(ctx);
     }
 
     /**
      * A convenient method that handles the cast.
      */
     int intLitToInt(IntLiteralContext ctx) {
-        return (int) ((long) intLiteralParser.visit(ctx));
+        return (int) LiteralDecoder.intValue(ctx);
     }
 
     // Constant processors
@@ -281,7 +545,7 @@ public class RecursiveBundleBuilder {
         return globalData;
     }
 
-    private GlobalDataConstant makeGlobalDataConstant(GlobalData globalData) {
+    GlobalDataConstant makeGlobalDataConstant(GlobalData globalData) {
         GlobalDataConstant constant = new GlobalDataConstant();
         constant.setID(globalData.getID());
         constant.setName(globalData.getName());
@@ -300,7 +564,7 @@ public class RecursiveBundleBuilder {
 
     // Functions
 
-    private Function declareFunction(String name, FunctionSignature sig) {
+    Function declareFunction(String name, FunctionSignature sig) {
         Function function = new Function();
         int oldID = getOldFuncID(name);
         int id = oldID == 0 ? makeID() : oldID;
@@ -6,6 +6,7 @@ import parser.uIRParser.FloatConstContext;
 import parser.uIRParser.IntConstContext;
 import parser.uIRParser.NullConstContext;
 import parser.uIRParser.StructConstContext;
+import uvm.ConstantPool;
 import uvm.ssavalue.Constant;
 import uvm.ssavalue.DoubleConstant;
 import uvm.ssavalue.FloatConstant;
@@ -29,10 +30,23 @@ class ShallowConstMaker extends uIRBaseVisitor<Constant> {
     final RecursiveBundleBuilder rbb;
     Type expectedType;
 
+    /**
+     * If true, the constant being made is anonymous and int/float/double
+     * constants are shared through the bundle's ConstantPool. Must be false for
+     * ".const" definitions because they carry their own names.
+     */
+    final boolean pooled;
+
     public ShallowConstMaker(RecursiveBundleBuilder recursiveBundleBuilder,
             Type expectedType) {
+        this(recursiveBundleBuilder, expectedType, false);
+    }
+
+    public ShallowConstMaker(RecursiveBundleBuilder recursiveBundleBuilder,
+            Type expectedType, boolean pooled) {
         rbb = recursiveBundleBuilder;
         this.expectedType = expectedType;
+        this.pooled = pooled;
     }
 
     @Override
@@ -44,6 +58,23 @@ class ShallowConstMaker extends uIRBaseVisitor<Constant> {
 
         Int type = (Int) expectedType;
         long value = rbb.intLitToLong(ctx.intLiteral());
+        return makeIntConstant(type, value);
+    }
+
+    /**
+     * Make (or reuse, if pooled) an int constant. The type is not checked.
+     */
+    IntConstant makeIntConstant(Int type, long value) {
+        if (pooled) {
+            IntConstant old = rbb.bundle.getConstantPool().getInt(type, value);
+            ConstantPool parentPool = rbb.parentConstantPool();
+            if (old == null && parentPool != null) {
+                old = parentPool.getInt(type, value);
+            }
+            if (old != null) {
+                return old;
+            }
+        }
         IntConstant constant = new IntConstant(type, value);
         makeIDAndRegister(constant);
         return constant;
@@ -56,8 +87,25 @@ class ShallowConstMaker extends uIRBaseVisitor<Constant> {
                     + " found. Expect" + expectedType);
         }
 
-        float value = rbb.floatLiteralParser.visit(ctx.floatLiteral());
-        FloatConstant constant = new FloatConstant(expectedType, value);
+        float value = LiteralDecoder.floatValue(ctx.floatLiteral());
+        return makeFloatConstant(expectedType, value);
+    }
+
+    /**
+     * Make (or reuse, if pooled) a float constant. The type is not checked.
+     */
+    FloatConstant makeFloatConstant(Type type, float value) {
+        if (pooled) {
+            FloatConstant old = rbb.bundle.getConstantPool().getFloat(value);
+            ConstantPool parentPool = rbb.parentConstantPool();
+            if (old == null && parentPool != null) {
+                old = parentPool.getFloat(value);
+            }
+            if (old != null) {
+                return old;
+            }
+        }
+        FloatConstant constant = new FloatConstant(type, value);
         makeIDAndRegister(constant);
         return constant;
     }
@@ -69,8 +117,25 @@ class ShallowConstMaker extends uIRBaseVisitor<Constant> {
                     + " found. Expect" + expectedType);
         }
 
-        double value = rbb.doubleLiteralParser.visit(ctx.doubleLiteral());
-        DoubleConstant constant = new DoubleConstant(expectedType, value);
+        double value = LiteralDecoder.doubleValue(ctx.doubleLiteral());
+        return makeDoubleConstant(expectedType, value);
+    }
+
+    /**
+     * Make (or reuse, if pooled) a double constant. The type is not checked.
+     */
+    DoubleConstant makeDoubleConstant(Type type, double value) {
+        if (pooled) {
+            DoubleConstant old = rbb.bundle.getConstantPool().getDouble(value);
+            ConstantPool parentPool = rbb.parentConstantPool();
+            if (old == null && parentPool != null) {
+                old = parentPool.getDouble(value);
+            }
+            if (old != null) {
+                return old;
+            }
+        }
+        DoubleConstant constant = new DoubleConstant(type, value);
         makeIDAndRegister(constant);
         return constant;
     }
@@ -92,6 +157,13 @@ class ShallowConstMaker extends uIRBaseVisitor<Constant> {
                     + ctx.getText() + " Expect " + expectedFields + " fields.");
         }
 
+        return makeStructConstant(type);
+    }
+
+    /**
+     * Make a struct constant without fields. The caller adds the fields.
+     */
+    StructConstant makeStructConstant(Struct type) {
         StructConstant constant = new StructConstant();
         constant.setType(type);
         makeIDAndRegister(constant);
@@ -101,17 +173,30 @@ class ShallowConstMaker extends uIRBaseVisitor<Constant> {
 
     @Override
     public NullConstant visitNullConst(NullConstContext ctx) {
-        if (!((expectedType instanceof AbstractReferenceType) //
-                || (expectedType instanceof Func) //
-                || (expectedType instanceof uvm.type.Thread) //
-        || (expectedType instanceof uvm.type.Stack)//
-        )) {
+        if (!acceptsNull(expectedType)) {
             ParserHelper.parseError(ctx, "NULL literal found. Expect"
                     + expectedType);
         }
 
+        return makeNullConstant(expectedType);
+    }
+
+    /**
+     * @return true if NULL is a valid constant of the type.
+     */
+    static boolean acceptsNull(Type type) {
+        return (type instanceof AbstractReferenceType) //
+                || (type instanceof Func) //
+                || (type instanceof uvm.type.Thread) //
+                || (type instanceof uvm.type.Stack);
+    }
+
+    /**
+     * Make a NULL constant. The type is not checked.
+     */
+    NullConstant makeNullConstant(Type type) {
         NullConstant constant = new NullConstant();
-        constant.setType(expectedType);
+        constant.setType(type);
         makeIDAndRegister(constant);
 
         return constant;
@@ -122,5 +207,8 @@ class ShallowConstMaker extends uIRBaseVisitor<Constant> {
         constant.setID(id);
         rbb.bundle.getGlobalValueNs().put(id, null, constant);
         rbb.bundle.getDeclaredConstNs().put(id, null, constant);
+        if (pooled) {
+            rbb.bundle.getConstantPool().add(constant);
+        }
     }
 }
\ No newline at end of file
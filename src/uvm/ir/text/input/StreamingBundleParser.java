@@ -0,0 +1,423 @@
+package uvm.ir.text.input;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import uvm.Bundle;
+import uvm.Identified;
+import uvm.Namespace;
+import uvm.ssavalue.Constant;
+
+/**
+ * StreamingBundleParser builds a bundle from a reader one top-level
+ * definition at a time, so that huge files can be loaded without holding
+ * their whole text, token stream or parse tree in memory.
+ * <p>
+ * The input is read in blocks and split at the directives (e.g. ".funcdef").
+ * Each definition is built by a {@link FastBundleParser} into a small bundle
+ * on top of the definitions before it, merged into the result and then
+ * dropped. Forward references are handled this way:
+ * <ul>
+ * <li>A global value (e.g. a function) used in a function body before its
+ * definition gets a placeholder, which is replaced when the definition is
+ * built.
+ * <li>Any other definition using a name not defined yet (e.g. a type used
+ * before its ".typedef") is kept as text until that name is defined, and
+ * built again then. Definitions which use each other are built together.
+ * </ul>
+ * So only the text of definitions waiting for forward references is
+ * retained, and the read buffer only grows to the size of the largest
+ * definition. See {@link #getPeakRetainedChars()}.
+ * <p>
+ * The result has the same entities as a bundle built from the whole text,
+ * but IDs are allocated in the order definitions are built, which differs
+ * from the phased order of {@link RecursiveBundleBuilder}.
+ * <p>
+ * Not thread safe. One time use only. Please create a new instance for each
+ * bundle.
+ */
+public class StreamingBundleParser {
+    private static final int BLOCK_SIZE = 8192;
+
+    /**
+     * The builder of the whole bundle. Each definition is built by a child of
+     * it.
+     */
+    private final RecursiveBundleBuilder root;
+
+    private final Map<String, FastBundleParser.ForwardGlobal> forwardGlobals = new HashMap<String, FastBundleParser.ForwardGlobal>();
+
+    /**
+     * Definitions waiting for the name they failed on.
+     */
+    private final Map<String, List<Pending>> waiting = new HashMap<String, List<Pending>>();
+
+    /**
+     * The names defined by waiting definitions.
+     */
+    private final Map<String, Pending> pendingByName = new HashMap<String, Pending>();
+
+    /**
+     * Definitions whose missing name has been defined, to be built again.
+     */
+    private final Deque<Pending> ready = new ArrayDeque<Pending>();
+
+    private int definitions = 0;
+    private int bufferChars = 0;
+    private int retainedChars = 0;
+    private int peakRetainedChars = 0;
+
+    public StreamingBundleParser() {
+        this(new RecursiveBundleBuilder());
+    }
+
+    public StreamingBundleParser(Bundle globalBundle) {
+        this(new RecursiveBundleBuilder(globalBundle));
+    }
+
+    private StreamingBundleParser(RecursiveBundleBuilder root) {
+        this.root = root;
+    }
+
+    /**
+     * @return The result bundle. Should only be called after building.
+     */
+    public Bundle getBundle() {
+        return root.getBundle();
+    }
+
+    /**
+     * @return The largest number of characters held at any time, in the read
+     *         buffer and in definitions waiting for forward references.
+     */
+    public int getPeakRetainedChars() {
+        return peakRetainedChars;
+    }
+
+    /**
+     * Read and build everything from a reader. The reader is not closed.
+     *
+     * @throws ASTParsingException
+     *             on the first syntax or semantic error, or if some names are
+     *             still undefined at the end.
+     */
+    public void build(Reader reader) throws IOException {
+        char[] buf = new char[BLOCK_SIZE];
+        bufferChars = buf.length;
+        int length = 0;
+        boolean eof = false;
+
+        int begin = 0; // the start of the current definition
+        int scanFrom = 0; // where to look for the next directive
+        int line = 1; // the line of begin
+        int lineStart = 0; // the start of that line
+
+        while (true) {
+            int next = TextScanner.findDirective(buf, scanFrom, length);
+            if (next == -1 && !eof) {
+                // Look again from the start of the last line after reading
+                // more. A line start is never inside a comment.
+                for (int i = length - 1; i >= scanFrom; i--) {
+                    if (buf[i] == '\n') {
+                        scanFrom = i + 1;
+                        break;
+                    }
+                }
+
+                // Keep [lineStart, length). Grow only if it fills the buffer.
+                if (lineStart > 0) {
+                    System.arraycopy(buf, lineStart, buf, 0, length - lineStart);
+                    length -= lineStart;
+                    begin -= lineStart;
+                    scanFrom -= lineStart;
+                    lineStart = 0;
+                }
+                if (buf.length - length < BLOCK_SIZE) {
+                    buf = Arrays.copyOf(buf, buf.length * 2);
+                    bufferChars = buf.length;
+                    updatePeak();
+                }
+
+                int n = reader.read(buf, length, buf.length - length);
+                if (n == -1) {
+                    eof = true;
+                } else {
+                    length += n;
+                }
+                continue;
+            }
+
+            int stop = next == -1 ? length : next;
+            if (stop > begin) {
+                buildDefinition(buf, lineStart, begin, stop, line);
+            }
+            if (next == -1) {
+                break;
+            }
+
+            for (int i = begin; i < next; i++) {
+                if (buf[i] == '\n') {
+                    line++;
+                    lineStart = i + 1;
+                }
+            }
+            begin = next;
+            scanFrom = next + 1;
+        }
+
+        finish();
+    }
+
+    private void updatePeak() {
+        peakRetainedChars = Math.max(peakRetainedChars, bufferChars
+                + retainedChars);
+    }
+
+    /**
+     * Build one definition from the read buffer, or keep its text if it uses
+     * a name not defined yet. The definition is buf[begin..stop), and its
+     * line starts at lineStart.
+     */
+    private void buildDefinition(char[] buf, int lineStart, int begin,
+            int stop, int line) {
+        int order = definitions++;
+        TextScanner in = new TextScanner(buf, begin, stop);
+        in.setLineMap(new int[] { lineStart }, new int[] { line });
+        String undefinedName = tryBuild(in);
+        if (undefinedName != null) {
+            // Keep the text from the line start, so that columns in error
+            // messages stay right, but blank out what is before the
+            // directive.
+            char[] text = Arrays.copyOfRange(buf, lineStart, stop);
+            Arrays.fill(text, 0, begin - lineStart, ' ');
+            Pending pending = new Pending();
+            pending.addPiece(new Piece(order, line, text));
+            defer(pending, undefinedName);
+        }
+
+        while (!ready.isEmpty()) {
+            Pending pending = ready.poll();
+            if (pending.dead) {
+                continue;
+            }
+            forget(pending);
+            undefinedName = tryBuild(pending.makeScanner());
+            if (undefinedName != null) {
+                defer(pending, undefinedName);
+            }
+        }
+    }
+
+    /**
+     * Try to build the text of a scanner into the result bundle. On success,
+     * forward references to the new names are resolved, and the definitions
+     * waiting for them are queued.
+     *
+     * @return null on success, or the undefined name building failed on, in
+     *         which case nothing was added to the result.
+     * @throws ASTParsingException
+     *             on any other error.
+     */
+    private String tryBuild(TextScanner in) {
+        FastBundleParser fbp = new FastBundleParser(new RecursiveBundleBuilder(
+                root));
+        fbp.forwardGlobals = forwardGlobals;
+        try {
+            fbp.build(in);
+        } catch (ASTParsingException e) {
+            if (fbp.undefinedName == null) {
+                throw e;
+            }
+            return fbp.undefinedName;
+        }
+
+        Bundle part = fbp.getBundle();
+        root.getBundle().mergeFrom(part);
+
+        collectReady(part.getTypeNs());
+        collectReady(part.getFuncSigNs());
+        collectReady(part.getGlobalValueNs());
+        for (Constant constant : part.getGlobalValueNs().getObjects()) {
+            if (constant.getName() != null) {
+                FastBundleParser.ForwardGlobal ref = forwardGlobals
+                        .remove(constant.getName());
+                if (ref != null) {
+                    ref.replaceAllUsesWith(constant);
+                }
+            }
+        }
+        return null;
+    }
+
+    private <T extends Identified> void collectReady(Namespace<T> ns) {
+        for (T obj : ns.getObjects()) {
+            if (obj.getName() != null) {
+                List<Pending> list = waiting.remove(obj.getName());
+                if (list != null) {
+                    ready.addAll(list);
+                }
+            }
+        }
+    }
+
+    /**
+     * Let a definition wait for a name. If the name is defined by another
+     * waiting definition, the two depend on each other and are built
+     * together instead.
+     */
+    private void defer(Pending pending, String name) {
+        while (true) {
+            Pending other = pendingByName.get(name);
+            if (other == null || other == pending) {
+                break;
+            }
+            forget(other);
+            other.dead = true;
+            for (Piece piece : other.pieces) {
+                pending.addPiece(piece);
+            }
+
+            name = tryBuild(pending.makeScanner());
+            if (name == null) {
+                return;
+            }
+        }
+
+        pending.waitingFor = name;
+        List<Pending> list = waiting.get(name);
+        if (list == null) {
+            list = new ArrayList<Pending>();
+            waiting.put(name, list);
+        }
+        list.add(pending);
+        for (Piece piece : pending.pieces) {
+            if (piece.name != null) {
+                pendingByName.put(piece.name, pending);
+            }
+        }
+        retainedChars += pending.chars;
+        updatePeak();
+    }
+
+    /**
+     * Stop a definition from waiting.
+     */
+    private void forget(Pending pending) {
+        List<Pending> list = waiting.get(pending.waitingFor);
+        if (list != null) {
+            list.remove(pending);
+            if (list.isEmpty()) {
+                waiting.remove(pending.waitingFor);
+            }
+        }
+        for (Piece piece : pending.pieces) {
+            if (piece.name != null && pendingByName.get(piece.name) == pending) {
+                pendingByName.remove(piece.name);
+            }
+        }
+        retainedChars -= pending.chars;
+    }
+
+    /**
+     * Report the first name which is still undefined at the end.
+     */
+    private void finish() {
+        Pending first = null;
+        for (List<Pending> list : waiting.values()) {
+            for (Pending pending : list) {
+                if (first == null
+                        || pending.pieces.get(0).order < first.pieces.get(0).order) {
+                    first = pending;
+                }
+            }
+        }
+        if (first != null) {
+            // Building it again reports the error with its position.
+            FastBundleParser fbp = new FastBundleParser(
+                    new RecursiveBundleBuilder(root));
+            fbp.build(first.makeScanner());
+        }
+
+        for (FastBundleParser.ForwardGlobal ref : forwardGlobals.values()) {
+            if (!ref.getUsedBy().isEmpty()) {
+                throw ref.undefined;
+            }
+        }
+    }
+
+    /**
+     * The text of one definition, from the start of its first line.
+     */
+    private static class Piece {
+        final int order;
+        final int line;
+        final char[] text;
+
+        /**
+         * The name after the directive, or null if there is none.
+         */
+        final String name;
+
+        Piece(int order, int line, char[] text) {
+            this.order = order;
+            this.line = line;
+            this.text = text;
+
+            TextScanner in = new TextScanner(text, text.length);
+            in.next();
+            this.name = in.next() == TextScanner.GLOBAL_ID ? in.text() : null;
+        }
+    }
+
+    /**
+     * One or more definitions waiting for a name, in source order.
+     */
+    private static class Pending {
+        final List<Piece> pieces = new ArrayList<Piece>();
+        int chars = 0;
+
+        String waitingFor;
+
+        /**
+         * Set when merged into another definition.
+         */
+        boolean dead = false;
+
+        void addPiece(Piece piece) {
+            int i = pieces.size();
+            while (i > 0 && pieces.get(i - 1).order > piece.order) {
+                i--;
+            }
+            pieces.add(i, piece);
+            chars += piece.text.length;
+        }
+
+        /**
+         * @return A scanner over all pieces, one after another.
+         */
+        TextScanner makeScanner() {
+            char[] text = new char[chars + pieces.size()];
+            int[] starts = new int[pieces.size()];
+            int[] lines = new int[pieces.size()];
+            int pos = 0;
+            for (int i = 0; i < pieces.size(); i++) {
+                Piece piece = pieces.get(i);
+                starts[i] = pos;
+                lines[i] = piece.line;
+                System.arraycopy(piece.text, 0, text, pos, piece.text.length);
+                pos += piece.text.length;
+                text[pos++] = '\n';
+            }
+            TextScanner in = new TextScanner(text, text.length);
+            in.setLineMap(starts, lines);
+            return in;
+        }
+    }
+}
@@ -0,0 +1,635 @@
+package uvm.ir.text.input;
+
+/**
+ * Private for FastBundleParser use.
+ * <p>
+ * A hand-written lexer for the text form, following the lexer rules in
+ * uIR.g4. It scans a char array one token at a time. The current token is
+ * described by its kind and its range in the array, so no token objects are
+ * created. Words and identifiers become Strings only when asked for, and
+ * equal ones share one String.
+ * <p>
+ * A word is a maximal run of letters, digits and underscores, so some inputs
+ * the ANTLR lexer splits into two tokens (e.g. "nanf" into "nan" and "f") come
+ * out as one word. The parser takes care of those.
+ * <p>
+ * Positions are plain array offsets. Line and column numbers are only computed
+ * for error messages.
+ */
+final class TextScanner {
+    // Token kinds. Punctuations use the character itself as the kind.
+
+    static final int EOF = -1;
+    static final int WORD = 256;
+    static final int GLOBAL_ID = 257;
+    static final int LOCAL_ID = 258;
+    static final int DIRECTIVE = 259;
+    static final int INT_DEC = 260;
+    static final int INT_OCT = 261;
+    static final int INT_HEX = 262;
+    static final int FP_NUM = 263;
+    static final int INF = 264;
+
+    private final char[] buf;
+    private final int end;
+
+    /**
+     * For error messages: the text is made of pieces of the source, each of
+     * which starts at a line start. Piece i starts at lineMapStarts[i] and its
+     * first line is lineMapLines[i]. By default the whole buffer is one piece
+     * starting at line 1.
+     */
+    private int[] lineMapStarts = { 0 };
+    private int[] lineMapLines = { 1 };
+
+    /**
+     * The name of the source of each piece, e.g. a file name, or null if
+     * there is only one source.
+     */
+    private String[] lineMapSources;
+
+    /**
+     * The position after the current token.
+     */
+    private int pos;
+
+    /**
+     * The kind of the current token.
+     */
+    int kind;
+
+    /**
+     * The range of the current token is [start, stop).
+     */
+    int start;
+    int stop;
+
+    // The intern table: an open-addressing hash set of Strings.
+
+    private String[] names = new String[1024];
+    private int numNames = 0;
+
+    TextScanner(char[] buf, int length) {
+        this(buf, 0, length);
+    }
+
+    /**
+     * Scan buf[offset..end).
+     */
+    TextScanner(char[] buf, int offset, int end) {
+        this.buf = buf;
+        this.end = end;
+        this.pos = offset;
+    }
+
+    /**
+     * @return A new scanner over buf[from..to) of the same buffer, with the
+     *         same line map. It can be used in another thread.
+     */
+    TextScanner slice(int from, int to) {
+        TextScanner scanner = new TextScanner(buf, from, to);
+        scanner.setLineMap(lineMapStarts, lineMapLines, lineMapSources);
+        return scanner;
+    }
+
+    /**
+     * Tell where the text came from, for error messages.
+     *
+     * @param starts
+     *            The positions in the buffer where the pieces of the source
+     *            start, in increasing order. Each must be a line start,
+     *            possibly before the offset given to the constructor.
+     * @param lines
+     *            The line number of each piece in the source.
+     */
+    void setLineMap(int[] starts, int[] lines) {
+        setLineMap(starts, lines, null);
+    }
+
+    /**
+     * Like {@link #setLineMap(int[], int[])}, for pieces of several sources.
+     *
+     * @param sources
+     *            The name of the source of each piece, which is put before
+     *            the line in error messages, or null.
+     */
+    void setLineMap(int[] starts, int[] lines, String[] sources) {
+        this.lineMapStarts = starts;
+        this.lineMapLines = lines;
+        this.lineMapSources = sources;
+    }
+
+    // Moving around
+
+    /**
+     * Scan the next token.
+     *
+     * @return The kind of the new current token.
+     */
+    int next() {
+        int p = skipSpaces(pos);
+        start = p;
+        if (p >= end) {
+            stop = p;
+            pos = p;
+            return kind = EOF;
+        }
+
+        char c = buf[p];
+        switch (c) {
+        case '<':
+        case '>':
+        case '=':
+        case '(':
+        case ')':
+        case '{':
+        case '}':
+        case ':':
+        case ';':
+            kind = c;
+            p++;
+            break;
+        case '@':
+        case '%':
+            p = scanIDChars(p + 1);
+            kind = c == '@' ? GLOBAL_ID : LOCAL_ID;
+            break;
+        case '.': {
+            int q = p + 1;
+            while (q < end && buf[q] >= 'a' && buf[q] <= 'z') {
+                q++;
+            }
+            if (q == p + 1) {
+                throw errorAt(p, "Unexpected character '.'");
+            }
+            p = q;
+            kind = DIRECTIVE;
+            break;
+        }
+        case '+':
+        case '-':
+            if (p + 1 < end && isDigit(buf[p + 1])) {
+                p = scanNumber(p + 1);
+            } else if (p + 3 < end && buf[p + 1] == 'i'
+                    && buf[p + 2] == 'n' && buf[p + 3] == 'f') {
+                p += 4;
+                kind = INF;
+            } else {
+                throw errorAt(p, "Unexpected character '" + c + "'");
+            }
+            break;
+        default:
+            if (isDigit(c)) {
+                p = scanNumber(p);
+            } else if (isWordStart(c)) {
+                p++;
+                while (p < end && isWordChar(buf[p])) {
+                    p++;
+                }
+                kind = WORD;
+            } else {
+                throw errorAt(p, "Unexpected character '" + c + "'");
+            }
+        }
+
+        stop = p;
+        pos = p;
+        return kind;
+    }
+
+    /**
+     * @return A position to come back to by {@link #reset(int)}: the start of
+     *         the current token.
+     */
+    int mark() {
+        return start;
+    }
+
+    /**
+     * Make the token at a marked position the current token.
+     */
+    void reset(int mark) {
+        pos = mark;
+        next();
+    }
+
+    /**
+     * Skip a balanced pair of angle brackets. The current token must be '&lt;'.
+     */
+    void skipAngles() {
+        expect('<');
+        int depth = 1;
+        while (depth > 0) {
+            if (kind == '<') {
+                depth++;
+            } else if (kind == '>') {
+                depth--;
+            } else if (kind == EOF || kind == DIRECTIVE) {
+                throw error("Unbalanced '<'");
+            }
+            next();
+        }
+    }
+
+    /**
+     * @return The first character of the token after the current one, or -1
+     *         at the end of input. The position does not change.
+     */
+    int peekChar() {
+        int p = skipSpaces(pos);
+        return p < end ? buf[p] : -1;
+    }
+
+    /**
+     * @return The end of the text.
+     */
+    int end() {
+        return end;
+    }
+
+    char charAt(int p) {
+        return buf[p];
+    }
+
+    /**
+     * @return The position of the next directive at or after p, or -1. See
+     *         {@link #findDirective(char[], int, int)}.
+     */
+    int findDirective(int p) {
+        return findDirective(buf, p, end);
+    }
+
+    // Examining the current token
+
+    /**
+     * @return The text of the current token as a shared String.
+     */
+    String text() {
+        return intern(start, stop);
+    }
+
+    /**
+     * @return The text of the current token as a new String, for tokens which
+     *         are not worth sharing.
+     */
+    String rawText() {
+        return new String(buf, start, stop - start);
+    }
+
+    /**
+     * @return true if the current token is the given word.
+     */
+    boolean isWord(String word) {
+        if (kind != WORD || stop - start != word.length()) {
+            return false;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            if (buf[start + i] != word.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The value of the current token, which must be an int literal.
+     *         Like IntParsingUtils.manualParse, values above the range of long
+     *         wrap around.
+     */
+    long intValue() {
+        int p = start;
+        boolean negative = false;
+        if (buf[p] == '-' || buf[p] == '+') {
+            negative = buf[p] == '-';
+            p++;
+        }
+        long num;
+        switch (kind) {
+        case INT_DEC:
+            num = IntParsingUtils.manualParse(buf, p, stop, 10L);
+            break;
+        case INT_OCT:
+            num = IntParsingUtils.manualParse(buf, p, stop, 8L);
+            break;
+        case INT_HEX:
+            num = IntParsingUtils.manualParse(buf, p + 2, stop, 16L);
+            break;
+        default:
+            throw error("Expect an int literal, found " + describe());
+        }
+        return negative ? -num : num;
+    }
+
+    /**
+     * @return The value of the current token, which must be an FP_NUM.
+     */
+    double doubleValue() {
+        return FPParsingUtils.parseDouble(buf, start, stop);
+    }
+
+    /**
+     * @return The value of the current token, which must be an FP_NUM.
+     */
+    float floatValue() {
+        return FPParsingUtils.parseFloat(buf, start, stop);
+    }
+
+    /**
+     * @return true if the current token is an INF literal with a '-' sign.
+     */
+    boolean isNegative() {
+        return buf[start] == '-';
+    }
+
+    // Expecting tokens
+
+    void expect(int expected) {
+        if (kind != expected) {
+            throw error("Expect " + describe(expected) + ", found "
+                    + describe());
+        }
+        next();
+    }
+
+    String expectGlobalID() {
+        if (kind != GLOBAL_ID) {
+            throw error("Expect a global identifier, found " + describe());
+        }
+        String name = text();
+        next();
+        return name;
+    }
+
+    String expectLocalID() {
+        if (kind != LOCAL_ID) {
+            throw error("Expect a local identifier, found " + describe());
+        }
+        String name = text();
+        next();
+        return name;
+    }
+
+    /**
+     * Check that the current top-level definition has ended.
+     */
+    void expectEndOfDef() {
+        if (kind != DIRECTIVE && kind != EOF) {
+            throw error("Expect the end of a top-level definition, found "
+                    + describe());
+        }
+    }
+
+    // Errors
+
+    /**
+     * @return An exception reporting an error at the current token.
+     */
+    ASTParsingException error(String msg) {
+        return errorAt(start, msg);
+    }
+
+    /**
+     * @return An exception reporting an error at a position, in the same
+     *         format as ParserHelper.parseError.
+     */
+    ASTParsingException errorAt(int at, String msg) {
+        int piece = 0;
+        while (piece + 1 < lineMapStarts.length
+                && lineMapStarts[piece + 1] <= at) {
+            piece++;
+        }
+        int line = lineMapLines[piece];
+        int lineStart = lineMapStarts[piece];
+        for (int i = lineStart; i < at && i < end; i++) {
+            if (buf[i] == '\n') {
+                line++;
+                lineStart = i + 1;
+            }
+        }
+        String where = String.format("line %d col %d: %s", line, at
+                - lineStart, msg);
+        return new ASTParsingException(lineMapSources == null ? where
+                : lineMapSources[piece] + ": " + where);
+    }
+
+    String describe() {
+        if (kind == EOF) {
+            return "<EOF>";
+        }
+        return "'" + rawText() + "'";
+    }
+
+    private static String describe(int kind) {
+        switch (kind) {
+        case EOF:
+            return "<EOF>";
+        case WORD:
+            return "a keyword";
+        case GLOBAL_ID:
+            return "a global identifier";
+        case LOCAL_ID:
+            return "a local identifier";
+        case DIRECTIVE:
+            return "a top-level definition";
+        default:
+            return "'" + (char) kind + "'";
+        }
+    }
+
+    // Finding definitions without scanning tokens
+
+    /**
+     * Find the next top-level directive (e.g. ".funcdef") in buf[from..end)
+     * without scanning tokens. Comments are skipped, and a '.' inside an
+     * identifier or a number (e.g. "%for.cond", "1.5") is not a directive.
+     * The text form has no string literals. The result is the same as
+     * scanning tokens from from.
+     * <p>
+     * from must be where a token may start, e.g. a line start or the position
+     * after a directive.
+     *
+     * @return The position of the '.' of the directive, or -1 if there is none
+     *         before end. A '.' at end - 1 is never reported, since the next
+     *         character is not known yet.
+     */
+    static int findDirective(char[] buf, int from, int end) {
+        int p = from;
+        while (p < end) {
+            char c = buf[p];
+            if (c == '/' && p + 1 < end && buf[p + 1] == '/') {
+                p += 2;
+                while (p < end && buf[p] != '\n' && buf[p] != '\r') {
+                    p++;
+                }
+            } else if (c == '.' && p + 1 < end && buf[p + 1] >= 'a'
+                    && buf[p + 1] <= 'z' && !inIdentifier(buf, from, p)) {
+                return p;
+            } else {
+                p++;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return true if the '.' at p continues an identifier, i.e. the run of
+     *         identifier characters before it starts with '@' or '%'.
+     */
+    private static boolean inIdentifier(char[] buf, int from, int p) {
+        int q = p;
+        while (q > from && isIDChar(buf[q - 1])) {
+            q--;
+        }
+        return q > from && (buf[q - 1] == '@' || buf[q - 1] == '%');
+    }
+
+    // Character classes and scanning helpers
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isHexDigit(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f')
+                || (c >= 'A' && c <= 'F');
+    }
+
+    private static boolean isWordStart(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+    }
+
+    private static boolean isWordChar(char c) {
+        return isWordStart(c) || isDigit(c);
+    }
+
+    private static boolean isIDChar(char c) {
+        return isWordChar(c) || c == '-' || c == '.';
+    }
+
+    private int skipSpaces(int p) {
+        while (p < end) {
+            char c = buf[p];
+            if (c == ' ' || c == '\t' || c == '\r' || c == '\n') {
+                p++;
+            } else if (c == '/' && p + 1 < end && buf[p + 1] == '/') {
+                p += 2;
+                while (p < end && buf[p] != '\r' && buf[p] != '\n') {
+                    p++;
+                }
+            } else {
+                break;
+            }
+        }
+        return p;
+    }
+
+    private int scanIDChars(int p) {
+        int q = p;
+        while (q < end && isIDChar(buf[q])) {
+            q++;
+        }
+        if (q == p) {
+            throw errorAt(p - 1, "Empty identifier");
+        }
+        return q;
+    }
+
+    /**
+     * Scan an int or FP literal whose digits start at p. Sets kind.
+     *
+     * @return The position after the literal.
+     */
+    private int scanNumber(int p) {
+        if (buf[p] == '0' && p + 1 < end && buf[p + 1] == 'x') {
+            int q = p + 2;
+            while (q < end && isHexDigit(buf[q])) {
+                q++;
+            }
+            if (q == p + 2) {
+                throw errorAt(p, "Expect hexadecimal digits after '0x'");
+            }
+            kind = INT_HEX;
+            return q;
+        }
+
+        int q = p;
+        while (q < end && isDigit(buf[q])) {
+            q++;
+        }
+        if (q + 1 < end && buf[q] == '.' && isDigit(buf[q + 1])) {
+            q += 2;
+            while (q < end && isDigit(buf[q])) {
+                q++;
+            }
+            if (q < end && buf[q] == 'e') {
+                int r = q + 1;
+                if (r < end && (buf[r] == '+' || buf[r] == '-')) {
+                    r++;
+                }
+                if (r < end && isDigit(buf[r])) {
+                    q = r + 1;
+                    while (q < end && isDigit(buf[q])) {
+                        q++;
+                    }
+                }
+            }
+            kind = FP_NUM;
+            return q;
+        }
+
+        kind = buf[p] == '0' ? INT_OCT : INT_DEC;
+        return q;
+    }
+
+    /**
+     * @return The String with the characters buf[from..to). Equal texts give
+     *         the same String.
+     */
+    private String intern(int from, int to) {
+        int hash = 0;
+        for (int i = from; i < to; i++) {
+            hash = 31 * hash + buf[i];
+        }
+        int mask = names.length - 1;
+        int len = to - from;
+        for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+            String name = names[slot];
+            if (name == null) {
+                name = new String(buf, from, len);
+                names[slot] = name;
+                if (++numNames * 2 > names.length) {
+                    growNames();
+                }
+                return name;
+            }
+            if (name.length() == len && name.hashCode() == hash
+                    && regionEquals(name, from)) {
+                return name;
+            }
+        }
+    }
+
+    private boolean regionEquals(String name, int from) {
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != buf[from + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void growNames() {
+        String[] old = names;
+        names = new String[old.length * 2];
+        int mask = names.length - 1;
+        for (String name : old) {
+            if (name != null) {
+                int slot = name.hashCode() & mask;
+                while (names[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                names[slot] = name;
+            }
+        }
+    }
+}
@@ -5,8 +5,15 @@ import static uvm.ir.text.output.WritingHelper.l;
 
 import java.io.PrintWriter;
 import java.io.Writer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import uvm.BasicBlock;
 import uvm.Bundle;
@@ -22,22 +29,92 @@ import uvm.type.Type;
 /**
  * This package writes a bundle in the text form.
  * <p>
+ * Everything is appended to one StringBuilder, which is reused and written to
+ * the Writer in blocks of about {@link #BLOCK_SIZE} characters, between
+ * top-level definitions. No format strings are interpreted and no strings
+ * are made for operands.
+ * <p>
+ * Functions can be written in parallel. See {@link #setParallel}.
+ * <p>
  * TODO: In the future, it should be written at a larger-than-bundle level.
  */
 public class IRTextWriter {
+    /**
+     * The number of buffered characters above which the buffer is written
+     * out after a top-level definition.
+     */
+    static final int BLOCK_SIZE = 32 * 1024;
+
+    /**
+     * The number of consecutive functions written by one task when writing in
+     * parallel.
+     */
+    static final int FUNCS_PER_TASK = 64;
+
+    /**
+     * What PrintWriter.println writes.
+     */
+    private static final String NL = System.lineSeparator();
+
     // NOTE: PrintWriter never throws exception. It is a bad thing because
     // errors will not be spotted the moment it happends. But since the text form
     // itself is only a way of debugging, fixing this has low priority.
     private PrintWriter pw;
+
+    /**
+     * The pool to write functions on, or null to write them in the current
+     * thread.
+     */
+    private ForkJoinPool pool;
+
+    /**
+     * The text not yet written. TypeWriter and ValueWriter append to it.
+     */
+    final StringBuilder out = new StringBuilder(BLOCK_SIZE * 2);
+
+    /**
+     * Comments for the current line, each followed by a new line.
+     */
+    private final StringBuilder pendingComments = new StringBuilder();
+    private int commentStart;
+
+    private char[] block;
+
     private TypeWriter TYPE_WRITER = new TypeWriter(this);
     private ValueWriter VALUE_WRITER = new ValueWriter(this);
 
-    private List<String> pendingComments = new ArrayList<String>();
-
     public IRTextWriter(Writer writer) {
         this.pw = new PrintWriter(writer);
     }
 
+    /**
+     * A writer which only renders functions into its buffer. Used by the
+     * tasks of a parallel write.
+     */
+    private IRTextWriter() {
+    }
+
+    /**
+     * Write functions in parallel on the common fork-join pool, or in the
+     * current thread (the default).
+     * <p>
+     * The output is the same either way. Functions only refer to each other
+     * and to other entities by names or IDs, which are fixed when writing, so
+     * runs of consecutive functions are rendered into separate buffers, which
+     * are written out in the order of the functions in the bundle.
+     */
+    public void setParallel(boolean parallel) {
+        setPool(parallel ? ForkJoinPool.commonPool() : null);
+    }
+
+    /**
+     * Write functions on the given pool, or in the current thread if it is
+     * null.
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
     public void writeBundle(Bundle bundle) {
         for (Type type : bundle.getTypeNs().getObjects()) {
             writeTypeDef(type);
@@ -55,86 +132,232 @@ public class IRTextWriter {
             writeGlobalData(globalData);
         }
 
-        for (Function function : bundle.getFuncNs().getObjects()) {
-            if (function.getCFG() == null) {
-                writeFuncDecl(function);
-            } else {
-                writeFuncDef(function);
+        Collection<Function> functions = bundle.getFuncNs().getObjects();
+        if (pool == null || functions.size() <= FUNCS_PER_TASK) {
+            for (Function function : functions) {
+                writeFunction(function);
             }
+        } else {
+            writeFunctionsInParallel(new ArrayList<Function>(functions));
         }
 
+        flushBlock();
         pw.flush();
     }
 
     public void addComment(String comment) {
-        pendingComments.add(comment);
+        startComment().append(comment);
+        endComment();
+    }
+
+    /**
+     * Start a comment for the current line. Append it to the returned buffer
+     * and then call {@link #endComment()}.
+     */
+    StringBuilder startComment() {
+        commentStart = pendingComments.length();
+        return pendingComments;
+    }
+
+    void endComment() {
+        // Comments end at the end of the line.
+        for (int i = commentStart; i < pendingComments.length(); i++) {
+            if (pendingComments.charAt(i) == '\n') {
+                pendingComments.setCharAt(i, ' ');
+            }
+        }
+        pendingComments.append('\n');
     }
 
     private void writeComments() {
-        for (String comment : pendingComments) {
-            pw.print("// ");
-            pw.println(comment.replace('\n', ' '));
+        int length = pendingComments.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            if (pendingComments.charAt(i) == '\n') {
+                out.append("// ").append(pendingComments, start, i).append(NL);
+                start = i + 1;
+            }
+        }
+        pendingComments.setLength(0);
+    }
+
+    /**
+     * Write the buffer out if it has grown to a block. Renderers keep
+     * everything in the buffer.
+     */
+    private void endDefinition() {
+        if (pw != null && out.length() >= BLOCK_SIZE) {
+            flushBlock();
+        }
+    }
+
+    private void flushBlock() {
+        writeBlock(out);
+    }
+
+    private void writeBlock(StringBuilder sb) {
+        int length = sb.length();
+        if (block == null || block.length < length) {
+            block = new char[Math.max(length, BLOCK_SIZE * 2)];
+        }
+        sb.getChars(0, length, block, 0);
+        pw.write(block, 0, length);
+        sb.setLength(0);
+    }
+
+    /**
+     * Render runs of functions on the pool and write each as soon as it and
+     * all runs before it are done. At most a few runs per worker are pending
+     * at a time, so that not all of the text is held in memory at once.
+     */
+    private void writeFunctionsInParallel(List<Function> functions) {
+        flushBlock();
+
+        int window = pool.getParallelism() * 4;
+        Deque<Future<StringBuilder>> pending = new ArrayDeque<Future<StringBuilder>>();
+        try {
+            for (int from = 0; from < functions.size(); from += FUNCS_PER_TASK) {
+                final List<Function> run = functions.subList(from,
+                        Math.min(from + FUNCS_PER_TASK, functions.size()));
+                pending.add(pool.submit(new Callable<StringBuilder>() {
+                    @Override
+                    public StringBuilder call() {
+                        IRTextWriter renderer = new IRTextWriter();
+                        for (Function function : run) {
+                            renderer.writeFunction(function);
+                        }
+                        return renderer.out;
+                    }
+                }));
+                if (pending.size() >= window) {
+                    writeBlock(await(pending.poll()));
+                }
+            }
+            while (!pending.isEmpty()) {
+                writeBlock(await(pending.poll()));
+            }
+        } finally {
+            for (Future<StringBuilder> future : pending) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    private static StringBuilder await(Future<StringBuilder> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(
+                    "Interrupted while writing functions.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
         }
-        pendingComments.clear();
     }
 
     private void writeTypeDef(Type type) {
-        pw.printf(".typedef %s = %s\n", g(type), type.accept(TYPE_WRITER));
+        out.append(".typedef ");
+        g(out, type);
+        out.append(" = ");
+        type.accept(TYPE_WRITER);
+        out.append('\n');
         writeComments();
+        endDefinition();
     }
 
     private void writeFuncSigDef(FunctionSignature sig) {
-        StringBuilder sb = new StringBuilder();
-        sb.append(g(sig.getReturnType()));
-        sb.append(" ( ");
+        out.append(".funcsig ");
+        g(out, sig);
+        out.append(" = ");
+        g(out, sig.getReturnType());
+        out.append(" ( ");
         for (Type paramTy : sig.getParamTypes()) {
-            sb.append(g(paramTy)).append(" ");
+            g(out, paramTy);
+            out.append(' ');
         }
-        sb.append(")");
-        pw.printf(".funcsig %s = %s\n", g(sig), sb.toString());
+        out.append(")\n");
         writeComments();
+        endDefinition();
     }
 
     private void writeConstant(Constant constant) {
-        pw.printf(".const %s <%s> = %s\n", g(constant), g(constant.getType()),
-                constant.accept(VALUE_WRITER));
+        out.append(".const ");
+        g(out, constant);
+        out.append(" <");
+        g(out, constant.getType());
+        out.append("> = ");
+        constant.accept(VALUE_WRITER);
+        out.append('\n');
         writeComments();
+        endDefinition();
     }
 
     private void writeGlobalData(GlobalData globalData) {
-        pw.printf(".global %s <%s>\n", g(globalData), g(globalData.getType()));
+        out.append(".global ");
+        g(out, globalData);
+        out.append(" <");
+        g(out, globalData.getType());
+        out.append(">\n");
         writeComments();
+        endDefinition();
+    }
+
+    private void writeFunction(Function function) {
+        if (function.getCFG() == null) {
+            writeFuncDecl(function);
+        } else {
+            writeFuncDef(function);
+        }
     }
 
     private void writeFuncDecl(Function function) {
-        pw.printf(".funcdecl %s <%s>\n", g(function), g(function.getSig()));
+        out.append(".funcdecl ");
+        g(out, function);
+        out.append(" <");
+        g(out, function.getSig());
+        out.append(">\n");
         writeComments();
+        endDefinition();
     }
 
     private void writeFuncDef(Function function) {
-        StringBuilder paramsSb = new StringBuilder(" ");
         CFG cfg = function.getCFG();
 
+        out.append(".funcdef ");
+        g(out, function);
+        out.append(" <");
+        g(out, function.getSig());
+        out.append("> ( ");
         for (Parameter param : cfg.getParams()) {
-            paramsSb.append(l(param));
-            paramsSb.append(" ");
+            l(out, param);
+            out.append(' ');
         }
-
-        pw.printf(".funcdef %s <%s> (%s) {\n", g(function),
-                g(function.getSig()), paramsSb.toString());
+        out.append(") {\n");
         writeComments();
 
         for (BasicBlock bb : cfg.getBBs()) {
-            pw.printf("    %s:\n", l(bb));
+            out.append("    ");
+            l(out, bb);
+            out.append(":\n");
 
             for (Instruction inst : bb.getInsts()) {
-                pw.printf("        %s = %s\n", l(inst),
-                        inst.accept(VALUE_WRITER));
+                out.append("        ");
+                l(out, inst);
+                out.append(" = ");
+                inst.accept(VALUE_WRITER);
+                out.append('\n');
                 writeComments();
             }
         }
 
-        pw.println("}");
-
+        out.append('}').append(NL);
+        endDefinition();
     }
 }
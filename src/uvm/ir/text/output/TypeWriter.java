@@ -20,93 +20,119 @@ import uvm.type.WeakRef;
 
 /**
  * Writes a type. For IRTextWriter use only.
+ * <p>
+ * Each visit appends the type constructor to the output buffer of the
+ * IRTextWriter and returns null.
  */
-public class TypeWriter implements TypeVisitor<String> {
+public class TypeWriter implements TypeVisitor<java.lang.Void> {
 
-    @SuppressWarnings("unused")
-    private IRTextWriter irTextWriter;
+    private final StringBuilder sb;
 
     public TypeWriter(IRTextWriter irTextWriter) {
-        this.irTextWriter = irTextWriter;
+        this.sb = irTextWriter.out;
     }
 
     @Override
-    public String visitInt(Int type) {
-        return String.format("int<%d>", type.getSize());
+    public java.lang.Void visitInt(Int type) {
+        sb.append("int<").append(type.getSize()).append('>');
+        return null;
     }
 
     @Override
-    public String visitFloat(Float type) {
-        return "float";
+    public java.lang.Void visitFloat(Float type) {
+        sb.append("float");
+        return null;
     }
 
     @Override
-    public String visitDouble(Double type) {
-        return "double";
+    public java.lang.Void visitDouble(Double type) {
+        sb.append("double");
+        return null;
     }
 
     @Override
-    public String visitRef(Ref type) {
-        return String.format("ref<%s>", g(type.getReferenced()));
+    public java.lang.Void visitRef(Ref type) {
+        sb.append("ref<");
+        g(sb, type.getReferenced());
+        sb.append('>');
+        return null;
     }
 
     @Override
-    public String visitIRef(IRef type) {
-        return String.format("iref<%s>", g(type.getReferenced()));
+    public java.lang.Void visitIRef(IRef type) {
+        sb.append("iref<");
+        g(sb, type.getReferenced());
+        sb.append('>');
+        return null;
     }
 
     @Override
-    public String visitWeakRef(WeakRef type) {
-        return String.format("weakref<%s>", g(type.getReferenced()));
+    public java.lang.Void visitWeakRef(WeakRef type) {
+        sb.append("weakref<");
+        g(sb, type.getReferenced());
+        sb.append('>');
+        return null;
     }
 
     @Override
-    public String visitStruct(Struct type) {
-        StringBuilder sb = new StringBuilder();
+    public java.lang.Void visitStruct(Struct type) {
         sb.append("struct < ");
         for (Type fieldType : type.getFieldTypes()) {
-            sb.append(g(fieldType)).append(" ");
+            g(sb, fieldType);
+            sb.append(' ');
         }
-        sb.append(">");
-        return sb.toString();
-
+        sb.append('>');
+        return null;
     }
 
     @Override
-    public String visitArray(Array type) {
-        return String.format("array<%s %d>", g(type.getElemType()),
-                type.getLength());
+    public java.lang.Void visitArray(Array type) {
+        sb.append("array<");
+        g(sb, type.getElemType());
+        sb.append(' ').append(type.getLength()).append('>');
+        return null;
     }
 
     @Override
-    public String visitHybrid(Hybrid type) {
-        return String.format("hybrid<%s %s>", g(type.getFixedPart()),
-                g(type.getVarPart()));
+    public java.lang.Void visitHybrid(Hybrid type) {
+        sb.append("hybrid<");
+        g(sb, type.getFixedPart());
+        sb.append(' ');
+        g(sb, type.getVarPart());
+        sb.append('>');
+        return null;
     }
 
     @Override
-    public String visitVoid(Void type) {
-        return "void";
+    public java.lang.Void visitVoid(Void type) {
+        sb.append("void");
+        return null;
     }
 
     @Override
-    public String visitFunc(Func type) {
-        return String.format("func<%s>", g(type.getSig()));
+    public java.lang.Void visitFunc(Func type) {
+        sb.append("func<");
+        g(sb, type.getSig());
+        sb.append('>');
+        return null;
     }
 
     @Override
-    public String visitThread(Thread type) {
-        return "thread";
+    public java.lang.Void visitThread(Thread type) {
+        sb.append("thread");
+        return null;
     }
 
     @Override
-    public String visitStack(Stack type) {
-        return "stack";
+    public java.lang.Void visitStack(Stack type) {
+        sb.append("stack");
+        return null;
     }
 
     @Override
-    public String visitTagRef64(TagRef64 type) {
-        return "tagref64";
+    public java.lang.Void visitTagRef64(TagRef64 type) {
+        sb.append("tagref64");
+        return null;
     }
 
 }
@@ -1,11 +1,13 @@
 package uvm.ir.text.output;
 
-import static uvm.ir.text.output.WritingHelper.g;
-import static uvm.ir.text.output.WritingHelper.l;
-
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
 import java.util.Map;
 
 import uvm.BasicBlock;
+import uvm.Identified;
 import uvm.ssavalue.CallLike;
 import uvm.ssavalue.Constant;
 import uvm.ssavalue.DoubleConstant;
@@ -63,344 +65,575 @@ import uvm.ssavalue.ValueVisitor;
 
 /**
  * Writes a value. For IRTextWriter use only.
+ * <p>
+ * Each visit appends the constant or the instruction to the output buffer of
+ * the IRTextWriter and returns null.
  */
-public class ValueWriter implements ValueVisitor<String> {
-    private IRTextWriter irTextWriter;
+public class ValueWriter implements ValueVisitor<Void> {
+    private final IRTextWriter irTextWriter;
+    private final StringBuilder sb;
+
+    /**
+     * True if "%f" formats numbers with ASCII digits and a '.' in the default
+     * locale, as it does in most. Otherwise FP comments are still formatted
+     * by String.format, so that the output does not depend on this writer.
+     */
+    private final boolean plainLocale;
 
     public ValueWriter(IRTextWriter irTextWriter) {
         this.irTextWriter = irTextWriter;
+        this.sb = irTextWriter.out;
+        DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(Locale
+                .getDefault(Locale.Category.FORMAT));
+        this.plainLocale = symbols.getZeroDigit() == '0'
+                && symbols.getDecimalSeparator() == '.';
     }
 
     public static String v(Value value) {
         if (value instanceof Constant) {
-            return g(value);
+            return WritingHelper.g(value);
+        } else {
+            return WritingHelper.l(value);
+        }
+    }
+
+    private void g(Identified i) {
+        WritingHelper.g(sb, i);
+    }
+
+    private void l(Identified i) {
+        WritingHelper.l(sb, i);
+    }
+
+    private void val(Value value) {
+        if (value instanceof Constant) {
+            WritingHelper.g(sb, value);
+        } else {
+            WritingHelper.l(sb, value);
+        }
+    }
+
+    /**
+     * Append a value like "%x", i.e. in lower-case hexadecimal digits without
+     * leading zeros.
+     */
+    private static void appendHex(StringBuilder sb, long bits, int width) {
+        int shift = width - 4;
+        while (shift > 0 && ((bits >>> shift) & 0xf) == 0) {
+            shift -= 4;
+        }
+        for (; shift >= 0; shift -= 4) {
+            sb.append(Character.forDigit((int) ((bits >>> shift) & 0xf), 16));
+        }
+    }
+
+    /**
+     * Append a value like "%f", i.e. rounded half up to 6 places after the
+     * point. As in Formatter, the digits of Double.toString are rounded.
+     */
+    private void appendFixed(StringBuilder sb, double value) {
+        if (!plainLocale) {
+            sb.append(String.format("%f", value));
+        } else if (Double.isNaN(value)) {
+            sb.append("NaN");
+        } else if (Double.isInfinite(value)) {
+            sb.append(value > 0 ? "Infinity" : "-Infinity");
         } else {
-            return l(value);
+            if (Double.doubleToRawLongBits(value) < 0) {
+                sb.append('-');
+            }
+            sb.append(new BigDecimal(Double.toString(Math.abs(value)))
+                    .setScale(6, RoundingMode.HALF_UP).toPlainString());
         }
     }
 
     @Override
-    public String visitIntConstant(IntConstant constant) {
-        return Long.toString(constant.getValue());
+    public Void visitIntConstant(IntConstant constant) {
+        sb.append(constant.getValue());
+        return null;
     }
 
     @Override
-    public String visitFloatConstant(FloatConstant floatConstant) {
+    public Void visitFloatConstant(FloatConstant floatConstant) {
         float value = floatConstant.getValue();
         int bitsValue = Float.floatToRawIntBits(value);
-        String rv = String.format("bitsf(0x%x)", bitsValue);
-        irTextWriter.addComment(String.format("%s = %f", rv, value));
-        return rv;
+        int start = sb.length();
+        sb.append("bitsf(0x");
+        appendHex(sb, bitsValue & 0xffffffffL, 32);
+        sb.append(')');
+
+        StringBuilder comment = irTextWriter.startComment();
+        comment.append(sb, start, sb.length()).append(" = ");
+        appendFixed(comment, value);
+        irTextWriter.endComment();
+        return null;
     }
 
     @Override
-    public String visitDoubleConstant(DoubleConstant doubleConstant) {
+    public Void visitDoubleConstant(DoubleConstant doubleConstant) {
         double value = doubleConstant.getValue();
         long bitsValue = Double.doubleToRawLongBits(value);
-        String rv = String.format("bitsd(0x%x)", bitsValue);
-        irTextWriter.addComment(String.format("%s = %f", rv, value));
-        return rv;
+        int start = sb.length();
+        sb.append("bitsd(0x");
+        appendHex(sb, bitsValue, 64);
+        sb.append(')');
+
+        StringBuilder comment = irTextWriter.startComment();
+        comment.append(sb, start, sb.length()).append(" = ");
+        appendFixed(comment, value);
+        irTextWriter.endComment();
+        return null;
     }
 
     @Override
-    public String visitStructConstant(StructConstant constant) {
-        StringBuilder sb = new StringBuilder();
+    public Void visitStructConstant(StructConstant constant) {
         sb.append("{ ");
         for (Constant field : constant.getValues()) {
-            sb.append(g(field));
-            sb.append(" ");
+            g(field);
+            sb.append(' ');
         }
-        sb.append("}");
-        return sb.toString();
+        sb.append('}');
+        return null;
     }
 
     @Override
-    public String visitNullConstant(NullConstant constant) {
-        return "NULL";
+    public Void visitNullConstant(NullConstant constant) {
+        sb.append("NULL");
+        return null;
     }
 
     @Override
-    public String visitGlobalDataConstant(GlobalDataConstant constant) {
+    public Void visitGlobalDataConstant(GlobalDataConstant constant) {
         // Implicitly created only. Cannot be written.
+        sb.append("null");
         return null;
     }
 
     @Override
-    public String visitFunctionConstant(FunctionConstant functionConstant) {
+    public Void visitFunctionConstant(FunctionConstant functionConstant) {
         // Implicitly created only. Cannot be written.
+        sb.append("null");
         return null;
     }
 
     @Override
-    public String visitParameter(Parameter parameter) {
+    public Void visitParameter(Parameter parameter) {
         // Implicitly created only. Cannot be written.
+        sb.append("null");
         return null;
     }
 
     @Override
-    public String visitBinOp(InstBinOp inst) {
-        return String.format("%s <%s> %s %s", inst.getOptr().toString(),
-                g(inst.getType()), v(inst.getOp1()), v(inst.getOp2()));
+    public Void visitBinOp(InstBinOp inst) {
+        sb.append(inst.getOptr().toString()).append(" <");
+        g(inst.getType());
+        sb.append("> ");
+        val(inst.getOp1());
+        sb.append(' ');
+        val(inst.getOp2());
+        return null;
     }
 
     @Override
-    public String visitCmp(InstCmp inst) {
-        return String.format("%s <%s> %s %s", inst.getOptr().toString(),
-                g(inst.getOpndType()), v(inst.getOp1()), v(inst.getOp2()));
+    public Void visitCmp(InstCmp inst) {
+        sb.append(inst.getOptr().toString()).append(" <");
+        g(inst.getOpndType());
+        sb.append("> ");
+        val(inst.getOp1());
+        sb.append(' ');
+        val(inst.getOp2());
+        return null;
     }
 
     @Override
-    public String visitConversion(InstConversion inst) {
-        return String.format("%s <%s %s> %s", inst.getOptr().toString(),
-                g(inst.getFromType()), g(inst.getToType()), v(inst.getOpnd()));
+    public Void visitConversion(InstConversion inst) {
+        sb.append(inst.getOptr().toString()).append(" <");
+        g(inst.getFromType());
+        sb.append(' ');
+        g(inst.getToType());
+        sb.append("> ");
+        val(inst.getOpnd());
+        return null;
     }
 
     @Override
-    public String visitSelect(InstSelect inst) {
-        return String.format("SELECT <%s> %s %s %s", g(inst.getType()), v(inst.getCond()),
-                v(inst.getIfTrue()), v(inst.getIfFalse()));
+    public Void visitSelect(InstSelect inst) {
+        sb.append("SELECT <");
+        g(inst.getType());
+        sb.append("> ");
+        val(inst.getCond());
+        sb.append(' ');
+        val(inst.getIfTrue());
+        sb.append(' ');
+        val(inst.getIfFalse());
+        return null;
     }
 
     @Override
-    public String visitBranch(InstBranch inst) {
-        return String.format("BRANCH %s", l(inst.getDest()));
+    public Void visitBranch(InstBranch inst) {
+        sb.append("BRANCH ");
+        l(inst.getDest());
+        return null;
     }
 
     @Override
-    public String visitBranch2(InstBranch2 inst) {
-        return String.format("BRANCH2 %s %s %s", v(inst.getCond()),
-                l(inst.getIfTrue()), l(inst.getIfFalse()));
+    public Void visitBranch2(InstBranch2 inst) {
+        sb.append("BRANCH2 ");
+        val(inst.getCond());
+        sb.append(' ');
+        l(inst.getIfTrue());
+        sb.append(' ');
+        l(inst.getIfFalse());
+        return null;
     }
 
     @Override
-    public String visitSwitch(InstSwitch inst) {
-        StringBuilder sb = new StringBuilder();
-        sb.append(String.format("SWITCH <%s> %s %s { ", g(inst.getOpndType()),
-                v(inst.getOpnd()), l(inst.getDefaultDest())));
+    public Void visitSwitch(InstSwitch inst) {
+        sb.append("SWITCH <");
+        g(inst.getOpndType());
+        sb.append("> ");
+        val(inst.getOpnd());
+        sb.append(' ');
+        l(inst.getDefaultDest());
+        sb.append(" { ");
         for (Map.Entry<UseBox, BasicBlock> e : inst.getCases().entrySet()) {
-            sb.append(String.format("%s: %s; ", v(e.getKey().getDst()),
-                    l(e.getValue())));
+            val(e.getKey().getDst());
+            sb.append(": ");
+            l(e.getValue());
+            sb.append("; ");
         }
-        sb.append("}");
-        return sb.toString();
+        sb.append('}');
+        return null;
     }
 
     @Override
-    public String visitPhi(InstPhi inst) {
-        StringBuilder sb = new StringBuilder();
-        sb.append(String.format("PHI <%s> { ", g(inst.getType())));
+    public Void visitPhi(InstPhi inst) {
+        sb.append("PHI <");
+        g(inst.getType());
+        sb.append("> { ");
         for (Map.Entry<BasicBlock, UseBox> e : inst.getValueMap().entrySet()) {
-            sb.append(String.format("%s: %s; ", l(e.getKey()), v(e.getValue()
-                    .getDst())));
+            l(e.getKey());
+            sb.append(": ");
+            val(e.getValue().getDst());
+            sb.append("; ");
         }
-        sb.append("}");
-        return sb.toString();
+        sb.append('}');
+        return null;
     }
 
-    private String printArgs(HasArgs inst) {
-        StringBuilder sb = new StringBuilder("(");
+    private void printArgs(HasArgs inst) {
+        sb.append('(');
         for (UseBox arg : inst.getArgs()) {
-            sb.append(" ").append(v(arg.getDst()));
+            sb.append(' ');
+            val(arg.getDst());
         }
         sb.append(" )");
-        return sb.toString();
     }
 
-    private String printFuncCallBody(CallLike inst) {
-        return String.format("<%s> %s %s", g(inst.getSig()), v(inst.getFunc()),
-                printArgs(inst));
+    private void printFuncCallBody(CallLike inst) {
+        sb.append('<');
+        g(inst.getSig());
+        sb.append("> ");
+        val(inst.getFunc());
+        sb.append(' ');
+        printArgs(inst);
     }
 
-    private String printKeepAlive(HasKeepAlives inst) {
-        StringBuilder sb = new StringBuilder("KEEPALIVE (");
+    private void printKeepAlive(HasKeepAlives inst) {
+        sb.append("KEEPALIVE (");
         for (UseBox ka : inst.getKeepAlives()) {
-            sb.append(" ").append(v(ka.getDst()));
+            sb.append(' ');
+            val(ka.getDst());
         }
         sb.append(" )");
-        return sb.toString();
     }
 
     @Override
-    public String visitCall(InstCall inst) {
-        return String.format("CALL %s %s", printFuncCallBody(inst),
-                printKeepAlive(inst));
+    public Void visitCall(InstCall inst) {
+        sb.append("CALL ");
+        printFuncCallBody(inst);
+        sb.append(' ');
+        printKeepAlive(inst);
+        return null;
     }
 
-    private String printNorExc(HandlesException inst) {
-        return String.format("%s %s", l(inst.getNor()), l(inst.getExc()));
+    private void printNorExc(HandlesException inst) {
+        l(inst.getNor());
+        sb.append(' ');
+        l(inst.getExc());
     }
 
     @Override
-    public String visitInvoke(InstInvoke inst) {
-        return String.format("INVOKE %s %s %s", printFuncCallBody(inst),
-                printNorExc(inst), printKeepAlive(inst));
+    public Void visitInvoke(InstInvoke inst) {
+        sb.append("INVOKE ");
+        printFuncCallBody(inst);
+        sb.append(' ');
+        printNorExc(inst);
+        sb.append(' ');
+        printKeepAlive(inst);
+        return null;
     }
 
     @Override
-    public String visitTailCall(InstTailCall inst) {
-        return String.format("TAILCALL %s", printFuncCallBody(inst));
+    public Void visitTailCall(InstTailCall inst) {
+        sb.append("TAILCALL ");
+        printFuncCallBody(inst);
+        return null;
     }
 
     @Override
-    public String visitRet(InstRet inst) {
-        return String.format("RET <%s> %s", g(inst.getRetType()),
-                v(inst.getRetVal()));
+    public Void visitRet(InstRet inst) {
+        sb.append("RET <");
+        g(inst.getRetType());
+        sb.append("> ");
+        val(inst.getRetVal());
+        return null;
     }
 
     @Override
-    public String visitRetVoid(InstRetVoid inst) {
-        return "RETVOID";
+    public Void visitRetVoid(InstRetVoid inst) {
+        sb.append("RETVOID");
+        return null;
     }
 
     @Override
-    public String visitThrow(InstThrow inst) {
-        return String.format("THROW %s", v(inst.getException()));
+    public Void visitThrow(InstThrow inst) {
+        sb.append("THROW ");
+        val(inst.getException());
+        return null;
     }
 
     @Override
-    public String visitLandingPad(InstLandingPad inst) {
-        return "LANDINGPAD";
+    public Void visitLandingPad(InstLandingPad inst) {
+        sb.append("LANDINGPAD");
+        return null;
     }
 
     @Override
-    public String visitExtractValue(InstExtractValue inst) {
-        return String.format("EXTRACTVALUE <%s %d> %s",
-                g(inst.getStructType()), inst.getIndex(), v(inst.getOpnd()));
+    public Void visitExtractValue(InstExtractValue inst) {
+        sb.append("EXTRACTVALUE <");
+        g(inst.getStructType());
+        sb.append(' ').append(inst.getIndex()).append("> ");
+        val(inst.getOpnd());
+        return null;
     }
 
     @Override
-    public String visitInsertValue(InstInsertValue inst) {
-        return String.format("INSERTVALUE <%s %d> %s %s", g(inst.getStructType()),
-                inst.getIndex(), v(inst.getOpnd()), v(inst.getNewVal()));
+    public Void visitInsertValue(InstInsertValue inst) {
+        sb.append("INSERTVALUE <");
+        g(inst.getStructType());
+        sb.append(' ').append(inst.getIndex()).append("> ");
+        val(inst.getOpnd());
+        sb.append(' ');
+        val(inst.getNewVal());
+        return null;
     }
 
     @Override
-    public String visitNew(InstNew inst) {
-        return String.format("NEW <%s>", g(inst.getAllocType()));
+    public Void visitNew(InstNew inst) {
+        sb.append("NEW <");
+        g(inst.getAllocType());
+        sb.append('>');
+        return null;
     }
 
     @Override
-    public String visitNewHybrid(InstNewHybrid inst) {
-        return String.format("NEWHYBRID <%s> %s", g(inst.getAllocType()),
-                v(inst.getLength()));
+    public Void visitNewHybrid(InstNewHybrid inst) {
+        sb.append("NEWHYBRID <");
+        g(inst.getAllocType());
+        sb.append("> ");
+        val(inst.getLength());
+        return null;
     }
 
     @Override
-    public String visitAlloca(InstAlloca inst) {
-        return String.format("ALLOCA <%s>", g(inst.getAllocType()));
+    public Void visitAlloca(InstAlloca inst) {
+        sb.append("ALLOCA <");
+        g(inst.getAllocType());
+        sb.append('>');
+        return null;
     }
 
     @Override
-    public String visitAllocaHybrid(InstAllocaHybrid inst) {
-        return String.format("ALLOCAHYBRID <%s> %s", g(inst.getAllocType()),
-                v(inst.getLength()));
+    public Void visitAllocaHybrid(InstAllocaHybrid inst) {
+        sb.append("ALLOCAHYBRID <");
+        g(inst.getAllocType());
+        sb.append("> ");
+        val(inst.getLength());
+        return null;
     }
 
     @Override
-    public String visitGetIRef(InstGetIRef inst) {
-        return String.format("GETIREF <%s> %s", g(inst.getReferentType()),
-                v(inst.getOpnd()));
+    public Void visitGetIRef(InstGetIRef inst) {
+        sb.append("GETIREF <");
+        g(inst.getReferentType());
+        sb.append("> ");
+        val(inst.getOpnd());
+        return null;
     }
 
     @Override
-    public String visitGetFieldIRef(InstGetFieldIRef inst) {
-        return String.format("GETFIELDIREF <%s %d> %s",
-                g(inst.getReferentType()), inst.getIndex(), v(inst.getOpnd()));
+    public Void visitGetFieldIRef(InstGetFieldIRef inst) {
+        sb.append("GETFIELDIREF <");
+        g(inst.getReferentType());
+        sb.append(' ').append(inst.getIndex()).append("> ");
+        val(inst.getOpnd());
+        return null;
     }
 
     @Override
-    public String visitGetElemIRef(InstGetElemIRef inst) {
-        return String.format("GETELEMIREF <%s> %s %s",
-                g(inst.getReferentType()), v(inst.getOpnd()),
-                v(inst.getIndex()));
+    public Void visitGetElemIRef(InstGetElemIRef inst) {
+        sb.append("GETELEMIREF <");
+        g(inst.getReferentType());
+        sb.append("> ");
+        val(inst.getOpnd());
+        sb.append(' ');
+        val(inst.getIndex());
+        return null;
     }
 
     @Override
-    public String visitShiftIRef(InstShiftIRef inst) {
-        return String.format("SHIFTIREF <%s> %s %s", g(inst.getReferentType()),
-                v(inst.getOpnd()), v(inst.getOffset()));
+    public Void visitShiftIRef(InstShiftIRef inst) {
+        sb.append("SHIFTIREF <");
+        g(inst.getReferentType());
+        sb.append("> ");
+        val(inst.getOpnd());
+        sb.append(' ');
+        val(inst.getOffset());
+        return null;
     }
 
     @Override
-    public String visitGetFixedPartIRef(InstGetFixedPartIRef inst) {
-        return String.format("GETFIXEDPARTIREF <%s> %s",
-                g(inst.getReferentType()), v(inst.getOpnd()));
+    public Void visitGetFixedPartIRef(InstGetFixedPartIRef inst) {
+        sb.append("GETFIXEDPARTIREF <");
+        g(inst.getReferentType());
+        sb.append("> ");
+        val(inst.getOpnd());
+        return null;
     }
 
     @Override
-    public String visitGetVarPartIRef(InstGetVarPartIRef inst) {
-        return String.format("GETVARPARTIREF <%s> %s",
-                g(inst.getReferentType()), v(inst.getOpnd()));
+    public Void visitGetVarPartIRef(InstGetVarPartIRef inst) {
+        sb.append("GETVARPARTIREF <");
+        g(inst.getReferentType());
+        sb.append("> ");
+        val(inst.getOpnd());
+        return null;
     }
 
     @Override
-    public String visitLoad(InstLoad inst) {
-        return String.format("LOAD %s <%s> %s", inst.getOrdering().toString(),
-                g(inst.getReferentType()), v(inst.getLocation()));
+    public Void visitLoad(InstLoad inst) {
+        sb.append("LOAD ").append(inst.getOrdering().toString()).append(" <");
+        g(inst.getReferentType());
+        sb.append("> ");
+        val(inst.getLocation());
+        return null;
     }
 
     @Override
-    public String visitStore(InstStore inst) {
-        return String.format("STORE %s <%s> %s %s", inst.getOrdering().toString(),
-                g(inst.getReferentType()), v(inst.getLocation()),
-                v(inst.getNewVal()));
+    public Void visitStore(InstStore inst) {
+        sb.append("STORE ").append(inst.getOrdering().toString()).append(" <");
+        g(inst.getReferentType());
+        sb.append("> ");
+        val(inst.getLocation());
+        sb.append(' ');
+        val(inst.getNewVal());
+        return null;
     }
 
     @Override
-    public String visitCmpXchg(InstCmpXchg inst) {
-        return String.format("CMPXCHG %s %s <%s> %s %s %s", inst
-                .getOrderingSucc().toString(), inst.getOrderingFail()
-                .toString(), g(inst.getReferentType()), v(inst.getLocation()),
-                v(inst.getExpected()), v(inst.getDesired()));
+    public Void visitCmpXchg(InstCmpXchg inst) {
+        sb.append("CMPXCHG ").append(inst.getOrderingSucc().toString())
+                .append(' ').append(inst.getOrderingFail().toString())
+                .append(" <");
+        g(inst.getReferentType());
+        sb.append("> ");
+        val(inst.getLocation());
+        sb.append(' ');
+        val(inst.getExpected());
+        sb.append(' ');
+        val(inst.getDesired());
+        return null;
     }
 
     @Override
-    public String visitAtomicRMW(InstAtomicRMW inst) {
-        return String.format("ATOMICRMW %s %s <%s> %s %s", inst
-                .getOrdering().toString(), inst.getOptr().toString(), g(inst
-                .getReferentType()), v(inst.getLocation()), v(inst.getOpnd()));
+    public Void visitAtomicRMW(InstAtomicRMW inst) {
+        sb.append("ATOMICRMW ").append(inst.getOrdering().toString())
+                .append(' ').append(inst.getOptr().toString()).append(" <");
+        g(inst.getReferentType());
+        sb.append("> ");
+        val(inst.getLocation());
+        sb.append(' ');
+        val(inst.getOpnd());
+        return null;
     }
 
     @Override
-    public String visitFence(InstFence inst) {
-        return String.format("FENCE %s", inst.getOrdering().toString());
+    public Void visitFence(InstFence inst) {
+        sb.append("FENCE ").append(inst.getOrdering().toString());
+        return null;
     }
 
     @Override
-    public String visitTrap(InstTrap inst) {
-        return String.format("TRAP <%s> %s %s", g(inst.getType()),
-                printNorExc(inst), printKeepAlive(inst));
+    public Void visitTrap(InstTrap inst) {
+        sb.append("TRAP <");
+        g(inst.getType());
+        sb.append("> ");
+        printNorExc(inst);
+        sb.append(' ');
+        printKeepAlive(inst);
+        return null;
     }
 
     @Override
-    public String visitWatchPoint(InstWatchPoint inst) {
-        return String.format("WATCHPOINT %d <%s> %s %s %s",
-                inst.getWatchPointId(), g(inst.getType()),
-                l(inst.getDisabled()), printNorExc(inst), printKeepAlive(inst));
+    public Void visitWatchPoint(InstWatchPoint inst) {
+        sb.append("WATCHPOINT ").append(inst.getWatchPointId()).append(" <");
+        g(inst.getType());
+        sb.append("> ");
+        l(inst.getDisabled());
+        sb.append(' ');
+        printNorExc(inst);
+        sb.append(' ');
+        printKeepAlive(inst);
+        return null;
     }
 
     @Override
-    public String visitCCall(InstCCall inst) {
-        return String.format("CCALL %s %s", inst.getCallConv().toString(),
-                printFuncCallBody(inst));
-
+    public Void visitCCall(InstCCall inst) {
+        sb.append("CCALL ").append(inst.getCallConv().toString()).append(' ');
+        printFuncCallBody(inst);
+        return null;
     }
 
     @Override
-    public String visitNewStack(InstNewStack inst) {
-        return String.format("NEWSTACK %s", printFuncCallBody(inst));
+    public Void visitNewStack(InstNewStack inst) {
+        sb.append("NEWSTACK ");
+        printFuncCallBody(inst);
+        return null;
     }
 
     @Override
-    public String visitICall(InstICall inst) {
-        return String.format("ICALL %s %s %s", g(inst.getIFunc()),
-                printArgs(inst), printKeepAlive(inst));
+    public Void visitICall(InstICall inst) {
+        sb.append("ICALL ");
+        g(inst.getIFunc());
+        sb.append(' ');
+        printArgs(inst);
+        sb.append(' ');
+        printKeepAlive(inst);
+        return null;
     }
 
     @Override
-    public String visitIInvoke(InstIInvoke inst) {
-        return String.format("IINVOKE %s %s %s %s", g(inst.getIFunc()),
-                printArgs(inst), printNorExc(inst), printKeepAlive(inst));
+    public Void visitIInvoke(InstIInvoke inst) {
+        sb.append("IINVOKE ");
+        g(inst.getIFunc());
+        sb.append(' ');
+        printArgs(inst);
+        sb.append(' ');
+        printNorExc(inst);
+        sb.append(' ');
+        printKeepAlive(inst);
+        return null;
     }
 
 }
@@ -23,4 +23,28 @@ public class WritingHelper {
             return "%" + i.getID();
         }
     }
+
+    /**
+     * Append what {@link #g(Identified)} returns, without creating a String.
+     */
+    public static void g(StringBuilder sb, Identified i) {
+        String name = i.getName();
+        if (name != null) {
+            sb.append(name);
+        } else {
+            sb.append('@').append(i.getID());
+        }
+    }
+
+    /**
+     * Append what {@link #l(Identified)} returns, without creating a String.
+     */
+    public static void l(StringBuilder sb, Identified i) {
+        String name = i.getName();
+        if (name != null) {
+            sb.append(name);
+        } else {
+            sb.append('%').append(i.getID());
+        }
+    }
 }
@@ -0,0 +1,333 @@
+package uvm.reducer;
+
+import uvm.BasicBlock;
+import uvm.CFG;
+import uvm.OpCode;
+import uvm.ssavalue.*;
+import uvm.util.IntList;
+import uvm.util.LongIntMap;
+
+import java.util.*;
+
+/**
+ * <p>The {@link PhiReducer.Mode#EDGE_COPIES} reduction. Every block is kept
+ * once, without its PHI nodes, and the PHI nodes of a block become copies on
+ * each incoming edge. As in the other mode, a copy is a single-case PHI node
+ * with the ID of the PHI node it assigns.</p>
+ *
+ * <p>The PHI nodes of a block read their operands simultaneously, but the
+ * copies are executed in order. So the copies of each edge are ordered such
+ * that no variable is overwritten while another copy still has to read it.
+ * When the copies form a cycle (e.g. a swap), one variable of the cycle is
+ * first saved in a temporary variable, which the remaining copies read
+ * instead. The temporaries of a PHI node share one new ID.</p>
+ *
+ * <p>The copies of an edge from P to B are placed:</p>
+ * <ol>
+ * <li>at the end of P, before its BRANCH, if B is the only successor of P and
+ * P has other instructions before the BRANCH;</li>
+ * <li>at the beginning of B, if P is the only predecessor of B and no
+ * temporary is needed;</li>
+ * <li>otherwise in a new block on the edge. This is always the case for
+ * critical edges.</li>
+ * </ol>
+ *
+ * <p>Single-case PHI nodes at the beginning of a block are also read as a
+ * parallel copy (see {@link uvm.analysis.Liveness}). The copies are ordered so
+ * that both readings agree: if temporaries are needed, they are saved in a
+ * block of their own before the block with the remaining copies.</p>
+ */
+class EdgeCopyReduction {
+    private final CFG original;
+    private final CFG result = new CFG();
+
+    /**
+     * The copy of each original block, by index.
+     */
+    private final BasicBlock[] newBlocks;
+
+    /**
+     * Copies to put at the beginning and before the terminator of each new
+     * block, by index.
+     */
+    private final List<List<Instruction>> heads = new ArrayList<>();
+    private final List<List<Instruction>> tails = new ArrayList<>();
+
+    /**
+     * The blocks on split edges, and the position of the block on each split
+     * edge in that list, by the indices of its ends.
+     */
+    private final List<BasicBlock> edgeBlocks = new ArrayList<>();
+    private final LongIntMap edgeBlockIndex = new LongIntMap();
+
+    /**
+     * The ID of the temporary of each PHI node which needs one.
+     */
+    private final Map<InstPhi, Integer> tempIDs = new HashMap<>();
+
+    private int nextID;
+
+    static CFG reduce(CFG original) {
+        return new EdgeCopyReduction(original).run();
+    }
+
+    private EdgeCopyReduction(CFG original) {
+        this.original = original;
+        original.renumber();
+        newBlocks = new BasicBlock[original.getBBs().size()];
+    }
+
+    private CFG run() {
+        result.setFunc(original.getFunc());
+        result.getParams().addAll(original.getParams());
+        nextID = maxID() + 1;
+
+        final List<BasicBlock> bbs = original.getBBs();
+        for (BasicBlock bb : bbs) {
+            final BasicBlock newbb = new BasicBlock(result);
+            newbb.setID(bb.getID());
+            newbb.setName(bb.getName());
+            newBlocks[bb.getIndex()] = newbb;
+            heads.add(new ArrayList<Instruction>());
+            tails.add(new ArrayList<Instruction>());
+        }
+
+        // Place the copies and create the blocks on split edges.
+        final List<BasicBlock> order = new ArrayList<>();
+        for (BasicBlock bb : bbs) {
+            final List<InstPhi> phis = new ArrayList<>();
+            for (Instruction i : bb.getInsts()) {
+                if (i instanceof InstPhi) phis.add((InstPhi) i);
+            }
+            if (!phis.isEmpty()) {
+                final Map<Value, Integer> phiIndex = new IdentityHashMap<>();
+                final Set<BasicBlock> incoming = new LinkedHashSet<>();
+                for (int n = 0; n < phis.size(); n++) {
+                    phiIndex.put(phis.get(n), n);
+                    incoming.addAll(phis.get(n).getValueMap().keySet());
+                }
+                int k = 0;
+                for (BasicBlock pred : incoming) {
+                    if (placeCopies(pred, bb, phis, phiIndex, k, order)) k++;
+                }
+            }
+            order.add(newBlocks[bb.getIndex()]);
+        }
+
+        // Fill the kept blocks, redirecting the edges which were split.
+        for (BasicBlock bb : bbs) {
+            final int b = bb.getIndex();
+            final BasicBlock newbb = newBlocks[b];
+            for (Instruction i : heads.get(b)) newbb.addInstruction(i);
+            final List<Instruction> insts = bb.getInsts();
+            for (int n = 0; n < insts.size(); n++) {
+                final Instruction i = insts.get(n);
+                if (i.opcode() == OpCode.PHI) continue;
+                if (n == insts.size() - 1) {
+                    for (Instruction copy : tails.get(b)) newbb.addInstruction(copy);
+                }
+                final Instruction i2 = PhiReducer.copyInstruction(i);
+                if (i2 == i) {
+                    newbb.addSharedInstruction(i);
+                    continue;
+                }
+                for (BasicBlock dest : new LinkedHashSet<>(i.getSuccessors())) {
+                    i2.replaceSuccessor(dest, destination(bb, dest));
+                }
+                newbb.addInstruction(i2);
+            }
+        }
+
+        for (BasicBlock bb : order) {
+            result.getBBs().add(bb);
+            result.getBBNs().put(bb.getID(), bb.getName(), bb);
+        }
+        result.setEntry(newBlocks[original.getEntry().getIndex()]);
+        return result;
+    }
+
+    /**
+     * Place the copies of the edges from pred to bb.
+     *
+     * @return true if a block was created on the edge.
+     */
+    private boolean placeCopies(BasicBlock pred, BasicBlock bb, List<InstPhi> phis,
+            Map<Value, Integer> phiIndex, int k, List<BasicBlock> order) {
+        final List<Instruction> saves = new ArrayList<>();
+        final List<Instruction> moves = new ArrayList<>();
+        sequentialize(pred, phis, phiIndex, saves, moves);
+        if (moves.isEmpty()) return false;
+
+        if (endsWithOnlyBranchTo(pred, bb)) {
+            final List<Instruction> tail = tails.get(pred.getIndex());
+            tail.addAll(saves);
+            tail.addAll(moves);
+            return false;
+        }
+        if (saves.isEmpty() && onlyPredecessor(pred, bb)) {
+            heads.get(bb.getIndex()).addAll(moves);
+            return false;
+        }
+
+        final BasicBlock newbb = newBlocks[bb.getIndex()];
+        final String name = bb.getName() == null ? null : bb.getName() + "__copy__" + k;
+        final BasicBlock moveBlock = newBlock(name);
+        for (Instruction i : moves) moveBlock.addInstruction(i);
+        moveBlock.addInstruction(new InstBranch(newbb));
+        BasicBlock edgeBlock = moveBlock;
+        if (!saves.isEmpty()) {
+            edgeBlock = newBlock(name == null ? null : name + "__save");
+            for (Instruction i : saves) edgeBlock.addInstruction(i);
+            edgeBlock.addInstruction(new InstBranch(moveBlock));
+            order.add(edgeBlock);
+        }
+        order.add(moveBlock);
+        edgeBlockIndex.put(edgeKey(pred, bb), edgeBlocks.size());
+        edgeBlocks.add(edgeBlock);
+        return true;
+    }
+
+    /**
+     * Order the copies done by the PHI nodes of a block on entry from pred.
+     * Copies of a variable to itself are dropped.
+     *
+     * @param saves
+     *            Receives the copies to temporaries, which only read the
+     *            values before any move.
+     * @param moves
+     *            Receives the copies to the variables of the PHI nodes, in an
+     *            order in which each reads either a temporary or a variable
+     *            not yet written.
+     */
+    private void sequentialize(BasicBlock pred, List<InstPhi> phis,
+            Map<Value, Integer> phiIndex, List<Instruction> saves, List<Instruction> moves) {
+        final int n = phis.size();
+        final Value[] srcs = new Value[n];
+        final int[] srcPhi = new int[n];
+        // Where the value of each variable before the copies can be read.
+        final Value[] locs = new Value[n];
+        // How many pending copies read each variable.
+        final int[] readers = new int[n];
+        final boolean[] done = new boolean[n];
+
+        int pending = 0;
+        for (int i = 0; i < n; i++) {
+            final InstPhi phi = phis.get(i);
+            srcs[i] = phi.getValueFrom(pred);
+            final Integer j = phiIndex.get(srcs[i]);
+            srcPhi[i] = j == null ? -1 : j;
+            locs[i] = phi;
+            if (srcPhi[i] == i) {
+                done[i] = true;
+            } else {
+                pending++;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            if (!done[i] && srcPhi[i] >= 0) readers[srcPhi[i]]++;
+        }
+        final IntList ready = new IntList();
+        for (int i = 0; i < n; i++) {
+            if (!done[i] && readers[i] == 0) ready.add(i);
+        }
+
+        int cycle = 0;
+        while (pending > 0) {
+            while (!ready.isEmpty()) {
+                final int i = ready.pop();
+                final int j = srcPhi[i];
+                moves.add(copy(phis.get(i), pred, j >= 0 ? locs[j] : srcs[i],
+                        phis.get(i).getID(), phis.get(i).getName()));
+                done[i] = true;
+                pending--;
+                if (j >= 0 && --readers[j] == 0 && !done[j]) ready.add(j);
+            }
+            if (pending > 0) {
+                // Every remaining variable is read by another remaining copy,
+                // so they form cycles. Break one.
+                while (done[cycle]) cycle++;
+                final InstPhi phi = phis.get(cycle);
+                final Instruction save = copy(phi, pred, phi, tempID(phi),
+                        phi.getName() == null ? null : phi.getName() + "__tmp");
+                saves.add(save);
+                locs[cycle] = save;
+                readers[cycle] = 0;
+                ready.add(cycle);
+            }
+        }
+    }
+
+    private static Instruction copy(InstPhi phi, BasicBlock pred, Value value, int id,
+            String name) {
+        final Map<BasicBlock, Value> map = new HashMap<>();
+        map.put(pred, value);
+        final InstPhi copy = new InstPhi(phi.getType(), map);
+        copy.setID(id);
+        copy.setName(name);
+        return copy;
+    }
+
+    private int tempID(InstPhi phi) {
+        Integer id = tempIDs.get(phi);
+        if (id == null) {
+            id = nextID++;
+            tempIDs.put(phi, id);
+        }
+        return id;
+    }
+
+    private BasicBlock newBlock(String name) {
+        final BasicBlock bb = new BasicBlock(result);
+        bb.setID(nextID++);
+        bb.setName(name);
+        return bb;
+    }
+
+    /**
+     * @return true if pred ends with a BRANCH to bb and has an instruction
+     *         other than PHI nodes before it, so that copies at its end are
+     *         not taken as a parallel copy.
+     */
+    private static boolean endsWithOnlyBranchTo(BasicBlock pred, BasicBlock bb) {
+        final List<Instruction> insts = pred.getInsts();
+        if (insts.isEmpty()) return false;
+        final Instruction last = insts.get(insts.size() - 1);
+        if (last.opcode() != OpCode.BRANCH || ((InstBranch) last).getDest() != bb) {
+            return false;
+        }
+        for (int n = 0; n < insts.size() - 1; n++) {
+            if (insts.get(n).opcode() != OpCode.PHI) return true;
+        }
+        return false;
+    }
+
+    private static boolean onlyPredecessor(BasicBlock pred, BasicBlock bb) {
+        final List<BasicBlock> preds = bb.getPredecessors();
+        if (preds.isEmpty()) return false;
+        for (BasicBlock p : preds) {
+            if (p != pred) return false;
+        }
+        return true;
+    }
+
+    private BasicBlock destination(BasicBlock from, BasicBlock to) {
+        final int edgeBlock = edgeBlockIndex.get(edgeKey(from, to), -1);
+        if (edgeBlock >= 0) return edgeBlocks.get(edgeBlock);
+        final int i = original.indexOf(to);
+        return i < 0 ? to : newBlocks[i];
+    }
+
+    private long edgeKey(BasicBlock from, BasicBlock to) {
+        return (long) from.getIndex() * newBlocks.length + to.getIndex();
+    }
+
+    private int maxID() {
+        int max = 0;
+        for (Parameter p : original.getParams()) max = Math.max(max, p.getID());
+        for (BasicBlock bb : original.getBBs()) {
+            max = Math.max(max, bb.getID());
+            for (Instruction i : bb.getInsts()) max = Math.max(max, i.getID());
+        }
+        return max;
+    }
+}
@@ -4,6 +4,7 @@ import uvm.BasicBlock;
 import uvm.CFG;
 import uvm.OpCode;
 import uvm.ssavalue.*;
+import uvm.util.LongIntMap;
 
 import java.util.*;
 
@@ -19,220 +20,239 @@ import java.util.*;
  * basic blocks, but it also is computationally simpler, and allows SSA
  * variables to be represented in CISL as a near-infinite set of registers.</p>
  *
+ * <p>Splitting blocks copies the whole block once per incoming block. The
+ * {@link Mode#EDGE_COPIES} mode instead keeps one copy of each block and
+ * places the assignments of the PHI nodes on the incoming edges, splitting an
+ * edge only when there is no other place for them.</p>
+ *
  * @author Adam R. Nelson [adam@sector91.com]
  */
 public class PhiReducer {
+    /**
+     * How the PHI nodes are removed.
+     */
+    public enum Mode {
+        /**
+         * Split each block containing PHI nodes into one copy per incoming
+         * block, each starting with single-case PHI nodes (the default).
+         */
+        FORK_BLOCKS,
+
+        /**
+         * Keep one copy of each block and assign the variables of its PHI
+         * nodes on each incoming edge, as a sequence of single-case PHI nodes
+         * which is correct when executed in order. See
+         * {@link EdgeCopyReduction}.
+         */
+        EDGE_COPIES
+    }
+
     public static CFG reduce(CFG original) {
+        return reduce(original, Mode.FORK_BLOCKS);
+    }
+
+    public static CFG reduce(CFG original, Mode mode) {
         // Sanity check.
         for (Instruction i : original.getEntry().getInsts()) {
             if (i.opcode() == OpCode.PHI) throw new IllegalArgumentException(
                 "Cannot reduce a CFG with a PHI in the entry block.");
         }
+        if (mode == Mode.EDGE_COPIES) {
+            return EdgeCopyReduction.reduce(original);
+        }
         // Create a copy of the CFG
         final CFG result = new CFG();
         result.setFunc((original.getFunc()));
         result.getParams().addAll(original.getParams());
-        // Split every block containing a φ-node.
-        int nextID = original.getEntry().getID();
+        original.renumber();
+        final List<BasicBlock> bbs = original.getBBs();
+        final int n = bbs.size();
+        // The edge index: the incoming blocks of the φ-nodes of each block,
+        // in the order they first appear, and the fork for each of them.
+        // Blocks without φ-nodes have one fork, for the null block.
+        final BasicBlock[][] incoming = new BasicBlock[n][];
+        final BasicBlock[][] forks = new BasicBlock[n][];
+        // The fork of each block without φ-nodes.
+        final BasicBlock[] copies = new BasicBlock[n];
+        // The fork taking each transition, by the indices of its ends.
+        final LongIntMap jumpMap = new LongIntMap(n);
         final List<BasicBlock> blocks = new ArrayList<>();
-        final Map<BasicBlock, BasicBlock> replacementMap = new HashMap<>();
-        final Map<Transition, BasicBlock> jumpMap = new HashMap<>();
-        for (BasicBlock bb : original.getBBs()) {
-            final Set<BasicBlock> incoming = getIncomingBlocks(bb);
-            if (incoming.isEmpty()) {
-                final BasicBlock newbb = new BasicBlock(result);
-                newbb.setID(nextID++);
-                newbb.setName(bb.getName());
-                newbb.getInsts().addAll(bb.getInsts());
-                replacementMap.put(newbb, bb);
-                blocks.add(newbb);
-            } else {
-                int i = 0;
-                for (BasicBlock ibb : incoming) {
-                    final BasicBlock fork = createPhiFork(bb, ibb, result);
-                    fork.setID(nextID++);
-                    fork.setName(mangle(bb.getName(), i++));
-                    replacementMap.put(fork, bb);
-                    jumpMap.put(new Transition(ibb, bb), fork);
-                    blocks.add(fork);
+        int nextID = original.getEntry().getID();
+        for (int b = 0; b < n; b++) {
+            final BasicBlock bb = bbs.get(b);
+            incoming[b] = getIncomingBlocks(bb);
+            forks[b] = new BasicBlock[incoming[b].length];
+            for (int i = 0; i < incoming[b].length; i++) {
+                final BasicBlock fork = new BasicBlock(result);
+                fork.setID(nextID++);
+                final BasicBlock ibb = incoming[b][i];
+                if (ibb == null) {
+                    fork.setName(bb.getName());
+                    copies[b] = fork;
+                } else {
+                    fork.setName(mangle(bb.getName(), i));
+                    final int from = original.indexOf(ibb);
+                    if (from >= 0) jumpMap.put(transition(from, b, n), blocks.size());
                 }
+                forks[b][i] = fork;
+                blocks.add(fork);
+            }
+        }
+        // Fill the forks, remapping the jumps on the way.
+        for (int b = 0; b < n; b++) {
+            for (int i = 0; i < forks[b].length; i++) {
+                fillPhiFork(forks[b][i], bbs.get(b), incoming[b][i], b, original,
+                        copies, jumpMap, blocks);
             }
         }
-        // Remap all of the jumps in the new blocks.
         for (BasicBlock bb : blocks) {
-            remapJumps(bb, replacementMap.get(bb), jumpMap);
             result.getBBs().add(bb);
             result.getBBNs().put(bb.getID(), bb.getName(), bb);
-            if (replacementMap.get(bb) == original.getEntry()) {
-                result.setEntry(bb);
-            }
         }
+        result.setEntry(forks[original.getEntry().getIndex()][0]);
         return result;
     }
 
-    private static Set<BasicBlock> getIncomingBlocks(BasicBlock bb) {
-        final Set<BasicBlock> incoming = new HashSet<>();
+    private static final BasicBlock[] NO_PHI = new BasicBlock[] { null };
+
+    /**
+     * @return The distinct incoming blocks of the φ-nodes of bb in the order
+     *         they first appear, or {null} if there are no φ-nodes.
+     */
+    private static BasicBlock[] getIncomingBlocks(BasicBlock bb) {
+        Set<BasicBlock> incoming = null;
         for (Instruction i : bb.getInsts()) if (i instanceof InstPhi) {
             final InstPhi phi = (InstPhi)i;
+            if (incoming == null) incoming = new LinkedHashSet<>();
             incoming.addAll(phi.getValueMap().keySet());
         }
-        return incoming;
+        return incoming == null ? NO_PHI : incoming.toArray(new BasicBlock[incoming.size()]);
     }
 
-    private static BasicBlock createPhiFork(BasicBlock original, BasicBlock from, CFG cfg) {
-        final BasicBlock result = new BasicBlock(cfg);
+    /**
+     * Copy a block into a fork. Branching instructions are duplicated and
+     * their destinations remapped to the forks they take. PHI nodes are
+     * reduced to the single case for the incoming block from, which is null
+     * if the block has no PHI nodes.
+     */
+    private static void fillPhiFork(BasicBlock result, BasicBlock original, BasicBlock from,
+            int index, CFG cfg, BasicBlock[] copies, LongIntMap jumpMap,
+            List<BasicBlock> blocks) {
         for (Instruction i : original.getInsts()) {
             Instruction i2;
-            switch (i.opcode()) {
-                case OpCode.PHI: {
-                    // There's no assignment operation in μVM IR, so instead we
-                    // reduce multi-branch φ-nodes to single-branch φ-nodes.
-                    final InstPhi oi = (InstPhi)i;
-                    final Map<BasicBlock, Value> map = new HashMap<>();
-                    map.put(from, oi.getValueFrom(from));
-                    i2 = new InstPhi(oi.getType(), map);
-                    break;
-                }
-                // The remaining cases duplicate branch instructions, so that
-                // they can be overwritten if necessary in the next step.
-                case OpCode.BRANCH: {
-                    final InstBranch oi = (InstBranch) i;
-                    i2 = new InstBranch(oi.getDest());
-                    break;
-                }
-                case OpCode.BRANCH2: {
-                    final InstBranch2 oi = (InstBranch2) i;
-                    i2 = new InstBranch2(oi.getCond(), oi.getIfTrue(), oi.getIfFalse());
-                    break;
-                }
-                case OpCode.INVOKE: {
-                    final InstInvoke oi = (InstInvoke) i;
-                    final List<Value> args = new ArrayList<>(), keepAlives = new ArrayList<>();
-                    for (UseBox ub : oi.getArgs()) args.add(ub.getSrc());
-                    for (UseBox ub : oi.getKeepAlives()) keepAlives.add(ub.getSrc());
-                    i2 = new InstInvoke(oi.getSig(), oi.getFunc(), args, keepAlives, oi.getNor(),
-                            oi.getExc());
-                    break;
-                }
-                case OpCode.IINVOKE: {
-                    final InstIInvoke oi = (InstIInvoke) i;
-                    final List<Value> args = new ArrayList<>(), keepAlives = new ArrayList<>();
-                    for (UseBox ub : oi.getArgs()) args.add(ub.getSrc());
-                    for (UseBox ub : oi.getKeepAlives()) keepAlives.add(ub.getSrc());
-                    i2 = new InstIInvoke(oi.getIFunc(), args, oi.getNor(),
-                            oi.getExc(), keepAlives);
-                    break;
-                }
-                case OpCode.SWITCH: {
-                    final InstSwitch oi = (InstSwitch) i;
-                    final Map<Value, BasicBlock> cases = new HashMap<>();
-                    for (Map.Entry<UseBox, BasicBlock> e : oi.getCases().entrySet()) {
-                        cases.put(e.getKey().getSrc(), e.getValue());
-                    }
-                    i2 = new InstSwitch(oi.getOpndType(), oi.getOpnd(), oi.getDefaultDest(),
-                            cases);
-                    break;
+            if (i.opcode() == OpCode.PHI) {
+                // There's no assignment operation in μVM IR, so instead we
+                // reduce multi-branch φ-nodes to single-branch φ-nodes.
+                final InstPhi oi = (InstPhi)i;
+                final Map<BasicBlock, Value> map = new HashMap<>();
+                map.put(from, oi.getValueFrom(from));
+                i2 = new InstPhi(oi.getType(), map);
+                i2.setName(i.getName());
+                i2.setID(i.getID());
+            } else {
+                i2 = copyInstruction(i);
+                if (i2 == i) {
+                    result.addSharedInstruction(i);
+                    continue;
                 }
-                case OpCode.WATCHPOINT: {
-                    final InstWatchPoint oi = (InstWatchPoint) i;
-                    final List<Value> keepAlives = new ArrayList<>();
-                    for (UseBox ub : oi.getKeepAlives()) keepAlives.add(ub.getSrc());
-                    i2 = new InstWatchPoint(oi.getWatchPointId(), oi.getType(),
-                            oi.getDisabled(), oi.getNor(), oi.getExc(), keepAlives);
-                    break;
+                for (BasicBlock dest : i2.getSuccessors()) {
+                    final BasicBlock newDest = remapJump(index, dest, cfg, copies,
+                            jumpMap, blocks);
+                    if (newDest != dest) i2.replaceSuccessor(dest, newDest);
                 }
-                default: i2 = i;
             }
-            i2.setName(i.getName());
-            i2.setID(i.getID());
             result.addInstruction(i2);
         }
-        return result;
     }
 
-    private static void remapJumps(BasicBlock bb, BasicBlock originalBlock,
-            Map<Transition, BasicBlock> jumpMap) {
-        for (Instruction i : bb.getInsts()) switch (i.opcode()) {
+    /**
+     * Duplicate a branching instruction, so that its destinations can be
+     * overwritten without affecting the original CFG. Other instructions are
+     * returned as is, to be shared with the original CFG. Shared instructions
+     * stay owned by their original blocks, so add them with
+     * {@link BasicBlock#addSharedInstruction(Instruction)}.
+     */
+    static Instruction copyInstruction(Instruction i) {
+        Instruction i2;
+        switch (i.opcode()) {
             case OpCode.BRANCH: {
                 final InstBranch oi = (InstBranch) i;
-                oi.setDest(remapJump(originalBlock, oi.getDest(), jumpMap));
+                i2 = new InstBranch(oi.getDest());
                 break;
             }
-            case OpCode.BRANCH2:{
+            case OpCode.BRANCH2: {
                 final InstBranch2 oi = (InstBranch2) i;
-                oi.setIfFalse(remapJump(originalBlock, oi.getIfFalse(), jumpMap));
-                oi.setIfTrue(remapJump(originalBlock, oi.getIfTrue(), jumpMap));
-                break;
-            }
-            case OpCode.SWITCH: {
-                final InstSwitch oi = (InstSwitch) i;
-                for (Map.Entry<UseBox, BasicBlock> c : oi.getCases().entrySet()) {
-                    oi.getCases().put(c.getKey(), remapJump(originalBlock, c.getValue(), jumpMap));
-                }
-                oi.setDefaultDest(remapJump(originalBlock, oi.getDefaultDest(), jumpMap));
+                i2 = new InstBranch2(oi.getCond(), oi.getIfTrue(), oi.getIfFalse());
                 break;
             }
             case OpCode.INVOKE: {
                 final InstInvoke oi = (InstInvoke) i;
-                oi.setNor(remapJump(originalBlock, oi.getNor(), jumpMap));
-                oi.setExc(remapJump(originalBlock, oi.getExc(), jumpMap));
+                final List<Value> args = new ArrayList<>(), keepAlives = new ArrayList<>();
+                for (UseBox ub : oi.getArgs()) args.add(ub.getDst());
+                for (UseBox ub : oi.getKeepAlives()) keepAlives.add(ub.getDst());
+                i2 = new InstInvoke(oi.getSig(), oi.getFunc(), args, keepAlives, oi.getNor(),
+                        oi.getExc());
                 break;
             }
             case OpCode.IINVOKE: {
                 final InstIInvoke oi = (InstIInvoke) i;
-                oi.setNor(remapJump(originalBlock, oi.getNor(), jumpMap));
-                oi.setExc(remapJump(originalBlock, oi.getExc(), jumpMap));
+                final List<Value> args = new ArrayList<>(), keepAlives = new ArrayList<>();
+                for (UseBox ub : oi.getArgs()) args.add(ub.getDst());
+                for (UseBox ub : oi.getKeepAlives()) keepAlives.add(ub.getDst());
+                i2 = new InstIInvoke(oi.getIFunc(), args, oi.getNor(),
+                        oi.getExc(), keepAlives);
+                break;
+            }
+            case OpCode.SWITCH: {
+                final InstSwitch oi = (InstSwitch) i;
+                final Map<Value, BasicBlock> cases = new HashMap<>();
+                for (Map.Entry<UseBox, BasicBlock> e : oi.getCases().entrySet()) {
+                    cases.put(e.getKey().getDst(), e.getValue());
+                }
+                i2 = new InstSwitch(oi.getOpndType(), oi.getOpnd(), oi.getDefaultDest(),
+                        cases);
                 break;
             }
             case OpCode.WATCHPOINT: {
                 final InstWatchPoint oi = (InstWatchPoint) i;
-                oi.setNor(remapJump(originalBlock, oi.getNor(), jumpMap));
-                oi.setExc(remapJump(originalBlock, oi.getExc(), jumpMap));
-                oi.setDisabled(remapJump(originalBlock, oi.getDisabled(), jumpMap));
+                final List<Value> keepAlives = new ArrayList<>();
+                for (UseBox ub : oi.getKeepAlives()) keepAlives.add(ub.getDst());
+                i2 = new InstWatchPoint(oi.getWatchPointId(), oi.getType(),
+                        oi.getDisabled(), oi.getNor(), oi.getExc(), keepAlives);
                 break;
             }
+            case OpCode.TRAP: {
+                final InstTrap oi = (InstTrap) i;
+                final InstTrap trap = new InstTrap();
+                trap.setType(oi.getType());
+                trap.setNor(oi.getNor());
+                trap.setExc(oi.getExc());
+                for (UseBox ub : oi.getKeepAlives()) trap.addKeepAlive(ub.getDst());
+                i2 = trap;
+                break;
+            }
+            default: return i;
         }
+        i2.setName(i.getName());
+        i2.setID(i.getID());
+        return i2;
     }
 
-    private static BasicBlock remapJump(BasicBlock from, BasicBlock to,
-            Map<Transition, BasicBlock> jumpMap) {
-        final BasicBlock jump = jumpMap.get(new Transition(from, to));
-        return jump == null ? to : jump;
+    private static BasicBlock remapJump(int from, BasicBlock to, CFG cfg,
+            BasicBlock[] copies, LongIntMap jumpMap, List<BasicBlock> blocks) {
+        final int t = cfg.indexOf(to);
+        if (t < 0) return to;
+        final int jump = jumpMap.get(transition(from, t, copies.length), -1);
+        if (jump >= 0) return blocks.get(jump);
+        final BasicBlock copy = copies[t];
+        return copy == null ? to : copy;
     }
 
-    private static String mangle(String name, int number) {
-        return name + "__phi__" + number;
+    private static long transition(int from, int to, int numBlocks) {
+        return (long) from * numBlocks + to;
     }
 
-    private static class Transition {
-        final String nameA, nameB;
-        final int idA, idB;
-
-        Transition(BasicBlock a, BasicBlock b) {
-            nameA = a.getName();
-            nameB = b.getName();
-            idA = a.getID();
-            idB = b.getID();
-        }
-
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
-
-            Transition that = (Transition) o;
-
-            return idA == that.idA && idB == that.idB &&
-                   nameA.equals(that.nameA) && nameB.equals(that.nameB);
-        }
-
-        @Override
-        public int hashCode() {
-            int result = nameA.hashCode();
-            result = 31 * result + nameB.hashCode();
-            result = 31 * result + idA;
-            result = 31 * result + idB;
-            return result;
-        }
+    private static String mangle(String name, int number) {
+        return name + "__phi__" + number;
     }
 }
@@ -0,0 +1,338 @@
+package uvm.reducer;
+
+import uvm.Bundle;
+import uvm.CFG;
+import uvm.Function;
+import uvm.ir.text.input.IRTextReader;
+import uvm.ir.text.output.IRTextWriter;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <p>Reduces many files at once. Each file is parsed, each of its functions
+ * is reduced, and the result is written next to it with the extension
+ * ".reduced.uir", as {@link PhiReducerConsoleApp} does for single files.</p>
+ *
+ * <p>On a pool, every file is a task, which forks one task per function once
+ * the file is parsed and writes the file when they are done. The pool steals
+ * function tasks across files, so one large file does not hold up the
+ * others. The functions of a file only share constants and global values,
+ * whose lists of uses are synchronized.</p>
+ *
+ * <p>A failure in one file is recorded in its {@link Result} and does not stop
+ * the others.</p>
+ */
+public class PhiReducerBatch {
+    public static final String OUTPUT_SUFFIX = ".reduced.uir";
+
+    private static final String UTF8 = "UTF-8";
+
+    /** One reader per thread, so that each parser stays warm. */
+    private static final ThreadLocal<IRTextReader> READERS = new ThreadLocal<IRTextReader>() {
+        @Override
+        protected IRTextReader initialValue() {
+            return new IRTextReader();
+        }
+    };
+
+    /**
+     * The pool to run on, or null to do everything in the current thread.
+     */
+    private ForkJoinPool pool;
+
+    private PhiReducer.Mode mode = PhiReducer.Mode.FORK_BLOCKS;
+
+    private boolean assignRegisters;
+
+    /**
+     * The outcome of reducing one file. Times are in nanoseconds. The time
+     * spent reducing is the sum over the functions of the file, which may
+     * have been reduced in parallel.
+     */
+    public static class Result {
+        private final File file;
+        private final File output;
+        private int functions;
+        private int inBlocks;
+        private int outBlocks;
+        private int registers = -1;
+        private long parseNanos;
+        private long reduceNanos;
+        private long writeNanos;
+        private Exception error;
+
+        Result(File file) {
+            this.file = file;
+            this.output = outputFile(file);
+        }
+
+        public File getFile() { return file; }
+        public File getOutput() { return output; }
+        /** @return The number of functions reduced, i.e. with a CFG. */
+        public int getFunctions() { return functions; }
+        public int getInBlocks() { return inBlocks; }
+        public int getOutBlocks() { return outBlocks; }
+        /** @return The number of registers assigned, or -1 if none were. */
+        public int getRegisters() { return registers; }
+        public long getParseNanos() { return parseNanos; }
+        public long getReduceNanos() { return reduceNanos; }
+        public long getWriteNanos() { return writeNanos; }
+        /** @return The exception which failed this file, or null. */
+        public Exception getError() { return error; }
+    }
+
+    /**
+     * Run on the common fork-join pool, or in the current thread (the
+     * default).
+     */
+    public void setParallel(boolean parallel) {
+        setPool(parallel ? ForkJoinPool.commonPool() : null);
+    }
+
+    /**
+     * Run on the given pool, or in the current thread if it is null.
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public void setMode(PhiReducer.Mode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * Assign registers to each reduced function (see
+     * {@link RegisterAssignment}). Off by default.
+     */
+    public void setAssignRegisters(boolean assignRegisters) {
+        this.assignRegisters = assignRegisters;
+    }
+
+    /**
+     * @return The file a reduced input is written to.
+     */
+    public static File outputFile(File input) {
+        final String name = input.getPath();
+        return new File((name.endsWith(".uir") ? name.substring(0, name.length() - 4) : name)
+                + OUTPUT_SUFFIX);
+    }
+
+    /**
+     * Reduce files and write the results.
+     *
+     * @return One result per file, in the given order.
+     */
+    public List<Result> run(List<File> files) {
+        final List<Result> results = new ArrayList<>();
+        for (File file : files) results.add(new Result(file));
+        if (pool == null) {
+            for (Result r : results) reduceFile(r);
+            return results;
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                final List<RecursiveAction> tasks = new ArrayList<>();
+                for (final Result r : results) {
+                    tasks.add(new RecursiveAction() {
+                        @Override
+                        protected void compute() {
+                            reduceFile(r);
+                        }
+                    });
+                }
+                invokeAll(tasks);
+            }
+        });
+        return results;
+    }
+
+    private void reduceFile(Result r) {
+        try {
+            long t0 = System.nanoTime();
+            final Bundle bundle;
+            try (InputStream is = new FileInputStream(r.file)) {
+                bundle = READERS.get().read(is, null);
+            }
+            r.parseNanos = System.nanoTime() - t0;
+
+            final List<Function> fns = new ArrayList<>();
+            for (Function fn : bundle.getFuncNs().getObjects()) {
+                if (fn.getCFG() != null) fns.add(fn);
+            }
+            final int[] in = new int[fns.size()];
+            final int[] out = new int[fns.size()];
+            final int[] regs = new int[fns.size()];
+            final long[] nanos = new long[fns.size()];
+            if (pool == null || fns.size() < 2) {
+                for (int i = 0; i < fns.size(); i++) reduceFunction(fns.get(i), i, in, out, regs, nanos);
+            } else {
+                final List<RecursiveAction> tasks = new ArrayList<>();
+                for (int i = 0; i < fns.size(); i++) {
+                    final Function fn = fns.get(i);
+                    final int index = i;
+                    tasks.add(new RecursiveAction() {
+                        @Override
+                        protected void compute() {
+                            reduceFunction(fn, index, in, out, regs, nanos);
+                        }
+                    });
+                }
+                ForkJoinTask.invokeAll(tasks);
+            }
+            r.functions = fns.size();
+            if (assignRegisters) r.registers = 0;
+            for (int i = 0; i < fns.size(); i++) {
+                if (assignRegisters) r.registers += regs[i];
+                r.inBlocks += in[i];
+                r.outBlocks += out[i];
+                r.reduceNanos += nanos[i];
+            }
+
+            t0 = System.nanoTime();
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(r.output), UTF8)) {
+                new IRTextWriter(writer).writeBundle(bundle);
+            }
+            r.writeNanos = System.nanoTime() - t0;
+        } catch (Exception ex) {
+            r.error = ex;
+        }
+    }
+
+    private void reduceFunction(Function fn, int i, int[] in, int[] out, int[] regs,
+            long[] nanos) {
+        final long t0 = System.nanoTime();
+        in[i] = fn.getCFG().getBBs().size();
+        final CFG reduced = PhiReducer.reduce(fn.getCFG(), mode);
+        if (assignRegisters) {
+            final RegisterAssignment ra = new RegisterAssignment(reduced);
+            ra.apply();
+            regs[i] = ra.getNumRegisters();
+        }
+        fn.setCFG(reduced);
+        out[i] = reduced.getBBs().size();
+        nanos[i] = System.nanoTime() - t0;
+    }
+
+    /**
+     * Find the files to reduce. Each argument is one of:
+     * <ul>
+     * <li>a directory, standing for every ".uir" file under it;</li>
+     * <li>a glob, as in {@link FileSystem#getPathMatcher}, e.g.
+     * "tests/**.uir" or "tests/*&#47;*.uir";</li>
+     * <li>a file, taken as is.</li>
+     * </ul>
+     * Files found in directories or by globs are sorted, and outputs of
+     * earlier runs (ending with {@link #OUTPUT_SUFFIX}) are left out. A file
+     * named twice is reduced once.
+     *
+     * @throws FileNotFoundException
+     *             if an argument is neither a glob nor an existing file.
+     */
+    public static List<File> expand(List<String> args) throws IOException {
+        final Set<File> files = new LinkedHashSet<>();
+        for (String arg : args) {
+            final File f = new File(arg);
+            if (f.isDirectory()) {
+                files.addAll(walk(f.toPath(),
+                        FileSystems.getDefault().getPathMatcher("glob:**.uir")));
+            } else if (isGlob(arg)) {
+                final String base = globBase(arg);
+                files.addAll(walk(Paths.get(base),
+                        FileSystems.getDefault().getPathMatcher("glob:" + arg)));
+            } else if (f.isFile()) {
+                files.add(f);
+            } else {
+                throw new FileNotFoundException(arg);
+            }
+        }
+        return new ArrayList<>(files);
+    }
+
+    private static boolean isGlob(String arg) {
+        for (int i = 0; i < arg.length(); i++) {
+            if ("*?[{".indexOf(arg.charAt(i)) >= 0) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return The leading directories of a glob which contain no wildcard, or
+     *         "" for the current directory.
+     */
+    private static String globBase(String glob) {
+        int end = 0;
+        for (int i = 0; i < glob.length(); i++) {
+            final char c = glob.charAt(i);
+            if ("*?[{".indexOf(c) >= 0) break;
+            if (c == '/' || c == File.separatorChar) end = i;
+        }
+        return glob.substring(0, end);
+    }
+
+    private static List<File> walk(Path base, final PathMatcher matcher) throws IOException {
+        final List<File> found = new ArrayList<>();
+        if (!Files.isDirectory(base.toAbsolutePath())) return found;
+        Files.walkFileTree(base, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && matcher.matches(file)
+                        && !file.toString().endsWith(OUTPUT_SUFFIX)) {
+                    found.add(file.toFile());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        Collections.sort(found);
+        return found;
+    }
+
+    /**
+     * Print one row per file, with its functions, blocks before and after,
+     * registers if assigned and times in milliseconds, then the totals and
+     * the errors.
+     *
+     * @param wallNanos
+     *            The time the whole run took.
+     * @return The number of files which failed.
+     */
+    public static int printSummary(List<Result> results, long wallNanos, PrintStream ps) {
+        int width = 4;
+        for (Result r : results) width = Math.max(width, r.file.getPath().length());
+        final String row = "%-" + width + "s %6s %9s %9s %6s %9s %9s %9s  %s%n";
+        final String numbers = "%-" + width + "s %6d %9d %9d %6s %9.1f %9.1f %9.1f  %s%n";
+        ps.printf(row, "file", "funcs", "in BBs", "out BBs", "regs", "parse ms", "reduce ms",
+                "write ms", "status");
+
+        final Result total = new Result(new File("total"));
+        int failed = 0;
+        for (Result r : results) {
+            ps.printf(numbers, r.file.getPath(), r.functions, r.inBlocks, r.outBlocks,
+                    r.registers < 0 ? "-" : Integer.toString(r.registers), r.parseNanos / 1e6, r.reduceNanos / 1e6, r.writeNanos / 1e6,
+                    r.error == null ? "ok" : "FAILED");
+            if (r.error != null) failed++;
+            total.functions += r.functions;
+            total.inBlocks += r.inBlocks;
+            total.outBlocks += r.outBlocks;
+            if (r.registers >= 0) total.registers = Math.max(total.registers, 0) + r.registers;
+            total.parseNanos += r.parseNanos;
+            total.reduceNanos += r.reduceNanos;
+            total.writeNanos += r.writeNanos;
+        }
+        ps.printf(numbers, "total", total.functions, total.inBlocks, total.outBlocks,
+                total.registers < 0 ? "-" : Integer.toString(total.registers), total.parseNanos / 1e6, total.reduceNanos / 1e6, total.writeNanos / 1e6,
+                failed == 0 ? "ok" : failed + " FAILED");
+        ps.printf("%d files in %.1f ms%n", results.size(), wallNanos / 1e6);
+
+        for (Result r : results) {
+            if (r.error != null) ps.println(r.file.getPath() + ": " + r.error);
+        }
+        return failed;
+    }
+}
@@ -1,65 +1,148 @@
 package uvm.reducer;
 
-import org.antlr.v4.runtime.ANTLRInputStream;
-import org.antlr.v4.runtime.CommonTokenStream;
-import parser.uIRLexer;
-import parser.uIRParser;
 import uvm.Bundle;
 import uvm.Function;
-import uvm.ir.text.input.RecursiveBundleBuilder;
+import uvm.ir.text.input.IRTextReader;
 import uvm.ir.text.output.IRTextWriter;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
+/**
+ * <p>Reduces the files given on the command line, writing each result next to
+ * its input with the extension ".reduced.uir".</p>
+ *
+ * <pre>
+ * PhiReducerConsoleApp [--edge-copies] [--registers] file...
+ * PhiReducerConsoleApp --batch [--threads N] [--edge-copies] [--registers] (file|dir|glob)...
+ * </pre>
+ *
+ * <p>By default the files and their functions are reduced one at a time, with
+ * a report per function. With --batch, directories and globs are expanded
+ * (see {@link PhiReducerBatch#expand}), all files are reduced on a
+ * fork-join pool of N threads (by default one per processor), and a summary
+ * table is printed at the end. The exit status is 1 if any file failed.</p>
+ *
+ * <p>With --registers, the variables of each reduced function are coalesced
+ * and assigned to registers by {@link RegisterAssignment}.</p>
+ */
 public class PhiReducerConsoleApp {
 
+    /** Reused for every file, so that the parser stays warm. */
+    private static final IRTextReader READER = new IRTextReader();
+
     public static Bundle parseUir(InputStream is, Bundle globalBundle) throws IOException {
-        ANTLRInputStream input = new ANTLRInputStream(is);
-        uIRLexer lexer = new uIRLexer(input);
-        CommonTokenStream tokens = new CommonTokenStream(lexer);
-        uIRParser parser = new uIRParser(tokens);
-        uIRParser.IrContext ir = parser.ir();
+        return READER.read(is, globalBundle);
+    }
+
+    public static void main(String[] args) {
+        boolean batch = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        PhiReducer.Mode mode = PhiReducer.Mode.FORK_BLOCKS;
+        boolean registers = false;
+        final List<String> paths = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+            case "--batch":
+                batch = true;
+                break;
+            case "--threads":
+                if (i + 1 == args.length) usage("--threads needs a number.");
+                try {
+                    threads = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException ex) {
+                    usage("Not a number of threads: " + args[i]);
+                }
+                if (threads < 1) usage("Not a number of threads: " + args[i]);
+                break;
+            case "--edge-copies":
+                mode = PhiReducer.Mode.EDGE_COPIES;
+                break;
+            case "--registers":
+                registers = true;
+                break;
+            default:
+                if (args[i].startsWith("--")) usage("Unknown option " + args[i]);
+                paths.add(args[i]);
+            }
+        }
 
-        if (parser.getNumberOfSyntaxErrors() > 0) {
-            // TODO: Better error output.
-            throw new RuntimeException("Syntax error");
+        if (batch) {
+            System.exit(runBatch(paths, threads, mode, registers) == 0 ? 0 : 1);
+        }
+        System.out.println(new File(".").getAbsolutePath());
+        for (String filename : paths) {
+            reduceFile(filename, mode, registers);
         }
+    }
 
-        RecursiveBundleBuilder rbb = globalBundle == null ? new RecursiveBundleBuilder()
-                : new RecursiveBundleBuilder(globalBundle);
-        rbb.build(ir);
-        return rbb.getBundle();
+    private static void usage(String message) {
+        System.err.println(message);
+        System.err.println("Usage: PhiReducerConsoleApp [--edge-copies] [--registers] file...");
+        System.err.println("       PhiReducerConsoleApp --batch [--threads N] [--edge-copies]"
+                + " [--registers] (file|dir|glob)...");
+        System.exit(2);
     }
 
-    public static void main(String[] args) {
-        System.out.println(new File(".").getAbsolutePath());
-        for (String filename : args) {
-            System.out.println("Reducing " + filename + "...");
-            final String outFilename = (filename.endsWith(".uir") ?
-                    filename.substring(0, filename.length() - 4) : filename) +
-                    ".reduced.uir";
-            try {
-                final Bundle bundle = parseUir(new FileInputStream(filename), null);
-                for (Function fn : bundle.getFuncNs().getObjects()) {
-                    if (fn.getCFG() != null) {
-                        System.out.println("Reducing function '" + fn.getName() + "'...");
-                        final int in = fn.getCFG().getBBs().size();
-                        fn.setCFG(PhiReducer.reduce(fn.getCFG()));
-                        final int out = fn.getCFG().getBBs().size();
-                        System.out.println("Function reduction successful. (IN: " + in +
-                                " BBs, OUT: " + out + " BBs)");
-                    } else {
-                        System.out.println("Skipping function '" + fn.getName() + "' (no CFG).");
+    /**
+     * @return The number of files which failed.
+     */
+    private static int runBatch(List<String> paths, int threads, PhiReducer.Mode mode,
+            boolean registers) {
+        final List<File> files;
+        try {
+            files = PhiReducerBatch.expand(paths);
+        } catch (IOException ex) {
+            System.err.println("Cannot find files: " + ex);
+            return 1;
+        }
+        final ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            final PhiReducerBatch reducer = new PhiReducerBatch();
+            reducer.setPool(pool);
+            reducer.setMode(mode);
+            reducer.setAssignRegisters(registers);
+            final long t0 = System.nanoTime();
+            final List<PhiReducerBatch.Result> results = reducer.run(files);
+            final long wall = System.nanoTime() - t0;
+            return PhiReducerBatch.printSummary(results, wall, System.out);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void reduceFile(String filename, PhiReducer.Mode mode, boolean registers) {
+        System.out.println("Reducing " + filename + "...");
+        final String outFilename = PhiReducerBatch.outputFile(new File(filename)).getPath();
+        try {
+            final Bundle bundle = parseUir(new FileInputStream(filename), null);
+            for (Function fn : bundle.getFuncNs().getObjects()) {
+                if (fn.getCFG() != null) {
+                    System.out.println("Reducing function '" + fn.getName() + "'...");
+                    final int in = fn.getCFG().getBBs().size();
+                    fn.setCFG(PhiReducer.reduce(fn.getCFG(), mode));
+                    final int out = fn.getCFG().getBBs().size();
+                    String assigned = "";
+                    if (registers) {
+                        final RegisterAssignment ra = new RegisterAssignment(fn.getCFG());
+                        ra.apply();
+                        assigned = ", " + ra.getNumRegisters() + " registers";
                     }
+                    System.out.println("Function reduction successful. (IN: " + in +
+                            " BBs, OUT: " + out + " BBs" + assigned + ")");
+                } else {
+                    System.out.println("Skipping function '" + fn.getName() + "' (no CFG).");
                 }
-                final FileWriter writer = new FileWriter(outFilename);
-                new IRTextWriter(writer).writeBundle(bundle);
-                System.out.println("Successfully reduced " + filename + " -> " + outFilename +
-                        ".");
-            } catch (Exception ex) {
-                System.out.println("Failed to reduce " + filename);
-                ex.printStackTrace();
             }
+            final FileWriter writer = new FileWriter(outFilename);
+            new IRTextWriter(writer).writeBundle(bundle);
+            System.out.println("Successfully reduced " + filename + " -> " + outFilename +
+                    ".");
+        } catch (Exception ex) {
+            System.out.println("Failed to reduce " + filename);
+            ex.printStackTrace();
         }
     }
 }
@@ -0,0 +1,407 @@
+package uvm.reducer;
+
+import uvm.BasicBlock;
+import uvm.CFG;
+import uvm.FrozenCFG;
+import uvm.OpCode;
+import uvm.analysis.Liveness;
+import uvm.analysis.LoopNest;
+import uvm.ssavalue.*;
+import uvm.type.FPType;
+import uvm.type.Int;
+import uvm.type.Type;
+import uvm.type.Void;
+import uvm.util.IntList;
+
+import java.util.*;
+
+/**
+ * <p>Assigns the variables of a CFG reduced by {@link PhiReducer} to as few
+ * registers as possible, after coalescing the copies left by the reduction.
+ * A register is a variable which holds the values of several variables of
+ * the reduced CFG, none of which are live at the same time.</p>
+ *
+ * <p>The variables are the locals of {@link Liveness}, i.e. one per ID, and
+ * two variables interfere as defined there. Variables with no type or the
+ * void type (e.g. branches) get no register. As in {@link uvm.ConstantPool},
+ * int, float and double types are compared structurally, because the text
+ * form creates a fresh Type object for every in-line type expression.</p>
+ *
+ * <ol>
+ * <li>Coalescing: every copy, i.e. single-case PHI node, whose operand is a
+ * variable of the same type is coalesced aggressively: the classes of its
+ * two variables are merged unless some member of one interferes with some
+ * member of the other. Copies in deeper loops are tried first.</li>
+ * <li>Coloring: the classes are ordered smallest-last (repeatedly removing
+ * one with the fewest remaining neighbours) and colored greedily in reverse
+ * order, each with the lowest register of its type not taken by a
+ * neighbour. A register holds values of one type only.</li>
+ * </ol>
+ *
+ * <p>The assignment is a snapshot of the CFG, like {@link Liveness}.
+ * {@link #apply()} rewrites the CFG to use the registers.</p>
+ */
+public class RegisterAssignment {
+    private final CFG cfg;
+    private final Liveness liveness;
+    private final FrozenCFG f;
+
+    /**
+     * The register of each local, or -1.
+     */
+    private final int[] registerOf;
+
+    /**
+     * The local whose ID and name each register takes: its parameter if it
+     * has one, else its first local.
+     */
+    private final int[] representatives;
+    private final Type[] registerTypes;
+
+    /**
+     * What the register of each local is told apart by. See
+     * {@link #typeKey(Type)}.
+     */
+    private final Object[] typeKeys;
+
+    private int copies;
+    private int coalesced;
+
+    /**
+     * Assign the registers of a reduced CFG, usually the result of
+     * {@link PhiReducer#reduce(CFG, PhiReducer.Mode)}.
+     */
+    public RegisterAssignment(CFG cfg) {
+        this.cfg = cfg;
+        this.liveness = new Liveness(cfg);
+        this.f = liveness.getFrozenCFG();
+
+        final int n = f.getNumLocals();
+        typeKeys = new Object[n];
+        final int[] parent = new int[n];
+        final IntList[] neighbors = new IntList[n];
+        for (int l = 0; l < n; l++) {
+            parent[l] = l;
+            typeKeys[l] = typeKey(f.getLocalType(l));
+            if (typeKeys[l] != null) {
+                final int[] ns = liveness.getNeighbors(l);
+                neighbors[l] = new IntList(ns.length);
+                for (int o : ns) neighbors[l].add(o);
+            }
+        }
+        coalesce(parent, neighbors);
+        final int[] classOf = new int[n];
+        for (int l = 0; l < n; l++) classOf[l] = find(parent, l);
+
+        // Color the classes.
+        final int[] order = smallestLast(classOf, neighbors);
+        final int[] colorOf = new int[n];
+        Arrays.fill(colorOf, -1);
+        final Map<Object, IntList> registersByType = new HashMap<>();
+        final IntList reps = new IntList();
+        final List<Type> types = new ArrayList<>();
+        final int[] taken = new int[n + 1];
+        Arrays.fill(taken, -1);
+        for (int k = order.length - 1; k >= 0; k--) {
+            final int c = order[k];
+            final Object type = typeKeys[c];
+            for (int m = 0; m < neighbors[c].size(); m++) {
+                final int o = neighbors[c].get(m);
+                if (colorOf[o] >= 0 && typeKeys[o].equals(type)) taken[colorOf[o]] = c;
+            }
+            int color = 0;
+            while (taken[color] == c) color++;
+            colorOf[c] = color;
+
+            IntList regs = registersByType.get(type);
+            if (regs == null) {
+                regs = new IntList();
+                registersByType.put(type, regs);
+            }
+            if (color == regs.size()) {
+                regs.add(reps.size());
+                reps.add(-1);
+                types.add(f.getLocalType(c));
+            }
+        }
+
+        registerOf = new int[n];
+        Arrays.fill(registerOf, -1);
+        representatives = reps.toArray();
+        registerTypes = types.toArray(new Type[types.size()]);
+        for (int l = 0; l < n; l++) {
+            final int c = classOf[l];
+            if (colorOf[c] < 0) continue;
+            final int r = registersByType.get(typeKeys[c]).get(colorOf[c]);
+            registerOf[l] = r;
+            if (representatives[r] < 0 || l < f.getNumParams()) representatives[r] = l;
+        }
+    }
+
+    /**
+     * @return What registers are told apart by, or null for no register.
+     */
+    private static Object typeKey(Type type) {
+        if (type == null || type instanceof Void) return null;
+        if (type instanceof Int) return ((Int) type).getSize();
+        if (type instanceof FPType) return type.getClass();
+        return type;
+    }
+
+    private static int find(int[] parent, int l) {
+        while (parent[l] != l) {
+            parent[l] = parent[parent[l]];
+            l = parent[l];
+        }
+        return l;
+    }
+
+    /**
+     * Merge the classes of the variables of each copy which do not interfere.
+     * The neighbors of a class are kept in the list of its root, with
+     * duplicates, as locals.
+     */
+    private void coalesce(int[] parent, IntList[] neighbors) {
+        final LoopNest loops = cfg.getLoopNest();
+        final List<BasicBlock> bbs = cfg.getBBs();
+        // Copies as pairs of locals, by loop depth.
+        final List<int[]> pairs = new ArrayList<>();
+        for (int b = 0; b < f.getNumBlocks(); b++) {
+            final int depth = loops.getLoopDepth(bbs.get(b));
+            for (int i = f.getBlockStart(b); i < f.getBlockEnd(b); i++) {
+                if (f.getOpcode(i) != OpCode.PHI || f.getNumOperands(i) != 1) continue;
+                final int d = f.getDef(i);
+                final int s = f.getOperand(i, 0);
+                if (!FrozenCFG.isLocal(s) || typeKeys[d] == null
+                        || !typeKeys[d].equals(typeKeys[s])) continue;
+                copies++;
+                pairs.add(new int[] { d, s, depth });
+            }
+        }
+        Collections.sort(pairs, new Comparator<int[]>() {
+            @Override
+            public int compare(int[] a, int[] b) {
+                return Integer.compare(b[2], a[2]);
+            }
+        });
+
+        for (int[] pair : pairs) {
+            int a = find(parent, pair[0]);
+            int b = find(parent, pair[1]);
+            if (a == b) {
+                coalesced++;
+                continue;
+            }
+            if (neighbors[a].size() > neighbors[b].size()) {
+                final int t = a;
+                a = b;
+                b = t;
+            }
+            if (interferes(parent, neighbors[a], b)) continue;
+            parent[a] = b;
+            final IntList into = neighbors[b];
+            for (int m = 0; m < neighbors[a].size(); m++) into.add(neighbors[a].get(m));
+            neighbors[a] = null;
+            coalesced++;
+        }
+    }
+
+    private static boolean interferes(int[] parent, IntList neighbors, int root) {
+        for (int m = 0; m < neighbors.size(); m++) {
+            if (find(parent, neighbors.get(m)) == root) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Order the classes with a type by repeatedly taking one of the fewest
+     * neighbors among those not yet taken, in time linear in the size of the
+     * graph. Rewrites the neighbor list of each class as distinct classes.
+     */
+    private int[] smallestLast(int[] classOf, IntList[] neighbors) {
+        final int n = classOf.length;
+        final IntList nodes = new IntList();
+        final int[] mark = new int[n];
+        Arrays.fill(mark, -1);
+        int maxDegree = 0;
+        for (int c = 0; c < n; c++) {
+            if (classOf[c] != c || typeKeys[c] == null) continue;
+            nodes.add(c);
+            final IntList distinct = new IntList();
+            mark[c] = c;
+            for (int m = 0; m < neighbors[c].size(); m++) {
+                final int o = classOf[neighbors[c].get(m)];
+                if (typeKeys[o] != null && mark[o] != c) {
+                    mark[o] = c;
+                    distinct.add(o);
+                }
+            }
+            neighbors[c] = distinct;
+            maxDegree = Math.max(maxDegree, distinct.size());
+        }
+
+        // Bucket sort by degree (Batagelj and Zaversnik): vert is sorted by
+        // degree, pos is the position of each class in vert, and bin the
+        // start of each degree in vert.
+        final int count = nodes.size();
+        final int[] degree = new int[n];
+        final int[] bin = new int[maxDegree + 2];
+        for (int k = 0; k < count; k++) {
+            final int c = nodes.get(k);
+            degree[c] = neighbors[c].size();
+            bin[degree[c] + 1]++;
+        }
+        for (int d = 1; d < bin.length; d++) bin[d] += bin[d - 1];
+        final int[] vert = new int[count];
+        final int[] pos = new int[n];
+        final int[] next = Arrays.copyOf(bin, bin.length);
+        for (int k = 0; k < count; k++) {
+            final int c = nodes.get(k);
+            pos[c] = next[degree[c]]++;
+            vert[pos[c]] = c;
+        }
+
+        for (int k = 0; k < count; k++) {
+            final int c = vert[k];
+            for (int m = 0; m < neighbors[c].size(); m++) {
+                final int o = neighbors[c].get(m);
+                // Classes taken before c have degrees no higher than c.
+                if (degree[o] <= degree[c]) continue;
+                // Swap o with the first class of its bin, then move the
+                // start of the bin past it, into the bin below.
+                final int d = degree[o];
+                final int first = bin[d];
+                final int w = vert[first];
+                if (w != o) {
+                    vert[pos[o]] = w;
+                    pos[w] = pos[o];
+                    vert[first] = o;
+                    pos[o] = first;
+                }
+                bin[d]++;
+                degree[o]--;
+            }
+        }
+        return vert;
+    }
+
+    public CFG getCFG() {
+        return cfg;
+    }
+
+    public Liveness getLiveness() {
+        return liveness;
+    }
+
+    public int getNumRegisters() {
+        return representatives.length;
+    }
+
+    public Type getRegisterType(int register) {
+        return registerTypes[register];
+    }
+
+    /**
+     * @return The register of a local of {@link #getLiveness()}, or -1 if it
+     *         has none.
+     */
+    public int getRegister(int local) {
+        return registerOf[local];
+    }
+
+    /**
+     * @return The register of a parameter or instruction of the CFG, or -1
+     *         if it has none.
+     */
+    public int getRegister(Value v) {
+        final int l = liveness.getValueNumber(v);
+        return l < 0 ? -1 : registerOf[l];
+    }
+
+    /**
+     * @return The ID the register takes in {@link #apply()}.
+     */
+    public int getRegisterID(int register) {
+        return f.getLocalID(representatives[register]);
+    }
+
+    /**
+     * @return The name the register takes in {@link #apply()}. May be null.
+     */
+    public String getRegisterName(int register) {
+        return f.getLocalName(representatives[register]);
+    }
+
+    /**
+     * @return The number of copies between variables of the same type.
+     */
+    public int getNumCopies() {
+        return copies;
+    }
+
+    /**
+     * @return The number of copies whose two variables share a register.
+     */
+    public int getNumCoalesced() {
+        return coalesced;
+    }
+
+    /**
+     * Rewrite the CFG to use the registers: every instruction assigning to or
+     * used as a variable takes the ID and name of its register, and copies of
+     * a register to itself are removed. Parameters keep theirs.
+     * <p>
+     * In the output of {@link PhiReducer.Mode#FORK_BLOCKS} most instructions
+     * and the PHI nodes they use are shared with the original CFG, which is
+     * renamed as well, so the original CFG should be dropped.
+     * <p>
+     * Call at most once, before the CFG is changed otherwise.
+     */
+    public void apply() {
+        // Find every instruction to rename before renaming any, since the
+        // locals are found by ID.
+        final Map<Instruction, Integer> renames = new IdentityHashMap<>();
+        final List<BasicBlock> redundantBlocks = new ArrayList<>();
+        final List<Instruction> redundant = new ArrayList<>();
+        for (BasicBlock bb : cfg.getBBs()) {
+            for (Instruction i : bb.getInsts()) {
+                addRename(renames, i);
+                for (UseBox ub : i.getUses()) {
+                    if (ub.getDst() instanceof Instruction) addRename(renames, (Instruction) ub.getDst());
+                }
+                if (i.opcode() == OpCode.PHI && i.getUses().size() == 1) {
+                    final int r = getRegister(i);
+                    if (r >= 0 && r == getRegister(i.getUses().get(0).getDst())) {
+                        redundantBlocks.add(bb);
+                        redundant.add(i);
+                    }
+                }
+            }
+        }
+        for (Map.Entry<Instruction, Integer> e : renames.entrySet()) {
+            e.getKey().setID(getRegisterID(e.getValue()));
+            e.getKey().setName(getRegisterName(e.getValue()));
+        }
+        for (int k = 0; k < redundant.size(); k++) {
+            redundantBlocks.get(k).removeInstruction(redundant.get(k));
+            redundant.get(k).dropAllUses();
+        }
+        cfg.modified();
+    }
+
+    private void addRename(Map<Instruction, Integer> renames, Instruction i) {
+        final int r = getRegister(i);
+        if (r >= 0) renames.put(i, r);
+    }
+
+    /**
+     * Reduce a CFG and assign its registers.
+     *
+     * @return The reduced CFG, using the registers.
+     */
+    public static CFG reduceAndAssign(CFG original, PhiReducer.Mode mode) {
+        final CFG reduced = PhiReducer.reduce(original, mode);
+        new RegisterAssignment(reduced).apply();
+        return reduced;
+    }
+}
@@ -63,7 +63,9 @@ public abstract class AbstractTrap extends Instruction implements
 
     @Override
     public void setNor(BasicBlock nor) {
+        BasicBlock old = this.nor;
         this.nor = nor;
+        successorChanged(old, nor);
     }
 
     @Override
@@ -73,7 +75,27 @@ public abstract class AbstractTrap extends Instruction implements
 
     @Override
     public void setExc(BasicBlock exc) {
+        BasicBlock old = this.exc;
         this.exc = exc;
+        successorChanged(old, exc);
+    }
+
+    @Override
+    public List<BasicBlock> getSuccessors() {
+        List<BasicBlock> succs = new ArrayList<BasicBlock>(3);
+        addIfNotNull(succs, nor);
+        addIfNotNull(succs, exc);
+        return succs;
+    }
+
+    @Override
+    public void replaceSuccessor(BasicBlock oldDest, BasicBlock newDest) {
+        if (nor == oldDest) {
+            setNor(newDest);
+        }
+        if (exc == oldDest) {
+            setExc(newDest);
+        }
     }
 
     @Override
@@ -2,6 +2,18 @@ package uvm.ssavalue;
 
 /**
  * Constant is the base class of all constant SSA Values.
+ * <p>
+ * Global constants are shared by all functions, whose bodies may be built in
+ * parallel, so their users are linked and unlinked under a lock.
  */
 public abstract class Constant extends Value {
+    @Override
+    synchronized void addUsedBy(UseBox useBox) {
+        super.addUsedBy(useBox);
+    }
+
+    @Override
+    synchronized void removeUsedBy(UseBox useBox) {
+        super.removeUsedBy(useBox);
+    }
 }
@@ -1,5 +1,8 @@
 package uvm.ssavalue;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import uvm.BasicBlock;
 import uvm.IdentifiedHelper;
 import uvm.OpCode;
@@ -27,7 +30,23 @@ public class InstBranch extends Instruction {
     }
 
     public void setDest(BasicBlock dest) {
+        BasicBlock old = this.dest;
         this.dest = dest;
+        successorChanged(old, dest);
+    }
+
+    @Override
+    public List<BasicBlock> getSuccessors() {
+        List<BasicBlock> succs = new ArrayList<BasicBlock>(1);
+        addIfNotNull(succs, dest);
+        return succs;
+    }
+
+    @Override
+    public void replaceSuccessor(BasicBlock oldDest, BasicBlock newDest) {
+        if (dest == oldDest) {
+            setDest(newDest);
+        }
     }
 
     @Override
@@ -1,5 +1,8 @@
 package uvm.ssavalue;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import uvm.BasicBlock;
 import uvm.IdentifiedHelper;
 import uvm.OpCode;
@@ -46,7 +49,9 @@ public class InstBranch2 extends Instruction {
     }
 
     public void setIfTrue(BasicBlock ifTrue) {
+        BasicBlock old = this.ifTrue;
         this.ifTrue = ifTrue;
+        successorChanged(old, ifTrue);
     }
 
     public BasicBlock getIfFalse() {
@@ -54,7 +59,27 @@ public class InstBranch2 extends Instruction {
     }
 
     public void setIfFalse(BasicBlock ifFalse) {
+        BasicBlock old = this.ifFalse;
         this.ifFalse = ifFalse;
+        successorChanged(old, ifFalse);
+    }
+
+    @Override
+    public List<BasicBlock> getSuccessors() {
+        List<BasicBlock> succs = new ArrayList<BasicBlock>(2);
+        addIfNotNull(succs, ifTrue);
+        addIfNotNull(succs, ifFalse);
+        return succs;
+    }
+
+    @Override
+    public void replaceSuccessor(BasicBlock oldDest, BasicBlock newDest) {
+        if (ifTrue == oldDest) {
+            setIfTrue(newDest);
+        }
+        if (ifFalse == oldDest) {
+            setIfFalse(newDest);
+        }
     }
 
     @Override
@@ -1,5 +1,6 @@
 package uvm.ssavalue;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import uvm.BasicBlock;
@@ -38,7 +39,9 @@ public class InstInvoke extends NonTailCall implements HandlesException {
 
     @Override
     public void setNor(BasicBlock nor) {
+        BasicBlock old = this.nor;
         this.nor = nor;
+        successorChanged(old, nor);
     }
 
     @Override
@@ -48,7 +51,27 @@ public class InstInvoke extends NonTailCall implements HandlesException {
 
     @Override
     public void setExc(BasicBlock exc) {
+        BasicBlock old = this.exc;
         this.exc = exc;
+        successorChanged(old, exc);
+    }
+
+    @Override
+    public List<BasicBlock> getSuccessors() {
+        List<BasicBlock> succs = new ArrayList<BasicBlock>(2);
+        addIfNotNull(succs, nor);
+        addIfNotNull(succs, exc);
+        return succs;
+    }
+
+    @Override
+    public void replaceSuccessor(BasicBlock oldDest, BasicBlock newDest) {
+        if (nor == oldDest) {
+            setNor(newDest);
+        }
+        if (exc == oldDest) {
+            setExc(newDest);
+        }
     }
 
     @Override
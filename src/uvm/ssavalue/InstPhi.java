@@ -1,6 +1,7 @@
 package uvm.ssavalue;
 
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import uvm.BasicBlock;
@@ -18,9 +19,9 @@ public class InstPhi extends Instruction {
 
     /**
      * A map from basic blocks and use boxes. Each use box contains the value
-     * from that basic block.
+     * from that basic block. Cases are kept in the order they are added.
      */
-    private HashMap<BasicBlock, UseBox> valueMap = new HashMap<BasicBlock, UseBox>();
+    private HashMap<BasicBlock, UseBox> valueMap = new LinkedHashMap<BasicBlock, UseBox>();
 
     public InstPhi() {
     }
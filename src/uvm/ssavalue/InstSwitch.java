@@ -1,6 +1,9 @@
 package uvm.ssavalue;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import uvm.BasicBlock;
@@ -28,9 +31,9 @@ public class InstSwitch extends Instruction {
 
     /**
      * A map from basic blocks and use boxes. Each use box contains the value
-     * from that basic block.
+     * from that basic block. Cases are kept in the order they are added.
      */
-    private HashMap<UseBox, BasicBlock> cases = new HashMap<UseBox, BasicBlock>();
+    private HashMap<UseBox, BasicBlock> cases = new LinkedHashMap<UseBox, BasicBlock>();
 
     public InstSwitch() {
     }
@@ -71,7 +74,9 @@ public class InstSwitch extends Instruction {
     }
 
     public void setDefaultDest(BasicBlock defaultDest) {
+        BasicBlock old = this.defaultDest;
         this.defaultDest = defaultDest;
+        successorChanged(old, defaultDest);
     }
 
     /**
@@ -86,12 +91,41 @@ public class InstSwitch extends Instruction {
      */
     public void setDestFor(Value theCase, BasicBlock dest) {
         this.cases.put(use(theCase), dest);
+        successorChanged(null, dest);
     }
 
+    /**
+     * Get the case map. Modifying the map directly does not update the control
+     * flow edges of the parent block. Use {@link #setDestFor(Value, BasicBlock)}
+     * or {@link #replaceSuccessor(BasicBlock, BasicBlock)} instead.
+     */
     public HashMap<UseBox, BasicBlock> getCases() {
         return cases;
     }
 
+    @Override
+    public List<BasicBlock> getSuccessors() {
+        List<BasicBlock> succs = new ArrayList<BasicBlock>(cases.size() + 1);
+        addIfNotNull(succs, defaultDest);
+        for (BasicBlock dest : cases.values()) {
+            addIfNotNull(succs, dest);
+        }
+        return succs;
+    }
+
+    @Override
+    public void replaceSuccessor(BasicBlock oldDest, BasicBlock newDest) {
+        if (defaultDest == oldDest) {
+            setDefaultDest(newDest);
+        }
+        for (Map.Entry<UseBox, BasicBlock> e : cases.entrySet()) {
+            if (e.getValue() == oldDest) {
+                e.setValue(newDest);
+                successorChanged(oldDest, newDest);
+            }
+        }
+    }
+
     @Override
     public Type getType() {
         return null;
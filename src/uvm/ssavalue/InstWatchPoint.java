@@ -44,7 +44,24 @@ public class InstWatchPoint extends AbstractTrap {
     }
 
     public void setDisabled(BasicBlock disabled) {
+        BasicBlock old = this.disabled;
         this.disabled = disabled;
+        successorChanged(old, disabled);
+    }
+
+    @Override
+    public List<BasicBlock> getSuccessors() {
+        List<BasicBlock> succs = super.getSuccessors();
+        addIfNotNull(succs, disabled);
+        return succs;
+    }
+
+    @Override
+    public void replaceSuccessor(BasicBlock oldDest, BasicBlock newDest) {
+        super.replaceSuccessor(oldDest, newDest);
+        if (disabled == oldDest) {
+            setDisabled(newDest);
+        }
     }
 
     @Override
@@ -1,8 +1,122 @@
 package uvm.ssavalue;
 
+import java.util.Collections;
+import java.util.List;
+
+import uvm.BasicBlock;
+import uvm.CFG;
+import uvm.IdentifiedHelper;
 
 /**
  * Instruction is the base class of all instructions.
+ * <p>
+ * Instructions which transfer control within a function (BRANCH, BRANCH2,
+ * SWITCH, INVOKE, IINVOKE, TRAP and WATCHPOINT) report their destinations by
+ * {@link #getSuccessors()}. When such an instruction is in a basic block, the
+ * control flow edges of that block are updated whenever a destination changes.
  */
 public abstract class Instruction extends Value {
+
+    /**
+     * The basic block this instruction is in. Set by
+     * {@link BasicBlock#addInstruction(Instruction)}. Blocks which share this
+     * instruction through {@link BasicBlock#addSharedInstruction(Instruction)}
+     * do not own it.
+     */
+    private BasicBlock parent;
+
+    /**
+     * The dense index of this instruction among the local values of its CFG.
+     * See {@link CFG#renumber()}.
+     */
+    private int valueIndex = -1;
+
+    /**
+     * The CFG which assigned valueIndex. An instruction shared by several CFGs
+     * holds the index from the one numbered last.
+     */
+    private CFG valueIndexOwner;
+
+    public BasicBlock getParent() {
+        return parent;
+    }
+
+    public void setParent(BasicBlock parent) {
+        this.parent = parent;
+    }
+
+    public int getValueIndex() {
+        return valueIndex;
+    }
+
+    public CFG getValueIndexOwner() {
+        return valueIndexOwner;
+    }
+
+    public void setValueIndex(CFG owner, int valueIndex) {
+        this.valueIndexOwner = owner;
+        this.valueIndex = valueIndex;
+    }
+
+    /**
+     * Remove this instruction from its basic block, together with its control
+     * flow edges, and unlink it from the values it uses. It stays in the
+     * instruction namespace of the CFG.
+     * <p>
+     * The instruction must no longer be used. Call
+     * {@link #replaceAllUsesWith(Value)} first if it is.
+     */
+    public void eraseFromParent() {
+        if (!usedBy.isEmpty()) {
+            throw new IllegalStateException("Instruction "
+                    + IdentifiedHelper.repr(this) + " is still used by "
+                    + usedBy.size() + " values.");
+        }
+        if (parent != null) {
+            parent.removeInstruction(this);
+        }
+        dropAllUses();
+    }
+
+    /**
+     * Get the destinations of this instruction, one entry for each destination
+     * field (the same block may appear more than once). Unset destinations are
+     * omitted.
+     *
+     * @return A new list. Empty if this instruction does not branch.
+     */
+    public List<BasicBlock> getSuccessors() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Replace every destination equal to oldDest with newDest, updating the
+     * control flow edges of the parent block.
+     *
+     * @param oldDest
+     *            The old destination.
+     * @param newDest
+     *            The new destination.
+     */
+    public void replaceSuccessor(BasicBlock oldDest, BasicBlock newDest) {
+    }
+
+    /**
+     * Called by subclasses after a destination field changed from oldDest to
+     * newDest.
+     */
+    protected void successorChanged(BasicBlock oldDest, BasicBlock newDest) {
+        if (parent != null && oldDest != newDest) {
+            parent.destinationChanged(oldDest, newDest);
+        }
+    }
+
+    /**
+     * A helper for getSuccessors().
+     */
+    protected static void addIfNotNull(List<BasicBlock> list, BasicBlock bb) {
+        if (bb != null) {
+            list.add(bb);
+        }
+    }
 }
@@ -1,5 +1,7 @@
 package uvm.ssavalue;
 
+import uvm.BasicBlock;
+
 /**
  * The UseBox represents a "use" relation between SSA Values. One SSA Value
  * "uses" another SSA Value if the former refers to the latter as an operand.
@@ -11,6 +13,12 @@ public class UseBox {
     private Value src;
     private Value dst;
 
+    /**
+     * The position of this box in dst.usedBy, so that it can be removed in
+     * constant time. -1 if this box is not linked.
+     */
+    int usedByIndex = -1;
+
     public Value getSrc() {
         return src;
     }
@@ -27,6 +35,36 @@ public class UseBox {
         this.dst = dst;
     }
 
+    /**
+     * Make this box use another value, moving it from the usedBy list of the
+     * old value to that of the new one. The user does not change.
+     *
+     * @param newDst
+     *            the new used value
+     */
+    public void retarget(Value newDst) {
+        if (newDst == dst) {
+            return;
+        }
+        dst.removeUsedBy(this);
+        dst = newDst;
+        newDst.addUsedBy(this);
+        srcChanged();
+    }
+
+    /**
+     * Tell the CFG of the user, if it is an instruction in a block, that its
+     * operands changed.
+     */
+    void srcChanged() {
+        if (src instanceof Instruction) {
+            BasicBlock parent = ((Instruction) src).getParent();
+            if (parent != null && parent.getCfg() != null) {
+                parent.getCfg().operandsChanged();
+            }
+        }
+    }
+
     public UseBox(Value src, Value dst) {
         super();
         this.src = src;
@@ -44,7 +82,7 @@ public class UseBox {
     public static UseBox use(Value src, Value dst) {
         UseBox useBox = new UseBox(src, dst);
         src.uses.add(useBox);
-        dst.usedBy.add(useBox);
+        dst.addUsedBy(useBox);
         return useBox;
     }
 }
@@ -64,6 +64,71 @@ public abstract class Value implements IdentifiedSettable, HasOpCode {
         return usedBy;
     }
 
+    /**
+     * Link a UseBox whose dst is this value.
+     */
+    void addUsedBy(UseBox useBox) {
+        useBox.usedByIndex = usedBy.size();
+        usedBy.add(useBox);
+    }
+
+    /**
+     * Unlink a UseBox whose dst is this value, in constant time. The last box
+     * is moved into its place.
+     */
+    void removeUsedBy(UseBox useBox) {
+        int i = useBox.usedByIndex;
+        if (i < 0 || i >= usedBy.size() || usedBy.get(i) != useBox) {
+            // Not linked by addUsedBy.
+            usedBy.remove(useBox);
+            useBox.usedByIndex = -1;
+            return;
+        }
+        UseBox last = usedBy.remove(usedBy.size() - 1);
+        if (last != useBox) {
+            usedBy.set(i, last);
+            last.usedByIndex = i;
+        }
+        useBox.usedByIndex = -1;
+    }
+
+    /**
+     * Make every user of this value use newValue instead. Each UseBox is
+     * retargeted in place, so the users keep their identities. This takes
+     * time proportional to the number of uses.
+     *
+     * @param newValue
+     *            The replacement. Must not be null.
+     */
+    public void replaceAllUsesWith(Value newValue) {
+        if (newValue == null) {
+            throw new IllegalArgumentException(
+                    "Cannot replace the uses of a value with null.");
+        }
+        if (newValue == this) {
+            return;
+        }
+        for (UseBox ub : usedBy) {
+            ub.setDst(newValue);
+            newValue.addUsedBy(ub);
+            ub.srcChanged();
+        }
+        usedBy.clear();
+    }
+
+    /**
+     * Unlink all UseBoxes of this value from the values they use, and clear
+     * the uses list. The operand fields still hold their boxes, so this value
+     * must not be used afterwards. This takes time proportional to the number
+     * of operands.
+     */
+    public void dropAllUses() {
+        for (UseBox ub : uses) {
+            ub.getDst().removeUsedBy(ub);
+        }
+        uses.clear();
+    }
+
     /**
      * A convenient binding for Usebox.use.
      * 
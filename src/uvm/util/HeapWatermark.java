@@ -0,0 +1,54 @@
+package uvm.util;
+
+/**
+ * Measures the peak retained heap of a computation, i.e. the largest amount
+ * of heap still reachable at any of the points where it is sampled.
+ * <p>
+ * Each sample forces a garbage collection, so sampling is slow and only meant
+ * for measurements and tests. Code being measured calls {@link #sample()} at
+ * interesting points, e.g. after each phase of building a bundle.
+ */
+public class HeapWatermark {
+    private long baseline;
+    private long peak;
+    private int samples;
+
+    /**
+     * Start measuring. Whatever is retained now is not counted.
+     */
+    public void start() {
+        baseline = usedAfterGC();
+        peak = 0;
+        samples = 0;
+    }
+
+    /**
+     * Record the heap retained now.
+     */
+    public void sample() {
+        peak = Math.max(peak, usedAfterGC() - baseline);
+        samples++;
+    }
+
+    /**
+     * @return The largest number of bytes retained at a sample, above the
+     *         heap retained at {@link #start()}.
+     */
+    public long getPeakRetainedBytes() {
+        return peak;
+    }
+
+    public int getSamples() {
+        return samples;
+    }
+
+    private static long usedAfterGC() {
+        Runtime rt = Runtime.getRuntime();
+        // One collection may leave objects which are only reachable from
+        // finalizers or reference queues.
+        for (int i = 0; i < 2; i++) {
+            System.gc();
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
@@ -0,0 +1,70 @@
+package uvm.util;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of primitive ints. Used where a List&lt;Integer&gt; would box
+ * every element.
+ */
+public class IntList {
+    private int[] data;
+    private int size;
+
+    public IntList() {
+        this(16);
+    }
+
+    public IntList(int initialCapacity) {
+        data = new int[Math.max(initialCapacity, 1)];
+    }
+
+    public void add(int value) {
+        if (size == data.length) {
+            data = Arrays.copyOf(data, size * 2);
+        }
+        data[size++] = value;
+    }
+
+    public int get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException(index + " >= " + size);
+        }
+        return data[index];
+    }
+
+    public void set(int index, int value) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException(index + " >= " + size);
+        }
+        data[index] = value;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Remove and return the last element.
+     */
+    public int pop() {
+        if (size == 0) {
+            throw new IndexOutOfBoundsException("pop from an empty IntList");
+        }
+        return data[--size];
+    }
+
+    /**
+     * @return A trimmed copy of the content.
+     */
+    public int[] toArray() {
+        return Arrays.copyOf(data, size);
+    }
+}
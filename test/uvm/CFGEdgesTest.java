@@ -0,0 +1,150 @@
+package uvm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import uvm.ir.text.input.BundleTester;
+import uvm.ssavalue.InstBranch2;
+import uvm.ssavalue.Instruction;
+
+public class CFGEdgesTest extends BundleTester {
+
+    @Override
+    protected String bundleName() {
+        return "tests/micro-bm/int-prime-number/prime-number.uir";
+    }
+
+    private CFG cfg;
+
+    private BasicBlock bb(String name) {
+        return cfg.getBBNs().getByName(name);
+    }
+
+    @Test
+    public void testEdges() {
+        cfg = func("@isPrime").getCFG();
+        BasicBlock entry = bb("%entry");
+        BasicBlock forCond = bb("%for.cond");
+        BasicBlock forBody = bb("%for.body");
+        BasicBlock return0 = bb("%return0");
+        BasicBlock return1 = bb("%return1");
+
+        assertEquals(2, entry.getSuccessors().size());
+        assertSame(forBody, entry.getSuccessors().get(0));
+        assertSame(return1, entry.getSuccessors().get(1));
+        assertTrue(entry.getPredecessors().isEmpty());
+
+        assertEquals(2, forBody.getPredecessors().size());
+        assertTrue(forBody.getPredecessors().contains(entry));
+        assertTrue(forBody.getPredecessors().contains(forCond));
+
+        assertEquals(2, return1.getPredecessors().size());
+        assertEquals(1, return0.getPredecessors().size());
+        assertTrue(return0.getSuccessors().isEmpty());
+
+        for (BasicBlock bb : cfg.getBBs()) {
+            List<Instruction> insts = bb.getInsts();
+            for (Instruction inst : insts) {
+                assertSame(bb, inst.getParent());
+            }
+        }
+    }
+
+    @Test
+    public void testEdgesFollowTerminators() {
+        cfg = func("@isPrime").getCFG();
+        BasicBlock entry = bb("%entry");
+        BasicBlock forBody = bb("%for.body");
+        BasicBlock return0 = bb("%return0");
+        BasicBlock return1 = bb("%return1");
+
+        List<BasicBlock> rpo = cfg.getReversePostOrder();
+        assertEquals(5, rpo.size());
+        assertSame(entry, rpo.get(0));
+        int modCount = cfg.getModCount();
+
+        InstBranch2 br = (InstBranch2) entry.getInsts().get(1);
+        br.setIfFalse(return0);
+
+        assertTrue(cfg.getModCount() != modCount);
+        assertSame(return0, entry.getSuccessors().get(1));
+        assertEquals(1, return1.getPredecessors().size());
+        assertEquals(2, return0.getPredecessors().size());
+
+        br.replaceSuccessor(forBody, return1);
+        assertEquals(2, entry.getSuccessors().size());
+        assertSame(return1, entry.getSuccessors().get(0));
+        assertSame(return0, entry.getSuccessors().get(1));
+        assertEquals(1, forBody.getPredecessors().size());
+        assertEquals(2, return1.getPredecessors().size());
+
+        // %for.body and %for.cond are no longer reachable.
+        rpo = cfg.getReversePostOrder();
+        assertEquals(3, rpo.size());
+        assertSame(entry, rpo.get(0));
+
+        entry.removeInstruction(br);
+        assertTrue(entry.getSuccessors().isEmpty());
+        assertEquals(1, return1.getPredecessors().size());
+        assertEquals(1, return0.getPredecessors().size());
+        assertEquals(1, cfg.getReversePostOrder().size());
+    }
+
+    @Test
+    public void testDuplicateDestinations() {
+        cfg = func("@isPrime").getCFG();
+        BasicBlock entry = bb("%entry");
+        BasicBlock forBody = bb("%for.body");
+        BasicBlock return0 = bb("%return0");
+        BasicBlock return1 = bb("%return1");
+        InstBranch2 br = (InstBranch2) entry.getInsts().get(1);
+
+        // Both edges go to %return1, then the second one is retargeted.
+        br.setIfTrue(return1);
+        assertEquals(br.getSuccessors(), entry.getSuccessors());
+        assertEquals(1, forBody.getPredecessors().size());
+        assertEquals(3, return1.getPredecessors().size());
+
+        br.setIfFalse(return0);
+        assertEquals(br.getSuccessors(), entry.getSuccessors());
+        assertSame(return1, entry.getSuccessors().get(0));
+        assertSame(return0, entry.getSuccessors().get(1));
+        assertEquals(2, return1.getPredecessors().size());
+        assertEquals(2, return0.getPredecessors().size());
+
+        br.replaceSuccessor(return1, return0);
+        assertEquals(br.getSuccessors(), entry.getSuccessors());
+        assertEquals(3, return0.getPredecessors().size());
+        assertEquals(1, return1.getPredecessors().size());
+    }
+
+    @Test
+    public void testInstructionHasOneOwner() {
+        cfg = func("@isPrime").getCFG();
+        BasicBlock entry = bb("%entry");
+        BasicBlock return0 = bb("%return0");
+        Instruction first = entry.getInsts().get(0);
+        Instruction br = entry.getInsts().get(1);
+
+        try {
+            return0.addInstruction(first);
+            fail("An instruction in a block was added to another one");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            return0.addSharedInstruction(br);
+            fail("A branching instruction was shared");
+        } catch (IllegalArgumentException e) {
+        }
+
+        return0.addSharedInstruction(first);
+        assertSame(first, return0.getInsts().get(return0.getInsts().size() - 1));
+        assertSame(entry, first.getParent());
+    }
+}
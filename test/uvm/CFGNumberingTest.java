@@ -0,0 +1,119 @@
+package uvm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import uvm.ir.text.input.BundleTester;
+import uvm.reducer.PhiReducer;
+import uvm.ssavalue.InstBranch2;
+import uvm.ssavalue.Instruction;
+import uvm.ssavalue.Parameter;
+
+public class CFGNumberingTest extends BundleTester {
+
+    @Override
+    protected String bundleName() {
+        return "tests/micro-bm/int-prime-number/prime-number.uir";
+    }
+
+    private static void assertDense(CFG cfg) {
+        int n = cfg.getNumValueIndices();
+        boolean[] seen = new boolean[n];
+        for (int p = 0; p < cfg.getParams().size(); p++) {
+            Parameter param = cfg.getParams().get(p);
+            assertEquals(p, param.getValueIndex());
+            assertSame(cfg, param.getValueIndexOwner());
+            seen[p] = true;
+        }
+        for (int b = 0; b < cfg.getBBs().size(); b++) {
+            BasicBlock bb = cfg.getBBs().get(b);
+            assertEquals(b, bb.getIndex());
+            assertEquals(b, cfg.indexOf(bb));
+            for (Instruction inst : bb.getInsts()) {
+                seen[inst.getValueIndex()] = true;
+            }
+        }
+        for (boolean s : seen) {
+            assertTrue(s);
+        }
+    }
+
+    @Test
+    public void testNumbering() {
+        CFG cfg = func("@isPrime").getCFG();
+        assertEquals(5, cfg.getNumBlockIndices());
+        assertEquals(12, cfg.getNumValueIndices());
+        assertDense(cfg);
+
+        // Removing an instruction invalidates the numbering.
+        BasicBlock forBody = cfg.getBBNs().getByName("%for.body");
+        Instruction cmp1 = forBody.getInsts().get(2);
+        forBody.removeInstruction(cmp1);
+        assertEquals(11, cfg.getNumValueIndices());
+        assertDense(cfg);
+
+        BasicBlock stray = new BasicBlock(cfg);
+        assertEquals(-1, cfg.indexOf(stray));
+    }
+
+    @Test
+    public void testSharedInstructions() {
+        CFG reduced = PhiReducer.reduce(func("@isPrime").getCFG());
+        assertDense(reduced);
+
+        // Instructions shared by the forks of %for.body get one index each.
+        Set<Instruction> distinct = new HashSet<Instruction>();
+        for (BasicBlock bb : reduced.getBBs()) {
+            distinct.addAll(bb.getInsts());
+        }
+        assertEquals(reduced.getParams().size() + distinct.size(),
+                reduced.getNumValueIndices());
+        assertFalse(distinct.size() == reduced.getNumValueIndices());
+    }
+
+    @Test
+    public void testSharedInstructionsTakenOver() {
+        CFG original = func("@isPrime").getCFG();
+        CFG reduced = PhiReducer.reduce(original);
+        assertDense(reduced);
+
+        // Numbering the reduced CFG took over the indices of the shared
+        // instructions, so the original one renumbers, and back again.
+        assertDense(original);
+        assertDense(reduced);
+        for (BasicBlock bb : reduced.getBBs()) {
+            for (Instruction inst : bb.getInsts()) {
+                assertSame(reduced, inst.getValueIndexOwner());
+            }
+        }
+
+        // The parameters are shared too, and taken over the same way.
+        assertSame(original.getParams().get(0), reduced.getParams().get(0));
+        assertDense(original);
+        assertSame(original, reduced.getParams().get(0).getValueIndexOwner());
+    }
+
+    @Test
+    public void testEdgesKeepNumbering() {
+        CFG cfg = func("@isPrime").getCFG();
+        BasicBlock entry = cfg.getBBNs().getByName("%entry");
+        Instruction last = cfg.getBBNs().getByName("%return0").getInsts()
+                .get(0);
+        int n = cfg.getNumValueIndices();
+        InstBranch2 br = (InstBranch2) entry.getInsts().get(1);
+        br.setIfFalse(cfg.getBBNs().getByName("%return0"));
+
+        // Retargeting a branch changes the control flow but not the blocks
+        // and values, so the numbering is kept.
+        last.setValueIndex(cfg, 100);
+        assertEquals(n, cfg.getNumValueIndices());
+        assertEquals(100, last.getValueIndex());
+    }
+}
@@ -0,0 +1,71 @@
+package uvm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import uvm.ir.text.input.BundleTester;
+import uvm.ssavalue.IntConstant;
+
+public class FrozenCFGTest extends BundleTester {
+
+    @Override
+    protected String bundleName() {
+        return "tests/micro-bm/int-prime-number/prime-number.uir";
+    }
+
+    private int block(FrozenCFG f, String name) {
+        for (int b = 0; b < f.getNumBlocks(); b++) {
+            if (name.equals(f.getBlockName(b))) {
+                return b;
+            }
+        }
+        throw new AssertionError("No such block " + name);
+    }
+
+    @Test
+    public void testFreeze() {
+        CFG cfg = func("@isPrime").getCFG();
+        FrozenCFG f = cfg.freeze();
+
+        assertEquals(5, f.getNumBlocks());
+        assertEquals(1, f.getNumParams());
+        assertEquals("%a", f.getLocalName(0));
+        assertEquals(11, f.getNumInsts());
+        assertEquals(12, f.getNumLocals());
+        assertEquals(block(f, "%entry"), f.getEntry());
+
+        int entry = f.getEntry();
+        int cmp5 = f.getBlockStart(entry);
+        assertEquals(cmp5 + 2, f.getBlockEnd(entry));
+        assertEquals(OpCode.SGT, f.getOpcode(cmp5));
+        assertEquals("%cmp5", f.getLocalName(f.getDef(cmp5)));
+        assertEquals(2, f.getNumOperands(cmp5));
+        assertEquals(0, f.getOperand(cmp5, 0));
+        int two = f.getOperand(cmp5, 1);
+        assertTrue(!FrozenCFG.isLocal(two));
+        assertEquals(2L, ((IntConstant) f.getGlobal(two)).getValue());
+
+        int br = cmp5 + 1;
+        assertEquals(OpCode.BRANCH2, f.getOpcode(br));
+        assertEquals(f.getDef(cmp5), f.getOperand(br, 0));
+        assertEquals(2, f.getNumTargets(br));
+        assertEquals(block(f, "%for.body"), f.getTarget(br, 0));
+        assertEquals(block(f, "%return1"), f.getTarget(br, 1));
+
+        int phi = f.getBlockStart(block(f, "%for.body"));
+        assertEquals(OpCode.PHI, f.getOpcode(phi));
+        assertEquals(2, f.getNumOperands(phi));
+        for (int n = 0; n < 2; n++) {
+            int from = f.getTarget(phi, n);
+            int opnd = f.getOperand(phi, n);
+            if (from == entry) {
+                assertEquals(two, opnd);
+            } else {
+                assertEquals(block(f, "%for.cond"), from);
+                assertEquals("%inc", f.getLocalName(opnd));
+            }
+        }
+    }
+}
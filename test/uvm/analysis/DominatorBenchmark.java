@@ -0,0 +1,52 @@
+package uvm.analysis;
+
+import uvm.BasicBlock;
+import uvm.CFG;
+
+/**
+ * Times the dominator tree, dominance frontiers and the loop nest on
+ * synthetic CFGs of growing size. The time per block should stay roughly
+ * constant. Run with:
+ * <p>
+ * java -cp ... uvm.analysis.DominatorBenchmark
+ */
+public class DominatorBenchmark {
+    private static final int REPEAT = 5;
+
+    public static void main(String[] args) {
+        int[] groupCounts = { 300, 600, 1200, 2400, 4800 };
+
+        // Warm up.
+        for (int i = 0; i < 3; i++) {
+            run(SyntheticCFGs.nestedLoops(1000, 5));
+        }
+
+        System.out.printf("%10s %12s %12s%n", "blocks", "best ms",
+                "ns/block");
+        for (int groups : groupCounts) {
+            CFG cfg = SyntheticCFGs.nestedLoops(groups, 5);
+            long best = Long.MAX_VALUE;
+            for (int i = 0; i < REPEAT; i++) {
+                best = Math.min(best, run(cfg));
+            }
+            int n = cfg.getBBs().size();
+            System.out.printf("%10d %12.2f %12.1f%n", n, best / 1e6,
+                    (double) best / n);
+        }
+    }
+
+    private static long run(CFG cfg) {
+        long t0 = System.nanoTime();
+        DominatorTree dt = new DominatorTree(cfg);
+        int dfTotal = 0;
+        for (BasicBlock bb : dt.getBlocks()) {
+            dfTotal += dt.getDominanceFrontier(bb).size();
+        }
+        LoopNest ln = new LoopNest(cfg, dt);
+        long t1 = System.nanoTime();
+        if (dfTotal < 0 || ln.getLoops().isEmpty()) {
+            throw new AssertionError();
+        }
+        return t1 - t0;
+    }
+}
@@ -0,0 +1,153 @@
+package uvm.analysis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import uvm.BasicBlock;
+import uvm.CFG;
+import uvm.ir.text.input.BundleTester;
+import uvm.ssavalue.InstBranch2;
+
+public class DominatorTreeTest extends BundleTester {
+
+    @Override
+    protected String bundleName() {
+        return "tests/micro-bm/int-prime-number/prime-number.uir";
+    }
+
+    private CFG cfg;
+
+    private BasicBlock bb(String name) {
+        return cfg.getBBNs().getByName(name);
+    }
+
+    @Test
+    public void testDominators() {
+        cfg = func("@isPrime").getCFG();
+        DominatorTree dt = cfg.getDominatorTree();
+        assertSame(dt, cfg.getDominatorTree());
+
+        BasicBlock entry = bb("%entry");
+        BasicBlock forCond = bb("%for.cond");
+        BasicBlock forBody = bb("%for.body");
+        BasicBlock return0 = bb("%return0");
+        BasicBlock return1 = bb("%return1");
+
+        assertNull(dt.getIDom(entry));
+        assertSame(entry, dt.getIDom(forBody));
+        assertSame(forBody, dt.getIDom(forCond));
+        assertSame(forBody, dt.getIDom(return0));
+        assertSame(entry, dt.getIDom(return1));
+
+        assertTrue(dt.dominates(entry, forCond));
+        assertTrue(dt.dominates(forBody, forBody));
+        assertFalse(dt.strictlyDominates(forBody, forBody));
+        assertFalse(dt.dominates(forCond, forBody));
+        assertFalse(dt.dominates(forBody, return1));
+        assertEquals(2, dt.getChildren(forBody).size());
+
+        List<BasicBlock> df = dt.getDominanceFrontier(forCond);
+        assertEquals(2, df.size());
+        assertTrue(df.contains(forBody));
+        assertTrue(df.contains(return1));
+        assertTrue(dt.getDominanceFrontier(entry).isEmpty());
+        assertTrue(dt.getDominanceFrontier(return0).isEmpty());
+    }
+
+    @Test
+    public void testLoops() {
+        cfg = func("@isPrime").getCFG();
+        LoopNest ln = cfg.getLoopNest();
+        assertSame(ln, cfg.getLoopNest());
+
+        assertEquals(1, ln.getTopLevelLoops().size());
+        Loop loop = ln.getTopLevelLoops().get(0);
+        assertSame(bb("%for.body"), loop.getHeader());
+        assertEquals(1, loop.getDepth());
+        assertEquals(2, loop.getBlocks().size());
+        assertSame(loop, ln.getLoopFor(bb("%for.cond")));
+        assertTrue(ln.isLoopHeader(bb("%for.body")));
+        assertEquals(0, ln.getLoopDepth(bb("%entry")));
+        assertNull(ln.getLoopFor(bb("%return0")));
+    }
+
+    @Test
+    public void testInvalidation() {
+        cfg = func("@isPrime").getCFG();
+        DominatorTree dt = cfg.getDominatorTree();
+        LoopNest ln = cfg.getLoopNest();
+
+        // Break the back edge.
+        InstBranch2 br = (InstBranch2) bb("%for.cond").getInsts().get(1);
+        br.setIfTrue(bb("%return0"));
+
+        DominatorTree dt2 = cfg.getDominatorTree();
+        assertNotSame(dt, dt2);
+        assertSame(dt2.getIDom(bb("%return0")), bb("%for.body"));
+        assertNotSame(ln, cfg.getLoopNest());
+        assertTrue(cfg.getLoopNest().getLoops().isEmpty());
+
+        func("@isPrime").setCFG(cfg);
+        assertNotSame(dt2, cfg.getDominatorTree());
+    }
+
+    @Test
+    public void testInvalidationByNumbering() {
+        cfg = func("@isPrime").getCFG();
+        LoopNest ln = cfg.getLoopNest();
+        DominatorTree dt = cfg.getDominatorTree();
+
+        // An unreachable block inserted before the others shifts all block
+        // indices.
+        cfg.getBBs().add(0, new BasicBlock(cfg));
+        cfg.renumber();
+        assertNotSame(ln, cfg.getLoopNest());
+        assertNotSame(dt, cfg.getDominatorTree());
+        assertEquals(0, cfg.getLoopNest().getLoopDepth(bb("%entry")));
+        assertEquals(1, cfg.getLoopNest().getLoopDepth(bb("%for.body")));
+        assertSame(bb("%entry"), cfg.getDominatorTree().getIDom(
+                bb("%return1")));
+
+        // Removing an instruction does not move blocks.
+        ln = cfg.getLoopNest();
+        BasicBlock entry = bb("%entry");
+        entry.removeInstruction(entry.getInsts().get(0));
+        assertSame(ln, cfg.getLoopNest());
+    }
+
+    @Test
+    public void testNestedLoops() {
+        cfg = SyntheticCFGs.nestedLoops(2500, 5);
+        List<BasicBlock> bbs = cfg.getBBs();
+        assertEquals(2500 * 22 + 1, bbs.size());
+
+        DominatorTree dt = cfg.getDominatorTree();
+        LoopNest ln = cfg.getLoopNest();
+        assertEquals(2500, ln.getTopLevelLoops().size());
+        assertEquals(2500 * 6, ln.getLoops().size());
+
+        // The second unit of the last group.
+        int base = 2499 * 22 + 5;
+        BasicBlock h = bbs.get(base);
+        BasicBlock x = bbs.get(base + 1);
+        BasicBlock j = bbs.get(base + 3);
+        assertSame(h, dt.getIDom(x));
+        assertSame(h, dt.getIDom(j));
+        assertTrue(dt.getDominanceFrontier(x).contains(j));
+        assertEquals(2, ln.getLoopDepth(x));
+        assertSame(h, ln.getLoopFor(j).getHeader());
+        assertSame(bbs.get(base - 5), ln.getLoopFor(j).getParent()
+                .getHeader());
+        assertEquals(5 * 4 + 2, ln.getLoopFor(j).getParent().getBlocks()
+                .size());
+        assertEquals(0, ln.getLoopDepth(bbs.get(bbs.size() - 1)));
+    }
+}
@@ -0,0 +1,55 @@
+package uvm.analysis;
+
+import uvm.CFG;
+import uvm.reducer.PhiReducer;
+
+/**
+ * Times liveness and the interference graph on chains of loops of growing
+ * size, before and after PhiReducer. Each loop defines 12 values, one of
+ * which lives across blocks. Run with:
+ * <p>
+ * java -cp ... uvm.analysis.LivenessBenchmark
+ */
+public class LivenessBenchmark {
+    private static final int REPEAT = 5;
+
+    public static void main(String[] args) {
+        int[] loopCounts = { 1000, 2000, 4000, 8000 };
+
+        for (int i = 0; i < 3; i++) {
+            run(SyntheticCFGs.phiLoops(1000, 8));
+        }
+
+        System.out.printf("%8s %8s %8s %12s %12s%n", "form", "blocks",
+                "values", "best ms", "ns/value");
+        for (int loops : loopCounts) {
+            CFG ssa = SyntheticCFGs.phiLoops(loops, 8);
+            report("ssa", ssa);
+            report("reduced", PhiReducer.reduce(ssa));
+        }
+    }
+
+    private static void report(String form, CFG cfg) {
+        long best = Long.MAX_VALUE;
+        int values = 0;
+        for (int i = 0; i < REPEAT; i++) {
+            long t0 = System.nanoTime();
+            values = run(cfg);
+            best = Math.min(best, System.nanoTime() - t0);
+        }
+        System.out.printf("%8s %8d %8d %12.2f %12.1f%n", form, cfg.getBBs()
+                .size(), values, best / 1e6, (double) best / values);
+    }
+
+    private static int run(CFG cfg) {
+        Liveness lv = new Liveness(cfg);
+        int edges = 0;
+        for (int l = 0; l < lv.getNumValues(); l++) {
+            edges += lv.getNeighbors(l).length;
+        }
+        if (edges < 0) {
+            throw new AssertionError();
+        }
+        return lv.getNumValues();
+    }
+}
@@ -0,0 +1,133 @@
+package uvm.analysis;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import uvm.BasicBlock;
+import uvm.CFG;
+import uvm.ir.text.input.BundleTester;
+import uvm.reducer.PhiReducer;
+import uvm.ssavalue.Instruction;
+import uvm.ssavalue.Value;
+
+public class LivenessTest extends BundleTester {
+
+    @Override
+    protected String bundleName() {
+        return "tests/micro-bm/int-prime-number/prime-number.uir";
+    }
+
+    private CFG cfg;
+
+    private BasicBlock bb(String name) {
+        return cfg.getBBNs().getByName(name);
+    }
+
+    private Value local(String name) {
+        if (name.equals("%a")) {
+            return cfg.getParams().get(0);
+        }
+        return cfg.getInstNs().getByName(name);
+    }
+
+    @Test
+    public void testSSA() {
+        cfg = func("@isPrime").getCFG();
+        Liveness lv = new Liveness(cfg);
+        Value a = local("%a");
+        Value inc = local("%inc");
+        Value i06 = local("%i.06");
+
+        assertTrue(lv.isLiveOut(bb("%entry"), a));
+        assertFalse(lv.isLiveIn(bb("%entry"), inc));
+        assertTrue(lv.isLiveIn(bb("%for.body"), a));
+        // Defined by the PHI, and only used through it from %for.cond.
+        assertFalse(lv.isLiveIn(bb("%for.body"), i06));
+        assertFalse(lv.isLiveIn(bb("%for.body"), inc));
+        assertTrue(lv.isLiveIn(bb("%for.cond"), inc));
+        assertTrue(lv.isLiveOut(bb("%for.cond"), inc));
+        assertTrue(lv.isLiveOut(bb("%for.body"), inc));
+        assertEquals(0, lv.getLiveIn(lv.getBlockNumber(bb("%return0"))).length);
+        assertEquals(0, lv.getLiveOut(lv.getBlockNumber(bb("%return1"))).length);
+
+        assertTrue(lv.interferes(a, inc));
+        assertTrue(lv.interferes(inc, a));
+        assertTrue(lv.interferes(a, i06));
+        assertTrue(lv.interferes(inc, local("%cmp1")));
+        // %i.06 dies where %inc is defined.
+        assertFalse(lv.interferes(i06, inc));
+        assertFalse(lv.interferes(a, a));
+    }
+
+    @Test
+    public void testReduced() {
+        CFG original = func("@isPrime").getCFG();
+        cfg = PhiReducer.reduce(original);
+        Liveness lv = new Liveness(cfg);
+        Value a = original.getParams().get(0);
+        Instruction inc = original.getInstNs().getByName("%inc");
+
+        int forks = 0;
+        int withInc = 0;
+        for (BasicBlock b : cfg.getBBs()) {
+            if (b.getName().startsWith("%for.body__phi__")) {
+                forks++;
+                assertTrue(lv.isLiveIn(b, a));
+                if (lv.isLiveIn(b, inc)) {
+                    withInc++;
+                }
+            }
+        }
+        assertEquals(2, forks);
+        // Only the copy coming from %for.cond reads %inc.
+        assertEquals(1, withInc);
+        assertTrue(lv.isLiveOut(bb("%for.cond"), inc));
+        assertTrue(lv.isLiveIn(bb("%for.cond"), inc));
+    }
+
+    @Test
+    public void testValueNumbers() {
+        CFG original = func("@isPrime").getCFG();
+        cfg = PhiReducer.reduce(original);
+        Liveness lv = new Liveness(cfg);
+        Value a = original.getParams().get(0);
+        Instruction inc = original.getInstNs().getByName("%inc");
+        int la = lv.getValueNumber(a);
+        int lInc = lv.getValueNumber(inc);
+        assertEquals(a.getID(), lv.getFrozenCFG().getLocalID(la));
+        assertEquals(inc.getID(), lv.getFrozenCFG().getLocalID(lInc));
+
+        // Numbering the original CFG takes over the shared values.
+        original.renumber();
+        assertEquals(la, lv.getValueNumber(a));
+        assertEquals(lInc, lv.getValueNumber(inc));
+    }
+
+    @Test
+    public void testPhiLoops() {
+        cfg = SyntheticCFGs.phiLoops(20000);
+        Liveness lv = new Liveness(cfg);
+        assertEquals(20000 * 4 + 3, lv.getNumValues());
+        assertEquals(20001, lv.getNumGlobalValues());
+
+        BasicBlock loop = cfg.getBBs().get(10000);
+        Instruction phi = loop.getInsts().get(0);
+        Instruction next = loop.getInsts().get(1);
+        Value n = cfg.getParams().get(0);
+        Value prev = cfg.getBBs().get(9999).getInsts().get(1);
+
+        int b = lv.getBlockNumber(loop);
+        // %prev flows in through the PHI, on the edge from the previous loop.
+        assertArrayEquals(new int[] { 0 }, lv.getLiveIn(b));
+        assertTrue(lv.isLiveOut(cfg.getBBs().get(9999), prev));
+        assertTrue(lv.isLiveOut(loop, next));
+        assertFalse(lv.isLiveOut(loop, phi));
+        assertTrue(lv.interferes(next, n));
+        assertFalse(lv.interferes(next, phi));
+        assertFalse(lv.interferes(next, prev));
+    }
+}
@@ -0,0 +1,160 @@
+package uvm.analysis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import uvm.BasicBlock;
+import uvm.CFG;
+import uvm.FunctionSignature;
+import uvm.ssavalue.BinOptr;
+import uvm.ssavalue.CmpOptr;
+import uvm.ssavalue.InstBinOp;
+import uvm.ssavalue.InstBranch;
+import uvm.ssavalue.InstBranch2;
+import uvm.ssavalue.InstCmp;
+import uvm.ssavalue.InstPhi;
+import uvm.ssavalue.InstRet;
+import uvm.ssavalue.InstRetVoid;
+import uvm.ssavalue.Instruction;
+import uvm.ssavalue.IntConstant;
+import uvm.ssavalue.Parameter;
+import uvm.ssavalue.Value;
+import uvm.type.Int;
+import uvm.type.Type;
+
+/**
+ * Builders of large CFGs for tests and benchmarks. Only the control flow is
+ * meaningful.
+ */
+public class SyntheticCFGs {
+    private static final Int I64 = new Int(64);
+
+    /**
+     * Give an instruction a fresh ID and a name, then append it.
+     */
+    private static <T extends Instruction> T add(BasicBlock bb, T inst,
+            int[] nextID) {
+        int id = nextID[0]++;
+        inst.setID(id);
+        inst.setName("%v" + id);
+        bb.addInstruction(inst);
+        return inst;
+    }
+
+    private static CFG newCFG(int numBlocks, List<BasicBlock> out) {
+        CFG cfg = new CFG();
+        Parameter param = new Parameter(new FunctionSignature(I64,
+                Collections.<Type> singletonList(I64)), 0);
+        param.setID(1);
+        param.setName("%n");
+        cfg.getParams().add(param);
+        for (int i = 0; i < numBlocks; i++) {
+            BasicBlock bb = new BasicBlock(cfg);
+            bb.setID(numBlocks + i + 2);
+            bb.setName("%b" + i);
+            cfg.getBBs().add(bb);
+            cfg.getBBNs().put(bb.getID(), bb.getName(), bb);
+            out.add(bb);
+        }
+        cfg.setEntry(out.get(0));
+        return cfg;
+    }
+
+    /**
+     * Build groups of loops. Each unit is a loop of four blocks: a header
+     * branching to one of two arms, which join in a latch. Each group of units
+     * is enclosed in an outer loop with its own header and latch block.
+     * <p>
+     * The CFG has groups * (unitsPerGroup * 4 + 2) + 1 blocks.
+     */
+    public static CFG nestedLoops(int groups, int unitsPerGroup) {
+        int numBlocks = groups * (unitsPerGroup * 4 + 2) + 1;
+        List<BasicBlock> bbs = new ArrayList<BasicBlock>();
+        CFG cfg = newCFG(numBlocks, bbs);
+        Parameter cond = cfg.getParams().get(0);
+        int[] nextID = { numBlocks * 2 + 2 };
+
+        int b = 0;
+        for (int g = 0; g < groups; g++) {
+            int groupHead = b;
+            add(bbs.get(b), new InstBranch(bbs.get(b + 1)), nextID);
+            b += 1;
+            for (int u = 0; u < unitsPerGroup; u++) {
+                BasicBlock h = bbs.get(b);
+                BasicBlock x = bbs.get(b + 1);
+                BasicBlock y = bbs.get(b + 2);
+                BasicBlock j = bbs.get(b + 3);
+                BasicBlock next = bbs.get(b + 4);
+                add(h, new InstBranch2(cond, x, y), nextID);
+                add(x, new InstBranch(j), nextID);
+                add(y, new InstBranch(j), nextID);
+                add(j, new InstBranch2(cond, h, next), nextID);
+                b += 4;
+            }
+            BasicBlock latch = bbs.get(b);
+            add(latch, new InstBranch2(cond, bbs.get(groupHead),
+                    bbs.get(b + 1)), nextID);
+            b += 1;
+        }
+        add(bbs.get(b), new InstRetVoid(), nextID);
+
+        return cfg;
+    }
+
+    /**
+     * Build a chain of counting loops in SSA form. Each loop is one block:
+     * <pre>
+     * %p = PHI &lt;@i64&gt; {%prev: %x; %self: %next}
+     * %next = ADD &lt;@i64&gt; %p 1
+     * %c = SLT &lt;@i64&gt; %next %n
+     * BRANCH2 %c %self %following
+     * </pre>
+     * where %x is the %next of the previous loop (0 for the first). The last
+     * block returns the %next of the last loop. The CFG has loops + 2 blocks
+     * and loops * 4 + 3 instructions.
+     */
+    public static CFG phiLoops(int loops) {
+        return phiLoops(loops, 0);
+    }
+
+    /**
+     * Like {@link #phiLoops(int)}, but each loop also computes a chain of
+     * extra ADD instructions from %next and %p, the last of which is compared
+     * with %n. There are loops * (4 + extra) + 3 instructions.
+     */
+    public static CFG phiLoops(int loops, int extra) {
+        int numBlocks = loops + 2;
+        List<BasicBlock> bbs = new ArrayList<BasicBlock>();
+        CFG cfg = newCFG(numBlocks, bbs);
+        Parameter n = cfg.getParams().get(0);
+        int[] nextID = { numBlocks * 2 + 2 };
+        IntConstant zero = new IntConstant(I64, 0);
+        IntConstant one = new IntConstant(I64, 1);
+
+        add(bbs.get(0), new InstBranch(bbs.get(1)), nextID);
+        Value prev = zero;
+        for (int i = 1; i <= loops; i++) {
+            BasicBlock bb = bbs.get(i);
+            Map<BasicBlock, Value> incoming = new HashMap<BasicBlock, Value>();
+            incoming.put(bbs.get(i - 1), prev);
+            InstPhi p = add(bb, new InstPhi(I64, incoming), nextID);
+            InstBinOp next = add(bb, new InstBinOp(I64, BinOptr.ADD, p, one),
+                    nextID);
+            p.setValueFrom(bb, next);
+            Value last = next;
+            for (int k = 0; k < extra; k++) {
+                last = add(bb, new InstBinOp(I64, BinOptr.ADD, last, p),
+                        nextID);
+            }
+            InstCmp c = add(bb, new InstCmp(I64, CmpOptr.SLT, last, n), nextID);
+            add(bb, new InstBranch2(c, bb, bbs.get(i + 1)), nextID);
+            prev = next;
+        }
+        add(bbs.get(loops + 1), new InstRet(I64, prev), nextID);
+
+        return cfg;
+    }
+}
@@ -0,0 +1,383 @@
+package uvm.interp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static uvm.interp.InterpreterTest.func;
+import static uvm.interp.InterpreterTest.isPrime;
+import static uvm.interp.InterpreterTest.parse;
+
+import org.junit.Test;
+
+import uvm.Bundle;
+import uvm.Function;
+import uvm.OpCode;
+import uvm.ir.text.input.TestingHelper;
+import uvm.ssavalue.Instruction;
+
+public class BytecodeInterpreterTest {
+    private static final String INTS = ".funcdef @bytes <@iii> (%x %y) {\n"
+            + "  %entry:\n"
+            + "    %a = TRUNC <@i64 @i8> %x\n"
+            + "    %b = TRUNC <@i64 @i8> %y\n"
+            + "    %sum = ADD <@i8> %a 200\n"
+            + "    %diff = SUB <@i8> %sum %b\n"
+            + "    %prod = MUL <@i8> %diff %b\n"
+            + "    %q = SDIV <@i8> %prod 3\n"
+            + "    %r = SREM <@i8> %prod 7\n"
+            + "    %uq = UDIV <@i8> %prod 3\n"
+            + "    %ur = UREM <@i8> %prod 7\n"
+            + "    %shl = SHL <@i8> %prod 3\n"
+            + "    %ashr = ASHR <@i8> %prod 2\n"
+            + "    %lshr = LSHR <@i8> %prod 2\n"
+            + "    %and = AND <@i8> %q %uq\n"
+            + "    %or = OR <@i8> %r %ur\n"
+            + "    %xor = XOR <@i8> %shl %ashr\n"
+            + "    %lt = SLT <@i8> %a %b\n"
+            + "    %ult = ULT <@i8> %a %b\n"
+            + "    %pick = SELECT <@i8> %lt %and %or\n"
+            + "    %pick2 = SELECT <@i8> %ult %xor %lshr\n"
+            + "    %s1 = SEXT <@i8 @i32> %pick\n"
+            + "    %z1 = ZEXT <@i8 @i32> %pick2\n"
+            + "    %m = MUL <@i32> %s1 65536\n"
+            + "    %m2 = ADD <@i32> %m %z1\n"
+            + "    %res = SEXT <@i32 @i64> %m2\n"
+            + "    RET <@i64> %res\n"
+            + "}\n"
+            // %more is fused into its branch. %small is too, but is also
+            // needed in %no, and %big is used in another block.
+            + ".funcdef @narrowLoop <@iii> (%x %y) {\n"
+            + "  %entry:\n"
+            + "    %a = TRUNC <@i64 @i8> %x\n"
+            + "    %b = TRUNC <@i64 @i8> %y\n"
+            + "    BRANCH %loop\n"
+            + "  %loop:\n"
+            + "    %i = PHI <@i8> { %entry: %a; %loop: %i2; }\n"
+            + "    %n = PHI <@i64> { %entry: 0; %loop: %n2; }\n"
+            + "    %i2 = ADD <@i8> %i 37\n"
+            + "    %n2 = ADD <@i64> %n 1\n"
+            + "    %big = SGT <@i8> %i2 %b\n"
+            + "    %more = ULT <@i64> %n2 20\n"
+            + "    BRANCH2 %more %loop %check\n"
+            + "  %check:\n"
+            + "    %small = SLT <@i8> %i2 %b\n"
+            + "    BRANCH2 %small %yes %no\n"
+            + "  %yes:\n"
+            + "    BRANCH %no\n"
+            + "  %no:\n"
+            + "    %c = PHI <int<1>> { %check: %big; %yes: 0; }\n"
+            + "    %ci = ZEXT <int<1> @i64> %c\n"
+            + "    %ii = ZEXT <@i8 @i64> %i2\n"
+            + "    %ci2 = SHL <@i64> %ci 8\n"
+            + "    %r = OR <@i64> %ci2 %ii\n"
+            + "    %si = ZEXT <int<1> @i64> %small\n"
+            + "    %si2 = SHL <@i64> %si 9\n"
+            + "    %r2 = OR <@i64> %r %si2\n"
+            + "    RET <@i64> %r2\n"
+            + "}\n";
+
+    private static final String FLOATS = ".funcdef @floats <@ddd> (%x %y) {\n"
+            + "  %entry:\n"
+            + "    %f = FPTRUNC <@double @float> %x\n"
+            + "    %g = FPTRUNC <@double @float> %y\n"
+            + "    %h = FDIV <@float> %f %g\n"
+            + "    %k = FREM <@float> %h 3.5f\n"
+            + "    %d = FPEXT <@float @double> %k\n"
+            + "    %e = FMUL <@double> %d %x\n"
+            + "    %c = FOLT <@double> %e %y\n"
+            + "    %u = FUNO <@double> %e %y\n"
+            + "    %n = FONE <@double> %x %y\n"
+            + "    %cu = OR <int<1>> %c %u\n"
+            + "    %cun = XOR <int<1>> %cu %n\n"
+            + "    %i = FPTOSI <@double @i32> %e\n"
+            + "    %j = SITOFP <@i32 @float> %i\n"
+            + "    %jb = BITCAST <@float @i32> %j\n"
+            + "    %jb2 = ADD <@i32> %jb 1\n"
+            + "    %jf = BITCAST <@i32 @float> %jb2\n"
+            + "    %jd = FPEXT <@float @double> %jf\n"
+            + "    %ui = FPTOUI <@double @i64> %x\n"
+            + "    %uf = UITOFP <@i64 @double> %ui\n"
+            + "    %sum = FADD <@double> %jd %uf\n"
+            + "    %r = SELECT <@double> %cun %sum %e\n"
+            + "    %r2 = FSUB <@double> %r 0.25d\n"
+            + "    RET <@double> %r2\n"
+            + "}\n";
+
+    /**
+     * Two cycles of PHIs and a PHI reading one of them, which need the
+     * scratch slot and an order.
+     */
+    private static final String CYCLES = ".funcdef @cycles <@ii> (%n) {\n"
+            + "  %entry:\n"
+            + "    BRANCH %loop\n"
+            + "  %loop:\n"
+            + "    %a = PHI <@i64> { %entry: 1; %loop: %b; }\n"
+            + "    %b = PHI <@i64> { %entry: 2; %loop: %c; }\n"
+            + "    %c = PHI <@i64> { %entry: 3; %loop: %a; }\n"
+            + "    %x = PHI <@i64> { %entry: 4; %loop: %y; }\n"
+            + "    %y = PHI <@i64> { %entry: 5; %loop: %x; }\n"
+            + "    %t = PHI <@i64> { %entry: 0; %loop: %a; }\n"
+            + "    %i = PHI <@i64> { %entry: 0; %loop: %i2; }\n"
+            + "    %i2 = ADD <@i64> %i 1\n"
+            + "    %cmp = SLT <@i64> %i2 %n\n"
+            + "    BRANCH2 %cmp %loop %exit\n"
+            + "  %exit:\n"
+            + "    %r1 = MUL <@i64> %a 100000\n"
+            + "    %r2 = MUL <@i64> %b 10000\n"
+            + "    %r3 = MUL <@i64> %c 1000\n"
+            + "    %r4 = MUL <@i64> %x 100\n"
+            + "    %r5 = MUL <@i64> %y 10\n"
+            + "    %s1 = ADD <@i64> %r1 %r2\n"
+            + "    %s2 = ADD <@i64> %s1 %r3\n"
+            + "    %s3 = ADD <@i64> %s2 %r4\n"
+            + "    %s4 = ADD <@i64> %s3 %r5\n"
+            + "    %s5 = ADD <@i64> %s4 %t\n"
+            + "    RET <@i64> %s5\n"
+            + "}\n";
+
+    private static final String CALLS = ".funcdef @fib <@ii> (%n) {\n"
+            + "  %entry:\n"
+            + "    %small = SLT <@i64> %n 2\n"
+            + "    BRANCH2 %small %base %rec\n"
+            + "  %base:\n"
+            + "    RET <@i64> %n\n"
+            + "  %rec:\n"
+            + "    %n1 = SUB <@i64> %n 1\n"
+            + "    %n2 = SUB <@i64> %n 2\n"
+            + "    %f1 = CALL <@ii> @fib (%n1)\n"
+            + "    %f2 = CALL <@ii> @fib (%n2)\n"
+            + "    %r = ADD <@i64> %f1 %f2\n"
+            + "    RET <@i64> %r\n"
+            + "}\n"
+            + ".funcdef @sumTo <@iii> (%n %acc) {\n"
+            + "  %entry:\n"
+            + "    %done = EQ <@i64> %n 0\n"
+            + "    BRANCH2 %done %exit %loop\n"
+            + "  %exit:\n"
+            + "    RET <@i64> %acc\n"
+            + "  %loop:\n"
+            + "    %acc2 = ADD <@i64> %acc %n\n"
+            + "    %n2 = SUB <@i64> %n 1\n"
+            + "    TAILCALL <@iii> @sumTo (%n2 %acc2)\n"
+            + "}\n"
+            + ".funcdef @sw <@ii> (%x) {\n"
+            + "  %entry:\n"
+            + "    SWITCH <@i64> %x %other { 1: %one; 2: %two; -1: %two; }\n"
+            + "  %one:\n"
+            + "    BRANCH %join\n"
+            + "  %two:\n"
+            + "    %t = PHI <@i64> { %entry: 20; }\n"
+            + "    BRANCH %join\n"
+            + "  %other:\n"
+            + "    BRANCH %join\n"
+            + "  %join:\n"
+            + "    %r = PHI <@i64> { %one: 10; %two: %t; %other: %x; }\n"
+            + "    RET <@i64> %r\n"
+            + "}\n"
+            + ".funcdef @one <@ii> (%x) {\n"
+            + "  %entry:\n"
+            + "    RET <@i64> 1\n"
+            + "}\n"
+            + ".funcdef @two <@ii> (%x) {\n"
+            + "  %entry:\n"
+            + "    RET <@i64> 2\n"
+            + "}\n"
+            + ".funcdef @callsOne <@ii> (%x) {\n"
+            + "  %entry:\n"
+            + "    %r = CALL <@ii> @one (%x)\n"
+            + "    RET <@i64> %r\n"
+            + "}\n"
+            + ".funcdecl @missing <@ii>\n"
+            + ".funcdef @traps <@ii> (%x) {\n"
+            + "  %entry:\n"
+            + "    %z = EQ <@i64> %x 0\n"
+            + "    BRANCH2 %z %bad %call\n"
+            + "  %bad:\n"
+            + "    %p = ALLOCA <@i64>\n"
+            + "    RET <@i64> 0\n"
+            + "  %call:\n"
+            + "    %big = SGT <@i64> %x 1\n"
+            + "    BRANCH2 %big %missing %ok\n"
+            + "  %missing:\n"
+            + "    %r = CALL <@ii> @missing (%x)\n"
+            + "    RET <@i64> %r\n"
+            + "  %ok:\n"
+            + "    RET <@i64> 7\n"
+            + "}\n";
+
+    private static void assertSameLong(Bundle bundle, String name,
+            long... args) {
+        Function fn = func(bundle, name);
+        long expected = new Interpreter().runLong(fn, args);
+        assertEquals(name, expected, new BytecodeInterpreter().runLong(fn,
+                args));
+    }
+
+    private static void assertSameDouble(Bundle bundle, String name,
+            double... args) {
+        Function fn = func(bundle, name);
+        double expected = new Interpreter().runDouble(fn, args);
+        double actual = new BytecodeInterpreter().runDouble(fn, args);
+        assertEquals(name, Double.doubleToLongBits(expected),
+                Double.doubleToLongBits(actual));
+    }
+
+    @Test
+    public void testPrimeNumber() throws Exception {
+        Bundle bundle = TestingHelper
+                .parseUir("tests/micro-bm/int-prime-number/prime-number.uir");
+        Function fn = func(bundle, "@isPrime");
+        BytecodeInterpreter interp = new BytecodeInterpreter();
+        for (long a = 1; a <= 100; a++) {
+            assertEquals("isPrime(" + a + ")", isPrime(a) ? 1 : 0,
+                    interp.runLong(fn, a));
+        }
+        assertEquals(0, interp.runLong(func(bundle, "@main")));
+
+        // The PHI became a MOVE on each edge into its block.
+        String code = Bytecode.of(fn).toString();
+        assertFalse(code, code.contains("PHI"));
+        assertTrue(code, code.contains("MOVE"));
+    }
+
+    @Test
+    public void testSameAsInterpreter() {
+        Bundle bundle = parse(INTS + FLOATS + CYCLES);
+        long[] ints = { -300, -129, -128, -1, 0, 1, 3, 127, 128, 255, 1000 };
+        for (long x : ints) {
+            for (long y : ints) {
+                if ((y & 0xff) != 0) {
+                    assertSameLong(bundle, "@bytes", x, y);
+                }
+                assertSameLong(bundle, "@narrowLoop", x, y);
+            }
+        }
+        double[] doubles = { -7.5, -1, 0, 0.1, 2.75, 1e10, 0x1.8p63,
+                Double.NaN, Double.POSITIVE_INFINITY };
+        for (double x : doubles) {
+            for (double y : doubles) {
+                assertSameDouble(bundle, "@floats", x, y);
+            }
+        }
+        for (long n = 0; n <= 7; n++) {
+            assertSameLong(bundle, "@cycles", n);
+        }
+    }
+
+    @Test
+    public void testCalls() {
+        Bundle bundle = parse(CALLS);
+        BytecodeInterpreter interp = new BytecodeInterpreter();
+        assertEquals(55, interp.runLong(func(bundle, "@fib"), 10));
+        assertEquals(100000L * 100001 / 2,
+                interp.runLong(func(bundle, "@sumTo"), 100000, 0));
+        long[] cases = { 1, 2, -1, 7, 0 };
+        for (long x : cases) {
+            assertSameLong(bundle, "@sw", x);
+        }
+    }
+
+    @Test
+    public void testTraps() {
+        Bundle bundle = parse(CALLS);
+        Function fn = func(bundle, "@traps");
+        BytecodeInterpreter interp = new BytecodeInterpreter();
+        // Unsupported instructions fail only when they are reached.
+        assertEquals(7, interp.runLong(fn, 1));
+        try {
+            interp.runLong(fn, 0);
+            fail();
+        } catch (InterpreterException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("ALLOCA"));
+        }
+        try {
+            interp.runLong(fn, 2);
+            fail();
+        } catch (InterpreterException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("@missing"));
+        }
+    }
+
+    @Test
+    public void testBranchTargets() {
+        Bundle bundle = parse(CALLS + CYCLES);
+        for (Function fn : bundle.getFuncNs().getObjects()) {
+            if (fn.getCFG() == null) {
+                continue;
+            }
+            Bytecode bc = Bytecode.of(fn);
+            int[] code = bc.getCode();
+            boolean[] starts = new boolean[code.length];
+            for (int pc = 0; pc < code.length; pc += Bytecode
+                    .length(code, pc)) {
+                starts[pc] = true;
+            }
+            for (int pc = 0; pc < code.length; pc += Bytecode
+                    .length(code, pc)) {
+                switch (code[pc]) {
+                case OpCode.BRANCH:
+                    assertTrue(bc.toString(), starts[code[pc + 1]]);
+                    break;
+                case OpCode.BRANCH2:
+                    assertTrue(bc.toString(), starts[code[pc + 2]]);
+                    assertTrue(bc.toString(), starts[code[pc + 3]]);
+                    break;
+                case Bytecode.BRANCH_CMP + OpCode.EQ:
+                case Bytecode.BRANCH_CMP + OpCode.SLT:
+                case Bytecode.BRANCH_CMP + OpCode.SGT:
+                    assertTrue(bc.toString(), starts[code[pc + 4]]);
+                    assertTrue(bc.toString(), starts[code[pc + 5]]);
+                    break;
+                case OpCode.SWITCH:
+                    assertTrue(bc.toString(), starts[code[pc + 2]]);
+                    for (int c = 0; c < code[pc + 3]; c++) {
+                        assertTrue(bc.toString(), starts[code[pc + 5 + 2 * c]]);
+                    }
+                    break;
+                default:
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCachedUntilRedefined() {
+        Bundle bundle = parse(CALLS);
+        Function one = func(bundle, "@one");
+        Function callsOne = func(bundle, "@callsOne");
+        BytecodeInterpreter interp = new BytecodeInterpreter();
+        assertEquals(1, interp.runLong(callsOne, 0));
+        Bytecode bc = Bytecode.of(one);
+        assertSame(bc, Bytecode.of(one));
+        assertSame(bc, one.getCompiledCode());
+
+        // Redefining a callee takes effect in its callers.
+        one.setCFG(func(bundle, "@two").getCFG());
+        assertEquals(null, one.getCompiledCode());
+        assertEquals(2, interp.runLong(callsOne, 0));
+        assertNotSame(bc, Bytecode.of(one));
+    }
+
+    @Test
+    public void testRecompiledAfterEdit() {
+        Bundle bundle = parse(CALLS);
+        Function fib = func(bundle, "@fib");
+        BytecodeInterpreter interp = new BytecodeInterpreter();
+        assertEquals(3, interp.runLong(fib, 4));
+        Bytecode bc = Bytecode.of(fib);
+        assertSame(bc, Bytecode.of(fib));
+
+        // fib(n) = 2 * fib(n - 1), edited in place.
+        Instruction f1 = fib.getCFG().getInstNs().getByName("%f1");
+        Instruction f2 = fib.getCFG().getInstNs().getByName("%f2");
+        f2.replaceAllUsesWith(f1);
+        assertNotSame(bc, Bytecode.of(fib));
+        bc = Bytecode.of(fib);
+        f2.eraseFromParent();
+        assertNotSame(bc, Bytecode.of(fib));
+        assertEquals(8, interp.runLong(fib, 4));
+    }
+}
@@ -0,0 +1,78 @@
+package uvm.interp;
+
+import uvm.Bundle;
+import uvm.Function;
+import uvm.ir.text.input.TestingHelper;
+
+/**
+ * Times {@link Interpreter} and {@link BytecodeInterpreter} on @isPrime from
+ * the prime number micro benchmark, called for every number below a limit.
+ * Instructions are counted by Interpreter. Run with:
+ * <p>
+ * java -cp ... uvm.interp.InterpreterBenchmark
+ */
+public class InterpreterBenchmark {
+    private static final int REPEAT = 5;
+
+    private static final String FILE =
+            "tests/micro-bm/int-prime-number/prime-number.uir";
+
+    public static void main(String[] args) throws Exception {
+        int[] limits = { 5000, 10000, 20000 };
+
+        Bundle bundle = TestingHelper.parseUir(FILE);
+        Function isPrime = bundle.getFuncNs().getByName("@isPrime");
+        Interpreter interp = new Interpreter();
+        BytecodeInterpreter bytecode = new BytecodeInterpreter();
+        for (int i = 0; i < 3; i++) {
+            run(interp, isPrime, 5000);
+            run(bytecode, isPrime, 5000);
+        }
+
+        System.out.printf("%8s %8s %12s %12s %10s %12s %10s %8s%n", "limit",
+                "primes", "insts", "objects ms", "ns/inst", "bytecode ms",
+                "ns/inst", "speedup");
+        for (int limit : limits) {
+            long best = Long.MAX_VALUE;
+            long insts = 0;
+            long primes = 0;
+            for (int i = 0; i < REPEAT; i++) {
+                interp.resetInstructionCount();
+                long t0 = System.nanoTime();
+                primes = run(interp, isPrime, limit);
+                best = Math.min(best, System.nanoTime() - t0);
+                insts = interp.getInstructionCount();
+            }
+            long bestBytecode = Long.MAX_VALUE;
+            for (int i = 0; i < REPEAT; i++) {
+                long t0 = System.nanoTime();
+                if (run(bytecode, isPrime, limit) != primes) {
+                    throw new AssertionError();
+                }
+                bestBytecode = Math.min(bestBytecode, System.nanoTime() - t0);
+            }
+            System.out.printf(
+                    "%8d %8d %12d %12.2f %10.2f %12.2f %10.2f %8.1f%n", limit,
+                    primes, insts, best / 1e6, (double) best / insts,
+                    bestBytecode / 1e6, (double) bestBytecode / insts,
+                    (double) best / bestBytecode);
+        }
+    }
+
+    private static long run(Interpreter interp, Function isPrime, int limit) {
+        long primes = 0;
+        for (long a = 2; a < limit; a++) {
+            primes += interp.runLong(isPrime, a);
+        }
+        return primes;
+    }
+
+    private static long run(BytecodeInterpreter interp, Function isPrime,
+            int limit) {
+        long primes = 0;
+        for (long a = 2; a < limit; a++) {
+            primes += interp.runLong(isPrime, a);
+        }
+        return primes;
+    }
+}
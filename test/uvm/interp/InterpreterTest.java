@@ -0,0 +1,346 @@
+package uvm.interp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import uvm.Bundle;
+import uvm.Function;
+import uvm.ir.text.input.IRTextReader;
+import uvm.ir.text.input.TestingHelper;
+
+public class InterpreterTest {
+    static final String TYPES = ".typedef @i8 = int<8>\n"
+            + ".typedef @i32 = int<32>\n"
+            + ".typedef @i64 = int<64>\n"
+            + ".typedef @float = float\n"
+            + ".typedef @double = double\n"
+            + ".funcsig @ii = @i64 (@i64)\n"
+            + ".funcsig @iii = @i64 (@i64 @i64)\n"
+            + ".funcsig @dd = @double (@double)\n"
+            + ".funcsig @ddd = @double (@double @double)\n";
+
+    static Bundle parse(String text) {
+        return new IRTextReader().read(TYPES + text, null);
+    }
+
+    static Function func(Bundle bundle, String name) {
+        return bundle.getFuncNs().getByName(name);
+    }
+
+    static boolean isPrime(long a) {
+        for (long i = 2; i < a; i++) {
+            if (a % i == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Test
+    public void testPrimeNumber() throws Exception {
+        Bundle bundle = TestingHelper
+                .parseUir("tests/micro-bm/int-prime-number/prime-number.uir");
+        Function fn = func(bundle, "@isPrime");
+        Interpreter interp = new Interpreter();
+        for (long a = 1; a <= 100; a++) {
+            assertEquals("isPrime(" + a + ")", isPrime(a) ? 1 : 0,
+                    interp.runLong(fn, a));
+        }
+        assertTrue(interp.getInstructionCount() > 0);
+        interp.resetInstructionCount();
+        assertEquals(0, interp.getInstructionCount());
+        assertEquals(0, interp.runLong(func(bundle, "@main")));
+    }
+
+    @Test
+    public void testIntArithmetic() {
+        Bundle bundle = parse(".funcdef @bytes <@ii> (%x) {\n"
+                + "  %entry:\n"
+                + "    %b = TRUNC <@i64 @i8> %x\n"
+                + "    %sum = ADD <@i8> %b 200\n"
+                + "    %s = SEXT <@i8 @i64> %sum\n"
+                + "    %z = ZEXT <@i8 @i64> %sum\n"
+                + "    %q = SDIV <@i8> %sum 3\n"
+                + "    %uq = UDIV <@i8> %sum 3\n"
+                + "    %sr = ASHR <@i8> %sum 1\n"
+                + "    %ur = LSHR <@i8> %sum 1\n"
+                + "    %t = SEXT <@i8 @i64> %q\n"
+                + "    %t2 = MUL <@i64> %t 1000\n"
+                + "    %u = ZEXT <@i8 @i64> %uq\n"
+                + "    %a = ADD <@i64> %t2 %u\n"
+                + "    %v = SEXT <@i8 @i64> %sr\n"
+                + "    %v2 = MUL <@i64> %v 1000000\n"
+                + "    %w = ZEXT <@i8 @i64> %ur\n"
+                + "    %w2 = MUL <@i64> %w 1000000000\n"
+                + "    %r1 = ADD <@i64> %a %v2\n"
+                + "    %r2 = ADD <@i64> %r1 %w2\n"
+                + "    %r3 = SUB <@i64> %r2 %s\n"
+                + "    %r4 = ADD <@i64> %r3 %z\n"
+                + "    RET <@i64> %r4\n"
+                + "}\n"
+                + ".funcdef @rem <@iii> (%a %b) {\n"
+                + "  %entry:\n"
+                + "    %s = SREM <@i64> %a %b\n"
+                + "    %u = UREM <@i64> %a %b\n"
+                + "    %x = XOR <@i64> %s %u\n"
+                + "    %o = OR <@i64> %x 1\n"
+                + "    %n = AND <@i64> %o %s\n"
+                + "    %l = SHL <@i64> %n 4\n"
+                + "    RET <@i64> %l\n"
+                + "}\n");
+        Interpreter interp = new Interpreter();
+        Function bytes = func(bundle, "@bytes");
+        for (long x = -300; x <= 300; x += 7) {
+            byte sum = (byte) (x + 200);
+            int z = sum & 0xff;
+            long expected = sum / 3 * 1000L + z / 3 + (sum >> 1) * 1000000L
+                    + (z >>> 1) * 1000000000L - sum + z;
+            assertEquals("bytes(" + x + ")", expected, interp.runLong(bytes, x));
+        }
+
+        Function rem = func(bundle, "@rem");
+        long[][] cases = { { 17, 5 }, { -17, 5 }, { 17, -5 }, { -1, 3 } };
+        for (long[] c : cases) {
+            long s = c[0] % c[1];
+            long u = Long.remainderUnsigned(c[0], c[1]);
+            assertEquals(((s ^ u | 1) & s) << 4, interp.runLong(rem, c[0], c[1]));
+        }
+        try {
+            interp.runLong(rem, 1, 0);
+            fail();
+        } catch (ArithmeticException e) {
+        }
+    }
+
+    @Test
+    public void testComparisons() {
+        String[] ops = { "EQ", "NE", "SGE", "SGT", "SLE", "SLT", "UGE", "UGT",
+                "ULE", "ULT" };
+        StringBuilder text = new StringBuilder();
+        for (String op : ops) {
+            text.append(".funcdef @" + op + " <@iii> (%a %b) {\n"
+                    + "  %entry:\n"
+                    + "    %x = TRUNC <@i64 @i8> %a\n"
+                    + "    %y = TRUNC <@i64 @i8> %b\n"
+                    + "    %c = " + op + " <@i8> %x %y\n"
+                    + "    %r = ZEXT <int<1> @i64> %c\n"
+                    + "    RET <@i64> %r\n"
+                    + "}\n");
+        }
+        Bundle bundle = parse(text.toString());
+        Interpreter interp = new Interpreter();
+        long[] values = { -128, -1, 0, 1, 127 };
+        for (long a : values) {
+            for (long b : values) {
+                int ua = (int) a & 0xff;
+                int ub = (int) b & 0xff;
+                boolean[] expected = { a == b, a != b, a >= b, a > b, a <= b,
+                        a < b, ua >= ub, ua > ub, ua <= ub, ua < ub };
+                for (int i = 0; i < ops.length; i++) {
+                    assertEquals(ops[i] + " " + a + " " + b, expected[i] ? 1
+                            : 0, interp.runLong(func(bundle, "@" + ops[i]), a,
+                            b));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFloatingPoint() {
+        String[] ops = { "FFALSE", "FTRUE", "FUNO", "FUEQ", "FUNE", "FUGT",
+                "FUGE", "FULT", "FULE", "FORD", "FOEQ", "FONE", "FOGT", "FOGE",
+                "FOLT", "FOLE" };
+        StringBuilder text = new StringBuilder();
+        for (String op : ops) {
+            text.append(".funcdef @" + op + " <@ddd> (%a %b) {\n"
+                    + "  %entry:\n"
+                    + "    %c = " + op + " <@double> %a %b\n"
+                    + "    %r = SELECT <@double> %c 1.0d 0.0d\n"
+                    + "    RET <@double> %r\n"
+                    + "}\n");
+        }
+        text.append(".funcdef @arith <@ddd> (%a %b) {\n"
+                + "  %entry:\n"
+                + "    %s = FADD <@double> %a %b\n"
+                + "    %d = FSUB <@double> %s 0.5d\n"
+                + "    %m = FMUL <@double> %d %b\n"
+                + "    %q = FDIV <@double> %m 3.0d\n"
+                + "    %r = FREM <@double> %q 7.0d\n"
+                + "    %f = FPTRUNC <@double @float> %r\n"
+                + "    %f2 = FMUL <@float> %f 1.1f\n"
+                + "    %e = FPEXT <@float @double> %f2\n"
+                + "    RET <@double> %e\n"
+                + "}\n");
+        text.append(".funcdef @conv <@dd> (%a) {\n"
+                + "  %entry:\n"
+                + "    %s = FPTOSI <@double @i32> %a\n"
+                + "    %u = FPTOUI <@double @i64> %a\n"
+                + "    %s2 = SITOFP <@i32 @double> %s\n"
+                + "    %u2 = UITOFP <@i64 @double> %u\n"
+                + "    %bits = BITCAST <@double @i64> %a\n"
+                + "    %back = BITCAST <@i64 @double> %bits\n"
+                + "    %f = FPTRUNC <@double @float> %a\n"
+                + "    %fbits = BITCAST <@float @i32> %f\n"
+                + "    %fback = BITCAST <@i32 @float> %fbits\n"
+                + "    %fd = FPEXT <@float @double> %fback\n"
+                + "    %x = FMUL <@double> %s2 1000.0d\n"
+                + "    %y = FADD <@double> %x %u2\n"
+                + "    %z = FADD <@double> %y %back\n"
+                + "    %w = FSUB <@double> %z %fd\n"
+                + "    RET <@double> %w\n"
+                + "}\n");
+        Bundle bundle = parse(text.toString());
+        Interpreter interp = new Interpreter();
+        double nan = Double.NaN;
+        double[] values = { -1.5, 0, 2.25, nan };
+        for (double a : values) {
+            for (double b : values) {
+                boolean uno = a != a || b != b;
+                boolean[] expected = { false, true, uno, uno || a == b,
+                        a != b, uno || a > b, uno || a >= b, uno || a < b,
+                        uno || a <= b, !uno, a == b, !uno && a != b, a > b,
+                        a >= b, a < b, a <= b };
+                for (int i = 0; i < ops.length; i++) {
+                    assertEquals(ops[i] + " " + a + " " + b, expected[i] ? 1.0
+                            : 0.0, interp.runDouble(
+                            func(bundle, "@" + ops[i]), a, b), 0);
+                }
+            }
+        }
+
+        for (double a : values) {
+            for (double b : values) {
+                double expected = (float) (((a + b - 0.5) * b / 3) % 7) * 1.1f;
+                assertEquals(expected,
+                        interp.runDouble(func(bundle, "@arith"), a, b), 0);
+            }
+        }
+
+        double a = 12345.678;
+        float f = (float) a;
+        double expected = (int) a * 1000.0 + (long) a + a - f;
+        assertEquals(expected, interp.runDouble(func(bundle, "@conv"), a), 0);
+        // Above 2^63, FPTOUI and UITOFP take the unsigned range.
+        double big = 0x1.8p63;
+        assertEquals(big - (float) big + big + (double) -1 * 1000,
+                interp.runDouble(func(bundle, "@conv"), big), 0);
+    }
+
+    @Test
+    public void testCalls() {
+        Bundle bundle = parse(".funcdef @fib <@ii> (%n) {\n"
+                + "  %entry:\n"
+                + "    %small = SLT <@i64> %n 2\n"
+                + "    BRANCH2 %small %base %rec\n"
+                + "  %base:\n"
+                + "    RET <@i64> %n\n"
+                + "  %rec:\n"
+                + "    %n1 = SUB <@i64> %n 1\n"
+                + "    %n2 = SUB <@i64> %n 2\n"
+                + "    %f1 = CALL <@ii> @fib (%n1)\n"
+                + "    %f2 = CALL <@ii> @fib (%n2)\n"
+                + "    %r = ADD <@i64> %f1 %f2\n"
+                + "    RET <@i64> %r\n"
+                + "}\n"
+                + ".funcdef @sumTo <@iii> (%n %acc) {\n"
+                + "  %entry:\n"
+                + "    %done = EQ <@i64> %n 0\n"
+                + "    BRANCH2 %done %exit %loop\n"
+                + "  %exit:\n"
+                + "    RET <@i64> %acc\n"
+                + "  %loop:\n"
+                + "    %acc2 = ADD <@i64> %acc %n\n"
+                + "    %n2 = SUB <@i64> %n 1\n"
+                + "    TAILCALL <@iii> @sumTo (%n2 %acc2)\n"
+                + "}\n"
+                + ".funcdef @half <@dd> (%x) {\n"
+                + "  %entry:\n"
+                + "    %h = FMUL <@double> %x 0.5d\n"
+                + "    RET <@double> %h\n"
+                + "}\n"
+                + ".funcdef @quarter <@dd> (%x) {\n"
+                + "  %entry:\n"
+                + "    %h = CALL <@dd> @half (%x)\n"
+                + "    TAILCALL <@dd> @half (%h)\n"
+                + "}\n"
+                + ".funcdecl @missing <@ii>\n"
+                + ".funcdef @callsMissing <@ii> (%n) {\n"
+                + "  %entry:\n"
+                + "    %r = CALL <@ii> @missing (%n)\n"
+                + "    RET <@i64> %r\n"
+                + "}\n");
+        Interpreter interp = new Interpreter();
+        assertEquals(55, interp.runLong(func(bundle, "@fib"), 10));
+        // Deep enough to overflow the Java stack if TAILCALL recursed.
+        assertEquals(100000L * 100001 / 2,
+                interp.runLong(func(bundle, "@sumTo"), 100000, 0));
+        assertEquals(2.5, interp.runDouble(func(bundle, "@quarter"), 10), 0);
+        try {
+            interp.runLong(func(bundle, "@callsMissing"), 1);
+            fail();
+        } catch (InterpreterException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("@missing"));
+        }
+    }
+
+    @Test
+    public void testSwitchAndPhi() {
+        Bundle bundle = parse(".funcdef @sw <@ii> (%x) {\n"
+                + "  %entry:\n"
+                + "    SWITCH <@i64> %x %other { 1: %one; 2: %two; -1: %two; }\n"
+                + "  %one:\n"
+                + "    BRANCH %join\n"
+                + "  %two:\n"
+                + "    BRANCH %join\n"
+                + "  %other:\n"
+                + "    BRANCH %join\n"
+                + "  %join:\n"
+                + "    %r = PHI <@i64> { %one: 10; %two: 20; %other: %x; }\n"
+                + "    RET <@i64> %r\n"
+                + "}\n"
+                + ".funcdef @swap <@ii> (%n) {\n"
+                + "  %entry:\n"
+                + "    BRANCH %loop\n"
+                + "  %loop:\n"
+                + "    %a = PHI <@i64> { %entry: 1; %loop: %b; }\n"
+                + "    %b = PHI <@i64> { %entry: 2; %loop: %a; }\n"
+                + "    %i = PHI <@i64> { %entry: 0; %loop: %i2; }\n"
+                + "    %i2 = ADD <@i64> %i 1\n"
+                + "    %c = SLT <@i64> %i2 %n\n"
+                + "    BRANCH2 %c %loop %exit\n"
+                + "  %exit:\n"
+                + "    %r = MUL <@i64> %a 10\n"
+                + "    %r2 = ADD <@i64> %r %b\n"
+                + "    RET <@i64> %r2\n"
+                + "}\n");
+        Interpreter interp = new Interpreter();
+        Function sw = func(bundle, "@sw");
+        assertEquals(10, interp.runLong(sw, 1));
+        assertEquals(20, interp.runLong(sw, 2));
+        assertEquals(20, interp.runLong(sw, -1));
+        assertEquals(7, interp.runLong(sw, 7));
+        // The PHIs swap at once, rather than one after the other.
+        Function swap = func(bundle, "@swap");
+        assertEquals(12, interp.runLong(swap, 1));
+        assertEquals(21, interp.runLong(swap, 2));
+        assertEquals(12, interp.runLong(swap, 3));
+    }
+
+    @Test
+    public void testUnsupported() {
+        Bundle bundle = parse(".funcdef @alloca <@ii> (%n) {\n"
+                + "  %entry:\n"
+                + "    %r = ALLOCA <@i64>\n"
+                + "    RET <@i64> %n\n"
+                + "}\n");
+        try {
+            new Interpreter().runLong(func(bundle, "@alloca"), 1);
+            fail();
+        } catch (InterpreterException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("ALLOCA"));
+        }
+    }
+}
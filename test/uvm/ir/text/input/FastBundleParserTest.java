@@ -0,0 +1,319 @@
+package uvm.ir.text.input;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.junit.Test;
+
+import uvm.BasicBlock;
+import uvm.Bundle;
+import uvm.CFG;
+import uvm.Function;
+import uvm.ssavalue.Constant;
+import uvm.ssavalue.DoubleConstant;
+import uvm.ssavalue.FloatConstant;
+import uvm.ssavalue.InstPhi;
+import uvm.ssavalue.Instruction;
+import uvm.ssavalue.IntConstant;
+import uvm.ssavalue.StructConstant;
+import uvm.ssavalue.UseBox;
+
+public class FastBundleParserTest {
+    private static Bundle buildWithANTLR(String text, Bundle globalBundle) {
+        IRTextReader reader = new IRTextReader();
+        reader.setFastPath(false);
+        return reader.read(new ANTLRInputStream(text), globalBundle);
+    }
+
+    private static Bundle buildFast(String text, Bundle globalBundle) {
+        FastBundleParser fbp = globalBundle == null ? new FastBundleParser()
+                : new FastBundleParser(globalBundle);
+        fbp.build(text);
+        return fbp.getBundle();
+    }
+
+    private static void assertSameBundle(Bundle expected, Bundle actual) {
+        assertEquals(TestingHelper.canonicalText(expected),
+                TestingHelper.canonicalText(actual));
+        assertEquals(expected.getGlobalValueNs().getObjects().size(), actual
+                .getGlobalValueNs().getObjects().size());
+        assertEquals(expected.getConstantPool().size(), actual
+                .getConstantPool().size());
+    }
+
+    @Test
+    public void testSameAsANTLR() throws IOException {
+        for (String file : TestingHelper.FILES) {
+            String text = TestingHelper.read(file);
+            assertSameBundle(buildWithANTLR(text, null), buildFast(text, null));
+        }
+
+        Bundle primitives = buildWithANTLR(
+                TestingHelper.read("tests/uvm-refimpl-test/primitives.uir"),
+                null);
+        for (String file : TestingHelper.FILES_ON_PRIMITIVES) {
+            String text = TestingHelper.read(file);
+            assertSameBundle(buildWithANTLR(text, primitives),
+                    buildFast(text, primitives));
+        }
+    }
+
+    private static Bundle buildOnPool(String text, ForkJoinPool pool) {
+        FastBundleParser fbp = new FastBundleParser();
+        fbp.setPool(pool);
+        fbp.build(text);
+        return fbp.getBundle();
+    }
+
+    /**
+     * Many functions, with directives and dotted names in places where they
+     * must not be mistaken for definitions.
+     */
+    private static String bigText(int funcs) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(".typedef @i64 = int<64>\n.typedef @i1 = int<1>\n");
+        sb.append(".funcsig @sig = @i64 (@i64)\n");
+        for (int i = 0; i < funcs; i++) {
+            sb.append("// .funcdef @fake").append(i).append(" is a comment\n");
+            sb.append(".funcdef @f.").append(i).append(" <@sig> (%x.0) {\n");
+            sb.append("  %entry.b: %y.funcdef = ADD <@i64> %x.0 ").append(i % 7)
+                    .append("\n");
+            sb.append("    %c = SLT <@i64> %y.funcdef 100\n");
+            sb.append("    BRANCH2 %c %a.typedef %b.const\n");
+            sb.append("  %a.typedef: %z = CALL <@sig> @f.")
+                    .append((i + 1) % funcs).append(" (%y.funcdef)\n");
+            sb.append("    RET <@i64> %z\n");
+            sb.append("  %b.const: RET <@i64> %y.funcdef\n}\n");
+        }
+        return sb.toString();
+    }
+
+    private static void assertRegistered(Bundle bundle, Constant constant) {
+        assertSame(constant, bundle.getGlobalValueNs().getByID(
+                constant.getID()));
+        if (constant instanceof StructConstant) {
+            for (Constant field : ((StructConstant) constant).getValues()) {
+                assertRegistered(bundle, field);
+            }
+        }
+    }
+
+    @Test
+    public void testParallelStructFields() {
+        // Each body is its own batch, and both make the anonymous constants
+        // 1 and 2.0d, which are merged into the first body's ones.
+        StringBuilder sb = new StringBuilder();
+        sb.append(".typedef @s = struct <int<64> double>\n");
+        for (int f = 0; f < 2; f++) {
+            sb.append(".funcdef @f").append(f).append(" <void ()> () {\n");
+            sb.append("    %a = ADD <int<64>> 1 1\n");
+            sb.append("    %b = EXTRACTVALUE <@s 0> {1 2.0d}\n");
+            sb.append("    RETVOID\n}\n");
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Bundle bundle = buildOnPool(sb.toString(), pool);
+            for (Constant constant : bundle.getDeclaredConstNs().getObjects()) {
+                assertRegistered(bundle, constant);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testParallel() throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (String file : TestingHelper.FILES) {
+                String text = TestingHelper.read(file);
+                assertSameBundle(buildOnPool(text, null),
+                        buildOnPool(text, pool));
+            }
+
+            String text = bigText(3000);
+            Bundle expected = buildOnPool(text, null);
+            Bundle actual = buildOnPool(text, pool);
+            assertEquals(3000, actual.getFuncNs().getObjects().size());
+            assertSameBundle(expected, actual);
+            for (Function func : actual.getFuncNs().getObjects()) {
+                assertSame(func, func.getCFG().getFunc());
+            }
+
+            // Errors in any chunk are reported at the right line.
+            try {
+                buildOnPool(text + "\n$\n", pool);
+                fail("Expected an error");
+            } catch (ASTParsingException e) {
+                int lines = text.split("\n").length;
+                assertTrue(e.getMessage(),
+                        e.getMessage().startsWith("line " + (lines + 2) + " "));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testRedefinition() throws IOException {
+        Bundle global = buildWithANTLR(
+                TestingHelper.read("tests/uvm-refimpl-test/primitives.uir"),
+                null);
+        global.mergeFrom(buildWithANTLR(
+                TestingHelper.read("tests/uvm-refimpl-test/redef-file1.uir"),
+                global));
+        for (String file : new String[] {
+                "tests/uvm-refimpl-test/redef-file2.uir",
+                "tests/uvm-refimpl-test/redef-file3.uir" }) {
+            String text = TestingHelper.read(file);
+            Bundle expected = buildWithANTLR(text, global);
+            Bundle actual = buildFast(text, global);
+            assertSameBundle(expected, actual);
+            assertEquals(expected.getFuncNs().getIDSet(), actual.getFuncNs()
+                    .getIDSet());
+        }
+    }
+
+    @Test
+    public void testForwardReferences() {
+        Bundle bundle = buildFast(".typedef @i64 = int<64>\n"
+                + ".typedef @i1 = int<1>\n"
+                + ".funcdef @f <@i64 (@i64)> (%n) {\n"
+                + "  %entry: BRANCH %head\n"
+                + "  %head:\n"
+                + "    %i = PHI <@i64> { %entry: 0; %head: %next; }\n"
+                + "    %next = ADD <@i64> %i 1 // %next is used before\n"
+                + "    %c = SLT <@i64> %next %n\n"
+                + "    BRANCH2 %c %head %exit\n"
+                + "  %exit: RET <@i64> %next\n" + "}\n", null);
+
+        CFG cfg = bundle.getFuncNs().getByName("@f").getCFG();
+        BasicBlock head = cfg.getBBNs().getByName("%head");
+        assertEquals(3, cfg.getBBs().size());
+        assertSame(head, cfg.getBBs().get(1));
+        assertEquals(2, head.getPredecessors().size());
+
+        InstPhi phi = (InstPhi) cfg.getInstNs().getByName("%i");
+        assertSame(cfg.getInstNs().getByName("%next"),
+                phi.getValueFrom(head));
+        assertEquals(0L, ((IntConstant) phi.getValueFrom(cfg.getEntry()))
+                .getValue());
+        for (UseBox ub : cfg.getInstNs().getByName("%next").getUsedBy()) {
+            assertSame(cfg.getInstNs().getByName("%next"), ub.getDst());
+        }
+        assertEquals(3, cfg.getInstNs().getByName("%next").getUsedBy().size());
+    }
+
+    @Test
+    public void testLiterals() {
+        String text = ".typedef @i64 = int<64>\n.typedef @f = float\n"
+                + ".typedef @d = double\n"
+                + ".const @dec <@i64> = -42\n"
+                + ".const @oct <@i64> = -017\n"
+                + ".const @hex <@i64> = 0xfedcba9876543210\n"
+                + ".const @neghex <@i64> = -0x10\n"
+                + ".const @f1 <@f> = -2.5e-3f\n"
+                + ".const @f2 <@f> = bitsf(0x3f800000)\n"
+                + ".const @f3 <@f> = -inf f\n"
+                + ".const @d1 <@d> = 0.1d\n"
+                + ".const @d2 <@d> = 1.7976931348623157e308d\n"
+                + ".const @d3 <@d> = bitsd(0x4000000000000000)\n";
+
+        IRTextReader reader = new IRTextReader();
+        reader.setFastPath(false);
+        Bundle[] bundles = { buildFast(text, null), reader.read(text, null),
+                buildWithANTLR(text, null) };
+        for (Bundle bundle : bundles) {
+            assertEquals(-42L, ((IntConstant) bundle.getGlobalValueNs()
+                    .getByName("@dec")).getValue());
+            assertEquals(-017L, ((IntConstant) bundle.getGlobalValueNs()
+                    .getByName("@oct")).getValue());
+            assertEquals(0xfedcba9876543210L, ((IntConstant) bundle
+                    .getGlobalValueNs().getByName("@hex")).getValue());
+            assertEquals(-0x10L, ((IntConstant) bundle.getGlobalValueNs()
+                    .getByName("@neghex")).getValue());
+            assertEquals(-2.5e-3f, ((FloatConstant) bundle.getGlobalValueNs()
+                    .getByName("@f1")).getValue(), 0.0f);
+            assertEquals(1.0f, ((FloatConstant) bundle.getGlobalValueNs()
+                    .getByName("@f2")).getValue(), 0.0f);
+            assertEquals(Float.NEGATIVE_INFINITY, ((FloatConstant) bundle
+                    .getGlobalValueNs().getByName("@f3")).getValue(), 0.0f);
+            assertEquals(0.1, ((DoubleConstant) bundle.getGlobalValueNs()
+                    .getByName("@d1")).getValue(), 0.0);
+            assertEquals(Double.MAX_VALUE, ((DoubleConstant) bundle
+                    .getGlobalValueNs().getByName("@d2")).getValue(), 0.0);
+            assertEquals(2.0, ((DoubleConstant) bundle.getGlobalValueNs()
+                    .getByName("@d3")).getValue(), 0.0);
+        }
+    }
+
+    @Test
+    public void testErrors() {
+        String[] bad = {
+                ".typedef @i32 = int<32>\n.typedef @x = int<32 32>\n",
+                ".typedef @i32 = int<32>\n.funcdef @f <void ()> () {\n"
+                        + "  BRANCH %nowhere\n}\n",
+                ".typedef @i32 = int<32>\n.funcdef @f <void ()> () {\n"
+                        + "  %a = ADD <@i32> %b 1\n  RETVOID\n}\n",
+                ".typedef @i32 = int<32>\n.const @c <@i32> = 1.0d\n",
+                ".typedef @i32 = int<32>\n.const @c <@i32> = 1\n$\n", };
+        for (String text : bad) {
+            try {
+                buildFast(text, null);
+                fail("Expected an error: " + text);
+            } catch (ASTParsingException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("line "));
+            }
+        }
+    }
+
+    @Test
+    public void testLocalDefinedTwice() {
+        // As with the ANTLR builder, every use of the name refers to the last
+        // definition, even one between the two.
+        String text = ".typedef @i32 = int<32>\n"
+                + ".funcdef @f <void ()> () {\n"
+                + "  %a = ADD <@i32> 1 2\n  %b = ADD <@i32> %a 5\n"
+                + "  %a = ADD <@i32> 3 4\n  %c = ADD <@i32> %a %d\n"
+                + "  %d = ADD <@i32> %a 6\n  RETVOID\n}\n";
+        Bundle expected = buildWithANTLR(text, null);
+        IRTextReader reader = new IRTextReader();
+        Bundle actual = reader.read(text, null);
+        assertEquals(1, reader.getFastParses());
+        assertSameBundle(expected, actual);
+
+        for (Bundle bundle : new Bundle[] { expected, actual }) {
+            CFG cfg = bundle.getFuncNs().getByName("@f").getCFG();
+            Instruction last = cfg.getEntry().getInsts().get(2);
+            assertSame(last, cfg.getInstNs().getByName("%a"));
+            for (String user : new String[] { "%b", "%c", "%d" }) {
+                assertSame(last, cfg.getInstNs().getByName(user).getUses()
+                        .get(0).getDst());
+            }
+            assertEquals(0, cfg.getEntry().getInsts().get(0).getUsedBy()
+                    .size());
+        }
+    }
+
+    @Test
+    public void testFallback() {
+        // The fast parser rejects the input, and ANTLR reports the error.
+        String text = ".typedef @i32 = int<32>\n"
+                + ".funcdef @f <void ()> () {\n"
+                + "  %a = ADD <@i32> 1 2\n  $\n  RETVOID\n}\n";
+        IRTextReader reader = new IRTextReader();
+        try {
+            reader.read(text, null);
+            fail("Expected an error");
+        } catch (ASTParsingException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("line 4 "));
+        }
+        assertEquals(0, reader.getFastParses());
+    }
+}
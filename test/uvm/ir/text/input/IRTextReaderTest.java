@@ -0,0 +1,167 @@
+package uvm.ir.text.input;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import org.junit.Test;
+
+import parser.uIRLexer;
+import parser.uIRParser;
+import parser.uIRParser.FuncDefContext;
+import parser.uIRParser.IrContext;
+import parser.uIRParser.MetaDataContext;
+import uvm.Bundle;
+
+public class IRTextReaderTest {
+    private static final String[] FILES = {
+            "tests/uvm-parsing-test/types.uir",
+            "tests/uvm-parsing-test/constants.uir",
+            "tests/uvm-parsing-test/functions.uir",
+            "tests/uvm-parsing-test/instructions.uir",
+            "tests/micro-bm/int-prime-number/prime-number.uir", };
+
+    @Test
+    public void testReuse() throws IOException {
+        IRTextReader reader = new IRTextReader();
+        for (int round = 0; round < 2; round++) {
+            for (String file : FILES) {
+                Bundle bundle = reader.read(new FileInputStream(file), null);
+                assertNotNull(bundle);
+            }
+        }
+        assertEquals(FILES.length * 2, reader.getFastParses());
+        assertEquals(0, reader.getSLLParses() + reader.getLLParses());
+
+        reader.setFastPath(false);
+        for (String file : FILES) {
+            assertNotNull(reader.read(new FileInputStream(file), null));
+        }
+        assertEquals(FILES.length,
+                reader.getSLLParses() + reader.getLLParses());
+    }
+
+    /**
+     * @return The first syntax error of a plain ANTLR parse, in the form the
+     *         reader reports it.
+     */
+    private static String firstErrorOfANTLR(String text) {
+        final String[] first = new String[1];
+        BaseErrorListener listener = new BaseErrorListener() {
+            @Override
+            public void syntaxError(Recognizer<?, ?> recognizer,
+                    Object offendingSymbol, int line, int charPositionInLine,
+                    String msg, RecognitionException e) {
+                if (first[0] == null) {
+                    first[0] = String.format("line %d col %d: %s", line,
+                            charPositionInLine, msg);
+                }
+            }
+        };
+        uIRLexer lexer = new uIRLexer(new ANTLRInputStream(text));
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(listener);
+        uIRParser parser = new uIRParser(new CommonTokenStream(lexer));
+        parser.removeErrorListeners();
+        parser.addErrorListener(listener);
+        parser.ir();
+        return first[0];
+    }
+
+    @Test
+    public void testSyntaxError() throws IOException {
+        IRTextReader reader = new IRTextReader();
+        String text = ".typedef @i32 = int<32>\n.typedef @x = int<64 64>\n";
+        String expected = firstErrorOfANTLR(text);
+        assertTrue(expected, expected.endsWith(
+                "extraneous input '64' expecting '>'"));
+        try {
+            reader.read(text, null);
+            fail("Expected a syntax error.");
+        } catch (ASTParsingException e) {
+            assertEquals(expected, e.getMessage());
+        }
+        assertEquals(1, reader.getLLParses());
+
+        // The reader is still usable.
+        Bundle bundle = reader.read(".typedef @i32 = int<32>", null);
+        assertNotNull(bundle.getTypeNs().getByName("@i32"));
+        assertEquals(1, reader.getFastParses());
+    }
+
+    static String manyFunctions(int funcs) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(".typedef @i64 = int<64>\n.typedef @i1 = int<1>\n");
+        sb.append(".funcsig @sig = @i64 (@i64)\n");
+        for (int i = 0; i < funcs; i++) {
+            sb.append(".funcdef @f").append(i).append(" <@sig> (%x) {\n");
+            sb.append("  %entry: %y = ADD <@i64> %x ").append(i).append("\n");
+            sb.append("    %c = SLT <@i64> %y 100\n");
+            sb.append("    BRANCH2 %c %a %b\n");
+            sb.append("  %a: %z = CALL <@sig> @f").append((i + 1) % funcs)
+                    .append(" (%y)\n");
+            sb.append("    RET <@i64> %z\n");
+            sb.append("  %b: RET <@i64> %y\n}\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return The function definitions of a parse tree.
+     */
+    private static List<FuncDefContext> funcDefs(IrContext ir) {
+        List<FuncDefContext> result = new ArrayList<FuncDefContext>();
+        for (MetaDataContext md : ir.metaData()) {
+            if (md.funcDef() != null) {
+                result.add(md.funcDef());
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void testReleaseParseTree() {
+        int funcs = 20;
+        String text = manyFunctions(funcs);
+
+        // Without releasing, the subtrees are kept.
+        IrContext ir = new IRTextReader().parse(text);
+        RecursiveBundleBuilder rbb = new RecursiveBundleBuilder();
+        rbb.build(ir);
+        for (FuncDefContext ctx : funcDefs(ir)) {
+            assertNotNull(ctx.children);
+        }
+
+        ir = new IRTextReader().parse(text);
+        rbb = new RecursiveBundleBuilder();
+        rbb.setReleaseParseTree(true);
+        rbb.build(ir);
+        assertEquals(funcs, rbb.getBundle().getFuncNs().getObjects().size());
+        List<FuncDefContext> defs = funcDefs(ir);
+        assertEquals(funcs, defs.size());
+        for (FuncDefContext ctx : defs) {
+            assertNull(ctx.children);
+        }
+
+        // Each body builder lets go of its instruction map after the second
+        // pass.
+        FuncDefContext ctx = funcDefs(new IRTextReader().parse(text)).get(0);
+        FuncBuilder fb = new FuncBuilder(rbb, rbb.getBundle().getFuncNs()
+                .getByName("@f0"));
+        fb.handleFuncDef(ctx);
+        assertNull(fb.ctxToInst);
+        assertEquals(3, fb.cfg.getBBs().size());
+    }
+}
@@ -0,0 +1,162 @@
+package uvm.ir.text.input;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import uvm.Bundle;
+import uvm.CFG;
+import uvm.Function;
+import uvm.ssavalue.InstCall;
+import uvm.ssavalue.InstRet;
+import uvm.ssavalue.IntConstant;
+
+public class IncrementalBundleLoaderTest {
+    private static long returnValue(Function func) {
+        InstRet ret = (InstRet) func.getCFG().getEntry().getInsts().get(0);
+        return ((IntConstant) ret.getRetVal()).getValue();
+    }
+
+    @Test
+    public void testFuncDefChanged() throws IOException {
+        Bundle primitives = new IRTextReader().read(
+                TestingHelper.read("tests/uvm-refimpl-test/primitives.uir"),
+                null);
+        String text = TestingHelper
+                .read("tests/uvm-refimpl-test/redef-file1.uir");
+
+        IncrementalBundleLoader loader = new IncrementalBundleLoader(primitives);
+        Bundle bundle = loader.load(text);
+        Function meaning = bundle.getFuncNs().getByName("@meaning_of_life");
+        CFG oldCFG = meaning.getCFG();
+        CFG mainCFG = bundle.getFuncNs().getByName("@main").getCFG();
+        int valuesBefore = bundle.getGlobalValueNs().getObjects().size();
+        int constsBefore = bundle.getDeclaredConstNs().getObjects().size();
+
+        // Comments and white space do not count.
+        loader.reload("// edited\n" + text.replace("RET <@i64> 42",
+                "RET  <@i64>   42 // still"));
+        assertTrue(loader.wasIncremental());
+        assertEquals(0, loader.getRebuiltDefinitions());
+
+        Bundle redef = loader.reload(text.replace("RET <@i64> 42",
+                "RET <@i64> 43"));
+        assertTrue(loader.wasIncremental());
+        assertEquals(1, loader.getRebuiltDefinitions());
+        assertSame(bundle, loader.getBundle());
+        assertEquals(1, redef.getFuncNs().getObjects().size());
+        assertSame(meaning, bundle.getFuncNs().getByName("@meaning_of_life"));
+        assertNotSame(oldCFG, meaning.getCFG());
+        assertSame(meaning, meaning.getCFG().getFunc());
+        assertEquals(43L, returnValue(meaning));
+        assertSame(mainCFG, bundle.getFuncNs().getByName("@main").getCFG());
+        assertTrue(oldCFG.getEntry().getInsts().get(0).getUses().isEmpty());
+
+        // @main still calls the same function.
+        InstCall call = (InstCall) mainCFG.getInstNs().getByName(
+                "%cur_meaning");
+        assertSame(bundle.getGlobalValueNs().getByName("@meaning_of_life"),
+                call.getFunc());
+
+        // The constant 42 was used by the old body alone and is replaced by
+        // 43, so reloading again and again does not grow the namespaces.
+        assertEquals(valuesBefore, bundle.getGlobalValueNs().getObjects()
+                .size());
+        for (int i = 0; i < 10; i++) {
+            loader.reload(text.replace("RET <@i64> 42", "RET <@i64> " + i));
+            assertEquals((long) i, returnValue(meaning));
+        }
+        assertEquals(valuesBefore, bundle.getGlobalValueNs().getObjects()
+                .size());
+        assertEquals(constsBefore, bundle.getDeclaredConstNs().getObjects()
+                .size());
+    }
+
+    @Test
+    public void testAddedAndRemoved() throws IOException {
+        Bundle primitives = new IRTextReader().read(
+                TestingHelper.read("tests/uvm-refimpl-test/primitives.uir"),
+                null);
+        String text = TestingHelper
+                .read("tests/uvm-refimpl-test/redef-file1.uir");
+        IncrementalBundleLoader loader = new IncrementalBundleLoader(primitives);
+        Bundle bundle = loader.load(text);
+
+        // Defining a declared function and adding a new one.
+        String text2 = text
+                + TestingHelper.read("tests/uvm-refimpl-test/redef-file2.uir")
+                + ".funcdef @seven <@IntReturner> () {\n"
+                + "    RET <@i64> 7\n}\n";
+        loader.reload(text2);
+        assertTrue(loader.wasIncremental());
+        assertEquals(2, loader.getRebuiltDefinitions());
+        assertEquals(99L, returnValue(bundle.getFuncNs().getByName("@foxsay")));
+        assertEquals(7L, returnValue(bundle.getFuncNs().getByName("@seven")));
+
+        // Changing a signature rebuilds everything.
+        loader.reload(text2.replace(".funcsig @IntReturner = @i64 ()",
+                ".funcsig @IntReturner = @i32 ()").replace("RET <@i64> 7",
+                "RET <@i32> 7"));
+        assertFalse(loader.wasIncremental());
+        assertNotSame(bundle, loader.getBundle());
+
+        // So does removing a definition.
+        bundle = loader.getBundle();
+        loader.reload(text);
+        assertFalse(loader.wasIncremental());
+        assertNotSame(bundle, loader.getBundle());
+    }
+
+    @Test
+    public void testErrorKeepsBundle() throws IOException {
+        Bundle primitives = new IRTextReader().read(
+                TestingHelper.read("tests/uvm-refimpl-test/primitives.uir"),
+                null);
+        String text = TestingHelper
+                .read("tests/uvm-refimpl-test/redef-file1.uir");
+        IncrementalBundleLoader loader = new IncrementalBundleLoader(primitives);
+        Bundle bundle = loader.load(text);
+        CFG cfg = bundle.getFuncNs().getByName("@meaning_of_life").getCFG();
+
+        try {
+            loader.reload(text.replace("RET <@i64> 42", "RET <@i64> %nothing"));
+            fail("Expected an error");
+        } catch (ASTParsingException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("line 6 "));
+        }
+        assertSame(bundle, loader.getBundle());
+        assertSame(cfg, bundle.getFuncNs().getByName("@meaning_of_life")
+                .getCFG());
+    }
+
+    private static boolean sameText(String a, String b) {
+        boolean same = IncrementalBundleLoader.sameText(a.toCharArray(), 0,
+                a.length(), b.toCharArray(), 0, b.length());
+        if (same) {
+            assertEquals(IncrementalBundleLoader.fingerprint(a.toCharArray(),
+                    0, a.length()), IncrementalBundleLoader.fingerprint(
+                    b.toCharArray(), 0, b.length()));
+        }
+        return same;
+    }
+
+    @Test
+    public void testSameText() {
+        String def = ".funcdef @f <@sig> () {\n  RET <@i64> 1\n}\n";
+        assertTrue(sameText(def, def));
+        assertTrue(sameText(def, ".funcdef @f <@sig> () { // body\n"
+                + "\tRET  <@i64>  1 }"));
+        assertTrue(sameText(def, def + "// trailing\n\n"));
+        assertFalse(sameText(def, def.replace("1", "12")));
+        assertFalse(sameText(def, def.replace("<@i64>", "<@i32>")));
+        assertFalse(sameText(def, def.replace("RET ", "RET")));
+        assertFalse(sameText(def, def.substring(0, def.length() - 2)));
+    }
+}
@@ -0,0 +1,136 @@
+package uvm.ir.text.input;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import uvm.Bundle;
+import uvm.CFG;
+import uvm.Function;
+import uvm.ir.binary.output.IRBinaryWriter;
+import uvm.ssavalue.InstCall;
+import uvm.ssavalue.InstRet;
+import uvm.ssavalue.IntConstant;
+import uvm.util.TemporaryDirectory;
+
+public class MultiBundleLoaderTest {
+    private static File writeBinary(File dir, String name, String text)
+            throws IOException {
+        Bundle bundle = new IRTextReader().read(text, null);
+        File file = new File(dir, name);
+        try (IRBinaryWriter bw = new IRBinaryWriter(new FileOutputStream(
+                file))) {
+            bw.writeBundle(bundle);
+        }
+        return file;
+    }
+
+    /**
+     * Given in an order where files come before what they use.
+     */
+    private static List<File> makeFiles(TemporaryDirectory tmp)
+            throws IOException {
+        List<File> files = new ArrayList<File>();
+        // calls.uir and callee.uir call each other.
+        files.add(tmp.write("calls.uir", ".funcdef @f <@sig> (%x) {\n"
+                + "  %r = CALL <@sig> @g (%x)\n  RET <@i64> %r\n}\n"));
+        files.add(tmp.write("callee.uir", ".funcdef @g <@sig> (%x) {\n"
+                + "  %r = CALL <@sig> @f (%x)\n  RET <@i64> %r\n}\n"));
+        // Redefines @f after calls.uir.
+        files.add(tmp.write("redef.uir", ".funcdef @f <@sig> (%x) {\n"
+                + "  RET <@i64> 42\n}\n"));
+        files.add(tmp.write("sig.uir", ".funcsig @sig = @i64 (@i64)\n"));
+        files.add(tmp.write("const.uir", ".const @c <@i64> = 7\n"));
+        files.add(writeBinary(tmp.getDir(), "types.uvmb",
+                ".typedef @i64 = int<64>\n"));
+        return files;
+    }
+
+    @Test
+    public void testDependencyOrder() throws IOException {
+        try (TemporaryDirectory tmp = new TemporaryDirectory("multi")) {
+            List<File> files = makeFiles(tmp);
+
+            ForkJoinPool pool = new ForkJoinPool(4);
+            try {
+                for (ForkJoinPool p : Arrays.asList(null, pool)) {
+                    MultiBundleLoader loader = new MultiBundleLoader();
+                    loader.setPool(p);
+                    Bundle bundle = loader.load(files);
+
+                    List<File> order = loader.getMergeOrder();
+                    assertEquals(files.size(), order.size());
+                    assertEquals("types.uvmb", order.get(0).getName());
+                    assertTrue(order.indexOf(files.get(3)) < order
+                            .indexOf(files.get(0)));
+                    assertEquals(order.indexOf(files.get(0)) + 1,
+                            order.indexOf(files.get(1)));
+                    assertEquals("redef.uir", order.get(order.size() - 1)
+                            .getName());
+                    // types; sig and const; calls and callee; redef.
+                    assertEquals(4, loader.getRounds());
+
+                    Function f = bundle.getFuncNs().getByName("@f");
+                    Function g = bundle.getFuncNs().getByName("@g");
+                    assertNotNull(bundle.getGlobalValueNs().getByName("@c"));
+                    InstRet ret = (InstRet) f.getCFG().getBBs().get(0)
+                            .getInsts().get(0);
+                    assertEquals(42L,
+                            ((IntConstant) ret.getRetVal()).getValue());
+                    assertSame(f, f.getCFG().getFunc());
+
+                    CFG gCFG = g.getCFG();
+                    InstCall call = (InstCall) gCFG.getInstNs().getByName("%r");
+                    assertSame(bundle.getGlobalValueNs().getByName("@f"),
+                            call.getFunc());
+                }
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testErrors() throws IOException {
+        try (TemporaryDirectory tmp = new TemporaryDirectory("multi")) {
+            List<File> files = new ArrayList<File>();
+            files.add(tmp.write("types.uir", ".typedef @i64 = int<64>\n"));
+            files.add(tmp.write("a.uir", ".funcdef @a <@i64 ()> () {\n"
+                    + "  %r = CALL <@i64 ()> @b ()\n  RET <@i64> %r\n}\n"));
+            files.add(tmp.write("b.uir", ".funcdef @b <@i64 ()> () {\n"
+                    + "  %r = CALL <@i64 ()> @a ()\n"
+                    + "  RET <@i64> @nothing\n}\n"));
+            try {
+                new MultiBundleLoader().load(files);
+                fail("Expected an error");
+            } catch (ASTParsingException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith(
+                        files.get(2).getPath() + ": line 3 "));
+            }
+
+            files.remove(2);
+            files.add(tmp.write("b.uir", ".funcdef @b <@i64 ()> () {\n"
+                    + "  RET <@i64> @nothing\n}\n"));
+            try {
+                new MultiBundleLoader().load(files);
+                fail("Expected an error");
+            } catch (ASTParsingException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith(
+                        files.get(2).getPath() + ": "));
+                assertTrue(e.getMessage(), e.getMessage().contains("@nothing"));
+            }
+        }
+    }
+}
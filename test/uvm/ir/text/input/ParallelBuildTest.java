@@ -0,0 +1,162 @@
+package uvm.ir.text.input;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.junit.Test;
+
+import parser.uIRLexer;
+import parser.uIRParser;
+import parser.uIRParser.IrContext;
+import uvm.BasicBlock;
+import uvm.Bundle;
+import uvm.Function;
+import uvm.ssavalue.Constant;
+import uvm.ssavalue.Instruction;
+import uvm.ssavalue.StructConstant;
+import uvm.ssavalue.UseBox;
+import uvm.ssavalue.Value;
+
+public class ParallelBuildTest {
+
+    private static Bundle build(String file, boolean parallel)
+            throws IOException {
+        return build(new ANTLRInputStream(new FileInputStream(file)),
+                parallel);
+    }
+
+    private static Bundle build(ANTLRInputStream input, boolean parallel) {
+        uIRParser parser = new uIRParser(new CommonTokenStream(new uIRLexer(
+                input)));
+        IrContext ir = parser.ir();
+        RecursiveBundleBuilder rbb = new RecursiveBundleBuilder();
+        rbb.setParallel(parallel);
+        rbb.build(ir);
+        return rbb.getBundle();
+    }
+
+    /**
+     * Describe a function body by names and opcodes only, since IDs differ.
+     */
+    private static List<String> describe(Function func) {
+        List<String> result = new ArrayList<String>();
+        if (!func.isDefined()) {
+            return result;
+        }
+        for (BasicBlock bb : func.getCFG().getBBs()) {
+            result.add(bb.getName() + ":");
+            for (Instruction inst : bb.getInsts()) {
+                StringBuilder sb = new StringBuilder();
+                sb.append(inst.getName()).append(" = ").append(inst.opcode());
+                for (UseBox ub : inst.getUses()) {
+                    Value v = ub.getDst();
+                    sb.append(' ').append(
+                            v.getName() != null ? v.getName() : v.opcode());
+                }
+                result.add(sb.toString());
+            }
+        }
+        return result;
+    }
+
+    private static void assertSameStructure(String file) throws IOException {
+        Bundle seq = build(file, false);
+        Bundle par = build(file, true);
+
+        assertEquals(seq.getTypeNs().getObjects().size(), par.getTypeNs()
+                .getObjects().size());
+        assertEquals(seq.getFuncSigNs().getObjects().size(), par
+                .getFuncSigNs().getObjects().size());
+        assertEquals(seq.getGlobalValueNs().getObjects().size(), par
+                .getGlobalValueNs().getObjects().size());
+        assertEquals(seq.getConstantPool().size(), par.getConstantPool()
+                .size());
+
+        Iterator<Function> it = par.getFuncNs().getObjects().iterator();
+        for (Function f1 : seq.getFuncNs().getObjects()) {
+            Function f2 = it.next();
+            assertEquals(f1.getName(), f2.getName());
+            assertEquals(describe(f1), describe(f2));
+            if (f2.isDefined()) {
+                assertSame(f2, f2.getCFG().getFunc());
+            }
+        }
+    }
+
+    @Test
+    public void testInstructions() throws IOException {
+        assertSameStructure("tests/uvm-parsing-test/instructions.uir");
+    }
+
+    @Test
+    public void testRefImpl() throws IOException {
+        assertSameStructure("tests/uvm-refimpl-test/basic-tests.uir");
+        assertSameStructure("tests/uvm-refimpl-test/gc-tests.uir");
+    }
+
+    @Test
+    public void testLookup() throws IOException {
+        Bundle par = build("tests/uvm-parsing-test/instructions.uir", true);
+        for (Function func : par.getFuncNs().getObjects()) {
+            if (!func.isDefined()) {
+                continue;
+            }
+            for (BasicBlock bb : func.getCFG().getBBs()) {
+                for (Instruction inst : bb.getInsts()) {
+                    for (UseBox ub : inst.getUses()) {
+                        Value v = ub.getDst();
+                        if (v.getName() == null) {
+                            // Anonymous constants made in bodies are merged.
+                            assertNotNull(par.getGlobalValueNs().getByID(
+                                    v.getID()));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static void assertRegistered(Bundle bundle, Constant constant) {
+        assertSame(constant, bundle.getGlobalValueNs().getByID(
+                constant.getID()));
+        if (constant instanceof StructConstant) {
+            for (Constant field : ((StructConstant) constant).getValues()) {
+                assertRegistered(bundle, field);
+            }
+        }
+    }
+
+    @Test
+    public void testStructFieldsMerged() {
+        // Both bodies make the anonymous constants 1 and 2.0d, so the
+        // second body's ones are replaced by the first's when merged.
+        StringBuilder sb = new StringBuilder();
+        sb.append(".typedef @s = struct <int<64> double>\n");
+        for (int f = 0; f < 2; f++) {
+            sb.append(".funcdef @f").append(f)
+                    .append(" <void ()> () {\n")
+                    .append("    %a = ADD <int<64>> 1 1\n")
+                    .append("    %b = EXTRACTVALUE <@s 0> {1 2.0d}\n")
+                    .append("    %c = INSERTVALUE <@s 1> {1 2.0d} 2.0d\n")
+                    .append("    RETVOID\n}\n");
+        }
+        Bundle par = build(new ANTLRInputStream(sb.toString()), true);
+        int structs = 0;
+        for (Constant constant : par.getDeclaredConstNs().getObjects()) {
+            assertRegistered(par, constant);
+            if (constant instanceof StructConstant) {
+                structs++;
+            }
+        }
+        assertEquals(4, structs);
+    }
+}
@@ -0,0 +1,57 @@
+package uvm.ir.text.input;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+
+import parser.uIRParser.IrContext;
+import uvm.Bundle;
+import uvm.util.HeapWatermark;
+
+/**
+ * Compares the peak retained heap of building a bundle while keeping the whole
+ * parse tree with that of {@link IRTextReader}, which releases the subtree of
+ * each function once its body is built. The peak of the latter should be the
+ * parse tree right after parsing, instead of the parse tree plus the built
+ * bundle. The numbers depend on the collector, since each sample asks for a
+ * garbage collection. Run with:
+ * <p>
+ * java -cp ... uvm.ir.text.input.ParseTreeReleaseBenchmark [functions]
+ */
+public class ParseTreeReleaseBenchmark {
+    public static void main(String[] args) {
+        int funcs = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        String text = IRTextReaderTest.manyFunctions(funcs);
+
+        HeapWatermark keeping = new HeapWatermark();
+        IRTextReader reader = new IRTextReader();
+        keeping.start();
+        IrContext ir = reader.parse(text);
+        RecursiveBundleBuilder rbb = new RecursiveBundleBuilder();
+        rbb.setHeapWatermark(keeping);
+        rbb.build(ir);
+        check(rbb.getBundle(), funcs);
+        ir = null;
+        rbb = null;
+
+        HeapWatermark releasing = new HeapWatermark();
+        reader = new IRTextReader();
+        reader.setFastPath(false);
+        reader.setHeapWatermark(releasing);
+        releasing.start();
+        check(reader.read(new ANTLRInputStream(text), null), funcs);
+
+        System.out.printf("%10s %16s %10s%n", "", "peak bytes", "samples");
+        System.out.printf("%10s %16d %10d%n", "keeping",
+                keeping.getPeakRetainedBytes(), keeping.getSamples());
+        System.out.printf("%10s %16d %10d%n", "releasing",
+                releasing.getPeakRetainedBytes(), releasing.getSamples());
+        System.out.printf("ratio %.2f%n",
+                (double) releasing.getPeakRetainedBytes()
+                        / keeping.getPeakRetainedBytes());
+    }
+
+    private static void check(Bundle bundle, int funcs) {
+        if (bundle.getFuncNs().getObjects().size() != funcs) {
+            throw new AssertionError();
+        }
+    }
+}
@@ -1,7 +1,19 @@
 package uvm.ir.text.input;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
 import org.junit.Test;
 
+import uvm.BasicBlock;
+import uvm.CFG;
+import uvm.ssavalue.InstCmp;
+import uvm.ssavalue.InstPhi;
+import uvm.ssavalue.InstRet;
+import uvm.ssavalue.IntConstant;
+import uvm.ssavalue.Value;
+
 public class RealWorldParsingTest extends BundleTester {
 
     @Override
@@ -13,4 +25,33 @@ public class RealWorldParsingTest extends BundleTester {
     public void testParsing() {
         // It is okay as long as it runs.
     }
+
+    private Value retVal(CFG cfg, String bbName) {
+        BasicBlock bb = cfg.getBBNs().getByName(bbName);
+        InstRet ret = assertType(InstRet.class,
+                bb.getInsts().get(bb.getInsts().size() - 1));
+        return ret.getRetVal();
+    }
+
+    @Test
+    public void testInlineConstantPooling() {
+        CFG isPrime = func("@isPrime").getCFG();
+        CFG main = func("@main").getCFG();
+
+        InstCmp cmp5 = assertType(InstCmp.class,
+                isPrime.getInstNs().getByName("%cmp5"));
+        InstPhi phi = assertType(InstPhi.class,
+                isPrime.getInstNs().getByName("%i.06"));
+        BasicBlock entry = isPrime.getBBNs().getByName("%entry");
+        assertSame(cmp5.getOp2(), phi.getValueFrom(entry));
+
+        IntConstant zero = assertType(IntConstant.class,
+                retVal(isPrime, "%return0"));
+        IntConstant one = assertType(IntConstant.class,
+                retVal(isPrime, "%return1"));
+        assertEquals(0L, zero.getValue());
+        assertEquals(1L, one.getValue());
+        assertNotSame(zero, one);
+        assertSame(zero, retVal(main, "%entry"));
+    }
 }
@@ -0,0 +1,176 @@
+package uvm.ir.text.input;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+import uvm.Bundle;
+import uvm.CFG;
+import uvm.Function;
+import uvm.ssavalue.InstCall;
+import uvm.ssavalue.StructConstant;
+import uvm.type.Ref;
+import uvm.type.Struct;
+
+public class StreamingBundleParserTest {
+    private static Bundle buildStreaming(Reader reader, Bundle globalBundle)
+            throws IOException {
+        StreamingBundleParser sbp = globalBundle == null
+                ? new StreamingBundleParser()
+                : new StreamingBundleParser(globalBundle);
+        sbp.build(reader);
+        return sbp.getBundle();
+    }
+
+    private static Bundle buildStreaming(Reader reader) throws IOException {
+        return buildStreaming(reader, null);
+    }
+
+    /**
+     * Entities are built in a different order, so compare the definitions
+     * regardless of order.
+     */
+    private static void assertSameAsFast(String file, Bundle globalBundle)
+            throws IOException {
+        String text = TestingHelper.read(file);
+        FastBundleParser fbp = globalBundle == null ? new FastBundleParser()
+                : new FastBundleParser(globalBundle);
+        fbp.build(text);
+        Bundle expected = fbp.getBundle();
+
+        Bundle actual = buildStreaming(new StringReader(text), globalBundle);
+        assertEquals(file, TestingHelper.canonicalDefinitions(expected),
+                TestingHelper.canonicalDefinitions(actual));
+        assertEquals(expected.getGlobalValueNs().getObjects().size(), actual
+                .getGlobalValueNs().getObjects().size());
+    }
+
+    @Test
+    public void testSameAsFast() throws IOException {
+        for (String file : TestingHelper.FILES) {
+            assertSameAsFast(file, null);
+        }
+        Bundle primitives = TestingHelper
+                .parseUir("tests/uvm-refimpl-test/primitives.uir");
+        for (String file : TestingHelper.FILES_ON_PRIMITIVES) {
+            assertSameAsFast(file, primitives);
+        }
+    }
+
+    @Test
+    public void testForwardReferences() throws IOException {
+        Bundle bundle = buildStreaming(new StringReader(
+                ".funcdef @main <@i64 ()> () {\n"
+                        + "  %r = CALL <@sig> @later (1)\n"
+                        + "  RET <@i64> %r\n" + "}\n"
+                        + ".typedef @node = struct <@i64 @noderef>\n"
+                        + ".typedef @noderef = ref<@node>\n"
+                        + ".const @pair <@pair_t> = {@g 2}\n"
+                        + ".typedef @pair_t = struct <iref<@i64> @i64>\n"
+                        + ".global @g <@i64>\n"
+                        + ".funcsig @sig = @i64 (@i64)\n"
+                        + ".typedef @i64 = int<64>\n"
+                        + ".funcdecl @later <@sig>\n"
+                        + ".funcdef @later <@sig> (%x) {\n"
+                        + "  RET <@i64> %x\n" + "}\n"));
+
+        Struct node = (Struct) bundle.getTypeNs().getByName("@node");
+        assertSame(bundle.getTypeNs().getByName("@noderef"), node
+                .getFieldTypes().get(1));
+        assertSame(node, ((Ref) bundle.getTypeNs().getByName("@noderef"))
+                .getReferenced());
+
+        StructConstant pair = (StructConstant) bundle.getGlobalValueNs()
+                .getByName("@pair");
+        assertSame(bundle.getGlobalValueNs().getByName("@g"), pair
+                .getValues().get(0));
+
+        Function later = bundle.getFuncNs().getByName("@later");
+        assertNotNull(later.getCFG());
+        assertSame(later, later.getCFG().getFunc());
+        CFG main = bundle.getFuncNs().getByName("@main").getCFG();
+        InstCall call = (InstCall) main.getInstNs().getByName("%r");
+        assertSame(bundle.getGlobalValueNs().getByName("@later"),
+                call.getFunc());
+    }
+
+    @Test
+    public void testErrors() throws IOException {
+        String[] bad = {
+                ".typedef @i64 = int<64>\n\n  .typedef @p = ref<@nothing>\n",
+                ".typedef @i64 = int<64>\n.funcdef @f <@i64 ()> () {\n"
+                        + "  RET <@i64> @nothing\n}\n",
+                ".typedef @i64 = int<64>\n// .typedef @x\n.const @c <@i64> = 1 1\n", };
+        int[] lines = { 3, 3, 3 };
+        for (int i = 0; i < bad.length; i++) {
+            try {
+                buildStreaming(new StringReader(bad[i]));
+                fail("Expected an error: " + bad[i]);
+            } catch (ASTParsingException e) {
+                assertTrue(e.getMessage(),
+                        e.getMessage().startsWith("line " + lines[i] + " "));
+            }
+        }
+    }
+
+    /**
+     * Generates many functions without holding them in memory.
+     */
+    private static class GeneratingReader extends Reader {
+        private final int funcs;
+        private int next = 0;
+        private String pending = ".typedef @i64 = int<64>\n"
+                + ".funcsig @sig = @i64 (@i64)\n";
+        private int pos = 0;
+
+        GeneratingReader(int funcs) {
+            this.funcs = funcs;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) {
+            if (pos == pending.length()) {
+                if (next == funcs) {
+                    return -1;
+                }
+                // Each function calls the next one, defined later.
+                pending = ".funcdef @f" + next + " <@sig> (%x) {\n"
+                        + "  %entry: %y = ADD <@i64> %x 1\n"
+                        + "    %z = CALL <@sig> @f" + (next + 1) % funcs
+                        + " (%y)\n" + "    RET <@i64> %z\n" + "}\n";
+                pos = 0;
+                next++;
+            }
+            int n = Math.min(len, pending.length() - pos);
+            pending.getChars(pos, pos + n, cbuf, off);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void testBoundedMemory() throws IOException {
+        int funcs = 20000;
+        StreamingBundleParser sbp = new StreamingBundleParser();
+        sbp.build(new GeneratingReader(funcs));
+
+        Bundle bundle = sbp.getBundle();
+        assertEquals(funcs, bundle.getFuncNs().getObjects().size());
+        assertTrue(sbp.getPeakRetainedChars() < 64 * 1024);
+        InstCall call = (InstCall) bundle.getFuncNs().getByName("@f0")
+                .getCFG().getInstNs().getByName("%z");
+        assertSame(bundle.getGlobalValueNs().getByName("@f1"), call.getFunc());
+    }
+}
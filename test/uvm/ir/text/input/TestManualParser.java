@@ -3,6 +3,8 @@ package uvm.ir.text.input;
 import static org.junit.Assert.assertEquals;
 import static uvm.ir.text.input.IntParsingUtils.manualParse;
 
+import java.util.Random;
+
 import org.junit.Test;
 
 public class TestManualParser {
@@ -16,4 +18,40 @@ public class TestManualParser {
         assertEquals(0x0L, manualParse("10000000000000000", 16));
         assertEquals(0x1L, manualParse("10000000000000001", 16));
     }
+
+    private static void assertSameFP(String text) {
+        char[] buf = ("  " + text + " ").toCharArray();
+        int end = buf.length - 1;
+        assertEquals(text, Double.doubleToRawLongBits(Double.parseDouble(text)),
+                Double.doubleToRawLongBits(FPParsingUtils.parseDouble(buf, 2,
+                        end)));
+        assertEquals(text, Float.floatToRawIntBits(Float.parseFloat(text)),
+                Float.floatToRawIntBits(FPParsingUtils.parseFloat(buf, 2, end)));
+    }
+
+    @Test
+    public void testFPParser() {
+        String[] texts = { "0.0", "-0.0", "+1.5", "3.14", "0.1", "0.05",
+                "100.0", "123456.789e3", "1.0e-5", "1.0e+22", "1.0e23",
+                "9007199254740993.0", "0.30000000000000004", "1.7976931348623157e308",
+                "4.9e-324", "1.0e-400", "1.0e400", "16777217.0", "3.4028235e38",
+                "0.000000000000000000000000000001", "12345678901234567890.0" };
+        for (String text : texts) {
+            assertSameFP(text);
+        }
+
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            StringBuilder sb = new StringBuilder();
+            if (random.nextBoolean()) {
+                sb.append('-');
+            }
+            sb.append(random.nextInt(1000000)).append('.');
+            sb.append(random.nextInt(100000000));
+            if (random.nextBoolean()) {
+                sb.append('e').append(random.nextInt(60) - 30);
+            }
+            assertSameFP(sb.toString());
+        }
+    }
 }
@@ -4,18 +4,104 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
-import org.antlr.v4.runtime.ANTLRInputStream;
-import org.antlr.v4.runtime.CommonTokenStream;
 import org.junit.Assert;
 
-import parser.uIRLexer;
-import parser.uIRParser;
-import parser.uIRParser.IrContext;
 import uvm.Bundle;
-import uvm.ir.text.input.RecursiveBundleBuilder;
+import uvm.ir.text.output.IRTextWriter;
 
 public class TestingHelper {
+    private static final IRTextReader READER = new IRTextReader();
+
+    /**
+     * Bundles which can be read on their own.
+     */
+    public static final String[] FILES = {
+            "tests/uvm-parsing-test/types.uir",
+            "tests/uvm-parsing-test/constants.uir",
+            "tests/uvm-parsing-test/functions.uir",
+            "tests/uvm-parsing-test/instructions.uir",
+            "tests/micro-bm/int-prime-number/prime-number.uir",
+            "tests/uvm-refimpl-test/gc-tests.uir",
+            "tests/uvm-refimpl-test/primitives.uir", };
+
+    /**
+     * Bundles which use the types and constants of primitives.uir.
+     */
+    public static final String[] FILES_ON_PRIMITIVES = {
+            "tests/uvm-refimpl-test/simple-tests.uir",
+            "tests/uvm-refimpl-test/basic-tests.uir", };
+
+    private static final Pattern ANONYMOUS = Pattern.compile("[@%][0-9]+");
+
+    public static String read(String file) throws IOException {
+        return new String(FastBundleParser.readFully(new InputStreamReader(
+                new FileInputStream(file), "UTF-8")));
+    }
+
+    /**
+     * Write a bundle in the text form, renaming anonymous entities by the
+     * order they first appear in, since the IDs of in-line constants differ
+     * between the parsers.
+     */
+    public static String canonicalText(Bundle bundle) {
+        return anonymize(write(bundle));
+    }
+
+    /**
+     * Write a bundle in the text form and cut it into top-level definitions,
+     * each renamed as by {@link #canonicalText} on its own. The result is
+     * sorted, so it does not depend on the order the entities were built in,
+     * but an instruction in the wrong function still makes a difference.
+     */
+    public static List<String> canonicalDefinitions(Bundle bundle) {
+        List<String> defs = new ArrayList<String>();
+        StringBuilder def = new StringBuilder();
+        for (String line : write(bundle).split("\n")) {
+            if (line.startsWith(".") && def.length() > 0) {
+                defs.add(anonymize(def.toString()));
+                def.setLength(0);
+            }
+            def.append(line).append('\n');
+        }
+        if (def.length() > 0) {
+            defs.add(anonymize(def.toString()));
+        }
+        Collections.sort(defs);
+        return defs;
+    }
+
+    private static String write(Bundle bundle) {
+        StringWriter sw = new StringWriter();
+        new IRTextWriter(sw).writeBundle(bundle);
+        return sw.toString();
+    }
+
+    private static String anonymize(String text) {
+        Matcher m = ANONYMOUS.matcher(text);
+        Map<String, String> names = new HashMap<String, String>();
+        StringBuffer sb = new StringBuffer();
+        while (m.find()) {
+            String name = names.get(m.group());
+            if (name == null) {
+                name = m.group().charAt(0) + "anon" + names.size();
+                names.put(m.group(), name);
+            }
+            m.appendReplacement(sb, name);
+        }
+        m.appendTail(sb);
+        return sb.toString();
+    }
+
     public static Bundle parseUir(String file, Bundle globalBundle)
             throws IOException, FileNotFoundException {
         FileInputStream is = new FileInputStream(file);
@@ -32,22 +118,23 @@ public class TestingHelper {
         return parseUir(is, null);
     }
 
+    /**
+     * Read a bundle, failing unless the fast parser read it. Any input the
+     * tests load must be read the same by FastBundleParser as by ANTLR, which
+     * FastBundleParserTest checks, so falling back is a bug.
+     */
     public static Bundle parseUir(InputStream is, Bundle globalBundle)
             throws IOException {
-        ANTLRInputStream input = new ANTLRInputStream(is);
-        uIRLexer lexer = new uIRLexer(input);
-        CommonTokenStream tokens = new CommonTokenStream(lexer);
-        uIRParser parser = new uIRParser(tokens);
-        IrContext ir = parser.ir();
-
-        if (parser.getNumberOfSyntaxErrors() > 0) {
-            System.err.println("Syntax error");
+        try {
+            int fastParses = READER.getFastParses();
+            Bundle bundle = READER.read(is, globalBundle);
+            Assert.assertEquals("Not read by the fast parser",
+                    fastParses + 1, READER.getFastParses());
+            return bundle;
+        } catch (ASTParsingException e) {
+            System.err.println("Syntax error: " + e.getMessage());
             Assert.fail("Syntax error");
+            return null;
         }
-
-        RecursiveBundleBuilder rbb = globalBundle == null ? new RecursiveBundleBuilder()
-                : new RecursiveBundleBuilder(globalBundle);
-        rbb.build(ir);
-        return rbb.getBundle();
     }
 }
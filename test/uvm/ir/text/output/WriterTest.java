@@ -1,13 +1,20 @@
 package uvm.ir.text.output;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.Ignore;
 import org.junit.Test;
 
 import uvm.Bundle;
+import uvm.ir.text.input.IRTextReader;
 import uvm.ir.text.input.TestingHelper;
 import uvm.ir.text.output.IRTextWriter;
 
@@ -36,4 +43,106 @@ public class WriterTest {
                 .writeBundle(bundle);
     }
 
+    private static String write(Bundle bundle) {
+        StringWriter sw = new StringWriter();
+        new IRTextWriter(sw).writeBundle(bundle);
+        return sw.toString();
+    }
+
+    @Test
+    public void testFPComments() {
+        Random rand = new Random(42);
+        StringBuilder sb = new StringBuilder();
+        sb.append(".typedef @float = float\n");
+        sb.append(".typedef @double = double\n");
+        long[] specials = { 0L, 0x8000000000000000L, 0x7ff0000000000000L,
+                0xfff0000000000000L, 0x7ff8000000000000L,
+                Double.doubleToRawLongBits(0.0000005),
+                Double.doubleToRawLongBits(0.0000015),
+                Double.doubleToRawLongBits(1e20) };
+        int n = 0;
+        for (long bits : specials) {
+            sb.append(".const @d").append(n++).append(" <@double> = bitsd(0x")
+                    .append(Long.toHexString(bits)).append(")\n");
+        }
+        for (int i = 0; i < 2000; i++) {
+            long dbits = i % 2 == 0 ? rand.nextLong() : Double
+                    .doubleToRawLongBits(rand.nextGaussian()
+                            * Math.pow(10, rand.nextInt(30) - 15));
+            sb.append(".const @d").append(n++).append(" <@double> = bitsd(0x")
+                    .append(Long.toHexString(dbits)).append(")\n");
+            int fbits = i % 2 == 0 ? rand.nextInt() : Float
+                    .floatToRawIntBits((float) rand.nextGaussian());
+            sb.append(".const @f").append(n++).append(" <@float> = bitsf(0x")
+                    .append(Integer.toHexString(fbits)).append(")\n");
+        }
+
+        String text = write(new IRTextReader().read(sb.toString(), null));
+        int comments = 0;
+        for (String line : text.split(System.lineSeparator())) {
+            if (!line.startsWith("// ")) {
+                continue;
+            }
+            comments++;
+            String comment = line.substring(3);
+            int eq = comment.indexOf(" = ");
+            String hex = comment.substring("bitsd(0x".length(), eq - 1);
+            String expected;
+            if (comment.startsWith("bitsd")) {
+                long bits = Long.parseUnsignedLong(hex, 16);
+                expected = String.format("bitsd(0x%x) = %f", bits,
+                        Double.longBitsToDouble(bits));
+            } else {
+                int bits = Integer.parseUnsignedInt(hex, 16);
+                expected = String.format("bitsf(0x%x) = %f", bits,
+                        Float.intBitsToFloat(bits));
+            }
+            assertEquals(expected, comment);
+        }
+        assertEquals(n, comments);
+    }
+
+    private static String largeBundle() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(".typedef @i64 = int<64>\n");
+        sb.append(".typedef @double = double\n");
+        sb.append(".funcsig @sig = @i64 (@i64)\n");
+        for (int i = 0; i < 1000; i++) {
+            if (i % 100 == 0) {
+                sb.append(".funcdecl @d").append(i).append(" <@sig>\n");
+            }
+            sb.append(".funcdef @f").append(i).append(" <@sig> (%x) {\n");
+            sb.append("  %entry:\n");
+            sb.append("    %y = ADD <@i64> %x ").append(i).append("\n");
+            sb.append("    %z = FADD <@double> 1.5d ").append(i).append(".0d\n");
+            sb.append("    RET <@i64> %y\n}\n");
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testLargeBundle() {
+        // Larger than one block, so the buffer is written out several times.
+        String text = write(new IRTextReader().read(largeBundle(), null));
+        assertTrue(text.length() > IRTextWriter.BLOCK_SIZE * 2);
+        assertTrue(text.endsWith("}" + System.lineSeparator()));
+        assertEquals(text, write(new IRTextReader().read(text, null)));
+    }
+
+    @Test
+    public void testParallel() {
+        Bundle bundle = new IRTextReader().read(largeBundle(), null);
+        String serial = write(bundle);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            StringWriter sw = new StringWriter();
+            IRTextWriter writer = new IRTextWriter(sw);
+            writer.setPool(pool);
+            writer.writeBundle(bundle);
+            assertEquals(serial, sw.toString());
+        } finally {
+            pool.shutdown();
+        }
+    }
 }
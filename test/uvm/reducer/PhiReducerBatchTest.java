@@ -0,0 +1,137 @@
+package uvm.reducer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import uvm.util.TemporaryDirectory;
+
+public class PhiReducerBatchTest {
+    private static final String LOOP = ".typedef @i64 = int<64>\n"
+            + ".typedef @i1 = int<1>\n"
+            + ".funcsig @sig = @i64 (@i64)\n"
+            + ".funcdef @count <@sig> (%n) {\n"
+            + "  %entry:\n"
+            + "    BRANCH %head\n"
+            + "  %head:\n"
+            + "    %i = PHI <@i64> { %entry: 0; %head: %i2; }\n"
+            + "    %i2 = ADD <@i64> %i 1\n"
+            + "    %cmp = SLT <@i64> %i2 %n\n"
+            + "    BRANCH2 %cmp %head %exit\n"
+            + "  %exit:\n"
+            + "    RET <@i64> %i2\n"
+            + "}\n";
+
+    /**
+     * Anonymous values are numbered by a global counter, so a second parse
+     * numbers them differently.
+     */
+    private static String readWithoutIDs(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), "UTF-8")
+                .replaceAll("([@%])[0-9]+", "$1#");
+    }
+
+    private static TemporaryDirectory makeTree() throws IOException {
+        final TemporaryDirectory tmp = new TemporaryDirectory("batch");
+        tmp.write("a.uir", LOOP);
+        tmp.write("sub/b.uir", LOOP.replace("@count", "@count2"));
+        tmp.write("sub/c.txt", LOOP);
+        // An output of an earlier run.
+        tmp.write("sub/b.reduced.uir", LOOP);
+        return tmp;
+    }
+
+    @Test
+    public void testExpand() throws IOException {
+        try (TemporaryDirectory tmp = makeTree()) {
+            final File dir = tmp.getDir();
+            File a = new File(dir, "a.uir");
+            File b = new File(dir, "sub/b.uir");
+
+            assertEquals(Arrays.asList(a, b),
+                    PhiReducerBatch.expand(Arrays.asList(dir.getPath())));
+            assertEquals(Arrays.asList(b), PhiReducerBatch.expand(Arrays
+                    .asList(dir.getPath() + "/*/*.uir")));
+            assertEquals(Arrays.asList(a, b), PhiReducerBatch.expand(Arrays
+                    .asList(dir.getPath() + "/**.uir")));
+            // Named twice.
+            assertEquals(Arrays.asList(b, a), PhiReducerBatch.expand(Arrays
+                    .asList(b.getPath(), dir.getPath())));
+            assertEquals(0, PhiReducerBatch.expand(Arrays
+                    .asList(dir.getPath() + "/none/*.uir")).size());
+        }
+    }
+
+    @Test
+    public void testMissingFile() throws IOException {
+        try {
+            PhiReducerBatch.expand(Arrays.asList("no/such/file.uir"));
+            fail("Expected an error");
+        } catch (FileNotFoundException e) {
+            assertEquals("no/such/file.uir", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testSerialAndParallel() throws IOException {
+        try (TemporaryDirectory tmp = makeTree()) {
+            tmp.write("bad.uir", ".funcdef @bad <@nothing> () {\n}\n");
+            List<File> files = PhiReducerBatch.expand(Arrays.asList(tmp
+                    .getDir().getPath()));
+            assertEquals(3, files.size());
+
+            PhiReducerBatch serial = new PhiReducerBatch();
+            List<PhiReducerBatch.Result> results = serial.run(files);
+            String[] expected = new String[files.size()];
+            for (int i = 0; i < files.size(); i++) {
+                PhiReducerBatch.Result r = results.get(i);
+                assertEquals(files.get(i), r.getFile());
+                if (r.getFile().getName().equals("bad.uir")) {
+                    assertNotNull(r.getError());
+                    continue;
+                }
+                assertNull(r.getError());
+                assertEquals(1, r.getFunctions());
+                assertEquals(3, r.getInBlocks());
+                assertEquals(4, r.getOutBlocks());
+                expected[i] = readWithoutIDs(r.getOutput());
+            }
+
+            ForkJoinPool pool = new ForkJoinPool(4);
+            try {
+                PhiReducerBatch parallel = new PhiReducerBatch();
+                parallel.setPool(pool);
+                results = parallel.run(files);
+            } finally {
+                pool.shutdown();
+            }
+            for (int i = 0; i < files.size(); i++) {
+                if (expected[i] != null) {
+                    assertEquals(expected[i], readWithoutIDs(results.get(i)
+                            .getOutput()));
+                }
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            assertEquals(1, PhiReducerBatch.printSummary(results, 0,
+                    new PrintStream(bytes, true, "UTF-8")));
+            String summary = bytes.toString("UTF-8");
+            assertTrue(summary, summary.contains("1 FAILED"));
+            assertTrue(summary, summary.contains("3 files in"));
+        }
+    }
+}
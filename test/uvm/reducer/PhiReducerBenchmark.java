@@ -0,0 +1,51 @@
+package uvm.reducer;
+
+import uvm.CFG;
+import uvm.analysis.SyntheticCFGs;
+
+/**
+ * Times PhiReducer in both modes on chains of loops of growing size, up to
+ * 10^5 blocks. Each loop is one block with a PHI node and two incoming
+ * blocks. The time per block should stay flat.
+ * <p>
+ * The copies in a reduced CFG are users of the values of the original CFG, so
+ * each run gets a fresh CFG. Run with:
+ * <p>
+ * java -cp ... uvm.reducer.PhiReducerBenchmark
+ */
+public class PhiReducerBenchmark {
+    private static final int REPEAT = 5;
+
+    public static void main(String[] args) {
+        int[] loopCounts = { 12500, 25000, 50000, 100000 };
+
+        for (int i = 0; i < 3; i++) {
+            CFG warm = SyntheticCFGs.phiLoops(10000);
+            PhiReducer.reduce(warm);
+            PhiReducer.reduce(warm, PhiReducer.Mode.EDGE_COPIES);
+        }
+
+        System.out.printf("%12s %8s %8s %12s %12s%n", "mode", "blocks",
+                "out", "best ms", "ns/block");
+        for (int loops : loopCounts) {
+            for (PhiReducer.Mode mode : PhiReducer.Mode.values()) {
+                report(mode, loops);
+            }
+        }
+    }
+
+    private static void report(PhiReducer.Mode mode, int loops) {
+        long best = Long.MAX_VALUE;
+        int blocks = 0;
+        int out = 0;
+        for (int i = 0; i < REPEAT; i++) {
+            CFG cfg = SyntheticCFGs.phiLoops(loops);
+            blocks = cfg.getBBs().size();
+            long t0 = System.nanoTime();
+            out = PhiReducer.reduce(cfg, mode).getBBs().size();
+            best = Math.min(best, System.nanoTime() - t0);
+        }
+        System.out.printf("%12s %8d %8d %12.2f %12.1f%n", mode, blocks, out,
+                best / 1e6, (double) best / blocks);
+    }
+}
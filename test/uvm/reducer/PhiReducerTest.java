@@ -0,0 +1,261 @@
+package uvm.reducer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import uvm.BasicBlock;
+import uvm.Bundle;
+import uvm.CFG;
+import uvm.OpCode;
+import uvm.analysis.Liveness;
+import uvm.analysis.SyntheticCFGs;
+import uvm.ir.text.input.IRTextReader;
+import uvm.ir.text.input.TestingHelper;
+import uvm.ssavalue.InstBinOp;
+import uvm.ssavalue.InstBranch;
+import uvm.ssavalue.InstBranch2;
+import uvm.ssavalue.InstCmp;
+import uvm.ssavalue.InstPhi;
+import uvm.ssavalue.InstRet;
+import uvm.ssavalue.Instruction;
+import uvm.ssavalue.IntConstant;
+import uvm.ssavalue.Value;
+
+public class PhiReducerTest {
+
+    /**
+     * Run a CFG using integer arithmetic, comparisons and branches only. The
+     * PHI nodes at the beginning of a block are evaluated together. Other
+     * PHI nodes (the copies in reduced CFGs) assign in order.
+     *
+     * @param parallelHeads
+     *            If false, the PHI nodes at the beginning of a block also
+     *            assign in order, as in a consumer which executes the copies
+     *            one by one.
+     */
+    static long run(CFG cfg, long arg, boolean parallelHeads) {
+        Map<Integer, Long> vars = new HashMap<Integer, Long>();
+        vars.put(cfg.getParams().get(0).getID(), arg);
+        BasicBlock prev = null;
+        BasicBlock bb = cfg.getEntry();
+        for (int steps = 0; steps < 100000; steps++) {
+            List<Instruction> insts = bb.getInsts();
+            int i = 0;
+            if (parallelHeads) {
+                List<Long> values = new ArrayList<Long>();
+                for (; i < insts.size() && insts.get(i) instanceof InstPhi; i++) {
+                    values.add(value(vars, phiValue((InstPhi) insts.get(i), prev)));
+                }
+                for (int j = 0; j < i; j++) {
+                    vars.put(insts.get(j).getID(), values.get(j));
+                }
+            }
+            BasicBlock next = null;
+            for (; i < insts.size(); i++) {
+                Instruction inst = insts.get(i);
+                switch (inst.opcode()) {
+                case OpCode.PHI:
+                    vars.put(inst.getID(),
+                            value(vars, phiValue((InstPhi) inst, prev)));
+                    break;
+                case OpCode.BRANCH:
+                    next = ((InstBranch) inst).getDest();
+                    break;
+                case OpCode.BRANCH2: {
+                    InstBranch2 br = (InstBranch2) inst;
+                    next = value(vars, br.getCond()) != 0 ? br.getIfTrue() : br
+                            .getIfFalse();
+                    break;
+                }
+                case OpCode.RET:
+                    return value(vars, ((InstRet) inst).getRetVal());
+                default:
+                    vars.put(inst.getID(), eval(vars, inst));
+                }
+            }
+            prev = bb;
+            bb = next;
+        }
+        fail("Too many steps");
+        return 0;
+    }
+
+    private static Value phiValue(InstPhi phi, BasicBlock prev) {
+        if (phi.getValueMap().size() == 1) {
+            return phi.getValueMap().values().iterator().next().getDst();
+        }
+        return phi.getValueFrom(prev);
+    }
+
+    private static long value(Map<Integer, Long> vars, Value v) {
+        if (v instanceof IntConstant) {
+            return ((IntConstant) v).getValue();
+        }
+        Long value = vars.get(v.getID());
+        assertNotNull("Undefined " + v.getName(), value);
+        return value;
+    }
+
+    private static long eval(Map<Integer, Long> vars, Instruction inst) {
+        if (inst instanceof InstBinOp) {
+            InstBinOp op = (InstBinOp) inst;
+            long a = value(vars, op.getOp1());
+            long b = value(vars, op.getOp2());
+            switch (op.getOptr()) {
+            case ADD:
+                return a + b;
+            case SUB:
+                return a - b;
+            case MUL:
+                return a * b;
+            case SREM:
+                return a % b;
+            default:
+            }
+        } else if (inst instanceof InstCmp) {
+            InstCmp cmp = (InstCmp) inst;
+            long a = value(vars, cmp.getOp1());
+            long b = value(vars, cmp.getOp2());
+            switch (cmp.getOptr()) {
+            case EQ:
+                return a == b ? 1 : 0;
+            case SLT:
+                return a < b ? 1 : 0;
+            case SGT:
+                return a > b ? 1 : 0;
+            default:
+            }
+        }
+        fail("Cannot run " + inst);
+        return 0;
+    }
+
+    static int countInsts(CFG cfg) {
+        int n = 0;
+        for (BasicBlock bb : cfg.getBBs()) {
+            n += bb.getInsts().size();
+        }
+        return n;
+    }
+
+    static CFG parseFunc(String text, String name) {
+        Bundle bundle = new IRTextReader().read(".typedef @i64 = int<64>\n"
+                + ".funcsig @sig = @i64 (@i64)\n" + text, null);
+        return bundle.getFuncNs().getByName(name).getCFG();
+    }
+
+    static void assertSameResults(CFG ssa, CFG reduced, long from,
+            long to) {
+        for (long arg = from; arg <= to; arg++) {
+            long expected = run(ssa, arg, true);
+            assertEquals(expected, run(reduced, arg, false));
+            assertEquals(expected, run(reduced, arg, true));
+        }
+    }
+
+    @Test
+    public void testSwap() {
+        CFG ssa = parseFunc(".funcdef @swap <@sig> (%n) {\n"
+                + "  %entry:\n"
+                + "    BRANCH %loop\n"
+                + "  %loop:\n"
+                + "    %a = PHI <@i64> { %entry: 1; %loop: %b; }\n"
+                + "    %b = PHI <@i64> { %entry: 2; %loop: %c; }\n"
+                + "    %c = PHI <@i64> { %entry: 3; %loop: %a; }\n"
+                + "    %d = PHI <@i64> { %entry: 0; %loop: %a; }\n"
+                + "    %i = PHI <@i64> { %entry: 0; %loop: %i2; }\n"
+                + "    %i2 = ADD <@i64> %i 1\n"
+                + "    %cmp = SLT <@i64> %i2 %n\n"
+                + "    BRANCH2 %cmp %loop %exit\n"
+                + "  %exit:\n"
+                + "    %x = MUL <@i64> %a 100\n"
+                + "    %y = MUL <@i64> %b 10\n"
+                + "    %z = ADD <@i64> %x %y\n"
+                + "    %w = ADD <@i64> %z %c\n"
+                + "    %r = SUB <@i64> %w %d\n"
+                + "    RET <@i64> %r\n"
+                + "}\n", "@swap");
+        CFG reduced = PhiReducer.reduce(ssa, PhiReducer.Mode.EDGE_COPIES);
+        assertSameResults(ssa, reduced, 0, 7);
+
+        // %entry has nothing but the BRANCH, and %loop -> %loop is critical.
+        // The rotation of %a, %b and %c needs a temporary, saved in a block of
+        // its own.
+        assertNotNull(reduced.getBBNs().getByName("%loop__copy__0"));
+        assertNotNull(reduced.getBBNs().getByName("%loop__copy__1__save"));
+        assertNotNull(reduced.getBBNs().getByName("%loop__copy__1"));
+        assertEquals(6, reduced.getBBs().size());
+
+        // The temporary lives only from its block to the next.
+        Instruction tmp = reduced.getBBNs().getByName("%loop__copy__1__save")
+                .getInsts().get(0);
+        Liveness lv = new Liveness(reduced);
+        assertTrue(lv.isLiveIn(reduced.getBBNs().getByName("%loop__copy__1"),
+                tmp));
+        assertFalse(lv.isLiveIn(reduced.getBBNs().getByName("%loop"), tmp));
+    }
+
+    @Test
+    public void testCopyPlacement() {
+        CFG ssa = parseFunc(".funcdef @sum <@sig> (%n) {\n"
+                + "  %entry:\n"
+                + "    BRANCH %head\n"
+                + "  %head:\n"
+                + "    %i = PHI <@i64> { %entry: 0; %latch: %i2; }\n"
+                + "    %s = PHI <@i64> { %entry: 0; %latch: %s2; }\n"
+                + "    %cmp = SLT <@i64> %i %n\n"
+                + "    BRANCH2 %cmp %body %exit\n"
+                + "  %body:\n"
+                + "    %x = PHI <@i64> { %head: %i; }\n"
+                + "    %s2 = ADD <@i64> %s %x\n"
+                + "    BRANCH %latch\n"
+                + "  %latch:\n"
+                + "    %i2 = ADD <@i64> %i 1\n"
+                + "    BRANCH %head\n"
+                + "  %exit:\n"
+                + "    RET <@i64> %s\n"
+                + "}\n", "@sum");
+        CFG reduced = PhiReducer.reduce(ssa, PhiReducer.Mode.EDGE_COPIES);
+        assertSameResults(ssa, reduced, 0, 10);
+
+        // Only %entry -> %head needs a block: %entry has nothing but the
+        // BRANCH. The copies from %latch go to its end, and the copy into
+        // %body to its beginning.
+        assertEquals(6, reduced.getBBs().size());
+        BasicBlock latch = reduced.getBBNs().getByName("%latch");
+        assertEquals(4, latch.getInsts().size());
+        assertEquals(OpCode.PHI, latch.getInsts().get(1).opcode());
+        BasicBlock body = reduced.getBBNs().getByName("%body");
+        assertEquals(OpCode.PHI, body.getInsts().get(0).opcode());
+    }
+
+    @Test
+    public void testPrimeNumber() throws Exception {
+        Bundle bundle = TestingHelper
+                .parseUir("tests/micro-bm/int-prime-number/prime-number.uir");
+        CFG ssa = bundle.getFuncNs().getByName("@isPrime").getCFG();
+        assertSameResults(ssa, PhiReducer.reduce(ssa), 1, 50);
+        assertSameResults(ssa,
+                PhiReducer.reduce(ssa, PhiReducer.Mode.EDGE_COPIES), 1, 50);
+    }
+
+    @Test
+    public void testSmallerThanForks() {
+        CFG ssa = SyntheticCFGs.phiLoops(100, 8);
+        CFG forks = PhiReducer.reduce(ssa);
+        CFG copies = PhiReducer.reduce(ssa, PhiReducer.Mode.EDGE_COPIES);
+        assertTrue(countInsts(copies) + " vs " + countInsts(forks),
+                countInsts(copies) * 3 < countInsts(forks) * 2);
+        assertSameResults(ssa, copies, 0, 3);
+    }
+}
@@ -0,0 +1,166 @@
+package uvm.reducer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static uvm.reducer.PhiReducerTest.assertSameResults;
+import static uvm.reducer.PhiReducerTest.parseFunc;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import uvm.BasicBlock;
+import uvm.Bundle;
+import uvm.CFG;
+import uvm.FrozenCFG;
+import uvm.OpCode;
+import uvm.analysis.Liveness;
+import uvm.analysis.SyntheticCFGs;
+import uvm.ir.text.input.TestingHelper;
+import uvm.ssavalue.Instruction;
+
+public class RegisterAssignmentTest {
+    private static final String SUM = ".funcdef @sum <@sig> (%n) {\n"
+            + "  %entry:\n"
+            + "    BRANCH %head\n"
+            + "  %head:\n"
+            + "    %i = PHI <@i64> { %entry: 0; %latch: %i2; }\n"
+            + "    %s = PHI <@i64> { %entry: 0; %latch: %s2; }\n"
+            + "    %cmp = SLT <@i64> %i %n\n"
+            + "    BRANCH2 %cmp %body %exit\n"
+            + "  %body:\n"
+            + "    %x = MUL <@i64> %i %i\n"
+            + "    %s2 = ADD <@i64> %s %x\n"
+            + "    BRANCH %latch\n"
+            + "  %latch:\n"
+            + "    %i2 = ADD <@i64> %i 1\n"
+            + "    BRANCH %head\n"
+            + "  %exit:\n"
+            + "    RET <@i64> %s\n"
+            + "}\n";
+
+    /**
+     * Check that no two interfering values share a register, and return the
+     * number of values with a type.
+     */
+    private static int checkNoConflicts(RegisterAssignment ra) {
+        Liveness lv = ra.getLiveness();
+        FrozenCFG f = lv.getFrozenCFG();
+        int[] regs = new int[f.getNumLocals()];
+        int typed = 0;
+        for (int l = 0; l < f.getNumLocals(); l++) {
+            regs[l] = ra.getRegister(l);
+            if (f.getLocalType(l) != null) {
+                typed++;
+            }
+        }
+        for (int a = 0; a < f.getNumLocals(); a++) {
+            for (int b : lv.getNeighbors(a)) {
+                if (regs[a] >= 0) {
+                    assertTrue(f.getLocalName(a) + " and " + f.getLocalName(b),
+                            regs[a] != regs[b]);
+                }
+            }
+        }
+        return typed;
+    }
+
+    private static int countCopies(CFG cfg) {
+        int n = 0;
+        for (BasicBlock bb : cfg.getBBs()) {
+            for (Instruction i : bb.getInsts()) {
+                if (i.opcode() == OpCode.PHI) {
+                    n++;
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @return The number of distinct IDs assigned by instructions with a
+     *         type, and parameters.
+     */
+    private static int countVariables(CFG cfg) {
+        Set<Integer> ids = new HashSet<Integer>();
+        for (int i = 0; i < cfg.getParams().size(); i++) {
+            ids.add(cfg.getParams().get(i).getID());
+        }
+        for (BasicBlock bb : cfg.getBBs()) {
+            for (Instruction i : bb.getInsts()) {
+                if (i.getType() != null) {
+                    ids.add(i.getID());
+                }
+            }
+        }
+        return ids.size();
+    }
+
+    @Test
+    public void testCoalescing() {
+        for (PhiReducer.Mode mode : PhiReducer.Mode.values()) {
+            CFG ssa = parseFunc(SUM, "@sum");
+            CFG expected = parseFunc(SUM.replace("@sum", "@sum2"), "@sum2");
+            CFG reduced = PhiReducer.reduce(ssa, mode);
+            RegisterAssignment ra = new RegisterAssignment(reduced);
+            int values = checkNoConflicts(ra);
+            assertTrue(mode + ": " + ra.getNumRegisters() + " of " + values,
+                    ra.getNumRegisters() < values);
+            // %i and %i2, and %s and %s2, never live at once.
+            assertEquals(mode.toString(), ra.getNumCopies(),
+                    ra.getNumCoalesced());
+
+            int copies = countCopies(reduced);
+            ra.apply();
+            assertEquals(mode.toString(), copies - ra.getNumCoalesced(),
+                    countCopies(reduced));
+            assertEquals(mode.toString(), ra.getNumRegisters(),
+                    countVariables(reduced));
+            assertSameResults(expected, reduced, 0, 10);
+        }
+    }
+
+    @Test
+    public void testParametersKeepTheirIDs() {
+        CFG ssa = parseFunc(SUM, "@sum");
+        int id = ssa.getParams().get(0).getID();
+        CFG reduced = RegisterAssignment.reduceAndAssign(ssa,
+                PhiReducer.Mode.EDGE_COPIES);
+        assertEquals(id, reduced.getParams().get(0).getID());
+        assertEquals("%n", reduced.getParams().get(0).getName());
+        new Liveness(reduced);
+    }
+
+    @Test
+    public void testPrimeNumber() throws Exception {
+        for (PhiReducer.Mode mode : PhiReducer.Mode.values()) {
+            Bundle bundle = TestingHelper
+                    .parseUir("tests/micro-bm/int-prime-number/prime-number.uir");
+            Bundle expected = TestingHelper
+                    .parseUir("tests/micro-bm/int-prime-number/prime-number.uir");
+            CFG ssa = bundle.getFuncNs().getByName("@isPrime").getCFG();
+            CFG reduced = PhiReducer.reduce(ssa, mode);
+            RegisterAssignment ra = new RegisterAssignment(reduced);
+            checkNoConflicts(ra);
+            ra.apply();
+            assertSameResults(expected.getFuncNs().getByName("@isPrime")
+                    .getCFG(), reduced, 1, 50);
+        }
+    }
+
+    @Test
+    public void testChainOfLoops() {
+        // Each loop only needs the parameter, its counter and a condition,
+        // however many loops there are.
+        for (PhiReducer.Mode mode : PhiReducer.Mode.values()) {
+            CFG reduced = PhiReducer.reduce(SyntheticCFGs.phiLoops(200), mode);
+            RegisterAssignment ra = new RegisterAssignment(reduced);
+            assertTrue(mode + ": " + ra.getNumRegisters(),
+                    ra.getNumRegisters() <= 4);
+            ra.apply();
+            assertSameResults(SyntheticCFGs.phiLoops(200), reduced, 0, 3);
+            assertEquals(ra.getNumRegisters(), countVariables(reduced));
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package uvm.ssavalue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import uvm.BasicBlock;
+import uvm.CFG;
+import uvm.ir.text.input.BundleTester;
+
+public class ReplaceUsesTest extends BundleTester {
+
+    @Override
+    protected String bundleName() {
+        return "tests/micro-bm/int-prime-number/prime-number.uir";
+    }
+
+    private static void assertConsistent(Value v) {
+        for (UseBox ub : v.getUsedBy()) {
+            assertSame(v, ub.getDst());
+            assertTrue(ub.getSrc().getUses().contains(ub));
+        }
+        for (UseBox ub : v.getUses()) {
+            assertSame(v, ub.getSrc());
+            assertTrue(ub.getDst().getUsedBy().contains(ub));
+        }
+    }
+
+    @Test
+    public void testReplaceAndErase() {
+        CFG cfg = func("@isPrime").getCFG();
+        Parameter a = cfg.getParams().get(0);
+        InstBinOp rem = (InstBinOp) cfg.getInstNs().getByName("%rem");
+        InstCmp cmp1 = (InstCmp) cfg.getInstNs().getByName("%cmp1");
+        InstPhi phi = (InstPhi) cfg.getInstNs().getByName("%i.06");
+        InstBinOp inc = (InstBinOp) cfg.getInstNs().getByName("%inc");
+        BasicBlock forBody = cfg.getBBNs().getByName("%for.body");
+        BasicBlock forCond = cfg.getBBNs().getByName("%for.cond");
+
+        int aUses = a.getUsedBy().size();
+        rem.replaceAllUsesWith(a);
+        assertSame(a, cmp1.getOp1());
+        assertTrue(rem.getUsedBy().isEmpty());
+        assertEquals(aUses + 1, a.getUsedBy().size());
+        assertConsistent(a);
+
+        // %rem uses %a too. Erasing it unlinks that use.
+        rem.eraseFromParent();
+        assertEquals(aUses, a.getUsedBy().size());
+        assertNull(rem.getParent());
+        assertEquals(4, forBody.getInsts().size());
+        assertConsistent(a);
+        assertConsistent(phi);
+
+        // PHI operands are retargeted in place.
+        inc.replaceAllUsesWith(a);
+        assertSame(a, phi.getValueFrom(forCond));
+        assertConsistent(a);
+        assertConsistent(inc);
+
+        try {
+            a.replaceAllUsesWith(null);
+            fail("Replacing with null should fail.");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test
+    public void testEraseUsed() {
+        CFG cfg = func("@isPrime").getCFG();
+        InstCmp cmp5 = (InstCmp) cfg.getInstNs().getByName("%cmp5");
+        try {
+            cmp5.eraseFromParent();
+            fail("Erasing a used instruction should fail.");
+        } catch (IllegalStateException e) {
+        }
+
+        BasicBlock entry = cfg.getEntry();
+        InstBranch2 br = (InstBranch2) entry.getInsts().get(1);
+        BasicBlock forBody = cfg.getBBNs().getByName("%for.body");
+        assertEquals(2, forBody.getPredecessors().size());
+        br.eraseFromParent();
+        assertEquals(1, forBody.getPredecessors().size());
+        assertTrue(entry.getSuccessors().isEmpty());
+        assertTrue(cmp5.getUsedBy().isEmpty());
+        cmp5.eraseFromParent();
+        assertTrue(entry.getInsts().isEmpty());
+        assertFalse(cfg.getReversePostOrder().contains(forBody));
+    }
+}
@@ -0,0 +1,56 @@
+package uvm.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+
+/**
+ * A temporary directory for a test, deleted with everything in it on close.
+ * Use it in a try-with-resources statement.
+ */
+public class TemporaryDirectory implements Closeable {
+    private final File dir;
+
+    public TemporaryDirectory(String prefix) throws IOException {
+        dir = Files.createTempDirectory(prefix).toFile();
+    }
+
+    public File getDir() {
+        return dir;
+    }
+
+    /**
+     * Write a text file in UTF-8, creating its parent directories.
+     *
+     * @param name
+     *            The path relative to the directory.
+     */
+    public File write(String name, String text) throws IOException {
+        File file = new File(dir, name);
+        file.getParentFile().mkdirs();
+        try (Writer w = new OutputStreamWriter(new FileOutputStream(file),
+                "UTF-8")) {
+            w.write(text);
+        }
+        return file;
+    }
+
+    @Override
+    public void close() {
+        deleteTree(dir);
+    }
+
+    private static void deleteTree(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteTree(child);
+            }
+        }
+        file.delete();
+    }
+}